@@ -0,0 +1,99 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BPlusTreeMapContracts} against a {@link TreeMap} holding {@code size} keys at a global
+ * {@link ContractLevel} of {@code contracts}: a range scan sums the values of a sub map of
+ * {@code span} keys starting at a random key, while the bulk inserts fill an empty map with the
+ * {@code size} keys, either by {@code putAll} of a sorted map or by puts in a random order.
+ *
+ * <p>The time of a range scan is per scan, that of a bulk insert per filled map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BPlusTreeBenchmark {
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    @Param({"1000"})
+    int span;
+
+    @Param({"OFF", "FULL"})
+    ContractLevel contracts;
+
+    @Param({"BPlusTreeMapContracts", "TreeMap"})
+    String implementation;
+
+    private NavigableMap<Integer, Integer> map;
+    private TreeMap<Integer, Integer> sorted;
+    private Integer[] shuffled;
+    private final Random random = new Random(42);
+
+    private NavigableMap<Integer, Integer> createMap() {
+        return implementation.equals("BPlusTreeMapContracts") ? new BPlusTreeMapContracts<>() : new TreeMap<>();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ContractLevels.setGlobal(contracts);
+        sorted = new TreeMap<>();
+        shuffled = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            sorted.put(i, i);
+            shuffled[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Integer swap = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = swap;
+        }
+        map = createMap();
+        for (Integer key : shuffled) {
+            map.put(key, key);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ContractLevels.reset();
+    }
+
+    @Benchmark
+    public long rangeScan() {
+        int from = random.nextInt(size - span);
+        long sum = 0;
+        for (Map.Entry<Integer, Integer> entry : map.subMap(from, true, from + span, false).entrySet()) {
+            sum += entry.getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> sortedPutAll() {
+        NavigableMap<Integer, Integer> filled = createMap();
+        filled.putAll(sorted);
+        return filled;
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> randomPuts() {
+        NavigableMap<Integer, Integer> filled = createMap();
+        for (Integer key : shuffled) {
+            filled.put(key, key);
+        }
+        return filled;
+    }
+}
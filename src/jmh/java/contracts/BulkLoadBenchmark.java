@@ -0,0 +1,67 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load {@code size} entries into an empty {@link HashMapContracts} with every contract
+ * enabled: through {@code put} in a loop, through {@code putAll}, and through a
+ * {@link WriteBatch}, which checks the contracts once for the whole load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class BulkLoadBenchmark {
+
+    @Param({"100000", "10000000"})
+    int size;
+
+    private Map<Integer, Integer> entries;
+    private WriteBatch<Integer, Integer> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ContractLevels.setGlobal(ContractLevel.FULL);
+        entries = new HashMap<>();
+        batch = new WriteBatch<>();
+        for (int i = 0; i < size; i++) {
+            Integer key = i;
+            entries.put(key, key);
+            batch.put(key, key);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ContractLevels.reset();
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> putLoop() {
+        HashMapContracts<Integer, Integer> map = new HashMapContracts<>();
+        for (Map.Entry<Integer, Integer> entry : entries.entrySet()) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> putAll() {
+        HashMapContracts<Integer, Integer> map = new HashMapContracts<>();
+        map.putAll(entries);
+        return map;
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> applyBatch() {
+        HashMapContracts<Integer, Integer> map = new HashMapContracts<>();
+        map.apply(batch);
+        return map;
+    }
+}
@@ -0,0 +1,122 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CacheMapContracts} against a synchronized LRU {@link LinkedHashMap} of the same maximum
+ * size, replaying a Zipfian trace of {@code keys} keys of skew {@code skew} at a global
+ * {@link ContractLevel} of {@code contracts}: every access reads the key and, on a miss, puts it.
+ *
+ * <p>The throughput is per access; the {@code hits} and {@code misses} counters give the hit
+ * ratio. Run with {@code -t} for the throughput of concurrent readers, each replaying the trace
+ * from its own offset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+
+    private static final int TRACE_LENGTH = 1 << 20;
+
+    @Param({"1000", "10000"})
+    int maximumSize;
+
+    @Param({"1000000"})
+    int keys;
+
+    @Param({"0.8", "1.0"})
+    double skew;
+
+    @Param({"OFF", "FULL"})
+    ContractLevel contracts;
+
+    @Param({"CacheMapContracts", "LinkedHashMapLru"})
+    String implementation;
+
+    private Map<Integer, Integer> cache;
+    private Integer[] trace;
+
+    /**
+     * The accesses of one thread, counted for the hit ratio.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Accesses {
+        private int next = new Random().nextInt(TRACE_LENGTH);
+        public long hits;
+        public long misses;
+    }
+
+    private Map<Integer, Integer> createCache() {
+        if (implementation.equals("CacheMapContracts")) {
+            return new CacheMapContracts<>(maximumSize);
+        }
+        int bound = maximumSize;
+        return Collections.synchronizedMap(new LinkedHashMap<Integer, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                return size() > bound;
+            }
+        });
+    }
+
+    /**
+     * Draws {@link #TRACE_LENGTH} keys in {@code [0, keys)}, key {@code k} with a probability
+     * proportional to {@code 1 / (k + 1)^skew}, by inverting the cumulative distribution.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        ContractLevels.setGlobal(contracts);
+        cache = createCache();
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int k = 0; k < keys; k++) {
+            sum += 1 / Math.pow(k + 1, skew);
+            cumulative[k] = sum;
+        }
+        Random random = new Random(42);
+        trace = new Integer[TRACE_LENGTH];
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            double u = random.nextDouble() * sum;
+            int low = 0;
+            int high = keys - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulative[middle] < u) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            // scattered, so that the popular keys do not share their hash bits
+            trace[i] = low * 0x9E3779B9;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ContractLevels.reset();
+    }
+
+    @Benchmark
+    public Integer access(Accesses accesses) {
+        Integer key = trace[accesses.next++ & (TRACE_LENGTH - 1)];
+        Integer value = cache.get(key);
+        if (value != null) {
+            accesses.hits++;
+            return value;
+        }
+        accesses.misses++;
+        cache.put(key, key);
+        return key;
+    }
+}
@@ -0,0 +1,93 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@code get} on a concurrent map of {@code size} entries, without contracts, with
+ * the constant-time {@code null_if_not_contains_key} postcondition checked on every call, and with
+ * the former postcondition scanning the entry set.
+ *
+ * <p>The reads go through a plain {@link ConcurrentHashMap} holding the same mappings, so that the
+ * postconditions woven into {@link ConcurrentHashMapContracts#get} do not run on top of the one
+ * measured: each variant evaluates its predicate exactly once per call.
+ *
+ * <p>{@link #main} runs it at 1, 8 and 32 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentGetBenchmark {
+
+    @Param({"1024"})
+    int size;
+
+    private ConcurrentHashMap<Integer, Integer> plain;
+    private ConcurrentHashMapContracts<Integer, Integer> checked;
+    private Integer[] keys;
+
+    @Setup
+    public void setUp() {
+        plain = new ConcurrentHashMap<>();
+        checked = new ConcurrentHashMapContracts<>();
+        checked.setContractSampler(ContractSampler.always());
+        keys = new Integer[size * 2]; // half of the lookups miss
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+        }
+        for (int i = 0; i < size; i++) {
+            plain.put(keys[i], keys[i]); // the same value objects: the check compares them by identity
+            checked.put(keys[i], keys[i]);
+        }
+    }
+
+    private Integer nextKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+    }
+
+    @Benchmark
+    public Integer plainGet() {
+        return plain.get(nextKey());
+    }
+
+    @Benchmark
+    public boolean checkedGet() {
+        Integer key = nextKey();
+        return checked.null_if_not_contains_key(plain.get(key), key);
+    }
+
+    @Benchmark
+    public boolean legacyCheckedGet() {
+        Integer key = nextKey();
+        Integer returns = plain.get(key);
+        if (!plain.containsKey(key)) {
+            return returns == null;
+        }
+        Optional<Map.Entry<Integer, Integer>> optEntry = plain.entrySet().stream()
+                .filter(entry -> entry.getKey().equals(key))
+                .findFirst();
+        return optEntry.isPresent() && optEntry.get().getValue() == returns;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 8, 32}) {
+            Options options = new OptionsBuilder()
+                    .include(ConcurrentGetBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ConcurrentHashMapContracts} against a plain {@link ConcurrentHashMap}, shared by all the
+ * benchmark threads.
+ *
+ * <p>{@link #main} runs it, with the allocation profiler, at 1 thread and then at every power of
+ * two up to the number of cores, followed by the single-threaded {@link HashMapBenchmark}.
+ * Arguments are passed on to JMH, e.g. {@code -p size=10,1000}.
+ */
+public class ConcurrentHashMapBenchmark extends MapBenchmark {
+
+    @Param({"ConcurrentHashMap", "ConcurrentHashMapContracts"})
+    String implementation;
+
+    @Override
+    Map<Integer, Integer> createMap() {
+        return implementation.equals("ConcurrentHashMap") ? new ConcurrentHashMap<>() : new ConcurrentHashMapContracts<>();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            run(ConcurrentHashMapBenchmark.class, threads, args);
+            if (threads == cores) {
+                break;
+            }
+        }
+        run(HashMapBenchmark.class, 1, args);
+    }
+
+    private static void run(Class<?> benchmark, int threads, String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(benchmark.getName() + "\\.")
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
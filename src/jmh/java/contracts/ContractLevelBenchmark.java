@@ -0,0 +1,55 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a {@code get} followed by its postcondition at each global {@link ContractLevel},
+ * compared with a plain {@link HashMap}. At {@link ContractLevel#OFF}, the checked get should cost
+ * the same as the plain one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContractLevelBenchmark {
+
+    @Param({"OFF", "FULL"})
+    ContractLevel level;
+
+    private HashMap<Integer, Integer> plain;
+    private HashMapContracts<Integer, Integer> checked;
+    private Integer key;
+
+    @Setup
+    public void setUp() {
+        ContractLevels.setGlobal(level);
+        plain = new HashMap<>();
+        checked = new HashMapContracts<>();
+        for (int i = 0; i < 1024; i++) {
+            plain.put(i, i);
+            checked.put(i, i);
+        }
+        key = 512;
+    }
+
+    @TearDown
+    public void tearDown() {
+        ContractLevels.reset();
+    }
+
+    @Benchmark
+    public Integer plainGet() {
+        return plain.get(key);
+    }
+
+    @Benchmark
+    public boolean checkedGet() {
+        Integer returns = checked.get(key);
+        return checked.null_if_not_contains_key(returns, key) && checked.hashcode_is_valid();
+    }
+}
@@ -0,0 +1,89 @@
+package contracts;
+
+import ch.usi.si.codelounge.jsicko.ContractUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of single contract predicates on a map of {@code size} entries, right after a
+ * {@code put}, with every evaluation checked.
+ *
+ * <p>Run with {@code -prof gc}: {@code gc.alloc.rate.norm} is the allocation per evaluation,
+ * which is zero for the constant-time predicates. The {@code legacy*} benchmarks evaluate the same
+ * properties written with {@link ContractUtils} suppliers and streams, for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContractPredicateBenchmark {
+
+    @Param({"16", "1024"})
+    int size;
+
+    private HashMapContracts<Integer, Integer> map;
+    private Integer key;
+    private Integer value;
+
+    @Setup
+    public void setUp() {
+        map = new HashMapContracts<>();
+        map.setContractSampler(ContractSampler.always());
+        for (int i = 0; i < size; i++) {
+            map.put(i, i);
+        }
+        key = size / 2;
+        value = size;
+        map.put(key, value);
+        map.putAll(new HashMap<>(Map.of(key, value))); // captures the old state for keys_not_changed
+    }
+
+    @Benchmark
+    public boolean containsEntryIffKeyContained() {
+        return map.contains_entry_iff_key_contained(key, value);
+    }
+
+    @Benchmark
+    public boolean sizeDecreasesIffKeyContained() {
+        return map.size_decreases_iff_key_contained(key);
+    }
+
+    @Benchmark
+    public boolean valueChangesOnlyIfContainedEntry() {
+        return map.value_changes_only_if_contained_entry(key, value, value);
+    }
+
+    @Benchmark
+    public boolean nullIfNotContainsKey() {
+        return map.null_if_not_contains_key(value, key);
+    }
+
+    @Benchmark
+    public boolean keysNotChanged() {
+        return map.keys_not_changed();
+    }
+
+    @Benchmark
+    public boolean legacySizeDecreasesIffKeyContained() {
+        KeyDelta<Integer> delta = map.old_delta();
+        return ContractUtils.implies(delta.contained(),
+                () -> map.size() == delta.size() - 1,
+                () -> map.size() == delta.size());
+    }
+
+    @Benchmark
+    public boolean legacyNullIfNotContainsKey() {
+        Integer returns = value;
+        return ContractUtils.implies(!map.containsKey(key), () -> returns == null);
+    }
+
+    @Benchmark
+    public boolean legacyKeysNotChanged() {
+        return map.old_state().keySet().stream().allMatch(map::containsKey);
+    }
+}
@@ -0,0 +1,64 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of {@link ExpiringMapContracts} holding {@code size} live entries at a global
+ * {@link ContractLevel} of {@code contracts}: every put writes a new key living {@code size}
+ * steps of a fake clock, advanced one step per operation, so that each put also expires the
+ * oldest entry, while every get reads one of the live keys without moving the clock.
+ *
+ * <p>Sampled per operation, so that the percentiles show whether the expirations stay spread
+ * over the calls as the map grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpiringMapBenchmark {
+
+    private static final long STEP = 1_000; // nanoseconds of the fake clock per operation
+
+    @Param({"100000", "1000000"})
+    int size;
+
+    @Param({"OFF", "FULL"})
+    ContractLevel contracts;
+
+    private ExpiringMapContracts<Integer, Integer> map;
+    private long nanos;
+    private int next;
+    private int reads;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ContractLevels.setGlobal(contracts);
+        map = new ExpiringMapContracts<>(size * STEP, TimeUnit.NANOSECONDS, () -> nanos);
+        for (next = 0; next < size; next++) {
+            map.put(next, next);
+            nanos += STEP;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ContractLevels.reset();
+    }
+
+    @Benchmark
+    public Integer put() {
+        nanos += STEP;
+        int key = next++;
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    public Integer get() {
+        // the clock stands still, and the keys read are scattered over the live ones
+        return map.get(next - 1 - (reads++ * 0x9E3779B9 >>> 1) % (size - 1));
+    }
+}
@@ -0,0 +1,76 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FrozenMapContracts} against the {@link HashMapContracts} it is frozen from, on maps of
+ * {@code size} entries at a global {@link ContractLevel} of {@code contracts}: the latency of
+ * lookups of present and absent keys, and the time to freeze the map.
+ *
+ * <p>Run {@code get} with {@code -prof gc} to check that a lookup allocates nothing, and with
+ * {@code -prof perfnorm} (on Linux) for the branch mispredictions per lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FrozenMapBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    @Param({"OFF", "FULL"})
+    ContractLevel contracts;
+
+    @Param({"HashMapContracts", "FrozenMapContracts"})
+    String implementation;
+
+    private HashMapContracts<Integer, Integer> source;
+    private Map<Integer, Integer> map;
+    private Integer[] keys;
+    private Integer[] absentKeys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ContractLevels.setGlobal(contracts);
+        source = new HashMapContracts<>();
+        keys = new Integer[size];
+        absentKeys = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = i;
+            absentKeys[i] = -1 - i;
+            source.put(keys[i], keys[i]);
+        }
+        map = implementation.equals("FrozenMapContracts") ? source.freeze() : source;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ContractLevels.reset();
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(keys[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public Integer getAbsent() {
+        return map.get(absentKeys[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public FrozenMapContracts<Integer, Integer> freeze() {
+        return source.freeze();
+    }
+}
@@ -0,0 +1,50 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duration of a full garbage collection while a map of {@code size} entries is live: the pause
+ * that the map adds to every old-generation collection. {@link HashMapContracts} keeps three
+ * objects per entry on the heap, {@link OffHeapMapContracts} only its index.
+ *
+ * <p>Run with {@code -prof gc} or {@code -jvmArgsAppend -Xlog:gc} to see the pauses themselves.
+ * At the default size, the on-heap map takes about 4 GB of heap, and the off-heap one 1.6 GB of
+ * heap for its index and 0.8 GB of direct memory for its records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms12g", "-Xmx12g", "-XX:MaxDirectMemorySize=4g"})
+public class GcPauseBenchmark {
+
+    @Param({"50000000"})
+    int size;
+
+    @Param({"HashMapContracts", "OffHeapMapContracts"})
+    String implementation;
+
+    private Map<Integer, Integer> map;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ContractLevels.setGlobal(ContractLevel.OFF); // only the loading is unchecked
+        map = implementation.equals("HashMapContracts")
+                ? new HashMapContracts<>()
+                : new OffHeapMapContracts<>(Codec.integers(), Codec.integers(), size);
+        for (int i = 0; i < size; i++) {
+            map.put(i, i);
+        }
+        ContractLevels.reset();
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> fullGc() {
+        System.gc();
+        return map;
+    }
+}
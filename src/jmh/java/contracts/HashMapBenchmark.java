@@ -0,0 +1,20 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.Param;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link HashMapContracts} against a plain {@link HashMap}, on a single thread.
+ */
+public class HashMapBenchmark extends MapBenchmark {
+
+    @Param({"HashMap", "HashMapContracts"})
+    String implementation;
+
+    @Override
+    Map<Integer, Integer> createMap() {
+        return implementation.equals("HashMap") ? new HashMap<>() : new HashMapContracts<>();
+    }
+}
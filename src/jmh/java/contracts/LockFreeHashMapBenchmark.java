@@ -0,0 +1,39 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+
+/**
+ * {@link LockFreeHashMapContracts} against {@link ConcurrentHashMapContracts}, shared by all the
+ * benchmark threads.
+ *
+ * <p>{@link #main} runs it at 1 thread and then at every power of two up to 64, past the number
+ * of cores if needed, to see how each map degrades under oversubscription too. Arguments are
+ * passed on to JMH, e.g. {@code -p size=1000 -p contracts=OFF}.
+ */
+public class LockFreeHashMapBenchmark extends MapBenchmark {
+
+    @Param({"ConcurrentHashMapContracts", "LockFreeHashMapContracts"})
+    String implementation;
+
+    @Override
+    Map<Integer, Integer> createMap() {
+        return implementation.equals("ConcurrentHashMapContracts") ? new ConcurrentHashMapContracts<>() : new LockFreeHashMapContracts<>();
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            Options options = new OptionsBuilder()
+                    .parent(new CommandLineOptions(args))
+                    .include(LockFreeHashMapBenchmark.class.getName() + "\\.")
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Throughput of the main operations of a map of {@code size} entries, at a global
+ * {@link ContractLevel} of {@code contracts}, shared by the benchmark threads. Subclasses choose
+ * the implementations to compare.
+ *
+ * <p>Every write keeps the size of the map stable: {@code put} overwrites an existing key, and
+ * {@code removeThenPut} puts the removed mapping back. Run with {@code -prof gc} for the allocation
+ * rate, and with {@code -p size=...} to pick sizes (the largest ones need a large heap).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public abstract class MapBenchmark {
+
+    private static final BiFunction<Integer, Integer, Integer> INCREMENT = (key, value) -> value == null ? 1 : value + 1;
+    private static final int BATCH = 16;
+
+    @Param({"10", "1000", "100000", "10000000"})
+    int size;
+
+    @Param({"OFF", "FULL"})
+    ContractLevel contracts;
+
+    private Map<Integer, Integer> map;
+    private Integer[] keys;
+
+    abstract Map<Integer, Integer> createMap();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ContractLevels.setGlobal(contracts);
+        map = createMap();
+        keys = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = i;
+        }
+        Map<Integer, Integer> entries = new HashMap<>();
+        for (Integer key : keys) {
+            entries.put(key, key);
+        }
+        map.putAll(entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ContractLevels.reset();
+    }
+
+    private Integer randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(randomKey());
+    }
+
+    @Benchmark
+    public Integer put() {
+        Integer key = randomKey();
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    public Integer removeThenPut() {
+        Integer key = randomKey();
+        Integer value = map.remove(key);
+        map.put(key, key);
+        return value;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void putAll(BatchState batch) {
+        batch.fill(keys);
+        map.putAll(batch.entries);
+    }
+
+    @Benchmark
+    public Integer compute() {
+        return map.compute(randomKey(), INCREMENT);
+    }
+
+    @Benchmark
+    public long iterate() {
+        long sum = 0;
+        for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            sum += entry.getValue();
+        }
+        return sum;
+    }
+
+    @State(Scope.Thread)
+    public static class BatchState {
+        final Map<Integer, Integer> entries = new HashMap<>();
+
+        void fill(Integer[] keys) {
+            entries.clear();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < BATCH; i++) {
+                Integer key = keys[random.nextInt(keys.length)];
+                entries.put(key, key);
+            }
+        }
+    }
+}
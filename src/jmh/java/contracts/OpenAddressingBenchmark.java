@@ -0,0 +1,90 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The open-addressing maps, {@link RobinHoodMapContracts} and {@link SwissTableMapContracts},
+ * against {@link HashMapContracts} on maps of {@code size} entries, at a global
+ * {@link ContractLevel} of {@code contracts}: the latency of lookups of present and absent keys,
+ * and the time to insert {@code size} entries into an empty map.
+ *
+ * <p>Run {@code load} with {@code -prof gc}, and divide {@code gc.alloc.rate.norm} by
+ * {@code size} for the bytes allocated per entry, the tables discarded by the resizes included.
+ * Run {@code getAbsent} with {@code -prof perfnorm} (on Linux) for the cache misses and branch
+ * mispredictions per lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class OpenAddressingBenchmark {
+
+    @Param({"1000", "100000", "10000000"})
+    int size;
+
+    @Param({"OFF", "FULL"})
+    ContractLevel contracts;
+
+    @Param({"HashMapContracts", "RobinHoodMapContracts", "SwissTableMapContracts"})
+    String implementation;
+
+    private Map<Integer, Integer> map;
+    private Integer[] keys;
+    private Integer[] absentKeys;
+
+    private Map<Integer, Integer> createMap() {
+        switch (implementation) {
+            case "RobinHoodMapContracts":
+                return new RobinHoodMapContracts<>();
+            case "SwissTableMapContracts":
+                return new SwissTableMapContracts<>();
+            default:
+                return new HashMapContracts<>();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ContractLevels.setGlobal(contracts);
+        map = createMap();
+        keys = new Integer[size];
+        absentKeys = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = i;
+            absentKeys[i] = -1 - i;
+            map.put(keys[i], keys[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ContractLevels.reset();
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(keys[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public Integer getAbsent() {
+        return map.get(absentKeys[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Map<Integer, Integer> load() {
+        Map<Integer, Integer> loaded = createMap();
+        for (Integer key : keys) {
+            loaded.put(key, key);
+        }
+        return loaded;
+    }
+}
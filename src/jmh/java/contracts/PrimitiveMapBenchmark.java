@@ -0,0 +1,20 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.Param;
+
+import java.util.Map;
+
+/**
+ * {@link IntIntMapContracts} against {@link HashMapContracts}, through the boxed {@link Map}
+ * interface, on a single thread. See {@link UnboxedMapBenchmark} for the unboxed overloads.
+ */
+public class PrimitiveMapBenchmark extends MapBenchmark {
+
+    @Param({"HashMapContracts", "IntIntMapContracts"})
+    String implementation;
+
+    @Override
+    Map<Integer, Integer> createMap() {
+        return implementation.equals("HashMapContracts") ? new HashMapContracts<>() : new IntIntMapContracts();
+    }
+}
@@ -0,0 +1,72 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to get a map of {@code size} entries back at process start: rebuilding a
+ * {@link HashMapContracts} from the source data, against reopening a
+ * {@link MappedFileMapContracts} written once, and reading a sample of its keys, which pages
+ * their part of the file in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReopenBenchmark {
+
+    private static final int SAMPLE = 1_000;
+
+    @Param({"10000000"})
+    int size;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("reopen", ".bin");
+        ContractLevels.setGlobal(ContractLevel.OFF); // only the loading is unchecked
+        try (MappedFileMapContracts<Integer, Integer> map = MappedFileMapContracts.open(file, Codec.integers(), Codec.integers(), size)) {
+            for (int i = 0; i < size; i++) {
+                map.put(i, i);
+            }
+        }
+        ContractLevels.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int rebuild() {
+        HashMapContracts<Integer, Integer> map = new HashMapContracts<>();
+        for (int i = 0; i < size; i++) {
+            map.put(i, i);
+        }
+        return sample(map);
+    }
+
+    @Benchmark
+    public int reopen() throws IOException {
+        try (MappedFileMapContracts<Integer, Integer> map = MappedFileMapContracts.open(file, Codec.integers(), Codec.integers())) {
+            return sample(map);
+        }
+    }
+
+    private int sample(Map<Integer, Integer> map) {
+        int sum = 0;
+        for (int i = 0; i < SAMPLE; i++) {
+            sum += map.get((int) ((long) i * size / SAMPLE));
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,133 @@
+package contracts;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the unboxed overloads of {@link IntIntMapContracts} and
+ * {@link LongObjectMapContracts} against the boxed calls of {@link HashMapContracts} they
+ * replace, on maps of {@code size} entries with every contract enabled.
+ *
+ * <p>The {@code load*} benchmarks fill an empty map once: run them with {@code -prof gc}, and
+ * divide {@code gc.alloc.rate.norm} by {@code size} for the bytes allocated per entry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class UnboxedMapBenchmark {
+
+    private static final Object VALUE = new Object();
+
+    @Param({"1000", "100000", "10000000"})
+    int size;
+
+    private HashMapContracts<Integer, Integer> boxedInts;
+    private IntIntMapContracts ints;
+    private HashMapContracts<Long, Object> boxedLongs;
+    private LongObjectMapContracts<Object> longs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ContractLevels.setGlobal(ContractLevel.FULL);
+        boxedInts = new HashMapContracts<>();
+        ints = new IntIntMapContracts();
+        boxedLongs = new HashMapContracts<>();
+        longs = new LongObjectMapContracts<>();
+        for (int i = 0; i < size; i++) {
+            boxedInts.put(i, i);
+            ints.put(i, i);
+            boxedLongs.put((long) i, VALUE);
+            longs.put(i, VALUE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ContractLevels.reset();
+    }
+
+    private int randomKey() {
+        return ThreadLocalRandom.current().nextInt(size);
+    }
+
+    @Benchmark
+    public Integer getBoxedInt() {
+        return boxedInts.get(randomKey());
+    }
+
+    @Benchmark
+    public int getInt() {
+        return ints.get(randomKey());
+    }
+
+    @Benchmark
+    public Integer putBoxedInt() {
+        Integer key = randomKey();
+        return boxedInts.put(key, key);
+    }
+
+    @Benchmark
+    public int putInt() {
+        int key = randomKey();
+        return ints.put(key, key);
+    }
+
+    @Benchmark
+    public Object getBoxedLong() {
+        return boxedLongs.get((long) randomKey());
+    }
+
+    @Benchmark
+    public Object getLong() {
+        return longs.get((long) randomKey());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object loadBoxedInts() {
+        HashMapContracts<Integer, Integer> map = new HashMapContracts<>();
+        for (int i = 0; i < size; i++) {
+            map.put(i, i);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object loadInts() {
+        IntIntMapContracts map = new IntIntMapContracts();
+        for (int i = 0; i < size; i++) {
+            map.put(i, i);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object loadBoxedLongs() {
+        HashMapContracts<Long, Object> map = new HashMapContracts<>();
+        for (int i = 0; i < size; i++) {
+            map.put((long) i, VALUE);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object loadLongs() {
+        LongObjectMapContracts<Object> map = new LongObjectMapContracts<>();
+        for (int i = 0; i < size; i++) {
+            map.put(i, VALUE);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,390 @@
+package contracts;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Checks the postconditions of single-key mutating calls on background threads instead of the
+ * calling one.
+ *
+ * <p>A map verified asynchronously (see {@link HashMapContracts#setAsyncVerifier} and
+ * {@link ConcurrentHashMapContracts#setAsyncVerifier}) skips its postconditions on the calling
+ * thread. After each {@code put}, {@code remove}, {@code putIfAbsent}, {@code remove(key, value)}
+ * and {@code replace}, it publishes an immutable record of the call: its arguments and result,
+ * the size and the mapping of the key before the call, and the same after it. Verifier threads
+ * evaluate the postconditions of the call against the record and report each violation to the
+ * handler. The caller only pays for the record and for a non-blocking offer to a bounded queue:
+ * when the queue is full, the record is dropped and counted in {@link #dropped()}. A
+ * postcondition that throws goes to the uncaught exception handler of the verifier thread, like
+ * a failing handler, and the thread goes on with the next record.
+ *
+ * <p>Postconditions that need more of the map than the touched key (such as the
+ * {@code containsValue} in {@code size_increases_iff_key_not_contained}) and those about
+ * exceptions are not checked asynchronously. Neither are the postconditions of the other
+ * methods, which are skipped while a map is verified asynchronously.
+ */
+public final class AsyncVerifier implements AutoCloseable {
+
+    private final BlockingQueue<Call> queue;
+    private final Thread[] workers;
+    private final Consumer<? super ContractViolation> handler;
+    private final boolean captureCallSites;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder violations = new LongAdder();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a verifier and starts its threads.
+     *
+     * @param queueCapacity    the number of calls waiting for verification beyond which new ones are dropped
+     * @param threads          the number of verifier threads
+     * @param handler          receives every violation, on a verifier thread
+     * @param captureCallSites whether to capture the call site of every verified call (which costs
+     *                         a partial stack walk on the calling thread) so that violations carry it
+     * @throws IllegalArgumentException if the capacity or the number of threads is not positive
+     * @throws NullPointerException     if the handler is null
+     */
+    public AsyncVerifier(int queueCapacity, int threads, Consumer<? super ContractViolation> handler, boolean captureCallSites) {
+        if (queueCapacity <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("capacity and threads must be positive: " + queueCapacity + ", " + threads);
+        }
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.captureCallSites = captureCallSites;
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, "contract-verifier-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Returns the number of calls published for verification.
+     *
+     * @return the number of published calls, including the dropped ones
+     */
+    public long published() {
+        return published.sum();
+    }
+
+    /**
+     * Returns the number of calls whose postconditions have been evaluated.
+     *
+     * @return the number of verified calls
+     */
+    public long verified() {
+        return verified.sum();
+    }
+
+    /**
+     * Returns the number of calls dropped because the queue was full.
+     *
+     * @return the number of dropped calls
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of violations reported to the handler.
+     *
+     * @return the number of violations
+     */
+    public long violations() {
+        return violations.sum();
+    }
+
+    /**
+     * Waits until every published call has been verified or dropped.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return whether every call has been verified or dropped within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (verified.sum() + dropped.sum() < published.sum()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the verifier threads; calls published afterwards are dropped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    boolean capturesCallSites() {
+        return captureCallSites;
+    }
+
+    /**
+     * Publishes a call for verification, without blocking.
+     */
+    void publish(Call call) {
+        published.increment();
+        if (closed || !queue.offer(call)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Returns the frames of the current stack from the caller of {@code mapClass} on.
+     */
+    static StackTraceElement[] callSite(Class<?> mapClass) {
+        return StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE).walk(frames -> frames
+                .dropWhile(frame -> frame.getDeclaringClass() == AsyncVerifier.class
+                        || frame.getDeclaringClass().isAssignableFrom(mapClass)
+                        || frame.getDeclaringClass().getEnclosingClass() == TrackedViews.class)
+                .limit(16)
+                .map(StackWalker.StackFrame::toStackTraceElement)
+                .toArray(StackTraceElement[]::new));
+    }
+
+    private void work() {
+        while (!closed) {
+            Call call;
+            try {
+                call = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                String violated = call.operation.verify(new RecordedState(call), call);
+                if (violated != null) {
+                    violations.increment();
+                    report(new ContractViolation(violated, call.operation.method, call.toString(), call.callSite));
+                }
+            } catch (RuntimeException e) {
+                // e.g. a predicate reading more of the map than the record holds
+                uncaught(e);
+            } finally {
+                ContractProfiler.unwind();
+                verified.increment();
+            }
+        }
+    }
+
+    private void report(ContractViolation violation) {
+        try {
+            handler.accept(violation);
+        } catch (RuntimeException e) {
+            uncaught(e); // a failing handler must not stop the verifier thread
+        }
+    }
+
+    private static void uncaught(RuntimeException e) {
+        Thread current = Thread.currentThread();
+        current.getUncaughtExceptionHandler().uncaughtException(current, e);
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================           Records            ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * A single-key mutating call, with the postconditions checked for it.
+     */
+    enum Operation {
+        PUT("put") {
+            @Override
+            String verify(RecordedState state, Call call) {
+                return !state.contains_entry(call.result, call.key, call.value) ? "contains_entry"
+                        : !state.size_increases_iff_returns(call.result) ? "size_increases_iff_returns"
+                        : null;
+            }
+        },
+        REMOVE("remove") {
+            @Override
+            String verify(RecordedState state, Call call) {
+                return !state.not_contains_key(call.key) ? "not_contains_key"
+                        : !state.null_if_not_contained_key(call.result, call.key) ? "null_if_not_contained_key"
+                        : !state.size_decreases_iff_key_contained(call.key) ? "size_decreases_iff_key_contained"
+                        : null;
+            }
+        },
+        PUT_IF_ABSENT("putIfAbsent") {
+            @Override
+            String verify(RecordedState state, Call call) {
+                return !state.null_if_not_contained_key(call.result, call.key) ? "null_if_not_contained_key"
+                        : !state.value_changes_only_if_not_contained_key(call.key, call.value) ? "value_changes_only_if_not_contained_key"
+                        : null;
+            }
+        },
+        REMOVE_ENTRY("remove") {
+            @Override
+            String verify(RecordedState state, Call call) {
+                return !state.size_decreased_iff_contained_entry(call.key, call.value) ? "size_decreased_iff_contained_entry"
+                        : !state.value_unchanged_if_not_contained_entry(call.key, call.value) ? "value_unchanged_if_not_contained_entry"
+                        : !state.returns_iff_entry_deleted((Boolean) call.result, call.key, call.value) ? "returns_iff_entry_deleted"
+                        : null;
+            }
+        },
+        REPLACE_ENTRY("replace") {
+            @Override
+            String verify(RecordedState state, Call call) {
+                return !state.size_not_changed() ? "size_not_changed"
+                        : !state.key_presence_not_changed(call.key) ? "key_presence_not_changed"
+                        : !state.value_changes_only_if_contained_entry(call.key, call.value, call.newValue) ? "value_changes_only_if_contained_entry"
+                        : null;
+            }
+        },
+        REPLACE("replace") {
+            @Override
+            String verify(RecordedState state, Call call) {
+                return !state.null_if_not_contained_key(call.result, call.key) ? "null_if_not_contained_key"
+                        : !state.size_not_changed() ? "size_not_changed"
+                        : !state.contains_entry_iff_key_contained(call.key, call.value) ? "contains_entry_iff_key_contained"
+                        : null;
+            }
+        };
+
+        final String method;
+
+        Operation(String method) {
+            this.method = method;
+        }
+
+        /**
+         * Returns the name of the first postcondition that does not hold for the call, or null.
+         */
+        abstract String verify(RecordedState state, Call call);
+    }
+
+    /**
+     * The record of a call: immutable, and all the verifier threads get to see of the map.
+     */
+    static final class Call {
+        final Operation operation;
+        final Class<?> mapClass;
+        final Object key;
+        final Object value; // the value argument, or the expected old value of replace(key, oldValue, newValue)
+        final Object newValue;
+        final Object result;
+        final int sizeBefore;
+        final boolean containedBefore;
+        final Object valueBefore;
+        final int sizeAfter;
+        final boolean containedAfter;
+        final Object valueAfter;
+        final StackTraceElement[] callSite;
+
+        Call(Operation operation, Class<?> mapClass, Object key, Object value, Object newValue, Object result,
+             KeyDelta<?> before, int sizeAfter, boolean containedAfter, Object valueAfter, StackTraceElement[] callSite) {
+            this.operation = operation;
+            this.mapClass = mapClass;
+            this.key = key;
+            this.value = value;
+            this.newValue = newValue;
+            this.result = result;
+            this.sizeBefore = before.size();
+            this.containedBefore = before.contained();
+            this.valueBefore = before.value();
+            this.sizeAfter = sizeAfter;
+            this.containedAfter = containedAfter;
+            this.valueAfter = valueAfter;
+            this.callSite = callSite;
+        }
+
+        @Override
+        public String toString() {
+            return mapClass.getSimpleName() + "." + operation.method + "(key=" + key + ", value=" + value
+                    + (operation == Operation.REPLACE_ENTRY ? ", newValue=" + newValue : "") + ") returning " + result
+                    + ", before: size=" + sizeBefore + (containedBefore ? ", key -> " + valueBefore : ", key absent")
+                    + ", after: size=" + sizeAfter + (containedAfter ? ", key -> " + valueAfter : ", key absent")
+                    + (callSite == null ? "" : ", at " + Arrays.toString(callSite));
+        }
+    }
+
+    /**
+     * The state of the map around a recorded call, as far as the postconditions of the call look
+     * at it: the size, and the mapping of the touched key.
+     */
+    static final class RecordedState extends AbstractMap<Object, Object> implements MapContracts<Object, Object> {
+        private final Call call;
+        private final KeyDelta<Object> before = new KeyDelta<>();
+
+        RecordedState(Call call) {
+            this.call = call;
+            before.record(call.key, call.sizeBefore, call.containedBefore, call.valueBefore);
+        }
+
+        private void checkKey(Object key) {
+            if (!Objects.equals(key, call.key)) {
+                throw new IllegalStateException("only the mapping of " + call.key + " was recorded");
+            }
+        }
+
+        @Override
+        public boolean supports_null_items() {
+            return true;
+        }
+
+        @Override
+        public ContractSampler contract_sampler() {
+            return ContractSampler.always(); // the call was sampled when it was published
+        }
+
+        @Override
+        public Map<Object, Object> old_state() {
+            throw new IllegalStateException("the old state of the whole map was not recorded");
+        }
+
+        @Override
+        public KeyDelta<Object> old_delta() {
+            return before;
+        }
+
+        @Override
+        public boolean skip_postcondition(String predicate) {
+            return !ContractLevels.enabled(call.mapClass, predicate, ContractLevel.POSTCONDITIONS);
+        }
+
+        @Override
+        public int size() {
+            return call.sizeAfter;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            checkKey(key);
+            return call.containedAfter;
+        }
+
+        @Override
+        public Object get(Object key) {
+            checkKey(key);
+            return call.valueAfter;
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            throw new IllegalStateException("only the mapping of " + call.key + " was recorded");
+        }
+    }
+}
@@ -0,0 +1,1576 @@
+package contracts;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.function.BiFunction;
+
+/**
+ * A contract-checked sorted map stored in a B+tree of wide nodes: every node holds up to 64 keys
+ * in an array, searched by bisection, and the entries live in the leaves only, which are linked
+ * in key order. A lookup thus follows a handful of nodes, three for a million keys, instead of
+ * the twenty of a red-black tree, and a range scan reads the keys and values of adjacent array
+ * slots, leaf after leaf, without going back up the tree.
+ *
+ * <p>Nodes other than the root are kept at least half full: an insertion into a full node splits
+ * it in two, and a removal leaving a node less than half full moves an entry over from a sibling,
+ * or merges the node with it. Two cases keep the leaves full rather than half full: an insertion
+ * past the last key splits the last leaf after its last entry, so that ascending insertions fill
+ * every leaf; and {@link #putAll} into an empty map of a sorted map with the same order builds the
+ * tree bottom up, level by level, in linear time.
+ *
+ * <p>Null keys and values are not supported. Like the hash maps, and unlike {@code TreeMap}, the
+ * lookups of {@link #get}, {@link #containsKey} and {@link #remove} find no mapping for a key of
+ * another type, rather than throwing a {@code ClassCastException}. The views are backed by the map, and their iterators
+ * return entries implementing {@link MapContracts.Entry}, which write through to the map. The
+ * entries returned by the navigation methods, such as {@link #firstEntry()}, are snapshots.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class BPlusTreeMapContracts<K, V> extends AbstractMap<K, V> implements NavigableMapContracts<K, V> {
+
+    private static final int WIDTH = 64; // the most keys of a node, and of entries of a leaf
+    private static final int MIN_FILL = WIDTH / 2; // the fewest, but in the root
+
+    // the relations to a key that the nearest-key searches look for
+    private static final int LOWER = 0;
+    private static final int FLOOR = 1;
+    private static final int CEILING = 2;
+    private static final int HIGHER = 3;
+
+    private final Comparator<? super K> comparator;
+    private Node root = new Leaf();
+    private Leaf first = (Leaf) root;
+    private Leaf last = first;
+    private int height; // the levels of branches above the leaves
+    private int size;
+    private int modCount;
+    private long version;
+
+    private Branch[] path = new Branch[4]; // the branches descended through by the last write, per level
+    private int[] slots = new int[4]; // and the child followed in each
+    private Leaf foundLeaf; // the position found by the last search
+    private int foundIndex;
+
+    private ContractSampler contractSampler; // null: use the global sampler
+    private Map<K, V> oldState;
+    private final KeyDelta<V> oldDelta = new KeyDelta<>(this);
+    private final InvariantCache invariantCache = new InvariantCache();
+    private final PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private final SubMap all = new SubMap(null, false, true, null, false, true, false);
+
+    /**
+     * Creates an empty map sorted by the natural order of its keys.
+     */
+    public BPlusTreeMapContracts() {
+        this(null);
+    }
+
+    /**
+     * Creates an empty map sorted by {@code comparator}.
+     *
+     * @param comparator the order of the keys, or {@code null} for their natural order
+     */
+    public BPlusTreeMapContracts(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public boolean supports_null_items() {
+        return false;
+    }
+
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    @Override
+    public long state_version() {
+        return version;
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public Map<K, V> old_state() {
+        return oldState;
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta;
+    }
+
+    private void captureOldState() {
+        if (!oldDelta.sample() || !ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS)) {
+            oldState = null; // the postconditions of the call are skipped
+            return;
+        }
+        Map<K, V> state = new HashMap<>(Math.max((int) (size / 0.75f) + 1, 16));
+        for (Leaf leaf = first; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.size; i++) {
+                state.put(keyAt(leaf, i), valueAt(leaf, i));
+            }
+        }
+        oldState = state;
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Implementations       ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private static class Node {
+        final Object[] keys = new Object[WIDTH + 1]; // one more, until the node splits
+        int size;
+    }
+
+    private static final class Leaf extends Node {
+        final Object[] values = new Object[WIDTH + 1];
+        Leaf prev;
+        Leaf next;
+    }
+
+    /**
+     * An inner node: the keys of {@code children[i]} are less than {@code keys[i]}, and those of
+     * {@code children[i + 1]} at least {@code keys[i]}.
+     */
+    private static final class Branch extends Node {
+        final Node[] children = new Node[WIDTH + 2];
+    }
+
+    @SuppressWarnings("unchecked")
+    private K keyAt(Leaf leaf, int index) {
+        return (K) leaf.keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(Leaf leaf, int index) {
+        return (V) leaf.values[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(Object a, Object b) {
+        return comparator != null ? comparator.compare((K) a, (K) b) : ((Comparable<Object>) a).compareTo(b);
+    }
+
+    /**
+     * Returns the index of {@code key} among the keys of {@code node}, or {@code -(insertion point) - 1}.
+     */
+    private int search(Node node, Object key) {
+        Object[] keys = node.keys;
+        int low = 0;
+        int high = node.size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int c = compare(keys[middle], key);
+            if (c < 0) {
+                low = middle + 1;
+            } else if (c > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int childIndex(Branch branch, Object key) {
+        int index = search(branch, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private Leaf leafFor(Object key) {
+        Node node = root;
+        for (int level = 0; level < height; level++) {
+            Branch branch = (Branch) node;
+            node = branch.children[childIndex(branch, key)];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Returns the leaf of {@code key}, recording the path to it for a write.
+     */
+    private Leaf descend(Object key) {
+        Node node = root;
+        for (int level = 0; level < height; level++) {
+            Branch branch = (Branch) node;
+            int slot = childIndex(branch, key);
+            path[level] = branch;
+            slots[level] = slot;
+            node = branch.children[slot];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Finds the key nearest to {@code key} in the given relation, and returns whether there is one:
+     * its position is then in {@link #foundLeaf} and {@link #foundIndex}.
+     */
+    private boolean find(Object key, int relation) {
+        Leaf leaf = leafFor(key);
+        int index = search(leaf, key);
+        if (relation >= CEILING) {
+            index = index >= 0 ? (relation == CEILING ? index : index + 1) : -index - 1;
+            while (leaf != null && index >= leaf.size) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        } else {
+            index = index >= 0 ? (relation == FLOOR ? index : index - 1) : -index - 2;
+            while (leaf != null && index < 0) {
+                leaf = leaf.prev;
+                index = leaf == null ? 0 : leaf.size - 1;
+            }
+        }
+        foundLeaf = leaf;
+        foundIndex = index;
+        return leaf != null;
+    }
+
+    private boolean findFirst() {
+        foundLeaf = first;
+        foundIndex = 0;
+        return size > 0;
+    }
+
+    private boolean findLast() {
+        foundLeaf = last;
+        foundIndex = last.size - 1;
+        return size > 0;
+    }
+
+    private static void insertAt(Object[] array, int length, int index, Object element) {
+        System.arraycopy(array, index, array, index + 1, length - index);
+        array[index] = element;
+    }
+
+    private static void removeAt(Object[] array, int length, int index) {
+        System.arraycopy(array, index + 1, array, index, length - index - 1);
+        array[length - 1] = null;
+    }
+
+    /**
+     * Maps {@code key} to {@code value}, and returns the previous value, or {@code null}.
+     */
+    private V write(K key, V value) {
+        return write(key, value, false);
+    }
+
+    private V write(K key, V value, boolean recordDelta) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        if (size == 0) {
+            compare(key, key); // the type check of the first key, as for the other keys
+        }
+        Leaf leaf = descend(key);
+        int index = search(leaf, key);
+        if (recordDelta) {
+            oldDelta.record(key, size, index >= 0, index >= 0 ? valueAt(leaf, index) : null);
+        }
+        if (index >= 0) {
+            V oldValue = valueAt(leaf, index);
+            leaf.values[index] = value;
+            version++;
+            return oldValue;
+        }
+        insert(leaf, -index - 1, key, value);
+        return null;
+    }
+
+    private void insert(Leaf leaf, int index, Object key, Object value) {
+        insertAt(leaf.keys, leaf.size, index, key);
+        insertAt(leaf.values, leaf.size, index, value);
+        leaf.size++;
+        size++;
+        modCount++;
+        version++;
+        if (leaf.size > WIDTH) {
+            split(leaf, leaf == last && index == WIDTH);
+        }
+    }
+
+    private void split(Leaf leaf, boolean appended) {
+        // an append to the last leaf leaves it full and starts the next one, so that ascending
+        // insertions fill the leaves rather than half fill them
+        int keep = appended ? WIDTH : (WIDTH + 1) / 2;
+        Leaf right = new Leaf();
+        right.size = leaf.size - keep;
+        System.arraycopy(leaf.keys, keep, right.keys, 0, right.size);
+        System.arraycopy(leaf.values, keep, right.values, 0, right.size);
+        for (int i = keep; i < leaf.size; i++) {
+            leaf.keys[i] = null;
+            leaf.values[i] = null;
+        }
+        leaf.size = keep;
+        right.prev = leaf;
+        right.next = leaf.next;
+        if (leaf.next != null) {
+            leaf.next.prev = right;
+        } else {
+            last = right;
+        }
+        leaf.next = right;
+        propagate(right.keys[0], right);
+    }
+
+    /**
+     * Inserts {@code right}, split off the node at the end of the recorded path, into its parent,
+     * splitting the branches up the path as long as they overflow.
+     */
+    private void propagate(Object separator, Node right) {
+        for (int level = height - 1; level >= 0; level--) {
+            Branch parent = path[level];
+            int slot = slots[level];
+            insertAt(parent.keys, parent.size, slot, separator);
+            insertAt(parent.children, parent.size + 1, slot + 1, right);
+            parent.size++;
+            if (parent.size <= WIDTH) {
+                return;
+            }
+            // the middle key moves up, between the two halves
+            int middle = parent.size / 2;
+            Branch sibling = new Branch();
+            sibling.size = parent.size - middle - 1;
+            System.arraycopy(parent.keys, middle + 1, sibling.keys, 0, sibling.size);
+            System.arraycopy(parent.children, middle + 1, sibling.children, 0, sibling.size + 1);
+            separator = parent.keys[middle];
+            for (int i = middle; i < parent.size; i++) {
+                parent.keys[i] = null;
+                parent.children[i + 1] = null;
+            }
+            parent.size = middle;
+            right = sibling;
+        }
+        Branch newRoot = new Branch();
+        newRoot.keys[0] = separator;
+        newRoot.children[0] = root;
+        newRoot.children[1] = right;
+        newRoot.size = 1;
+        root = newRoot;
+        if (++height > path.length) {
+            path = Arrays.copyOf(path, height * 2);
+            slots = Arrays.copyOf(slots, height * 2);
+        }
+    }
+
+    /**
+     * Removes the entry at {@code index} of {@code leaf}, the end of the recorded path, then
+     * refills the nodes up the path that are left less than half full.
+     */
+    private void delete(Leaf leaf, int index) {
+        removeAt(leaf.keys, leaf.size, index);
+        removeAt(leaf.values, leaf.size, index);
+        leaf.size--;
+        size--;
+        modCount++;
+        version++;
+        Node node = leaf;
+        for (int level = height - 1; level >= 0 && node.size < MIN_FILL; level--) {
+            Branch parent = path[level];
+            int slot = slots[level];
+            if (slot > 0 && parent.children[slot - 1].size > MIN_FILL) {
+                borrowFromLeft(parent, slot);
+            } else if (slot < parent.size && parent.children[slot + 1].size > MIN_FILL) {
+                borrowFromRight(parent, slot);
+            } else if (slot > 0) {
+                merge(parent, slot - 1);
+            } else if (slot < parent.size) {
+                merge(parent, slot);
+            }
+            node = parent;
+        }
+        while (height > 0 && root.size == 0) {
+            root = ((Branch) root).children[0];
+            height--;
+        }
+    }
+
+    private static void borrowFromLeft(Branch parent, int slot) {
+        Node node = parent.children[slot];
+        Node left = parent.children[slot - 1];
+        int last = left.size - 1;
+        if (node instanceof Leaf) {
+            insertAt(node.keys, node.size, 0, left.keys[last]);
+            insertAt(((Leaf) node).values, node.size, 0, ((Leaf) left).values[last]);
+            ((Leaf) left).values[last] = null;
+            parent.keys[slot - 1] = node.keys[0];
+        } else {
+            insertAt(node.keys, node.size, 0, parent.keys[slot - 1]);
+            insertAt(((Branch) node).children, node.size + 1, 0, ((Branch) left).children[last + 1]);
+            ((Branch) left).children[last + 1] = null;
+            parent.keys[slot - 1] = left.keys[last];
+        }
+        left.keys[last] = null;
+        left.size--;
+        node.size++;
+    }
+
+    private static void borrowFromRight(Branch parent, int slot) {
+        Node node = parent.children[slot];
+        Node right = parent.children[slot + 1];
+        if (node instanceof Leaf) {
+            node.keys[node.size] = right.keys[0];
+            ((Leaf) node).values[node.size] = ((Leaf) right).values[0];
+            removeAt(((Leaf) right).values, right.size, 0);
+            removeAt(right.keys, right.size, 0);
+            parent.keys[slot] = right.keys[0];
+        } else {
+            node.keys[node.size] = parent.keys[slot];
+            ((Branch) node).children[node.size + 1] = ((Branch) right).children[0];
+            parent.keys[slot] = right.keys[0];
+            removeAt(right.keys, right.size, 0);
+            removeAt(((Branch) right).children, right.size + 1, 0);
+        }
+        right.size--;
+        node.size++;
+    }
+
+    /**
+     * Merges {@code parent.children[slot + 1]} into {@code parent.children[slot]}.
+     */
+    private void merge(Branch parent, int slot) {
+        Node left = parent.children[slot];
+        Node right = parent.children[slot + 1];
+        if (left instanceof Leaf) {
+            Leaf leftLeaf = (Leaf) left;
+            Leaf rightLeaf = (Leaf) right;
+            System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+            System.arraycopy(rightLeaf.values, 0, leftLeaf.values, left.size, right.size);
+            left.size += right.size;
+            leftLeaf.next = rightLeaf.next;
+            if (rightLeaf.next != null) {
+                rightLeaf.next.prev = leftLeaf;
+            } else {
+                last = leftLeaf;
+            }
+        } else {
+            left.keys[left.size] = parent.keys[slot]; // the separator comes down between the halves
+            System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+            System.arraycopy(((Branch) right).children, 0, ((Branch) left).children, left.size + 1, right.size + 1);
+            left.size += right.size + 1;
+        }
+        removeAt(parent.keys, parent.size, slot);
+        removeAt(parent.children, parent.size + 1, slot + 1);
+        parent.size--;
+    }
+
+    /**
+     * Builds the tree of the entries of {@code m}, in ascending order, from the leaves up: the
+     * nodes of each level are filled evenly, hence at least half full.
+     */
+    private void load(Map<? extends K, ? extends V> m) {
+        int count = m.size();
+        int leaves = (count + WIDTH - 1) / WIDTH;
+        Node[] level = new Node[leaves];
+        Leaf previous = null;
+        Iterator<? extends Map.Entry<? extends K, ? extends V>> entries = m.entrySet().iterator();
+        for (int i = 0; i < leaves; i++) {
+            Leaf leaf = new Leaf();
+            int entriesOfLeaf = count / leaves + (i < count % leaves ? 1 : 0);
+            for (int j = 0; j < entriesOfLeaf; j++) {
+                Map.Entry<? extends K, ? extends V> entry = entries.next();
+                leaf.keys[j] = Objects.requireNonNull(entry.getKey());
+                leaf.values[j] = Objects.requireNonNull(entry.getValue());
+            }
+            leaf.size = entriesOfLeaf;
+            leaf.prev = previous;
+            if (previous != null) {
+                previous.next = leaf;
+            }
+            level[i] = leaf;
+            previous = leaf;
+        }
+        int levels = 0;
+        while (level.length > 1) {
+            int branches = (level.length + WIDTH) / (WIDTH + 1);
+            Node[] upper = new Node[branches];
+            for (int i = 0, child = 0; i < branches; i++) {
+                Branch branch = new Branch();
+                int children = level.length / branches + (i < level.length % branches ? 1 : 0);
+                branch.children[0] = level[child++];
+                for (int j = 1; j < children; j++) {
+                    branch.keys[j - 1] = lowestKey(level[child]);
+                    branch.children[j] = level[child++];
+                }
+                branch.size = children - 1;
+                upper[i] = branch;
+            }
+            level = upper;
+            levels++;
+        }
+        // nothing is changed before the last entry was checked
+        root = level[0];
+        first = (Leaf) leftmost(root);
+        last = previous;
+        height = levels;
+        if (height > path.length) {
+            path = new Branch[height * 2];
+            slots = new int[height * 2];
+        }
+        size = count;
+        modCount++;
+        version++;
+    }
+
+    private static Object lowestKey(Node node) {
+        return leftmost(node).keys[0];
+    }
+
+    private static Node leftmost(Node node) {
+        while (node instanceof Branch) {
+            node = ((Branch) node).children[0];
+        }
+        return node;
+    }
+
+
+    // ==========================================================================================
+    // ==========================================================================================
+    // ==========================================================================================
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        Objects.requireNonNull(key);
+        try {
+            Leaf leaf = leafFor(key);
+            int index = search(leaf, key);
+            return index >= 0 ? valueAt(leaf, index) : null;
+        } catch (ClassCastException e) {
+            return null; // a key of another type is not mapped
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Objects.requireNonNull(key);
+        try {
+            return search(leafFor(key), key) >= 0;
+        } catch (ClassCastException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Objects.requireNonNull(value);
+        for (Leaf leaf = first; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.size; i++) {
+                if (value.equals(leaf.values[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return write(key, value, true);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        captureOldState();
+        if (size == 0 && !m.isEmpty() && m instanceof SortedMap
+                && Objects.equals(((SortedMap<?, ?>) m).comparator(), comparator)) {
+            load(m);
+            return;
+        }
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(WriteBatch<? extends K, ? extends V> batch) {
+        if (batch.hasNullEntries()) {
+            throw new NullPointerException("null key or value in the batch");
+        }
+        oldDelta.sample(); // the writes below record no delta
+        batch.expect(size, this::containsKey);
+        for (Map.Entry<? extends K, Object> write : batch.writes()) {
+            if (WriteBatch.removes(write.getValue())) {
+                Leaf leaf = descend(write.getKey());
+                int index = search(leaf, write.getKey());
+                if (index >= 0) {
+                    delete(leaf, index);
+                }
+            } else {
+                write(write.getKey(), (V) write.getValue());
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        Objects.requireNonNull(key);
+        Leaf leaf;
+        int index;
+        try {
+            leaf = descend(key);
+            index = search(leaf, key);
+        } catch (ClassCastException e) {
+            leaf = null;
+            index = -1;
+        }
+        if (index < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        V oldValue = valueAt(leaf, index);
+        oldDelta.record(key, size, true, oldValue);
+        delete(leaf, index);
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        oldDelta.sample();
+        root = first = last = new Leaf();
+        height = 0;
+        size = 0;
+        modCount++;
+        version++;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        V value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        Objects.requireNonNull(key);
+        V oldValue = get(key);
+        oldDelta.record(key, size, oldValue != null, oldValue);
+        return oldValue != null ? oldValue : write(key, value);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        Objects.requireNonNull(key);
+        Leaf leaf = descend(key);
+        int index = search(leaf, key);
+        V oldValue = index >= 0 ? valueAt(leaf, index) : null;
+        oldDelta.record(key, size, index >= 0, oldValue);
+        if (index < 0 || !oldValue.equals(value)) {
+            return false;
+        }
+        delete(leaf, index);
+        return true;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(newValue);
+        V value = get(key);
+        oldDelta.record(key, size, value != null, value);
+        if (value == null || !value.equals(oldValue)) {
+            return false;
+        }
+        write(key, newValue);
+        return true;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        V oldValue = get(key);
+        oldDelta.record(key, size, oldValue != null, oldValue);
+        return oldValue != null ? write(key, value) : null;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        captureOldState();
+        int expectedModCount = modCount;
+        for (Leaf leaf = first; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.size; i++) {
+                V value = Objects.requireNonNull(function.apply(keyAt(leaf, i), valueAt(leaf, i)));
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                leaf.values[i] = value;
+            }
+        }
+        version++;
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public Map.Entry<K, V> firstEntry() {
+        return all.firstEntry();
+    }
+
+    @Override
+    public Map.Entry<K, V> lastEntry() {
+        return all.lastEntry();
+    }
+
+    @Override
+    public Map.Entry<K, V> pollFirstEntry() {
+        return all.pollFirstEntry();
+    }
+
+    @Override
+    public Map.Entry<K, V> pollLastEntry() {
+        return all.pollLastEntry();
+    }
+
+    @Override
+    public K firstKey() {
+        return all.firstKey();
+    }
+
+    @Override
+    public K lastKey() {
+        return all.lastKey();
+    }
+
+    @Override
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return all.lowerEntry(key);
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return all.lowerKey(key);
+    }
+
+    @Override
+    public Map.Entry<K, V> floorEntry(K key) {
+        return all.floorEntry(key);
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return all.floorKey(key);
+    }
+
+    @Override
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return all.ceilingEntry(key);
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return all.ceilingKey(key);
+    }
+
+    @Override
+    public Map.Entry<K, V> higherEntry(K key) {
+        return all.higherEntry(key);
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return all.higherKey(key);
+    }
+
+    @Override
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return all.subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        return all.headMap(toKey, inclusive);
+    }
+
+    @Override
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        return all.tailMap(fromKey, inclusive);
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    @Override
+    public NavigableMap<K, V> descendingMap() {
+        return all.descendingMap();
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return all.navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return all.descendingKeySet();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return all.navigableKeySet();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return all.entrySet();
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Views             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * The entries of the map between two bounds, in ascending or descending order: the map
+     * itself, when unbounded and ascending.
+     */
+    private final class SubMap extends AbstractMap<K, V> implements NavigableMap<K, V> {
+        private final K low;
+        private final boolean lowInclusive;
+        private final boolean fromStart;
+        private final K high;
+        private final boolean highInclusive;
+        private final boolean toEnd;
+        private final boolean descending;
+
+        private Set<Map.Entry<K, V>> entrySetView;
+
+        SubMap(K low, boolean lowInclusive, boolean fromStart, K high, boolean highInclusive, boolean toEnd, boolean descending) {
+            if (!fromStart && !toEnd && compare(low, high) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            if (!fromStart) {
+                compare(low, low); // the type and null checks of the bounds
+            }
+            if (!toEnd) {
+                compare(high, high);
+            }
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.fromStart = fromStart;
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.toEnd = toEnd;
+            this.descending = descending;
+        }
+
+        boolean tooLow(Object key) {
+            if (fromStart) {
+                return false;
+            }
+            int c = compare(key, low);
+            return c < 0 || c == 0 && !lowInclusive;
+        }
+
+        boolean tooHigh(Object key) {
+            if (toEnd) {
+                return false;
+            }
+            int c = compare(key, high);
+            return c > 0 || c == 0 && !highInclusive;
+        }
+
+        boolean inRange(Object key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        private boolean inRange(Object key, boolean inclusive) {
+            // a bound of a view of this view: an exclusive bound may be the bound of this view
+            return inclusive ? inRange(key)
+                    : (fromStart || compare(key, low) >= 0) && (toEnd || compare(key, high) <= 0);
+        }
+
+        /**
+         * Finds the lowest key of the range, in ascending order.
+         */
+        boolean findLowest() {
+            boolean found = fromStart ? findFirst() : find(low, lowInclusive ? CEILING : HIGHER);
+            return found && !tooHigh(foundLeaf.keys[foundIndex]);
+        }
+
+        boolean findHighest() {
+            boolean found = toEnd ? findLast() : find(high, highInclusive ? FLOOR : LOWER);
+            return found && !tooLow(foundLeaf.keys[foundIndex]);
+        }
+
+        /**
+         * Finds the key of the range nearest to {@code key} in the given relation, in ascending order.
+         */
+        boolean findNearest(Object key, int relation) {
+            if (relation >= CEILING) {
+                return tooLow(key) ? findLowest() : find(key, relation) && !tooHigh(foundLeaf.keys[foundIndex]);
+            }
+            return tooHigh(key) ? findHighest() : find(key, relation) && !tooLow(foundLeaf.keys[foundIndex]);
+        }
+
+        private Map.Entry<K, V> found(boolean found) {
+            return found ? new AbstractMap.SimpleImmutableEntry<>(keyAt(foundLeaf, foundIndex), valueAt(foundLeaf, foundIndex)) : null;
+        }
+
+        private K foundKey(boolean found) {
+            return found ? keyAt(foundLeaf, foundIndex) : null;
+        }
+
+        private boolean nearest(Object key, int relation) {
+            Objects.requireNonNull(key);
+            return findNearest(key, descending ? HIGHER - relation : relation);
+        }
+
+        private boolean findFirstOfView() {
+            return descending ? findHighest() : findLowest();
+        }
+
+        private boolean findLastOfView() {
+            return descending ? findLowest() : findHighest();
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return descending ? Collections.reverseOrder(comparator) : comparator;
+        }
+
+        @Override
+        public int size() {
+            if (fromStart && toEnd) {
+                return size;
+            }
+            if (!findLowest()) {
+                return 0;
+            }
+            Leaf start = foundLeaf;
+            int count = 0;
+            for (Leaf leaf = start; leaf != null; leaf = leaf.next) {
+                int from = leaf == start ? foundIndex : 0;
+                if (!tooHigh(leaf.keys[leaf.size - 1])) {
+                    count += leaf.size - from;
+                    continue;
+                }
+                for (int i = from; i < leaf.size && !tooHigh(leaf.keys[i]); i++) {
+                    count++;
+                }
+                break;
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return fromStart && toEnd ? size == 0 : !findLowest();
+        }
+
+        @Override
+        public V get(Object key) {
+            return inRange(key) ? BPlusTreeMapContracts.this.get(key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return inRange(key) && BPlusTreeMapContracts.this.containsKey(key);
+        }
+
+        @Override
+        public V put(K key, V value) {
+            if (!inRange(key)) {
+                throw new IllegalArgumentException("key out of range");
+            }
+            return BPlusTreeMapContracts.this.put(key, value);
+        }
+
+        @Override
+        public V remove(Object key) {
+            return inRange(key) ? BPlusTreeMapContracts.this.remove(key) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            Set<Map.Entry<K, V>> view = entrySetView;
+            if (view == null) {
+                entrySetView = view = new EntrySet(this);
+            }
+            return view;
+        }
+
+        @Override
+        public Set<K> keySet() {
+            return navigableKeySet();
+        }
+
+        @Override
+        public Map.Entry<K, V> firstEntry() {
+            return found(findFirstOfView());
+        }
+
+        @Override
+        public Map.Entry<K, V> lastEntry() {
+            return found(findLastOfView());
+        }
+
+        @Override
+        public K firstKey() {
+            if (!findFirstOfView()) {
+                throw new NoSuchElementException();
+            }
+            return keyAt(foundLeaf, foundIndex);
+        }
+
+        @Override
+        public K lastKey() {
+            if (!findLastOfView()) {
+                throw new NoSuchElementException();
+            }
+            return keyAt(foundLeaf, foundIndex);
+        }
+
+        @Override
+        public Map.Entry<K, V> pollFirstEntry() {
+            Map.Entry<K, V> entry = firstEntry();
+            if (entry != null) {
+                BPlusTreeMapContracts.this.remove(entry.getKey());
+            }
+            return entry;
+        }
+
+        @Override
+        public Map.Entry<K, V> pollLastEntry() {
+            Map.Entry<K, V> entry = lastEntry();
+            if (entry != null) {
+                BPlusTreeMapContracts.this.remove(entry.getKey());
+            }
+            return entry;
+        }
+
+        @Override
+        public Map.Entry<K, V> lowerEntry(K key) {
+            return found(nearest(key, LOWER));
+        }
+
+        @Override
+        public K lowerKey(K key) {
+            return foundKey(nearest(key, LOWER));
+        }
+
+        @Override
+        public Map.Entry<K, V> floorEntry(K key) {
+            return found(nearest(key, FLOOR));
+        }
+
+        @Override
+        public K floorKey(K key) {
+            return foundKey(nearest(key, FLOOR));
+        }
+
+        @Override
+        public Map.Entry<K, V> ceilingEntry(K key) {
+            return found(nearest(key, CEILING));
+        }
+
+        @Override
+        public K ceilingKey(K key) {
+            return foundKey(nearest(key, CEILING));
+        }
+
+        @Override
+        public Map.Entry<K, V> higherEntry(K key) {
+            return found(nearest(key, HIGHER));
+        }
+
+        @Override
+        public K higherKey(K key) {
+            return foundKey(nearest(key, HIGHER));
+        }
+
+        @Override
+        public NavigableMap<K, V> descendingMap() {
+            return new SubMap(low, lowInclusive, fromStart, high, highInclusive, toEnd, !descending);
+        }
+
+        @Override
+        public NavigableSet<K> navigableKeySet() {
+            return new KeySet<>(this);
+        }
+
+        @Override
+        public NavigableSet<K> descendingKeySet() {
+            return new KeySet<>(descendingMap());
+        }
+
+        @Override
+        public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+            if (descending) {
+                return range(toKey, toInclusive, false, fromKey, fromInclusive, false);
+            }
+            return range(fromKey, fromInclusive, false, toKey, toInclusive, false);
+        }
+
+        @Override
+        public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+            if (descending) {
+                return range(toKey, inclusive, false, high, highInclusive, toEnd);
+            }
+            return range(low, lowInclusive, fromStart, toKey, inclusive, false);
+        }
+
+        @Override
+        public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+            if (descending) {
+                return range(low, lowInclusive, fromStart, fromKey, inclusive, false);
+            }
+            return range(fromKey, inclusive, false, high, highInclusive, toEnd);
+        }
+
+        private NavigableMap<K, V> range(K from, boolean fromInclusive, boolean start, K to, boolean toInclusive, boolean end) {
+            if (!start) {
+                Objects.requireNonNull(from);
+            }
+            if (!end) {
+                Objects.requireNonNull(to);
+            }
+            if (!start && !inRange(from, fromInclusive) || !end && !inRange(to, toInclusive)) {
+                throw new IllegalArgumentException("key out of range");
+            }
+            return new SubMap(from, fromInclusive, start, to, toInclusive, end, descending);
+        }
+
+        @Override
+        public SortedMap<K, V> subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> tailMap(K fromKey) {
+            return tailMap(fromKey, true);
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        private final SubMap range;
+
+        EntrySet(SubMap range) {
+            this.range = range;
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator(range);
+        }
+
+        @Override
+        public int size() {
+            return range.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return range.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            Object key = entry.getKey();
+            if (key == null || !range.inRange(key)) {
+                return false;
+            }
+            V value = BPlusTreeMapContracts.this.get(key);
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            BPlusTreeMapContracts.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            if (range.fromStart && range.toEnd) {
+                BPlusTreeMapContracts.this.clear();
+            } else {
+                super.clear();
+            }
+        }
+    }
+
+    /**
+     * Walks the leaves of a range, and the entries of each up to the bound of the range: the
+     * bound is only compared to the last entry of a leaf, unless the range ends within it.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final SubMap range;
+        private Leaf leaf; // null at the end
+        private int index;
+        private int limit; // ascending, the end of the entries of the leaf in range; descending, their start
+        private K lastReturned;
+        private int expectedModCount = modCount;
+
+        EntryIterator(SubMap range) {
+            this.range = range;
+            if (range.findFirstOfView()) {
+                enter(foundLeaf, foundIndex);
+            }
+        }
+
+        private void enter(Leaf leaf, int index) {
+            this.leaf = leaf;
+            this.index = index;
+            if (!range.descending) {
+                if (!range.tooHigh(leaf.keys[leaf.size - 1])) {
+                    limit = leaf.size;
+                } else {
+                    for (limit = index; limit < leaf.size && !range.tooHigh(leaf.keys[limit]); limit++) {
+                    }
+                }
+                if (index >= limit) {
+                    this.leaf = null;
+                }
+            } else {
+                if (!range.tooLow(leaf.keys[0])) {
+                    limit = 0;
+                } else {
+                    for (limit = index; limit >= 0 && !range.tooLow(leaf.keys[limit]); limit--) {
+                    }
+                    limit++;
+                }
+                if (index < limit) {
+                    this.leaf = null;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            Entry entry = new Entry(leaf, index);
+            lastReturned = entry.key;
+            if (!range.descending) {
+                if (++index < limit) {
+                    return entry;
+                }
+                if (limit < leaf.size || leaf.next == null) {
+                    leaf = null;
+                } else {
+                    enter(leaf.next, 0);
+                }
+            } else {
+                if (--index >= limit) {
+                    return entry;
+                }
+                if (limit > 0 || leaf.prev == null) {
+                    leaf = null;
+                } else {
+                    enter(leaf.prev, leaf.prev.size - 1);
+                }
+            }
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            boolean more = leaf != null;
+            BPlusTreeMapContracts.this.remove(lastReturned);
+            // the removal may have moved the entries between leaves: find the next one again
+            if (more && find(lastReturned, range.descending ? LOWER : HIGHER)) {
+                enter(foundLeaf, foundIndex);
+            } else {
+                leaf = null;
+            }
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+    }
+
+    private final class Entry implements Map.Entry<K, V>, MapContracts.Entry<K, V> {
+        private final Leaf leaf;
+        private final int index;
+        private final K key;
+
+        Entry(Leaf leaf, int index) {
+            this.leaf = leaf;
+            this.index = index;
+            this.key = keyAt(leaf, index);
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            // the entry moves when a write splits, refills or merges its leaf
+            return index < leaf.size && leaf.keys[index] == key ? valueAt(leaf, index) : BPlusTreeMapContracts.this.get(key);
+        }
+
+        @Override
+        public V setValue(V value) {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return key.equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
+    /**
+     * The keys of a view, ascending or descending as the view.
+     */
+    private static final class KeySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+        private final NavigableMap<E, ?> map;
+
+        KeySet(NavigableMap<E, ?> map) {
+            this.map = map;
+        }
+
+        private static <E> Iterator<E> keys(Iterator<? extends Map.Entry<E, ?>> entries) {
+            return new Iterator<E>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public E next() {
+                    return entries.next().getKey();
+                }
+
+                @Override
+                public void remove() {
+                    entries.remove();
+                }
+            };
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return keys(map.entrySet().iterator());
+        }
+
+        @Override
+        public Iterator<E> descendingIterator() {
+            return keys(map.descendingMap().entrySet().iterator());
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return map.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!map.containsKey(o)) {
+                return false;
+            }
+            map.remove(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return map.comparator();
+        }
+
+        @Override
+        public E first() {
+            return map.firstKey();
+        }
+
+        @Override
+        public E last() {
+            return map.lastKey();
+        }
+
+        @Override
+        public E lower(E e) {
+            return map.lowerKey(e);
+        }
+
+        @Override
+        public E floor(E e) {
+            return map.floorKey(e);
+        }
+
+        @Override
+        public E ceiling(E e) {
+            return map.ceilingKey(e);
+        }
+
+        @Override
+        public E higher(E e) {
+            return map.higherKey(e);
+        }
+
+        @Override
+        public E pollFirst() {
+            Map.Entry<E, ?> entry = map.pollFirstEntry();
+            return entry == null ? null : entry.getKey();
+        }
+
+        @Override
+        public E pollLast() {
+            Map.Entry<E, ?> entry = map.pollLastEntry();
+            return entry == null ? null : entry.getKey();
+        }
+
+        @Override
+        public NavigableSet<E> descendingSet() {
+            return new KeySet<>(map.descendingMap());
+        }
+
+        @Override
+        public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+            return new KeySet<>(map.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+
+        @Override
+        public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+            return new KeySet<>(map.headMap(toElement, inclusive));
+        }
+
+        @Override
+        public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+            return new KeySet<>(map.tailMap(fromElement, inclusive));
+        }
+
+        @Override
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<E> headSet(E toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<E> tailSet(E fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package contracts;
+
+
+/**
+ * The contracts of a map bounded in weight, which evicts entries when a write takes it over its
+ * maximum weight: the weight never exceeds the bound, and the postconditions of the writes hold
+ * up to the entries the write evicted (see {@link EvictingMapContracts}).
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public interface BoundedMapContracts<K, V> extends EvictingMapContracts<K, V> {
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Pure
+    long maximum_weight(); // the bound on the weight of the map
+
+    @Pure
+    long weight(); // the sum of the weights of the entries, as left by the last write
+
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================          Invariants          ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Invariant
+    @Pure
+    default boolean weight_within_bound() {
+        return checked_invariant("weight_within_bound", () -> weight() >= 0 && weight() <= maximum_weight());
+    }
+}
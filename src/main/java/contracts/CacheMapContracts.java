@@ -0,0 +1,922 @@
+package contracts;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * A contract-checked concurrent cache bounded in weight, which evicts by W-TinyLFU: new entries
+ * enter a small LRU window, and an entry leaving the window is only admitted into the main space
+ * if its key was accessed more often lately than the key it would evict, as estimated by a
+ * {@link FrequencySketch}. The main space is a segmented LRU: entries accessed again in its
+ * probation segment move to its protected segment, of at most 80% of the main space. The window
+ * holds 1% of the maximum weight, and at least one unit.
+ *
+ * <p>Reads take no lock: a lookup reads a {@link ConcurrentHashMap} of nodes, then records the
+ * access in a lossy buffer of its thread's stripe. Writes, and the replay of the buffered reads
+ * on the eviction order once a buffer is half full, take the eviction lock. Each write evicts
+ * before it returns, so the weight never exceeds the bound once a write has returned. The
+ * functions of the compute methods, {@code merge} and {@code replaceAll} run outside the lock:
+ * their result is only installed if the mapping did not change meanwhile, otherwise the compute
+ * methods and {@code merge} call their function again, and {@code replaceAll} keeps the value of
+ * the concurrent write.
+ *
+ * <p>Its contracts are the {@link BoundedMapContracts}: the put postconditions allow for the
+ * entries the write evicted, counted in its {@link KeyDelta}. Like
+ * {@link ConcurrentHashMapContracts}, it supports neither null keys nor null values and its
+ * iterators are weakly consistent; since the writes are serialized, its postconditions tell
+ * concurrent writes from wrong results by the version of the map.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class CacheMapContracts<K, V> extends AbstractMap<K, V> implements BoundedMapContracts<K, V> {
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    private static final int READ_STRIPE_BITS = 4;
+    private static final int READ_STRIPES = 1 << READ_STRIPE_BITS;
+    private static final int READ_BUFFER = 32; // reads buffered per stripe, a power of two
+    private static final int PAD = 8; // longs per counter: one 64-byte cache line, against false sharing
+
+    private static final byte WINDOW = 0;
+    private static final byte PROBATION = 1;
+    private static final byte PROTECTED = 2;
+    private static final byte REMOVED = 3;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // guarded by the eviction lock
+    private final FrequencySketch sketch;
+    private final AccessOrder<K, V> window = new AccessOrder<>();
+    private final AccessOrder<K, V> probation = new AccessOrder<>();
+    private final AccessOrder<K, V> protectedSegment = new AccessOrder<>();
+    private long windowWeight;
+    private long protectedWeight;
+    private long totalWeight;
+
+    private final AtomicReferenceArray<Node<K, V>> readBuffer = new AtomicReferenceArray<>(READ_STRIPES * READ_BUFFER);
+    private final AtomicLongArray readTails = new AtomicLongArray(READ_STRIPES * PAD);
+    private final AtomicLongArray readHeads = new AtomicLongArray(READ_STRIPES * PAD); // written under the eviction lock
+
+    private volatile long weight; // the total weight as left by the last write
+    private volatile long version; // incremented by every write, under the eviction lock
+    private volatile long evictions;
+
+    private volatile ContractSampler contractSampler; // null: use the global sampler
+    private final ThreadLocal<Map<K, V>> oldState = new ThreadLocal<>();
+    private final ThreadLocal<KeyDelta<V>> oldDelta = ThreadLocal.withInitial(() -> new KeyDelta<>(this));
+    private final InvariantCache invariantCache = new InvariantCache();
+    private final PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private Set<Map.Entry<K, V>> entrySetView;
+
+    /**
+     * Creates an empty cache of at most {@code maximumSize} entries.
+     *
+     * @param maximumSize the maximum number of entries
+     * @throws IllegalArgumentException if {@code maximumSize} is negative
+     */
+    public CacheMapContracts(long maximumSize) {
+        this(maximumSize, (key, value) -> 1);
+    }
+
+    /**
+     * Creates an empty cache of entries of at most {@code maximumWeight} in total, each weighing
+     * what {@code weigher} returns for it when it is written.
+     *
+     * @param maximumWeight the maximum total weight of the entries
+     * @param weigher       the weight of an entry, which must not be negative
+     * @throws IllegalArgumentException if {@code maximumWeight} is negative
+     */
+    public CacheMapContracts(long maximumWeight, ToIntBiFunction<? super K, ? super V> weigher) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("Illegal maximum weight: " + maximumWeight);
+        }
+        this.weigher = Objects.requireNonNull(weigher);
+        this.maximumWeight = maximumWeight;
+        // at least one unit, so that a new entry of a small cache is not at once up for admission
+        this.windowMaximum = Math.max(Math.min(1, maximumWeight), maximumWeight * WINDOW_PERCENT / 100);
+        this.protectedMaximum = (maximumWeight - windowMaximum) * PROTECTED_PERCENT / 100;
+        this.sketch = new FrequencySketch(maximumWeight);
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public boolean supports_null_items() {
+        return false;
+    }
+
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    @Override
+    public long maximum_weight() {
+        return maximumWeight;
+    }
+
+    @Override
+    public long weight() {
+        return weight;
+    }
+
+    @Override
+    public V mapped_value(Object key) {
+        Node<K, V> node = data.get(key);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public boolean key_written_concurrently() {
+        return map_written_concurrently(); // the writes are serialized: any other write may have evicted the key
+    }
+
+    @Override
+    public boolean map_written_concurrently() {
+        return version != oldDelta.get().mapStamp();
+    }
+
+    @Override
+    public long state_version() {
+        return version;
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public Map<K, V> old_state() {
+        return oldState.get();
+    }
+
+    private void captureOldState() {
+        if (!ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS) || !oldDelta.get().sampled()) {
+            oldState.set(null); // the postconditions of the call are skipped
+            return;
+        }
+        Map<K, V> state = new HashMap<>();
+        for (Node<K, V> node : data.values()) {
+            state.put(node.key, node.value);
+        }
+        oldState.set(state);
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta.get();
+    }
+
+    /**
+     * Returns the number of entries evicted since the cache was created.
+     *
+     * @return the number of entries evicted
+     */
+    public long evictionCount() {
+        return evictions;
+    }
+
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================       Concurrent Hashmap     ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Pure
+    public boolean null_if_not_contains_key(V returns, Object key) {
+        // a fresh read agreeing with the result is a witness; otherwise the result is wrong only if
+        // no write overlapped the call and this check
+        return key == null || checked_read("null_if_not_contains_key",
+                () -> mapped_value(key) == returns || version != old_delta().stamp());
+    }
+
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================          W-TinyLFU           ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * An entry, linked into the access order of its segment.
+     */
+    private static final class Node<K, V> {
+        final K key;
+        final int hash;
+        volatile V value;
+        // guarded by the eviction lock
+        int weight;
+        byte segment;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.hash = key.hashCode();
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * The nodes of a segment, from the least to the most recently accessed.
+     */
+    private static final class AccessOrder<K, V> {
+        Node<K, V> first;
+        Node<K, V> last;
+
+        void append(Node<K, V> node) {
+            node.prev = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        void unlink(Node<K, V> node) {
+            if (node.prev == null) {
+                first = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != last) {
+                unlink(node);
+                append(node);
+            }
+        }
+    }
+
+    private int weigh(K key, V value) {
+        int w = weigher.applyAsInt(key, value);
+        if (w < 0) {
+            throw new IllegalArgumentException("Negative weight " + w + " for key " + key);
+        }
+        return w;
+    }
+
+    private AccessOrder<K, V> segmentOf(Node<K, V> node) {
+        return node.segment == WINDOW ? window : node.segment == PROBATION ? probation : protectedSegment;
+    }
+
+    private void addWeight(Node<K, V> node, long delta) {
+        totalWeight += delta;
+        if (node.segment == WINDOW) {
+            windowWeight += delta;
+        } else if (node.segment == PROTECTED) {
+            protectedWeight += delta;
+        }
+    }
+
+    private static int readStripe() {
+        return (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> (64 - READ_STRIPE_BITS));
+    }
+
+    /**
+     * Buffers the access to {@code node}, or drops it if the buffer of the stripe is full, and
+     * replays the buffers if it is half full and no other thread holds the eviction lock.
+     */
+    private void afterRead(Node<K, V> node) {
+        int stripe = readStripe();
+        int at = stripe * PAD;
+        long tail = readTails.get(at);
+        long pending = tail - readHeads.get(at);
+        if (pending < READ_BUFFER && readTails.compareAndSet(at, tail, tail + 1)) {
+            readBuffer.lazySet(stripe * READ_BUFFER + (int) (tail & (READ_BUFFER - 1)), node);
+        }
+        if (pending >= READ_BUFFER / 2 && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffers() {
+        for (int stripe = 0; stripe < READ_STRIPES; stripe++) {
+            int at = stripe * PAD;
+            long head = readHeads.get(at);
+            long tail = readTails.get(at);
+            for (; head < tail; head++) {
+                int slot = stripe * READ_BUFFER + (int) (head & (READ_BUFFER - 1));
+                Node<K, V> node = readBuffer.get(slot);
+                if (node == null) {
+                    break; // its reader has claimed the slot but not filled it yet
+                }
+                readBuffer.lazySet(slot, null);
+                onAccess(node);
+            }
+            readHeads.lazySet(at, head);
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (node.segment == REMOVED) {
+            return;
+        }
+        sketch.increment(node.hash);
+        if (node.segment == WINDOW) {
+            window.moveToBack(node);
+        } else if (node.segment == PROTECTED) {
+            protectedSegment.moveToBack(node);
+        } else {
+            probation.unlink(node);
+            node.segment = PROTECTED;
+            protectedSegment.append(node);
+            protectedWeight += node.weight;
+            while (protectedWeight > protectedMaximum) {
+                Node<K, V> demoted = protectedSegment.first;
+                protectedSegment.unlink(demoted);
+                protectedWeight -= demoted.weight;
+                demoted.segment = PROBATION;
+                probation.append(demoted);
+            }
+        }
+    }
+
+    /**
+     * Moves the least recently used entries out of the window into probation, as candidates for
+     * admission, and returns the first of them, or null if the window was not full.
+     */
+    private Node<K, V> evictFromWindow() {
+        Node<K, V> first = null;
+        while (windowWeight > windowMaximum) {
+            Node<K, V> node = window.first;
+            window.unlink(node);
+            windowWeight -= node.weight;
+            node.segment = PROBATION;
+            probation.append(node);
+            if (first == null) {
+                first = node;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Evicts until the weight is within the bound, each candidate from the window against the
+     * least recently used entry of probation: the one accessed less often lately loses.
+     */
+    private void evict(KeyDelta<V> delta) {
+        Node<K, V> candidate = evictFromWindow();
+        while (totalWeight > maximumWeight) {
+            Node<K, V> victim = probation.first != null ? probation.first
+                    : protectedSegment.first != null ? protectedSegment.first : window.first;
+            if (candidate == null || victim == candidate) {
+                if (victim == candidate) {
+                    candidate = candidate.next; // the candidates are the last nodes of probation
+                }
+                evict(victim, delta);
+            } else if (candidate.weight > maximumWeight || !admit(candidate, victim)) {
+                Node<K, V> next = candidate.next;
+                evict(candidate, delta);
+                candidate = next;
+            } else {
+                evict(victim, delta);
+            }
+        }
+    }
+
+    private boolean admit(Node<K, V> candidate, Node<K, V> victim) {
+        int candidateFrequency = sketch.frequency(candidate.hash);
+        if (candidateFrequency > sketch.frequency(victim.hash)) {
+            return true;
+        }
+        // a warm candidate is admitted once in a while, so that an attacker cannot keep a victim
+        // ahead of every candidate by colliding with it in the sketch
+        return candidateFrequency > 5 && (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+    private void evict(Node<K, V> node, KeyDelta<V> delta) {
+        data.remove(node.key, node);
+        unlink(node);
+        evictions++;
+        delta.evicted(1);
+    }
+
+    private void unlink(Node<K, V> node) {
+        segmentOf(node).unlink(node);
+        addWeight(node, -node.weight);
+        node.segment = REMOVED;
+    }
+
+    /**
+     * Writes the mapping, under the eviction lock, without evicting.
+     */
+    private V putLocked(K key, V value, int w, boolean onlyIfAbsent, boolean onlyIfPresent) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            if (!onlyIfPresent) {
+                node = new Node<>(key, value, w);
+                data.put(key, node);
+                sketch.increment(node.hash);
+                node.segment = WINDOW;
+                window.append(node);
+                addWeight(node, w);
+            }
+            return null;
+        }
+        V oldValue = node.value;
+        if (!onlyIfAbsent) {
+            node.value = value;
+            addWeight(node, w - node.weight);
+            node.weight = w;
+        }
+        onAccess(node);
+        return oldValue;
+    }
+
+    private V removeLocked(Object key) {
+        Node<K, V> node = data.remove(key);
+        if (node == null) {
+            return null;
+        }
+        unlink(node);
+        return node.value;
+    }
+
+    /**
+     * Starts a write holding the eviction lock: replays the buffered reads and records the old
+     * mapping of {@code key}, or only the size for a bulk write.
+     */
+    private KeyDelta<V> startWrite(Object key) {
+        drainReadBuffers();
+        KeyDelta<V> delta = oldDelta.get();
+        Node<K, V> node = key == null ? null : data.get(key);
+        delta.record(key, data.size(), node != null, node == null ? null : node.value);
+        return delta;
+    }
+
+    /**
+     * Finishes a write holding the eviction lock: publishes the weight it left and a new version.
+     */
+    private void finishWrite(KeyDelta<V> delta) {
+        weight = totalWeight;
+        long v = version + 1;
+        version = v;
+        delta.stampWrite(v, v);
+    }
+
+
+    // ==========================================================================================
+    // ==========================================================================================
+    // ==========================================================================================
+
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return data.isEmpty();
+    }
+
+    @Override
+    public V get(@NotNull Object key) {
+        if (ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS)) {
+            oldDelta.get().stamp(version);
+        }
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        afterRead(node);
+        return node.value;
+    }
+
+    @Override
+    public V getOrDefault(@NotNull Object key, V defaultValue) {
+        V value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    @Override
+    public boolean containsKey(@NotNull Object key) {
+        return data.containsKey(key); // not an access
+    }
+
+    @Override
+    public boolean containsValue(@NotNull Object value) {
+        Objects.requireNonNull(value);
+        for (Node<K, V> node : data.values()) {
+            if (value.equals(node.value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        for (Node<K, V> node : data.values()) {
+            action.accept(node.key, node.value);
+        }
+    }
+
+    private V doPut(K key, V value, boolean onlyIfAbsent, boolean onlyIfPresent) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        int w = weigh(key, value);
+        evictionLock.lock();
+        try {
+            KeyDelta<V> delta = startWrite(key);
+            V oldValue = putLocked(key, value, w, onlyIfAbsent, onlyIfPresent);
+            evict(delta);
+            finishWrite(delta);
+            return oldValue;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public V put(@NotNull K key, @NotNull V value) {
+        return doPut(key, value, false, false);
+    }
+
+    @Override
+    public V putIfAbsent(@NotNull K key, @NotNull V value) {
+        return doPut(key, value, true, false);
+    }
+
+    @Override
+    public V replace(@NotNull K key, @NotNull V value) {
+        return doPut(key, value, false, true);
+    }
+
+    @Override
+    public boolean replace(@NotNull K key, @NotNull V oldValue, @NotNull V newValue) {
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        int w = weigh(key, newValue);
+        evictionLock.lock();
+        try {
+            KeyDelta<V> delta = startWrite(key);
+            boolean replaced = delta.contained() && oldValue.equals(delta.value());
+            if (replaced) {
+                putLocked(key, newValue, w, false, true);
+                evict(delta);
+            }
+            finishWrite(delta);
+            return replaced;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public V remove(@NotNull Object key) {
+        Objects.requireNonNull(key);
+        evictionLock.lock();
+        try {
+            KeyDelta<V> delta = startWrite(key);
+            V oldValue = removeLocked(key);
+            finishWrite(delta);
+            return oldValue;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(@NotNull Object key, Object value) {
+        Objects.requireNonNull(key);
+        evictionLock.lock();
+        try {
+            KeyDelta<V> delta = startWrite(key);
+            boolean removed = delta.contained() && delta.value().equals(value);
+            if (removed) {
+                removeLocked(key);
+            }
+            finishWrite(delta);
+            return removed;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        evictionLock.lock();
+        try {
+            KeyDelta<V> delta = startWrite(null);
+            captureOldState();
+            for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+                K key = Objects.requireNonNull(entry.getKey());
+                V value = Objects.requireNonNull(entry.getValue());
+                putLocked(key, value, weigh(key, value), false, false);
+                evict(delta);
+            }
+            finishWrite(delta);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(WriteBatch<? extends K, ? extends V> batch) {
+        if (batch.hasNullEntries()) {
+            throw new NullPointerException("null key or value in the batch"); // before any write
+        }
+        evictionLock.lock();
+        try {
+            KeyDelta<V> delta = startWrite(null);
+            batch.expect(data.size(), data::containsKey);
+            for (Map.Entry<? extends K, Object> write : batch.writes()) {
+                K key = write.getKey();
+                if (WriteBatch.removes(write.getValue())) {
+                    removeLocked(key);
+                } else {
+                    V value = (V) write.getValue();
+                    putLocked(key, value, weigh(key, value), false, false);
+                    evict(delta);
+                }
+            }
+            finishWrite(delta);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        evictionLock.lock();
+        try {
+            KeyDelta<V> delta = startWrite(null);
+            for (Node<K, V> node : data.values()) {
+                data.remove(node.key, node);
+                unlink(node);
+            }
+            finishWrite(delta);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        KeyDelta<V> delta;
+        long started;
+        evictionLock.lock();
+        try {
+            delta = startWrite(null);
+            captureOldState();
+            started = version;
+        } finally {
+            evictionLock.unlock();
+        }
+        long installed = 0;
+        for (Node<K, V> node : data.values()) {
+            V oldValue = node.value;
+            V value = Objects.requireNonNull(function.apply(node.key, oldValue));
+            int w = weigh(node.key, value);
+            evictionLock.lock();
+            try {
+                // a concurrent write or eviction of the entry wins over the function
+                if (node.segment != REMOVED && node.value == oldValue) {
+                    node.value = value;
+                    addWeight(node, w - node.weight);
+                    node.weight = w;
+                    evict(delta);
+                    weight = totalWeight;
+                    version++;
+                    installed++;
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        evictionLock.lock();
+        try {
+            boolean raced = version != started + installed;
+            finishWrite(delta);
+            if (raced) {
+                delta.stampWrite(started, started); // tells the postconditions of the other writes
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Maps {@code key} to what {@code remapping} returns for its current value, or null if it is
+     * not mapped: null removes the key. The function runs without the eviction lock, and its
+     * result is installed under the lock only if the value it was given is still mapped; if a
+     * concurrent write changed it, the function runs again on the new value.
+     */
+    private V doCompute(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        Objects.requireNonNull(key);
+        for (;;) {
+            Node<K, V> node = data.get(key);
+            V oldValue = node == null ? null : node.value;
+            V newValue = remapping.apply(key, oldValue);
+            int w = newValue == null ? 0 : weigh(key, newValue);
+            evictionLock.lock();
+            try {
+                KeyDelta<V> delta = startWrite(key);
+                if (delta.value() != oldValue) {
+                    continue; // lost the race to another write of the key
+                }
+                if (newValue == null) {
+                    if (oldValue != null) {
+                        removeLocked(key);
+                    }
+                } else if (newValue != oldValue) {
+                    putLocked(key, newValue, w, false, false);
+                    evict(delta);
+                } else {
+                    onAccess(data.get(key));
+                }
+                finishWrite(delta);
+                return newValue;
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public V computeIfAbsent(@NotNull K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        V value = get(key);
+        if (value != null) {
+            return value; // a read, without the lock
+        }
+        return doCompute(key, (k, oldValue) -> oldValue != null ? oldValue : mappingFunction.apply(k));
+    }
+
+    @Override
+    public V computeIfPresent(@NotNull K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return doCompute(key, (k, oldValue) -> oldValue == null ? null : remappingFunction.apply(k, oldValue));
+    }
+
+    @Override
+    public V compute(@NotNull K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return doCompute(key, remappingFunction);
+    }
+
+    @Override
+    public V merge(@NotNull K key, @NotNull V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        return doCompute(key, (k, oldValue) -> oldValue == null ? value : remappingFunction.apply(oldValue, value));
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Views             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> view = entrySetView;
+        return view != null ? view : (entrySetView = new EntrySet());
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return data.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (entry.getKey() == null || entry.getValue() == null) {
+                return false;
+            }
+            V value = mapped_value(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return entry.getKey() != null && CacheMapContracts.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            CacheMapContracts.this.clear();
+        }
+    }
+
+    /**
+     * A weakly consistent iterator over the entries, which does not count as accesses.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final Iterator<Node<K, V>> nodes = data.values().iterator();
+        private Entry current;
+
+        @Override
+        public boolean hasNext() {
+            return nodes.hasNext();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            Node<K, V> node = nodes.next();
+            current = new Entry(node.key, node.value);
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            CacheMapContracts.this.remove(current.getKey());
+            current = null;
+        }
+    }
+
+    private final class Entry extends AbstractMap.SimpleEntry<K, V> implements MapContracts.Entry<K, V> {
+
+        Entry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            // like the entries of ConcurrentHashMap: writes through, and returns the value it held
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package contracts;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the keys or values of an {@link OffHeapMapContracts} or a {@link MappedFileMapContracts}
+ * to and from bytes.
+ *
+ * <p>The map compares keys by their encoding, so a key codec must encode equal keys to the same
+ * bytes and different keys to different bytes. Decoding always returns a new object: the values
+ * of such a map have no identity.
+ *
+ * @param <T> the type of the encoded objects
+ */
+public interface Codec<T> {
+
+    /**
+     * Writes the encoding of {@code value} to {@code out}, from its position on.
+     *
+     * @param value the object to encode, never null
+     * @param out   the buffer to write to
+     * @throws BufferOverflowException if {@code out} has too little room left; the caller then
+     *                                 retries with a larger buffer
+     */
+    void encode(T value, ByteBuffer out);
+
+    /**
+     * Reads an object from {@code in}, which holds exactly its encoding between its position and
+     * its limit.
+     *
+     * @param in the buffer to read from
+     * @return the decoded object
+     */
+    T decode(ByteBuffer in);
+
+    /**
+     * Returns a codec of integers, in 4 bytes.
+     *
+     * @return the integer codec
+     */
+    static Codec<Integer> integers() {
+        return Codecs.INTEGERS;
+    }
+
+    /**
+     * Returns a codec of longs, in 8 bytes.
+     *
+     * @return the long codec
+     */
+    static Codec<Long> longs() {
+        return Codecs.LONGS;
+    }
+
+    /**
+     * Returns a codec of strings, in UTF-8.
+     *
+     * @return the string codec
+     */
+    static Codec<String> strings() {
+        return Codecs.STRINGS;
+    }
+
+    /**
+     * Returns a codec of {@link java.io.Serializable} objects, through Java serialization. It
+     * works for any serializable type, but costs an object stream per call and several times the
+     * bytes of a dedicated codec, and serialization does not encode every pair of equal objects
+     * (such as two equal hash sets) to the same bytes.
+     *
+     * @param <T> the type of the encoded objects
+     * @return the serialization codec
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Codec<T> serialized() {
+        return (Codec<T>) Codecs.SERIALIZED;
+    }
+}
@@ -0,0 +1,120 @@
+package contracts;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The built-in {@link Codec codecs}.
+ */
+final class Codecs {
+
+    static final Codec<Integer> INTEGERS = new Codec<>() {
+        @Override
+        public void encode(Integer value, ByteBuffer out) {
+            out.putInt(value);
+        }
+
+        @Override
+        public Integer decode(ByteBuffer in) {
+            return in.getInt();
+        }
+    };
+
+    static final Codec<Long> LONGS = new Codec<>() {
+        @Override
+        public void encode(Long value, ByteBuffer out) {
+            out.putLong(value);
+        }
+
+        @Override
+        public Long decode(ByteBuffer in) {
+            return in.getLong();
+        }
+    };
+
+    static final Codec<String> STRINGS = new Codec<>() {
+        @Override
+        public void encode(String value, ByteBuffer out) {
+            out.put(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String decode(ByteBuffer in) {
+            byte[] bytes = new byte[in.remaining()];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    static final Codec<Object> SERIALIZED = new Codec<>() {
+        @Override
+        public void encode(Object value, ByteBuffer out) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+                stream.writeObject(value);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot serialize " + value.getClass().getName(), e);
+            }
+            out.put(bytes.toByteArray());
+        }
+
+        @Override
+        public Object decode(ByteBuffer in) {
+            byte[] bytes = new byte[in.remaining()];
+            in.get(bytes);
+            try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return stream.readObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    static final int MAX_ENCODING = 1 << 26; // the largest encoding of a key or value
+
+    private Codecs() {
+    }
+
+    /**
+     * Encodes {@code value} into {@code buffer}, or into a larger buffer if it has too little
+     * room, and returns the buffer holding the encoding between 0 and its limit.
+     */
+    static <T> ByteBuffer encode(Codec<T> codec, T value, ByteBuffer buffer) {
+        while (true) {
+            buffer.clear();
+            try {
+                codec.encode(value, buffer);
+                return buffer.flip();
+            } catch (BufferOverflowException e) {
+                if (buffer.capacity() >= MAX_ENCODING) {
+                    throw new IllegalArgumentException("Encoding larger than " + MAX_ENCODING + " bytes", e);
+                }
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * Returns the hash of the {@code length} bytes of {@code bytes} from {@code from} on.
+     */
+    static int hash(ByteBuffer bytes, int from, int length) {
+        long h = length;
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            h = (h + bytes.getLong(from + i)) * 0x9E3779B97F4A7C15L;
+        }
+        for (; i < length; i++) {
+            h = (h + bytes.get(from + i)) * 0x9E3779B97F4A7C15L;
+        }
+        return (int) (h ^ (h >>> 32));
+    }
+}
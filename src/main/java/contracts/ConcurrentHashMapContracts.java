@@ -2,14 +2,27 @@ package contracts;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.*;
 
-import static ch.usi.si.codelounge.jsicko.ContractUtils.implies;
-
 public class ConcurrentHashMapContracts<K, V> extends ConcurrentHashMap<K, V> implements MapContracts<K, V> {
 
+    private transient volatile ContractSampler contractSampler; // null: use the global sampler
+    private transient volatile AsyncVerifier asyncVerifier; // null: check the postconditions on the calling thread
+    private transient WriteTracker<K, V> tracker = WriteTracker.concurrent();
+    private transient ThreadLocal<Map<K, V>> oldState = new ThreadLocal<>();
+    private transient ThreadLocal<KeyDelta<V>> oldDelta = ThreadLocal.withInitial(() -> new KeyDelta<>(this));
+    private transient WriteStamps stamps = new WriteStamps();
+    private transient InvariantCache invariantCache = new InvariantCache();
+    private transient PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private transient volatile boolean keySetViewsOut; // removals through them bypass the tracker
+    private transient Collection<V> valuesView;
+    private transient Set<Map.Entry<K, V>> entrySetView;
+
     // ==========================================================================================
     // ==============================                              ==============================
     // ==============================        Helper Methods        ==============================
@@ -21,6 +34,201 @@ public class ConcurrentHashMapContracts<K, V> extends ConcurrentHashMap<K, V> im
         return true;
     }
 
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    /**
+     * Sets the verifier checking the postconditions of this map off the calling thread.
+     *
+     * <p>While set, the postconditions are skipped on the calling thread, and the single-key
+     * mutating calls sampled by the {@link #contract_sampler() sampler} are published to the
+     * verifier instead (see {@link AsyncVerifier} for what it checks). A call is only published
+     * if no other write overlapped it, so that the state it records is the one the call left.
+     *
+     * @param verifier the verifier of this map, or {@code null} to check the postconditions synchronously
+     */
+    public void setAsyncVerifier(AsyncVerifier verifier) {
+        this.asyncVerifier = verifier;
+    }
+
+    @Override
+    public boolean skip_postcondition(String predicate) {
+        return asyncVerifier != null || MapContracts.super.skip_postcondition(predicate);
+    }
+
+    @Override
+    public boolean skip_bulk_postcondition(String predicate) {
+        return asyncVerifier != null || MapContracts.super.skip_bulk_postcondition(predicate);
+    }
+
+    @Override
+    public boolean skip_read_postcondition(String predicate) {
+        return asyncVerifier != null || MapContracts.super.skip_read_postcondition(predicate);
+    }
+
+    @Override
+    public boolean key_written_concurrently() {
+        KeyDelta<V> delta = oldDelta.get();
+        return delta.keyStamp() < 0 || stamps.started(delta.key()) != delta.keyStamp();
+    }
+
+    @Override
+    public boolean map_written_concurrently() {
+        KeyDelta<V> delta = oldDelta.get();
+        return delta.mapStamp() < 0 || stamps.startedAll() != delta.mapStamp();
+    }
+
+    @Override
+    public long state_version() {
+        // once a key set view is out, the version no longer tells that the mappings did not change
+        return keySetViewsOut ? -1 : tracker.version();
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public int entry_hash_sum() {
+        return tracksEntryHashes() ? tracker.entryHashSum() : MapContracts.super.entry_hash_sum();
+    }
+
+    private boolean tracksEntryHashes() {
+        // the removals through a key set view bypass the tracker, whose sum is then stale for good
+        return tracker.tracksEntryHashes() && !keySetViewsOut;
+    }
+
+    /**
+     * Starts or stops maintaining the hash code of this map incrementally, on every change made
+     * to its mappings. While enabled, {@link #hashCode()} and the {@code hashcode_is_valid}
+     * invariant run in constant time, and the full recomputation is only done by deep audits
+     * (see {@link ContractAudit}), which are only meaningful while no other thread writes.
+     *
+     * <p>This must be called while no other thread writes to the map. The incremental hash code
+     * assumes that the hash codes of the mapped values do not change while they are in the map.
+     * It does not see removals through the iterators of {@link #keySet()} and additions through
+     * {@link #keySet(Object)}, which bypass the methods of this class: once such a view has been
+     * handed out, the hash code is recomputed on every call instead.
+     *
+     * @param enabled whether the hash code is maintained incrementally
+     */
+    public void setIncrementalHashCode(boolean enabled) {
+        tracker.trackEntryHashes(this, enabled);
+    }
+
+    @Override
+    public Map<K, V> old_state() {
+        return oldState.get();
+    }
+
+    private void captureOldState() {
+        if (!checked() || !oldDelta.get().sampled()) {
+            oldState.set(null); // the postconditions of the call are skipped
+            return;
+        }
+        if (oldDelta.get().mapStamp() < 0) {
+            // other writes were in flight when stampWriteAll stamped this call, so the
+            // postconditions will not judge the old state: skip the copy rather than contend with them
+            oldState.set(Collections.emptyMap());
+            return;
+        }
+        oldState.set(new HashMap<>(this));
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta.get();
+    }
+
+    /**
+     * Returns whether the postconditions of this map are checked: only then do the writes read
+     * the size and count themselves on the write stamps.
+     */
+    private boolean checked() {
+        return ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS);
+    }
+
+    private void recordOldDelta(Object key, int size, V oldValue) {
+        // the size may include changes made meanwhile by other threads: see stampWrite
+        oldDelta.get().record(key, size, oldValue != null, oldValue);
+    }
+
+    private void stampWrite(Object key) {
+        // a striped sequence lock over the call: its postconditions only judge the state they
+        // observe if no other write was in flight when it started and none has started since
+        oldDelta.get().stampWrite(stamps.quiescent(key), stamps.quiescentAll(1));
+    }
+
+    /**
+     * Starts a write to {@code key} on the write stamps, if the postconditions are checked: the
+     * stamps are shared counters, which unchecked calls leave alone.
+     *
+     * @return whether the postconditions are checked, to pass to {@link #finishWrite}
+     */
+    private boolean startWrite(Object key) {
+        if (!checked()) {
+            return false;
+        }
+        stamps.start(key);
+        return true;
+    }
+
+    private void finishWrite(Object key, boolean checked) {
+        if (checked) {
+            stamps.finish(key);
+        }
+    }
+
+    private boolean startWriteAll() {
+        if (!checked()) {
+            return false;
+        }
+        stamps.startAll();
+        KeyDelta<V> delta = oldDelta.get();
+        delta.sample(); // a bulk call records no delta
+        delta.stampWrite(-1, stamps.quiescentAll(WriteStamps.STRIPES));
+        return true;
+    }
+
+    private void finishWriteAll(boolean checked) {
+        if (checked) {
+            stamps.finishAll();
+        }
+    }
+
+    private void verifyAsync(AsyncVerifier.Operation operation, Object key, Object value, Object newValue, Object result) {
+        AsyncVerifier verifier = asyncVerifier;
+        if (verifier == null || !checked() || !oldDelta.get().sampled()) {
+            return;
+        }
+        V valueAfter = super.get(key);
+        int sizeAfter = super.size();
+        if (map_written_concurrently()) {
+            return; // the observed state may not be the one the call left
+        }
+        StackTraceElement[] callSite = verifier.capturesCallSites() ? AsyncVerifier.callSite(getClass()) : null;
+        verifier.publish(new AsyncVerifier.Call(operation, getClass(), key, value, newValue, result,
+                oldDelta.get(), sizeAfter, valueAfter != null, valueAfter, callSite));
+    }
+
     // ==========================================================================================
     // ==============================                              ==============================
     // ==============================          Invariants          ==============================
@@ -30,7 +238,10 @@ public class ConcurrentHashMapContracts<K, V> extends ConcurrentHashMap<K, V> im
     @Invariant
     @Pure
     public boolean none_null() {
-        return keySet().stream().noneMatch(Objects::isNull) && values().stream().noneMatch(Objects::isNull);
+        // nulls could only come in through the writes, whose postconditions check each written
+        // entry: the full scan only runs as a deep audit
+        return checked_invariant("none_null", () -> !deep_audit_due("none_null")
+                || !ContractLogic.containsEqual(super.keySet(), null) && !ContractLogic.containsEqual(values(), null));
     }
 
 
@@ -42,17 +253,30 @@ public class ConcurrentHashMapContracts<K, V> extends ConcurrentHashMap<K, V> im
 
     @Pure
     public boolean null_if_not_contains_key(V returns, Object key) {
-        return implies(key != null && containsKey(key),
-                () -> {
-                    Optional<Map.Entry<K, V>> optEntry = entrySet().stream().filter(entry -> entry.getKey().equals(key))
-                            .findFirst();
-                    if (optEntry.isPresent()) {
-                        V foundValue = optEntry.get().getValue();
-                        return returns == foundValue;
-                    }
-                    return false;
-                },
-                () -> returns == null);
+        // a fresh read agreeing with the result is a witness; otherwise the result is wrong only if
+        // no write to the key (or to a key of the same stripe) overlapped the call and this check
+        return key == null || checked_read("null_if_not_contains_key",
+                () -> super.get(key) == returns || stamps.started(key) != old_delta().stamp());
+    }
+
+    @Pure
+    public boolean entry_not_null(K key, V value) {
+        return checked("entry_not_null", () -> key != null && value != null);
+    }
+
+    @Pure
+    public boolean new_entry_not_null(K key, V newValue) {
+        return checked("new_entry_not_null", () -> key != null && newValue != null);
+    }
+
+    @Pure
+    public boolean all_entries_not_null(Map<? extends K, ? extends V> m) {
+        return checked_bulk("all_entries_not_null", () -> ContractLogic.noNullEntries(m));
+    }
+
+    @Pure
+    public boolean computed_entry_not_null(K key) {
+        return checked("computed_entry_not_null", () -> key != null); // a null result removes the key rather than mapping it to null
     }
 
 
@@ -73,6 +297,9 @@ public class ConcurrentHashMapContracts<K, V> extends ConcurrentHashMap<K, V> im
     @Override
     @Ensures({"null_if_not_contains_key"})
     public V get(Object key) {
+        if (checked()) {
+            oldDelta.get().stamp(stamps.finished(key));
+        }
         return super.get(key);
     }
 
@@ -87,43 +314,154 @@ public class ConcurrentHashMapContracts<K, V> extends ConcurrentHashMap<K, V> im
     }
 
     @Override
+    @Ensures({"entry_not_null"})
     public V put(@NotNull K key, @NotNull V value) {
-        return super.put(key, value);
-    }
-
-    @Override
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+            }
+            int size = checked ? super.size() : 0;
+            V oldValue = super.put(key, value);
+            if (checked) {
+                recordOldDelta(key, size, oldValue);
+            }
+            tracker.written(key, oldValue != null, oldValue, true, value);
+            verifyAsync(AsyncVerifier.Operation.PUT, key, value, null, oldValue);
+            return oldValue;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"all_entries_not_null"})
     public void putAll(Map<? extends K, ? extends V> m) {
-        super.putAll(m);
+        boolean checked = startWriteAll();
+        try {
+            captureOldState();
+            if (!tracker.active()) {
+                super.putAll(m);
+                tracker.modified();
+                return;
+            }
+            for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+                K key = entry.getKey();
+                V value = entry.getValue();
+                V oldValue = super.put(key, value);
+                tracker.written(key, oldValue != null, oldValue, true, value);
+            }
+        } finally {
+            finishWriteAll(checked);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(WriteBatch<? extends K, ? extends V> batch) {
+        if (batch.hasNullEntries()) {
+            throw new NullPointerException("null key or value in the batch"); // before any write
+        }
+        boolean checked = startWriteAll();
+        try {
+            // like putAll, not atomic with respect to concurrent readers and writers
+            batch.expect(super.size(), super::containsKey);
+            for (Map.Entry<? extends K, Object> write : batch.writes()) {
+                K key = write.getKey();
+                if (WriteBatch.removes(write.getValue())) {
+                    V oldValue = super.remove(key);
+                    if (oldValue != null) {
+                        tracker.written(key, true, oldValue, false, null);
+                    }
+                } else {
+                    V value = (V) write.getValue();
+                    V oldValue = super.put(key, value);
+                    tracker.written(key, oldValue != null, oldValue, true, value);
+                }
+            }
+        } finally {
+            finishWriteAll(checked);
+        }
     }
 
     @Override
     public V remove(@NotNull Object key) {
-        return super.remove(key);
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+            }
+            int size = checked ? super.size() : 0;
+            V oldValue = super.remove(key);
+            if (checked) {
+                recordOldDelta(key, size, oldValue);
+            }
+            if (oldValue != null) {
+                tracker.written(key, true, oldValue, false, null);
+            }
+            verifyAsync(AsyncVerifier.Operation.REMOVE, key, null, null, oldValue);
+            return oldValue;
+        } finally {
+            finishWrite(key, checked);
+        }
     }
 
     @Override
     public void clear() {
-        super.clear();
-    }
-
+        boolean checked = startWriteAll();
+        try {
+            if (!tracker.active()) {
+                super.clear();
+                tracker.modified();
+                return;
+            }
+            // like super.clear(), not atomic: remove the keys one by one, recording each removal
+            for (K key : super.keySet()) {
+                V oldValue = super.remove(key);
+                if (oldValue != null) {
+                    tracker.written(key, true, oldValue, false, null);
+                }
+            }
+        } finally {
+            finishWriteAll(checked);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The view is a {@link KeySetView}, which cannot be wrapped: the removals through its
+     * iterators and its bulk methods bypass the methods of this map. Once it has been handed out,
+     * the map therefore stops versioning its state (see {@link #state_version()}), and checks its
+     * invariants and memoized postconditions on every call.
+     */
     @Override
     public KeySetView<K, V> keySet() {
+        keySetViewsOut = true;
         return super.keySet();
     }
 
     @Override
     public Collection<V> values() {
-        return super.values();
+        Collection<V> view = valuesView;
+        if (view == null) {
+            valuesView = view = TrackedViews.values(this, super.entrySet(), tracker, true);
+        }
+        return view;
     }
 
     @Override
     public Set<Map.Entry<K, V>> entrySet() {
-        return super.entrySet();
+        Set<Map.Entry<K, V>> view = entrySetView;
+        if (view == null) {
+            entrySetView = view = TrackedViews.entrySet(this, super.entrySet(), tracker, true);
+        }
+        return view;
     }
 
     @Override
     public int hashCode() {
-        return super.hashCode();
+        return tracksEntryHashes() ? tracker.entryHashSum() : super.hashCode();
     }
 
     @Override
@@ -137,23 +475,89 @@ public class ConcurrentHashMapContracts<K, V> extends ConcurrentHashMap<K, V> im
     }
 
     @Override
+    @Ensures({"entry_not_null"})
     public V putIfAbsent(K key, V value) {
-        return super.putIfAbsent(key, value);
-    }
-
-    @Override
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+            }
+            int size = checked ? super.size() : 0;
+            V oldValue = super.putIfAbsent(key, value);
+            if (checked) {
+                recordOldDelta(key, size, oldValue);
+            }
+            if (oldValue == null) {
+                tracker.written(key, false, null, true, value);
+            }
+            verifyAsync(AsyncVerifier.Operation.PUT_IF_ABSENT, key, value, null, oldValue);
+            return oldValue;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
     public boolean remove(Object key, Object value) {
-        return super.remove(key, value);
-    }
-
-    @Override
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+                recordOldDelta(key, super.size(), key == null ? null : super.get(key));
+            }
+            boolean removed = super.remove(key, value);
+            if (removed) {
+                tracker.written(key, true, (V) value, false, null);
+            }
+            verifyAsync(AsyncVerifier.Operation.REMOVE_ENTRY, key, value, null, removed);
+            return removed;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"new_entry_not_null"})
     public boolean replace(K key, V oldValue, V newValue) {
-        return super.replace(key, oldValue, newValue);
-    }
-
-    @Override
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+                recordOldDelta(key, super.size(), key == null ? null : super.get(key));
+            }
+            boolean replaced = super.replace(key, oldValue, newValue);
+            if (replaced) {
+                tracker.written(key, true, oldValue, true, newValue);
+            }
+            verifyAsync(AsyncVerifier.Operation.REPLACE_ENTRY, key, oldValue, newValue, replaced);
+            return replaced;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"entry_not_null"})
     public V replace(K key, V value) {
-        return super.replace(key, value);
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+            }
+            int size = checked ? super.size() : 0;
+            V oldValue = super.replace(key, value);
+            if (checked) {
+                recordOldDelta(key, size, oldValue);
+            }
+            if (oldValue != null) {
+                tracker.written(key, true, oldValue, true, value);
+            }
+            verifyAsync(AsyncVerifier.Operation.REPLACE, key, value, null, oldValue);
+            return oldValue;
+        } finally {
+            finishWrite(key, checked);
+        }
     }
 
     @Override
@@ -168,27 +572,137 @@ public class ConcurrentHashMapContracts<K, V> extends ConcurrentHashMap<K, V> im
 
     @Override
     public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
-        super.replaceAll(function);
-    }
-
-    @Override
+        boolean checked = startWriteAll();
+        try {
+            captureOldState();
+            if (!tracker.active()) {
+                super.replaceAll(function);
+                tracker.modified();
+                return;
+            }
+            Objects.requireNonNull(function);
+            WriteTracker<K, V> tracker = this.tracker;
+            // super.replaceAll may apply the function more than once per entry: record the change
+            // from within computeIfPresent instead, which applies it exactly once
+            BiFunction<K, V, V> replacement = (key, oldValue) -> {
+                V newValue = Objects.requireNonNull(function.apply(key, oldValue));
+                tracker.written(key, true, oldValue, true, newValue);
+                return newValue;
+            };
+            for (K key : super.keySet()) {
+                super.computeIfPresent(key, replacement);
+            }
+        } finally {
+            finishWriteAll(checked);
+        }
+    }
+
+    @Override
+    @Ensures({"computed_entry_not_null"})
     public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
-        return super.computeIfAbsent(key, mappingFunction);
-    }
-
-    @Override
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                oldDelta.get().sample(); // no delta is recorded
+            }
+            if (!tracker.active()) {
+                V result = super.computeIfAbsent(key, mappingFunction);
+                tracker.modified();
+                return result;
+            }
+            Objects.requireNonNull(mappingFunction);
+            WriteTracker<K, V> tracker = this.tracker;
+            return super.computeIfAbsent(key, k -> {
+                V newValue = mappingFunction.apply(k);
+                if (newValue != null) {
+                    tracker.written(k, false, null, true, newValue);
+                }
+                return newValue;
+            });
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"computed_entry_not_null"})
     public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-        return super.computeIfPresent(key, remappingFunction);
-    }
-
-    @Override
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                oldDelta.get().sample(); // no delta is recorded
+            }
+            if (!tracker.active()) {
+                V result = super.computeIfPresent(key, remappingFunction);
+                tracker.modified();
+                return result;
+            }
+            Objects.requireNonNull(remappingFunction);
+            WriteTracker<K, V> tracker = this.tracker;
+            return super.computeIfPresent(key, (k, oldValue) -> {
+                V newValue = remappingFunction.apply(k, oldValue);
+                tracker.written(k, true, oldValue, newValue != null, newValue);
+                return newValue;
+            });
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"computed_entry_not_null"})
     public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-        return super.compute(key, remappingFunction);
-    }
-
-    @Override
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                oldDelta.get().sample(); // no delta is recorded
+            }
+            if (!tracker.active()) {
+                V result = super.compute(key, remappingFunction);
+                tracker.modified();
+                return result;
+            }
+            Objects.requireNonNull(remappingFunction);
+            WriteTracker<K, V> tracker = this.tracker;
+            return super.compute(key, (k, oldValue) -> {
+                V newValue = remappingFunction.apply(k, oldValue);
+                if (oldValue != null || newValue != null) {
+                    tracker.written(k, oldValue != null, oldValue, newValue != null, newValue);
+                }
+                return newValue;
+            });
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"entry_not_null"})
     public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
-        return super.merge(key, value, remappingFunction);
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                oldDelta.get().sample(); // no delta is recorded
+            }
+            if (!tracker.active()) {
+                V result = super.merge(key, value, remappingFunction);
+                tracker.modified();
+                return result;
+            }
+            Objects.requireNonNull(value);
+            Objects.requireNonNull(remappingFunction);
+            WriteTracker<K, V> tracker = this.tracker;
+            // same as super.merge, through compute so that the old value is seen atomically
+            return super.compute(key, (k, oldValue) -> {
+                V newValue = oldValue == null ? value : remappingFunction.apply(oldValue, value);
+                if (oldValue != null || newValue != null) {
+                    tracker.written(k, oldValue != null, oldValue, newValue != null, newValue);
+                }
+                return newValue;
+            });
+        } finally {
+            finishWrite(key, checked);
+        }
     }
 
     @Override
@@ -206,8 +720,15 @@ public class ConcurrentHashMapContracts<K, V> extends ConcurrentHashMap<K, V> im
         return super.elements();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Like {@link #keySet()}, the view writes without the methods of this map, which stops
+     * versioning its state once it has been handed out.
+     */
     @Override
     public KeySetView<K, V> keySet(V mappedValue) {
+        keySetViewsOut = true;
         return super.keySet(mappedValue);
     }
 
@@ -345,4 +866,14 @@ public class ConcurrentHashMapContracts<K, V> extends ConcurrentHashMap<K, V> im
     public int reduceEntriesToInt(long parallelismThreshold, ToIntFunction<Map.Entry<K, V>> transformer, int basis, IntBinaryOperator reducer) {
         return super.reduceEntriesToInt(parallelismThreshold, transformer, basis, reducer);
     }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        tracker = WriteTracker.concurrent();
+        oldState = new ThreadLocal<>();
+        oldDelta = ThreadLocal.withInitial(() -> new KeyDelta<>(this));
+        stamps = new WriteStamps();
+        invariantCache = new InvariantCache();
+        predicateMemo = new PredicateMemo(64);
+    }
 }
@@ -0,0 +1,53 @@
+package contracts;
+
+/**
+ * Controls deep audits: the expensive, whole-map verifications that back the constant-time
+ * checks of incrementally maintained state (for instance, recomputing the hash code of a map
+ * from all of its entries and comparing it with the maintained one).
+ *
+ * <p>Deep audits are disabled by default. They can be enabled for every check, for debugging, or
+ * run periodically, for instance with {@code ContractAudit.setSampler(ContractSampler.perSecond(1))}.
+ */
+public final class ContractAudit {
+
+    private static volatile ContractSampler sampler = ContractSampler.never();
+
+    private ContractAudit() {
+    }
+
+    /**
+     * Returns whether a deep audit should run now.
+     *
+     * @return {@code true} if the caller should perform its deep audit
+     */
+    public static boolean due() {
+        return sampler.sample();
+    }
+
+    /**
+     * Sets the sampler deciding when deep audits run.
+     *
+     * @param sampler the audit sampler, {@link ContractSampler#never()} to disable deep audits
+     * @throws NullPointerException if the sampler is null
+     */
+    public static void setSampler(ContractSampler sampler) {
+        if (sampler == null) {
+            throw new NullPointerException("sampler");
+        }
+        ContractAudit.sampler = sampler;
+    }
+
+    /**
+     * Runs a deep audit on every check.
+     */
+    public static void enable() {
+        setSampler(ContractSampler.always());
+    }
+
+    /**
+     * Disables deep audits (the default).
+     */
+    public static void disable() {
+        setSampler(ContractSampler.never());
+    }
+}
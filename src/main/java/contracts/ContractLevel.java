@@ -0,0 +1,38 @@
+package contracts;
+
+/**
+ * How much of the contracts is checked at run time. Each level checks everything the previous
+ * levels check.
+ */
+public enum ContractLevel {
+
+    /**
+     * No contract is checked.
+     */
+    OFF,
+
+    /**
+     * Postconditions are checked. The maps declare no preconditions, so there is no level for them.
+     */
+    POSTCONDITIONS,
+
+    /**
+     * Postconditions and invariants are checked.
+     */
+    INVARIANTS,
+
+    /**
+     * Every contract is checked, and the deep audits scheduled by {@link ContractAudit} run.
+     */
+    FULL;
+
+    /**
+     * Returns whether this level checks the contracts checked at {@code required}.
+     *
+     * @param required the lowest level checking the contract
+     * @return whether this level is at least {@code required}
+     */
+    public boolean includes(ContractLevel required) {
+        return compareTo(required) >= 0;
+    }
+}
@@ -0,0 +1,166 @@
+package contracts;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Selects the {@link ContractLevel} of the contract predicates at run time: globally, per class of
+ * contract-checked map, and per contract method (the predicate, e.g. {@code keys_not_changed}).
+ * The most specific selection wins.
+ *
+ * <p>The selection is published through a {@link MutableCallSite} that the JIT compiler treats as
+ * a constant, and changing it deoptimizes the code depending on it. While no class or method has
+ * a level of its own, a predicate therefore checks its level at no cost at all: with the global
+ * level {@link ContractLevel#OFF}, every predicate compiles down to {@code return true}.
+ *
+ * <p>The global level is {@link ContractLevel#FULL} by default.
+ */
+public final class ContractLevels {
+
+    private static final MutableCallSite SELECTION = new MutableCallSite(MethodHandles.constant(
+            Selection.class, new Selection(ContractLevel.FULL, new HashMap<>(), new HashMap<>())));
+    private static final MethodHandle CURRENT = SELECTION.dynamicInvoker();
+
+    private ContractLevels() {
+    }
+
+    /**
+     * Returns whether a contract predicate of {@code type} must be checked.
+     *
+     * @param type      the class of the contract-checked object
+     * @param predicate the name of the contract method
+     * @param required  the lowest level checking the predicate
+     * @return whether the level selected for the predicate includes {@code required}
+     */
+    public static boolean enabled(Class<?> type, String predicate, ContractLevel required) {
+        Selection selection = current();
+        if (selection.uniform) {
+            return selection.global.includes(required);
+        }
+        return selection.levelOf(type, predicate).includes(required);
+    }
+
+    /**
+     * Returns whether the contracts of {@code type} may be checked at {@code required}, that is,
+     * whether the level of the class (ignoring method levels) includes {@code required}.
+     *
+     * @param type     the class of the contract-checked object
+     * @param required the lowest level checking the contracts
+     * @return whether the level selected for the class includes {@code required}
+     */
+    public static boolean enabled(Class<?> type, ContractLevel required) {
+        Selection selection = current();
+        if (selection.uniform) {
+            return selection.global.includes(required);
+        }
+        return selection.levelOf(type, null).includes(required);
+    }
+
+    /**
+     * Returns the level selected for every class and method without a level of its own.
+     *
+     * @return the global level
+     */
+    public static ContractLevel global() {
+        return current().global;
+    }
+
+    /**
+     * Sets the level of every class and method without a level of its own.
+     *
+     * @param level the global level
+     * @throws NullPointerException if the level is null
+     */
+    public static synchronized void setGlobal(ContractLevel level) {
+        if (level == null) {
+            throw new NullPointerException("level");
+        }
+        Selection selection = current();
+        publish(new Selection(level, selection.classes, selection.methods));
+    }
+
+    /**
+     * Sets the level of the contracts of a class of contract-checked objects and its subclasses.
+     *
+     * @param type  the class, e.g. {@code HashMapContracts.class}
+     * @param level the level of the class, or {@code null} to use the global level again
+     */
+    public static synchronized void setClassLevel(Class<?> type, ContractLevel level) {
+        Selection selection = current();
+        Map<Class<?>, ContractLevel> classes = new HashMap<>(selection.classes);
+        if (level == null) {
+            classes.remove(type);
+        } else {
+            classes.put(type, level);
+        }
+        publish(new Selection(selection.global, classes, selection.methods));
+    }
+
+    /**
+     * Sets the level of a contract method, in every class.
+     *
+     * @param predicate the name of the contract method, e.g. {@code "keys_not_changed"}
+     * @param level     the level of the method, or {@code null} to use the level of the class again
+     */
+    public static synchronized void setMethodLevel(String predicate, ContractLevel level) {
+        Selection selection = current();
+        Map<String, ContractLevel> methods = new HashMap<>(selection.methods);
+        if (level == null) {
+            methods.remove(predicate);
+        } else {
+            methods.put(predicate, level);
+        }
+        publish(new Selection(selection.global, selection.classes, methods));
+    }
+
+    /**
+     * Drops every class and method level and sets the global level back to {@link ContractLevel#FULL}.
+     */
+    public static synchronized void reset() {
+        publish(new Selection(ContractLevel.FULL, new HashMap<>(), new HashMap<>()));
+    }
+
+    private static Selection current() {
+        try {
+            return (Selection) CURRENT.invokeExact();
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void publish(Selection selection) {
+        SELECTION.setTarget(MethodHandles.constant(Selection.class, selection));
+        MutableCallSite.syncAll(new MutableCallSite[]{SELECTION});
+    }
+
+    private static final class Selection {
+        final ContractLevel global;
+        final Map<Class<?>, ContractLevel> classes;
+        final Map<String, ContractLevel> methods;
+        final boolean uniform; // no class or method level: the global level applies everywhere
+
+        Selection(ContractLevel global, Map<Class<?>, ContractLevel> classes, Map<String, ContractLevel> methods) {
+            this.global = global;
+            this.classes = classes;
+            this.methods = methods;
+            this.uniform = classes.isEmpty() && methods.isEmpty();
+        }
+
+        ContractLevel levelOf(Class<?> type, String predicate) {
+            ContractLevel level = predicate == null ? null : methods.get(predicate);
+            if (level != null) {
+                return level;
+            }
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                level = classes.get(c);
+                if (level != null) {
+                    return level;
+                }
+            }
+            return global;
+        }
+    }
+}
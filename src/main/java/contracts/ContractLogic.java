@@ -0,0 +1,157 @@
+package contracts;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Allocation-free building blocks for contract predicates, replacing the {@link java.util.function.Supplier}
+ * lambdas of {@code ContractUtils} and the {@link java.util.stream.Stream} pipelines.
+ *
+ * <p>Every method is a small static method over primitives or a plain loop, so the JIT can inline
+ * it into the predicate. The connectives evaluate both of their operands: when an operand is
+ * expensive or only valid under the antecedent, write {@code !a || b} or {@code a ? b : c} instead.
+ */
+public final class ContractLogic {
+
+    private ContractLogic() {
+    }
+
+    /**
+     * Returns whether {@code antecedent} implies {@code consequent}.
+     *
+     * @param antecedent the antecedent
+     * @param consequent the consequent
+     * @return {@code !antecedent || consequent}
+     */
+    public static boolean implies(boolean antecedent, boolean consequent) {
+        return !antecedent || consequent;
+    }
+
+    /**
+     * Returns whether {@code a} holds if and only if {@code b} holds.
+     *
+     * @param a the first operand
+     * @param b the second operand
+     * @return {@code a == b}
+     */
+    public static boolean iff(boolean a, boolean b) {
+        return a == b;
+    }
+
+    /**
+     * Returns whether some element of {@code items} is equal to {@code item}.
+     *
+     * @param items the elements to search
+     * @param item  the element to search for, possibly null
+     * @return whether {@code items} contains an element equal to {@code item}
+     */
+    public static boolean containsEqual(Iterable<?> items, Object item) {
+        for (Object candidate : items) {
+            if (Objects.equals(item, candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether {@code map} contains every key of {@code keys}.
+     *
+     * @param map  the map to look the keys up in
+     * @param keys the keys to look up
+     * @return whether every key is contained in {@code map}
+     */
+    public static boolean containsAllKeys(Map<?, ?> map, Collection<?> keys) {
+        for (Object key : keys) {
+            if (!map.containsKey(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns how many keys of {@code keys} are not contained in {@code map}.
+     *
+     * @param map  the map to look the keys up in
+     * @param keys the keys to look up
+     * @return the number of keys missing from {@code map}
+     */
+    public static int countMissingKeys(Map<?, ?> map, Collection<?> keys) {
+        int missing = 0;
+        for (Object key : keys) {
+            if (!map.containsKey(key)) {
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Returns whether no key and no value of {@code entries} is null.
+     *
+     * @param entries the mappings to check
+     * @return whether every key and every value is non-null
+     */
+    public static boolean noNullEntries(Map<?, ?> entries) {
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether {@code map} maps every key of {@code entries} to the very same value.
+     *
+     * @param map     the map to look the keys up in
+     * @param entries the expected mappings
+     * @return whether {@code map.get(key) == entries.get(key)} for every key of {@code entries}
+     */
+    public static boolean mapsSameValues(Map<?, ?> map, Map<?, ?> entries) {
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            if (map.get(entry.getKey()) != entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether {@code map} maps every key of {@code entries} that it contains to the very
+     * same value, for maps that may have evicted some of them.
+     *
+     * @param map     the map to look the keys up in
+     * @param entries the expected mappings
+     * @return whether {@code map.get(key) == entries.get(key)} for every key of {@code entries} in {@code map}
+     */
+    public static boolean mapsSameValuesIfContained(Map<?, ?> map, Map<?, ?> entries) {
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            Object value = map.get(entry.getKey());
+            if (value != entry.getValue() && (value != null || map.containsKey(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether {@code map} maps every key of {@code entries} to an equal value, for maps
+     * whose values have no identity.
+     *
+     * @param map     the map to look the keys up in
+     * @param entries the expected mappings
+     * @return whether {@code map} contains every mapping of {@code entries}
+     */
+    public static boolean mapsEqualValues(Map<?, ?> map, Map<?, ?> entries) {
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            Object value = map.get(entry.getKey());
+            if (!Objects.equals(value, entry.getValue()) || value == null && !map.containsKey(entry.getKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
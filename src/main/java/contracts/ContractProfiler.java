@@ -0,0 +1,291 @@
+package contracts;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Measures the cost of each contract predicate: how many times it was evaluated, the time and the
+ * memory its evaluations took, and a histogram of their latencies.
+ *
+ * <p>Every predicate of {@link MapContracts} that is not skipped evaluates its body through
+ * {@link #profile(String, BooleanSupplier) profile("name", () -&gt; body)}. While profiling is
+ * disabled (the default), the measurement folds away like the guard of {@link ContractLevels}.
+ * Profiling is enabled with {@link #enable()}, or from the start with
+ * {@code -Dcontracts.profile=true}, which also prints the {@linkplain #report() report} at
+ * shutdown.
+ *
+ * <p>The allocations of nested evaluations are measured on a per-thread stack of frames. Each token
+ * returned by {@link #start()} carries the depth of its frame, and {@link #record} pops back to it,
+ * so a predicate that throws before recording only leaves its frame until the evaluation around
+ * it records. {@link #profile} records in a {@code finally} block, and a thread evaluating
+ * predicates outside of a map call, like the verifier thread of {@link AsyncVerifier},
+ * {@linkplain #unwind() unwinds} its frames in one after each call.
+ */
+public final class ContractProfiler {
+
+    private static final int BUCKETS = 64; // bucket i counts latencies in [2^(i-1), 2^i) nanoseconds
+    private static final int DEPTH_BITS = 7; // the low bits of a token: the depth of its frame
+    private static final int MAX_DEPTH = 64; // deeper evaluations are timed, but their allocations are not measured
+
+    private static final MutableCallSite ENABLED = new MutableCallSite(MethodHandles.constant(boolean.class, false));
+    private static final MethodHandle IS_ENABLED = ENABLED.dynamicInvoker();
+
+    private static final Map<String, Stats> STATS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<long[]> ALLOCATION_STARTS = ThreadLocal.withInitial(() -> new long[MAX_DEPTH]);
+    private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+    private static final AtomicBoolean SHUTDOWN_HOOK = new AtomicBoolean();
+
+    static {
+        if (Boolean.getBoolean("contracts.profile")) {
+            enable();
+            dumpAtShutdown();
+        }
+    }
+
+    private ContractProfiler() {
+    }
+
+    /**
+     * Starts measuring the evaluation of a predicate.
+     *
+     * @return the token to pass to {@link #record}
+     */
+    public static long start() {
+        if (!enabled()) {
+            return 0;
+        }
+        int[] depth = DEPTH.get();
+        int frame = depth[0];
+        if (frame < MAX_DEPTH) {
+            ALLOCATION_STARTS.get()[frame] = allocatedBytes();
+            depth[0] = frame + 1;
+        }
+        return System.nanoTime() << DEPTH_BITS | frame;
+    }
+
+    /**
+     * Records the evaluation of a predicate started with {@link #start()}.
+     *
+     * @param predicate the name of the predicate
+     * @param start     the token returned by {@link #start()}
+     * @param result    the result of the predicate
+     * @return {@code result}
+     */
+    public static boolean record(String predicate, long start, boolean result) {
+        if (start == 0) {
+            return result; // started while disabled
+        }
+        long nanos = (System.nanoTime() << DEPTH_BITS) - (start & -(1L << DEPTH_BITS)) >> DEPTH_BITS;
+        int frame = (int) (start & ((1 << DEPTH_BITS) - 1));
+        long bytes = 0;
+        if (frame < MAX_DEPTH) {
+            DEPTH.get()[0] = frame; // also pops the frames of the nested predicates that threw
+            bytes = Math.max(0, allocatedBytes() - ALLOCATION_STARTS.get()[frame]);
+        }
+        STATS.computeIfAbsent(predicate, Stats::new).add(nanos, bytes);
+        return result;
+    }
+
+    /**
+     * Evaluates the body of a predicate, recording the evaluation even if it throws.
+     *
+     * @param predicate the name of the predicate
+     * @param body      the body of the predicate
+     * @return the result of the body
+     */
+    public static boolean profile(String predicate, BooleanSupplier body) {
+        long start = start();
+        boolean holds = false;
+        try {
+            holds = body.getAsBoolean();
+        } finally {
+            record(predicate, start, holds); // popping its frame even if it threw
+        }
+        return holds;
+    }
+
+    /**
+     * Returns the number of frames on the stack of this thread: the evaluations in progress, and
+     * those left by predicates that threw before recording.
+     */
+    static int depth() {
+        return DEPTH.get()[0];
+    }
+
+    /**
+     * Pops every frame of this thread, including those left by predicates that threw before
+     * recording. Called from a {@code finally} block, once no evaluation is in progress on this
+     * thread.
+     */
+    static void unwind() {
+        if (enabled()) {
+            DEPTH.get()[0] = 0;
+        }
+    }
+
+    /**
+     * Returns whether predicates are being profiled.
+     *
+     * @return whether profiling is enabled
+     */
+    public static boolean enabled() {
+        try {
+            return (boolean) IS_ENABLED.invokeExact();
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Starts profiling the predicates.
+     */
+    public static synchronized void enable() {
+        setEnabled(true);
+    }
+
+    /**
+     * Stops profiling the predicates, keeping what has been recorded.
+     */
+    public static synchronized void disable() {
+        setEnabled(false);
+    }
+
+    /**
+     * Drops everything recorded so far.
+     */
+    public static void reset() {
+        STATS.clear();
+    }
+
+    /**
+     * Prints the report to the standard error stream when the virtual machine shuts down.
+     */
+    public static void dumpAtShutdown() {
+        if (SHUTDOWN_HOOK.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(System.err), "contract-profiler-dump"));
+        }
+    }
+
+    /**
+     * Prints the report.
+     *
+     * @param out the stream to print to
+     */
+    public static void dump(PrintStream out) {
+        out.print(report());
+        out.flush();
+    }
+
+    /**
+     * Returns the recorded costs, one line per predicate, the most expensive (in cumulative time)
+     * first.
+     *
+     * @return the report
+     */
+    public static String report() {
+        List<Stats> sorted = new ArrayList<>(STATS.values());
+        sorted.sort(Comparator.comparingLong(Stats::nanos).reversed());
+        StringBuilder report = new StringBuilder(String.format("%-50s %12s %14s %10s %14s %10s %10s %10s%n",
+                "predicate", "calls", "total ms", "mean ns", "bytes", "p50 ns", "p99 ns", "max ns"));
+        for (Stats stats : sorted) {
+            long calls = stats.calls();
+            report.append(String.format("%-50s %12d %14.3f %10d %14d %10d %10d %10d%n",
+                    stats.predicate, calls, stats.nanos() / 1e6, calls == 0 ? 0 : stats.nanos() / calls,
+                    stats.bytes.sum(), stats.percentile(0.5), stats.percentile(0.99), stats.percentile(1)));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Returns the number of recorded evaluations of a predicate.
+     *
+     * @param predicate the name of the predicate
+     * @return the number of evaluations recorded since the last reset
+     */
+    public static long calls(String predicate) {
+        Stats stats = STATS.get(predicate);
+        return stats == null ? 0 : stats.calls();
+    }
+
+    private static void setEnabled(boolean enabled) {
+        ENABLED.setTarget(MethodHandles.constant(boolean.class, enabled));
+        MutableCallSite.syncAll(new MutableCallSite[]{ENABLED});
+    }
+
+    private static long allocatedBytes() {
+        return Allocations.BEAN == null ? 0 : Allocations.BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static final class Allocations {
+        static final com.sun.management.ThreadMXBean BEAN = bean();
+
+        private static com.sun.management.ThreadMXBean bean() {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+                com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+                allocations.setThreadAllocatedMemoryEnabled(true);
+                return allocations;
+            }
+            return null;
+        }
+    }
+
+    private static final class Stats {
+        final String predicate;
+        final LongAdder bytes = new LongAdder();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        final LongAdder nanos = new LongAdder();
+
+        Stats(String predicate) {
+            this.predicate = predicate;
+        }
+
+        void add(long nanos, long bytes) {
+            this.nanos.add(nanos);
+            this.bytes.add(bytes);
+            histogram.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 0))); // the bit length
+        }
+
+        long nanos() {
+            return nanos.sum();
+        }
+
+        long calls() {
+            long calls = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                calls += histogram.get(i);
+            }
+            return calls;
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given fraction of the evaluations.
+         */
+        long percentile(double fraction) {
+            long calls = calls();
+            long target = (long) Math.ceil(calls * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= Math.max(target, 1)) {
+                    return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package contracts;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether the contracts of a given call are checked.
+ *
+ * <p>A mutating call of {@link MapContracts} asks the sampler of its map once, when it starts,
+ * and keeps the answer with its {@link KeyDelta} (or, for a bulk call, by capturing its old state
+ * or not): its postconditions, and the invariants of the state it leaves, are then all checked or
+ * all skipped (by holding trivially). A read records nothing, so each of its postconditions asks
+ * the sampler itself. A skipped call costs one call to {@link #sample()}, so contract checking can
+ * stay enabled in production at a bounded, known overhead instead of being turned off completely.
+ *
+ * <p>Maps use the {@linkplain #global() global sampler} unless they have been given their own one.
+ */
+public abstract class ContractSampler {
+
+    private static final ContractSampler ALWAYS = new ContractSampler() {
+        @Override
+        public boolean sample() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "ContractSampler.always()";
+        }
+    };
+
+    private static final ContractSampler NEVER = new ContractSampler() {
+        @Override
+        public boolean sample() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "ContractSampler.never()";
+        }
+    };
+
+    private static volatile ContractSampler global = ALWAYS;
+
+    /**
+     * Returns whether the contracts of the call that is starting should be checked.
+     *
+     * @return {@code true} if the contract must be checked, {@code false} if it can be skipped
+     */
+    public abstract boolean sample();
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================         Configuration        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * Returns the sampler used by every map that has not been given its own one.
+     *
+     * @return the global sampler
+     */
+    public static ContractSampler global() {
+        return global;
+    }
+
+    /**
+     * Replaces the sampler used by every map that has not been given its own one.
+     *
+     * @param sampler the new global sampler
+     * @throws NullPointerException if the sampler is null
+     */
+    public static void setGlobal(ContractSampler sampler) {
+        if (sampler == null) {
+            throw new NullPointerException("sampler");
+        }
+        global = sampler;
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================           Samplers           ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * Returns a sampler checking every contract (the default).
+     *
+     * @return a sampler that always checks
+     */
+    public static ContractSampler always() {
+        return ALWAYS;
+    }
+
+    /**
+     * Returns a sampler checking no contract at all.
+     *
+     * @return a sampler that never checks
+     */
+    public static ContractSampler never() {
+        return NEVER;
+    }
+
+    /**
+     * Returns a sampler checking, on average, one call out of {@code n}.
+     *
+     * <p>The choice is random rather than round-robin, so that calls interleaving in a fixed
+     * pattern (a put, then a get, say) do not end up always checking the same method.
+     *
+     * @param n the sampling period
+     * @return a sampler checking one call in {@code n}
+     * @throws IllegalArgumentException if {@code n} is not positive
+     */
+    public static ContractSampler oneIn(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("sampling period must be positive: " + n);
+        }
+        if (n == 1) {
+            return ALWAYS;
+        }
+        return new OneIn(n);
+    }
+
+    /**
+     * Returns a sampler checking at most {@code rate} calls per second,
+     * regardless of the call rate.
+     *
+     * @param rate the maximum number of checks per second
+     * @return a rate-limited sampler
+     * @throws IllegalArgumentException if {@code rate} is not positive
+     */
+    public static ContractSampler perSecond(double rate) {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("sampling rate must be positive: " + rate);
+        }
+        return new PerSecond(rate);
+    }
+
+    private static final class OneIn extends ContractSampler {
+        private final int n;
+
+        OneIn(int n) {
+            this.n = n;
+        }
+
+        @Override
+        public boolean sample() {
+            return ThreadLocalRandom.current().nextInt(n) == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "ContractSampler.oneIn(" + n + ")";
+        }
+    }
+
+    private static final class PerSecond extends ContractSampler {
+        private final double rate;
+        private final long intervalNanos;
+        private final AtomicLong nextCheck = new AtomicLong(System.nanoTime());
+
+        PerSecond(double rate) {
+            this.rate = rate;
+            this.intervalNanos = Math.max(1L, (long) (1_000_000_000L / rate));
+        }
+
+        @Override
+        public boolean sample() {
+            long now = System.nanoTime();
+            long next = nextCheck.get();
+            // a single winner per interval: losers of the race simply skip their check
+            return now - next >= 0 && nextCheck.compareAndSet(next, now + intervalNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "ContractSampler.perSecond(" + rate + ")";
+        }
+    }
+}
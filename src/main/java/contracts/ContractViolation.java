@@ -0,0 +1,41 @@
+package contracts;
+
+/**
+ * A contract predicate that did not hold, found by an {@link AsyncVerifier} after the call it
+ * checks has returned, or by a {@link MappedFileMapContracts} auditing its file on open.
+ *
+ * <p>Its stack trace is the one of the checked call, if the verifier captures call sites, and is
+ * empty otherwise.
+ */
+public class ContractViolation extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String predicate;
+    private final String method;
+
+    ContractViolation(String predicate, String method, String call, StackTraceElement[] callSite) {
+        super(predicate + " violated by " + call, null, false, true);
+        this.predicate = predicate;
+        this.method = method;
+        setStackTrace(callSite == null ? new StackTraceElement[0] : callSite);
+    }
+
+    /**
+     * Returns the name of the predicate that did not hold.
+     *
+     * @return the name of the violated predicate, e.g. {@code "contains_entry"}
+     */
+    public String predicate() {
+        return predicate;
+    }
+
+    /**
+     * Returns the name of the map method whose postcondition did not hold.
+     *
+     * @return the name of the checked method, e.g. {@code "put"}
+     */
+    public String method() {
+        return method;
+    }
+}
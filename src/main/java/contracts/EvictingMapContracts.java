@@ -0,0 +1,160 @@
+package contracts;
+
+import java.util.Collection;
+import java.util.Map;
+
+import static contracts.ContractLogic.*;
+
+
+/**
+ * The contracts of a map that removes entries by itself, evicting them to stay within a bound or
+ * expiring them: the postconditions of the writes hold up to the entries the write removed this
+ * way, the written key included.
+ *
+ * <p>The removals are counted in the {@link KeyDelta} of the call (see {@link KeyDelta#evicted()}),
+ * which bulk calls record too.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public interface EvictingMapContracts<K, V> extends MapContracts<K, V> {
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Pure
+    default V mapped_value(Object key) {
+        // the value of the key, read without the side effects of get on the eviction order
+        return get(key);
+    }
+
+    @Pure
+    default boolean maps_key(Object key) {
+        // whether the key is mapped, read without evicting or expiring any entry
+        return containsKey(key);
+    }
+
+    @Pure
+    default int mapped_size() {
+        // the number of mappings, counted without evicting or expiring any entry
+        return size();
+    }
+
+    @Pure
+    default boolean maps_all_keys(Collection<?> keys) {
+        for (Object key : keys) {
+            if (!maps_key(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Pure
+    default boolean evicted_by_call(Object key) {
+        // whether the current mutating call evicted the key, e.g. the entry it wrote
+        return old_delta().evicted() > 0 && !maps_key(key);
+    }
+
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================     Relaxed by Evictions     ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    @Pure
+    default boolean contains_entry(V returns, K key, V value) {
+        return checked("contains_entry", () -> returns == null || same_value(mapped_value(key), value)
+                || evicted_by_call(key) || key_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean contains_entry_iff_key_contained(K key, V value) {
+        return checked("contains_entry_iff_key_contained",
+                () -> iff(old_delta().contained(), same_value(mapped_value(key), value))
+                        || evicted_by_call(key) || key_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean contains_all_entries(Map<? extends K, ? extends V> m) {
+        return checked_bulk("contains_all_entries", () -> (old_delta().evicted() > 0
+                ? mapsSameValuesIfContained(this, m) : maps_same_values(this, m)) || map_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean size_increases_iff_returns(V returns) {
+        return checked("size_increases_iff_returns",
+                () -> mapped_size() == old_delta().size() + (returns == null ? 1 : 0) - old_delta().evicted() || map_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean size_increases_iff_key_not_contained(K key, V value) {
+        return checked("size_increases_iff_key_not_contained",
+                () -> mapped_size() == old_delta().size() + (old_delta().contained() ? 0 : 1) - old_delta().evicted() || map_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean size_increased_for_each_key_not_contained(Map<? extends K, ? extends V> m) {
+        return checked_bulk("size_increased_for_each_key_not_contained",
+                () -> mapped_size() == old_state().size() + countMissingKeys(old_state(), m.keySet()) - old_delta().evicted() || map_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean size_not_changed() {
+        // a replacement may weigh more than the value it replaces
+        return checked("size_not_changed",
+                () -> mapped_size() == old_delta().size() - old_delta().evicted() || map_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean size_not_changed_by_all() {
+        return checked_bulk("size_not_changed_by_all",
+                () -> mapped_size() == old_state().size() - old_delta().evicted() || map_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean batch_applied(WriteBatch<? extends K, ? extends V> batch) {
+        return checked("batch_applied", () -> batch.appliedTo(this) || old_delta().evicted() > 0 || map_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean keys_not_changed() {
+        return checked_bulk("keys_not_changed", () -> maps_all_keys(old_state().keySet())
+                || old_delta().evicted() > 0 || map_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean key_presence_not_changed(K key) {
+        return checked("key_presence_not_changed", () -> iff(old_delta().contained(), maps_key(key))
+                || evicted_by_call(key) || key_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean value_changes_only_if_not_contained_key(K key, V value) {
+        return checked("value_changes_only_if_not_contained_key",
+                () -> same_value(mapped_value(key), old_delta().contained() ? old_delta().value() : value) || evicted_by_call(key) || key_written_concurrently());
+    }
+
+    @Override
+    @Pure
+    default boolean value_changes_only_if_contained_entry(K key, V oldValue, V newValue) {
+        return checked("value_changes_only_if_contained_entry",
+                () -> same_value(mapped_value(key), same_value(old_delta().value(), oldValue) ? newValue : old_delta().value()) || evicted_by_call(key) || key_written_concurrently());
+    }
+}
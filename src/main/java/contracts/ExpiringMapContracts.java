@@ -0,0 +1,777 @@
+package contracts;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * A contract-checked map whose entries expire a given time after they were written, scheduled in
+ * a hierarchical timer wheel: five levels of 64 buckets, of ticks from about a millisecond up to
+ * about five hours, each bucket a doubly linked list of the entries expiring in its tick.
+ *
+ * <p>Scheduling and cancelling an expiration cost constant time. Every call first advances the
+ * wheel to the current time, moving the buckets of the elapsed ticks to a pending list in
+ * constant time, then works off a few pending entries: expiring the due ones and moving the
+ * others down to the finer level that now covers them. Each entry is visited once per level at
+ * most, and never in bursts: neither the thousands of entries of a millisecond tick nor the
+ * millions of a coarser one are handled by a single call. The due entries not worked off yet
+ * are expired on access, and skipped by {@link #containsValue(Object)} and the iterators, but
+ * still counted by {@link #size()} and {@link #hashCode()}, which stay constant-time: like the
+ * size of a cache, they are exact once the pending entries are worked off, or after
+ * {@link #cleanUp()}, which expires all the due entries at once. An idle map holds its expired
+ * entries until its next calls.
+ *
+ * <p>The entries due before a call are expired before it starts; its contracts are the
+ * {@link EvictingMapContracts}, for the entries expiring while it runs or its postconditions are
+ * checked, plus {@code returns_unexpired_value}: {@code get} never returns an expired value. Like
+ * {@link HashMapContracts}, it supports null keys and values and is not thread-safe.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class ExpiringMapContracts<K, V> extends AbstractMap<K, V> implements EvictingMapContracts<K, V> {
+
+    private static final int[] SHIFTS = {20, 26, 32, 38, 44}; // ticks of 2^20 ns, about a millisecond, and up
+    private static final int BUCKETS = 64; // 1 << (SHIFTS[i + 1] - SHIFTS[i])
+    private static final long MAX_TTL = 1L << 62; // so that expiration times do not overflow
+    private static final int PENDING_PER_CALL = 16; // more than the levels an entry goes through
+
+    private final HashMap<K, Node<K, V>> data = new HashMap<>();
+    private final Node<K, V>[][] wheel;
+    private final Node<K, V> pending = Node.sentinel(); // the entries of the elapsed buckets
+    private final long defaultTtl;
+    private final LongSupplier clock;
+    private final long origin;
+    private long nanos; // the time the wheel was advanced to, since the origin
+    private int entryHashSum;
+    private int modCount;
+    private long version;
+
+    private Node<K, V> lastRead; // the entry read by the last get, and when, for returns_unexpired_value
+    private long lastReadAt;
+
+    private ContractSampler contractSampler; // null: use the global sampler
+    private Map<K, V> oldState;
+    private final KeyDelta<V> oldDelta = new KeyDelta<>(this);
+    private final InvariantCache invariantCache = new InvariantCache();
+    private final PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private Set<Map.Entry<K, V>> entrySetView;
+
+    /**
+     * Creates an empty map whose entries expire {@code ttl} after they were written, by default.
+     *
+     * @param ttl  the time to live of the entries written by {@link #put(Object, Object)}
+     * @param unit the unit of {@code ttl}
+     */
+    public ExpiringMapContracts(long ttl, TimeUnit unit) {
+        this(ttl, unit, System::nanoTime);
+    }
+
+    /**
+     * Creates an empty map whose entries expire {@code ttl} after they were written, by default,
+     * as measured by {@code clock}.
+     *
+     * @param ttl   the time to live of the entries written by {@link #put(Object, Object)}
+     * @param unit  the unit of {@code ttl}
+     * @param clock the time in nanoseconds, which must not go back, e.g. {@code System::nanoTime}
+     */
+    public ExpiringMapContracts(long ttl, TimeUnit unit, LongSupplier clock) {
+        this.defaultTtl = Math.min(unit.toNanos(ttl), MAX_TTL);
+        this.clock = Objects.requireNonNull(clock);
+        this.origin = clock.getAsLong();
+        this.wheel = newWheel();
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public boolean supports_null_items() {
+        return true;
+    }
+
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    @Override
+    public long state_version() {
+        return version;
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public Map<K, V> old_state() {
+        return oldState;
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta;
+    }
+
+    private void captureOldState() {
+        if (!ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS) || !oldDelta.sampled()) {
+            oldState = null; // the postconditions of the call are skipped
+            return;
+        }
+        Map<K, V> state = new HashMap<>();
+        for (Node<K, V> node : data.values()) {
+            state.put(node.key, node.value);
+        }
+        oldState = state;
+    }
+
+    @Override
+    public V mapped_value(Object key) {
+        // the entry as held, without advancing the wheel or expiring it
+        Node<K, V> node = data.get(key);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public boolean maps_key(Object key) {
+        return data.containsKey(key);
+    }
+
+    @Override
+    public int mapped_size() {
+        return data.size();
+    }
+
+    @Override
+    public int entry_hash_sum() {
+        return entryHashSum;
+    }
+
+    @Override
+    public int recomputed_entry_hash_sum() {
+        // over the entries as they are, without expiring any in between
+        int sum = 0;
+        for (Node<K, V> node : data.values()) {
+            sum += node.entryHash();
+        }
+        return sum;
+    }
+
+    private int scheduledCount() {
+        int count = 0;
+        for (Node<K, V>[] level : wheel) {
+            for (Node<K, V> sentinel : level) {
+                for (Node<K, V> node = sentinel.next; node != sentinel; node = node.next) {
+                    count++;
+                }
+            }
+        }
+        for (Node<K, V> node = pending.next; node != pending; node = node.next) {
+            count++;
+        }
+        return count;
+    }
+
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================          Invariants          ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Invariant
+    @Pure
+    public boolean expirations_scheduled() {
+        // every entry is in exactly one bucket: counting them walks the whole wheel, so it only
+        // runs as a deep audit
+        return checked_invariant("expirations_scheduled", () -> !deep_audit_due("expirations_scheduled")
+                || scheduledCount() == data.size());
+    }
+
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================          Expiration          ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Pure
+    public boolean returns_unexpired_value(V returns) {
+        return checked_read("returns_unexpired_value", () -> returns == null
+                || lastRead != null && lastRead.value == returns && lastRead.expiresAt - lastReadAt > 0);
+    }
+
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================         Timer Wheel          ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * An entry, linked into the bucket of its expiration, or the sentinel of a bucket. The views
+     * hand out {@link Entry} instances wrapping it, never the node itself.
+     */
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        long expiresAt; // since the origin of the map
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        static <K, V> Node<K, V> sentinel() {
+            Node<K, V> sentinel = new Node<>(null, null);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            return sentinel;
+        }
+
+        int entryHash() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K, V> Node<K, V>[][] newWheel() {
+        Node<K, V>[][] wheel = new Node[SHIFTS.length][BUCKETS];
+        for (Node<K, V>[] level : wheel) {
+            for (int i = 0; i < BUCKETS; i++) {
+                level[i] = Node.sentinel();
+            }
+        }
+        return wheel;
+    }
+
+    private long now() {
+        return clock.getAsLong() - origin;
+    }
+
+    /**
+     * Returns the bucket of the finest level whose span covers the time left until {@code time}.
+     */
+    private Node<K, V> bucketFor(long time) {
+        long duration = time - nanos;
+        int last = SHIFTS.length - 1;
+        for (int level = 0; level < last; level++) {
+            if (duration < 1L << SHIFTS[level + 1]) {
+                return wheel[level][(int) (time >>> SHIFTS[level]) & (BUCKETS - 1)];
+            }
+        }
+        // past the span of the wheel: the last bucket of the top level, rescheduled when it is reached
+        long capped = Math.min(duration, (BUCKETS - 1L) << SHIFTS[last]);
+        return wheel[last][(int) ((nanos + capped) >>> SHIFTS[last]) & (BUCKETS - 1)];
+    }
+
+    private void schedule(Node<K, V> node) {
+        Node<K, V> sentinel = bucketFor(node.expiresAt);
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    private static <K, V> void unschedule(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    /**
+     * Advances the wheel to {@code time}: on each level whose tick changed, moves the buckets of
+     * the elapsed ticks to the pending entries, and on the coarser levels also the bucket of the
+     * current tick, whose entries now belong to a finer level.
+     */
+    private void advance(long time) {
+        long previous = nanos;
+        if (time - previous <= 0) {
+            return;
+        }
+        nanos = time;
+        for (int level = 0; level < SHIFTS.length; level++) {
+            long previousTicks = previous >>> SHIFTS[level];
+            long elapsed = (time >>> SHIFTS[level]) - previousTicks;
+            if (elapsed <= 0) {
+                break; // the coarser levels did not tick either
+            }
+            int steps = (int) Math.min(level == 0 ? elapsed : elapsed + 1, BUCKETS);
+            for (int i = 0; i < steps; i++) {
+                Node<K, V> sentinel = wheel[level][(int) (previousTicks + i) & (BUCKETS - 1)];
+                if (sentinel.next != sentinel) {
+                    sentinel.next.prev = pending.prev;
+                    pending.prev.next = sentinel.next;
+                    sentinel.prev.next = pending;
+                    pending.prev = sentinel.prev;
+                    sentinel.prev = sentinel;
+                    sentinel.next = sentinel;
+                }
+            }
+        }
+    }
+
+    /**
+     * Works off up to {@code count} pending entries: expires the due ones, and reschedules the
+     * others.
+     */
+    private void drain(long time, int count) {
+        for (Node<K, V> node = pending.next; node != pending && count-- > 0; node = pending.next) {
+            unschedule(node);
+            if (node.expiresAt - time > 0) {
+                schedule(node);
+            } else {
+                expire(node);
+            }
+        }
+    }
+
+    /**
+     * Advances the wheel to now, works off a few pending entries, and returns now.
+     */
+    private long tick() {
+        long time = now();
+        advance(time);
+        drain(time, PENDING_PER_CALL);
+        return time;
+    }
+
+    /**
+     * Expires every due entry: the pending ones, and those of the current tick, which the wheel
+     * has not reached yet. Only {@link #cleanUp()} does this, all at once.
+     */
+    private void sweep(long time) {
+        drain(time, Integer.MAX_VALUE);
+        Node<K, V> sentinel = wheel[0][(int) (time >>> SHIFTS[0]) & (BUCKETS - 1)];
+        for (Node<K, V> node = sentinel.next; node != sentinel; ) {
+            Node<K, V> next = node.next;
+            if (node.expiresAt - time <= 0) {
+                unschedule(node);
+                expire(node);
+            }
+            node = next;
+        }
+    }
+
+    private void expire(Node<K, V> node) {
+        data.remove(node.key);
+        entryHashSum -= node.entryHash();
+        oldDelta.evicted(1);
+        modCount++;
+        version++;
+    }
+
+    /**
+     * Returns the live entry of {@code key}, expiring it if it is due.
+     */
+    private Node<K, V> live(Object key, long time) {
+        Node<K, V> node = data.get(key);
+        if (node != null && node.expiresAt - time <= 0) {
+            unschedule(node);
+            expire(node);
+            return null;
+        }
+        return node;
+    }
+
+    /**
+     * Expires every due entry at once, rather than a few in each of the next calls.
+     */
+    public void cleanUp() {
+        sweep(tick());
+    }
+
+    /**
+     * Writes {@code value} for {@code key} in the entry {@code node} held for it, or in a new one
+     * if it is {@code null}.
+     */
+    private V write(K key, V value, long ttl, long time, Node<K, V> node) {
+        V oldValue = null;
+        if (node == null) {
+            node = new Node<>(key, value);
+            data.put(key, node);
+            modCount++;
+        } else {
+            oldValue = node.value;
+            unschedule(node);
+            entryHashSum -= node.entryHash();
+            node.value = value;
+        }
+        entryHashSum += node.entryHash();
+        version++;
+        node.expiresAt = time + Math.min(Math.max(ttl, 0), MAX_TTL);
+        if (ttl <= 0) {
+            expire(node); // expired as soon as written
+        } else {
+            schedule(node);
+        }
+        return oldValue;
+    }
+
+    private V removeNode(Node<K, V> node) {
+        unschedule(node);
+        data.remove(node.key);
+        entryHashSum -= node.entryHash();
+        modCount++;
+        version++;
+        return node.value;
+    }
+
+
+    // ==========================================================================================
+    // ==========================================================================================
+    // ==========================================================================================
+
+    @Override
+    public int size() {
+        tick();
+        return data.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    @Ensures({"returns_unexpired_value"})
+    public V get(Object key) {
+        long time = tick();
+        Node<K, V> node = live(key, time);
+        lastRead = node;
+        lastReadAt = time;
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        Node<K, V> node = live(key, tick());
+        return node == null ? defaultValue : node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return live(key, tick()) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        long time = tick();
+        for (Node<K, V> node : data.values()) {
+            if (node.expiresAt - time > 0 && Objects.equals(node.value, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        tick();
+        return entryHashSum;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, value, defaultTtl, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Associates {@code value} with {@code key} in this map until {@code ttl} has elapsed.
+     *
+     * @param key   key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @param ttl   the time to live of the entry: if it is not positive, the entry expires at once
+     * @param unit  the unit of {@code ttl}
+     * @return the previous value associated with {@code key}, or {@code null} if there was no
+     *         unexpired mapping for {@code key}
+     */
+    @Ensures({
+            "contains_entry",
+            "size_increases_iff_returns"
+    })
+    public V put(K key, V value, long ttl, TimeUnit unit) {
+        long time = tick();
+        Node<K, V> node = live(key, time);
+        oldDelta.record(key, data.size(), node != null, node == null ? null : node.value);
+        return write(key, value, unit.toNanos(ttl), time, node);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        long time = tick();
+        Node<K, V> node = live(key, time);
+        oldDelta.record(key, data.size(), node != null, node == null ? null : node.value);
+        return node != null ? node.value : write(key, value, defaultTtl, time, null);
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        long time = tick();
+        Node<K, V> node = live(key, time);
+        oldDelta.record(key, data.size(), node != null, node == null ? null : node.value);
+        return node == null ? null : write(key, value, defaultTtl, time, node);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        long time = tick();
+        Node<K, V> node = live(key, time);
+        oldDelta.record(key, data.size(), node != null, node == null ? null : node.value);
+        if (node == null || !Objects.equals(node.value, oldValue)) {
+            return false;
+        }
+        write(key, newValue, defaultTtl, time, node);
+        return true;
+    }
+
+    @Override
+    public V remove(Object key) {
+        Node<K, V> node = live(key, tick());
+        oldDelta.record(key, data.size(), node != null, node == null ? null : node.value);
+        return node == null ? null : removeNode(node);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        Node<K, V> node = live(key, tick());
+        oldDelta.record(key, data.size(), node != null, node == null ? null : node.value);
+        if (node == null || !Objects.equals(node.value, value)) {
+            return false;
+        }
+        removeNode(node);
+        return true;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        long time = tick();
+        oldDelta.record(null, data.size(), false, null);
+        captureOldState();
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            // an entry due but still held is counted by the old state, so it is written in place
+            write(entry.getKey(), entry.getValue(), defaultTtl, time, data.get(entry.getKey()));
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(WriteBatch<? extends K, ? extends V> batch) {
+        long time = tick();
+        oldDelta.record(null, data.size(), false, null);
+        batch.expect(data.size(), data::containsKey);
+        for (Map.Entry<? extends K, Object> write : batch.writes()) {
+            if (WriteBatch.removes(write.getValue())) {
+                Node<K, V> node = data.get(write.getKey());
+                if (node != null) {
+                    removeNode(node);
+                }
+            } else {
+                write(write.getKey(), (V) write.getValue(), defaultTtl, time, data.get(write.getKey()));
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        oldDelta.sample();
+        for (Node<K, V>[] level : wheel) {
+            for (Node<K, V> sentinel : level) {
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+            }
+        }
+        pending.prev = pending;
+        pending.next = pending;
+        data.clear();
+        entryHashSum = 0;
+        modCount++;
+        version++;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        long time = tick();
+        oldDelta.record(null, data.size(), false, null);
+        captureOldState();
+        int expectedModCount = modCount;
+        for (Node<K, V> node : data.values()) {
+            if (node.expiresAt - time <= 0) {
+                continue; // due, and left to expire as it is
+            }
+            V value = function.apply(node.key, node.value);
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            entryHashSum -= node.entryHash();
+            node.value = value; // the expiration stays as it was
+            entryHashSum += node.entryHash();
+        }
+        version++;
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Views             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> view = entrySetView;
+        return view != null ? view : (entrySetView = new EntrySet());
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return ExpiringMapContracts.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            Node<K, V> node = live(entry.getKey(), tick());
+            return node != null && Objects.equals(node.value, entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return ExpiringMapContracts.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            ExpiringMapContracts.this.clear();
+        }
+    }
+
+    /**
+     * Iterates over the entries unexpired when it was created, skipping the due ones without
+     * expiring them: the entries expiring meanwhile are only expired by the next calls to the map.
+     * It walks a copy of the entries, so that looking ahead for the next unexpired one does not
+     * keep it from removing the current one.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final Object[] nodes;
+        private final long time;
+        private int next;
+        private Node<K, V> current;
+        private int expectedModCount;
+
+        EntryIterator() {
+            time = tick();
+            nodes = data.values().toArray();
+            expectedModCount = modCount;
+            next = skipDue(0);
+        }
+
+        @SuppressWarnings("unchecked")
+        private int skipDue(int from) {
+            while (from < nodes.length && ((Node<K, V>) nodes[from]).expiresAt - time <= 0) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < nodes.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= nodes.length) {
+                throw new NoSuchElementException();
+            }
+            current = (Node<K, V>) nodes[next];
+            next = skipDue(next + 1);
+            return new Entry(current);
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeNode(current);
+            expectedModCount = modCount;
+            current = null;
+        }
+    }
+
+    private final class Entry extends AbstractMap.SimpleEntry<K, V> implements MapContracts.Entry<K, V> {
+        private final Node<K, V> node;
+
+        Entry(Node<K, V> node) {
+            super(node.key, node.value);
+            this.node = node;
+        }
+
+        @Override
+        public V setValue(V value) {
+            // writes through to the entry if it is still mapped, without changing its expiration
+            if (data.get(node.key) == node) {
+                entryHashSum -= node.entryHash();
+                node.value = value;
+                entryHashSum += node.entryHash();
+                version++;
+            }
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package contracts;
+
+/**
+ * A count-min sketch of the recent access frequency of keys, for the TinyLFU admission of
+ * {@link CacheMapContracts}: four 4-bit counters per key, packed sixteen to a long, of which the
+ * smallest is the estimate.
+ *
+ * <p>Frequencies age: once the counters were incremented ten times per long of the table, they
+ * are all halved, so that keys popular long ago give way to keys popular now.
+ *
+ * <p>Not thread-safe: the cache only uses it under its eviction lock.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L; // the high bit of every counter cleared
+    private static final long ONE_MASK = 0x1111111111111111L; // the low bit of every counter
+    private static final int MAX_TABLE = 1 << 20; // longs: 8 MB
+
+    private final long[] table;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Creates a sketch for about {@code expectedKeys} keys.
+     */
+    FrequencySketch(long expectedKeys) {
+        int length = (int) Math.min(MAX_TABLE, Math.max(8, Long.highestOneBit(Math.max(1, expectedKeys) - 1) << 1));
+        table = new long[length];
+        sampleSize = 10 * length;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45D9F3B;
+        x = ((x >>> 16) ^ x) * 0x45D9F3B;
+        return (x >>> 16) ^ x;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & (table.length - 1);
+    }
+
+    /**
+     * Returns the estimated number of recent accesses to the key of {@code hashCode}, up to 15.
+     */
+    int frequency(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2; // which four of the sixteen counters of a long
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            int count = (int) ((table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts an access to the key of {@code hashCode}.
+     */
+    void increment(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int i, int counter) {
+        int offset = counter << 2;
+        long mask = 0xFL << offset;
+        if ((table[i] & mask) != mask) {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions = (additions >>> 1) - (odd >>> 2); // the halves lost to rounding, per key
+    }
+}
@@ -0,0 +1,656 @@
+package contracts;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * An immutable contract-checked map for read-only data, looked up through a minimal perfect hash
+ * of its keys: every key has a slot of its own in parallel arrays of exactly {@code size} keys,
+ * values and hash codes, so a lookup computes one slot and compares one key.
+ *
+ * <p>The perfect hash is built by hash and displace: the keys are split into buckets of about
+ * three, and each bucket, largest first, gets the first seed sending all of its keys to free
+ * slots. A lookup hashes the key to its bucket, then the key and the seed of the bucket to its
+ * slot, without branching on collisions nor allocating. A bucket of one key takes a free slot
+ * directly, and so does a bucket holding keys with equal hash codes, which no seed can tell
+ * apart: its keys take a run of adjacent slots, compared in turn.
+ *
+ * <p>The map is validated once, when it is built: every key is found at its slot with its value,
+ * and the invariants are checked. Since its state never changes, they are cached from then on.
+ * All the mutating methods throw {@link UnsupportedOperationException}.
+ *
+ * <p>Null keys and values are supported. Created by {@link #copyOf} or {@link MapContracts#freeze}.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public final class FrozenMapContracts<K, V> extends AbstractMap<K, V> implements MapContracts<K, V> {
+
+    private static final Object NULL_KEY = new Object(); // the null key, since a null slot is empty
+
+    private static final int KEYS_PER_BUCKET = 3;
+    private static final int MAX_SEED = 1 << 16; // then the build starts over with another salt
+
+    private final Object[] keys;
+    private final Object[] values;
+    private final int[] hashes;
+    private final int[] seeds; // per bucket, the seed of its slots, or ~run if its keys take a run
+    private final int[] runs; // per run, its first and past-the-last slots
+    private final int salt; // the salt of the buckets, for which every bucket found a seed
+    private final int size;
+    private final int entryHashSum;
+
+    private ContractSampler contractSampler; // null: use the global sampler
+    private final KeyDelta<V> oldDelta = new KeyDelta<>(); // never recorded, nothing is written
+    private final InvariantCache invariantCache = new InvariantCache();
+    private final PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private Set<Map.Entry<K, V>> entrySetView;
+
+    private FrozenMapContracts(Map<? extends K, ? extends V> map) {
+        Builder builder = new Builder(map);
+        int salt = 0;
+        while (!builder.build(salt)) {
+            salt++;
+        }
+        this.keys = builder.slotKeys;
+        this.values = builder.slotValues;
+        this.hashes = builder.slotHashes;
+        this.seeds = builder.seeds;
+        this.runs = Arrays.copyOf(builder.runs, builder.runCount * 2);
+        this.salt = salt;
+        this.size = builder.size;
+        this.entryHashSum = builder.entryHashSum;
+        validate();
+    }
+
+    /**
+     * Returns an immutable map of the current mappings of {@code map}.
+     *
+     * <p>The mappings are read once through the entry set of {@code map}, so a concurrent map may
+     * be frozen while it is written: the frozen map holds the mappings its iterator returned.
+     *
+     * @param map the map whose mappings to copy
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return a frozen copy of {@code map}, or {@code map} itself if it is frozen already
+     * @throws IllegalArgumentException if {@code map} holds more than 2^30 entries
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> FrozenMapContracts<K, V> copyOf(Map<? extends K, ? extends V> map) {
+        Objects.requireNonNull(map);
+        if (map instanceof FrozenMapContracts) {
+            return (FrozenMapContracts<K, V>) map;
+        }
+        return new FrozenMapContracts<>(map);
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public boolean supports_null_items() {
+        return true;
+    }
+
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    @Override
+    public long state_version() {
+        return 0; // the mappings never change
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public Map<K, V> old_state() {
+        return null; // no bulk call writes the map
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta;
+    }
+
+    @Override
+    public int entry_hash_sum() {
+        return entryHashSum;
+    }
+
+    /**
+     * Checks that every key is found at its own slot, with its value, and that the invariants
+     * hold: they are then cached for the lifetime of the map.
+     */
+    private void validate() {
+        if (!ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS)) {
+            return;
+        }
+        String call = "freeze(" + size + " entries)";
+        for (int i = 0; i < size; i++) {
+            if (slot(unmaskNull(keys[i])) != i) {
+                throw new ContractViolation("contains_all_entries", "freeze", call, new Exception().getStackTrace());
+            }
+        }
+        if (!size_non_negative()) {
+            throw new ContractViolation("size_non_negative", "freeze", call, new Exception().getStackTrace());
+        }
+        if (!hashcode_is_valid()) {
+            throw new ContractViolation("hashcode_is_valid", "freeze", call, new Exception().getStackTrace());
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Implementations       ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K unmaskNull(Object key) {
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    private static int hash(Object key) {
+        return key == null ? 0 : key.hashCode();
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * Maps {@code h} uniformly to {@code [0, n)} by a multiplication rather than a division.
+     */
+    private static int reduce(int h, int n) {
+        return (int) (((h & 0xFFFFFFFFL) * n) >>> 32);
+    }
+
+    private static int bucket(int hash, int salt, int buckets) {
+        return reduce(mix(hash + salt * 0x9E3779B9), buckets);
+    }
+
+    private static int slot(int hash, int seed, int slots) {
+        return reduce(mix(hash ^ 0x5BD1E995 ^ seed * 0x61C88647), slots);
+    }
+
+    /**
+     * Returns the slot of {@code key}, or -1 if it is not mapped.
+     */
+    private int slot(Object key) {
+        Object k = maskNull(key);
+        int hash = hash(key);
+        int seed = seeds[bucket(hash, salt, seeds.length)];
+        if (seed >= 0) {
+            int slot = slot(hash, seed, keys.length);
+            Object slotKey = keys[slot];
+            return hashes[slot] == hash && (slotKey == k || k.equals(slotKey)) ? slot : -1;
+        }
+        for (int i = runs[~seed * 2], end = runs[~seed * 2 + 1]; i < end; i++) {
+            Object slotKey = keys[i];
+            if (hashes[i] == hash && (slotKey == k || k.equals(slotKey))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    /**
+     * The keys and values of the source map, and the slots the perfect hash gives them.
+     */
+    private static final class Builder {
+        private Object[] sourceKeys;
+        private Object[] sourceValues;
+        private int[] sourceHashes;
+        private int size;
+        private int entryHashSum;
+
+        private Object[] slotKeys;
+        private Object[] slotValues;
+        private int[] slotHashes;
+        private int[] seeds;
+        private int[] runs = new int[16];
+        private int runCount;
+
+        Builder(Map<?, ?> map) {
+            int capacity = Math.max(1, map.size());
+            sourceKeys = new Object[capacity];
+            sourceValues = new Object[capacity];
+            sourceHashes = new int[capacity];
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (size == sourceKeys.length) {
+                    if (size == 1 << 30) {
+                        throw new IllegalArgumentException("Map too large");
+                    }
+                    sourceKeys = Arrays.copyOf(sourceKeys, size * 2);
+                    sourceValues = Arrays.copyOf(sourceValues, size * 2);
+                    sourceHashes = Arrays.copyOf(sourceHashes, size * 2);
+                }
+                Object key = entry.getKey();
+                Object value = entry.getValue();
+                sourceKeys[size] = maskNull(key);
+                sourceValues[size] = value;
+                sourceHashes[size] = hash(key);
+                entryHashSum += hash(key) ^ Objects.hashCode(value);
+                size++;
+            }
+        }
+
+        /**
+         * Places every key with buckets salted by {@code salt}, or returns false if some bucket
+         * finds no seed.
+         */
+        boolean build(int salt) {
+            int slots = Math.max(1, size); // an empty map keeps one empty slot to look up
+            int buckets = Math.max(1, size / KEYS_PER_BUCKET);
+            slotKeys = new Object[slots];
+            slotValues = new Object[slots];
+            slotHashes = new int[slots];
+            seeds = new int[buckets];
+            runCount = 0;
+
+            // group the keys by bucket, and the buckets by decreasing size
+            int[] starts = new int[buckets + 1];
+            int[] bucketOf = new int[size];
+            for (int i = 0; i < size; i++) {
+                bucketOf[i] = bucket(sourceHashes[i], salt, buckets);
+                starts[bucketOf[i] + 1]++;
+            }
+            int maxBucketSize = 0;
+            for (int b = 0; b < buckets; b++) {
+                maxBucketSize = Math.max(maxBucketSize, starts[b + 1]);
+                starts[b + 1] += starts[b];
+            }
+            int[] members = new int[size];
+            int[] filled = Arrays.copyOf(starts, buckets);
+            for (int i = 0; i < size; i++) {
+                members[filled[bucketOf[i]]++] = i;
+            }
+            int[] bySize = new int[maxBucketSize + 2];
+            for (int b = 0; b < buckets; b++) {
+                bySize[maxBucketSize - (starts[b + 1] - starts[b]) + 1]++;
+            }
+            for (int s = 0; s <= maxBucketSize; s++) {
+                bySize[s + 1] += bySize[s];
+            }
+            int[] order = new int[buckets];
+            for (int b = 0; b < buckets; b++) {
+                order[bySize[maxBucketSize - (starts[b + 1] - starts[b])]++] = b;
+            }
+
+            // buckets of keys with equal hash codes first, on a run of the first slots
+            boolean[] taken = new boolean[slots];
+            int nextFree = 0;
+            for (int b : order) {
+                if (starts[b + 1] - starts[b] > 1 && sharesHashCodes(members, starts[b], starts[b + 1])) {
+                    nextFree = placeRun(b, members, starts[b], starts[b + 1], nextFree, taken);
+                }
+            }
+            // then the other buckets, largest first, and the single keys on the slots left free
+            int[] placed = new int[maxBucketSize];
+            for (int b : order) {
+                int from = starts[b];
+                int to = starts[b + 1];
+                if (to - from == 0 || to - from > 1 && sharesHashCodes(members, from, to)) {
+                    continue;
+                }
+                if (to - from == 1) {
+                    while (taken[nextFree]) {
+                        nextFree++;
+                    }
+                    placeRun(b, members, from, to, nextFree, taken);
+                    continue;
+                }
+                if (!placeSeeded(b, members, from, to, slots, taken, placed)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean sharesHashCodes(int[] members, int from, int to) {
+            int[] bucketHashes = new int[to - from];
+            for (int i = from; i < to; i++) {
+                bucketHashes[i - from] = sourceHashes[members[i]];
+            }
+            Arrays.sort(bucketHashes);
+            for (int i = 1; i < bucketHashes.length; i++) {
+                if (bucketHashes[i] == bucketHashes[i - 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Places the keys of the bucket on adjacent slots from {@code first}, which are free.
+         */
+        private int placeRun(int bucket, int[] members, int from, int to, int first, boolean[] taken) {
+            if (runCount * 2 == runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            runs[runCount * 2] = first;
+            runs[runCount * 2 + 1] = first + to - from;
+            seeds[bucket] = ~runCount++;
+            for (int i = from; i < to; i++) {
+                put(first + i - from, members[i], taken);
+            }
+            return first + to - from;
+        }
+
+        private boolean placeSeeded(int bucket, int[] members, int from, int to, int slots, boolean[] taken, int[] placed) {
+            for (int seed = 0; seed < MAX_SEED; seed++) {
+                int count = 0;
+                for (int i = from; i < to; i++) {
+                    int slot = slot(sourceHashes[members[i]], seed, slots);
+                    if (taken[slot]) {
+                        break;
+                    }
+                    taken[slot] = true; // so that the next keys of the bucket avoid it too
+                    placed[count++] = slot;
+                }
+                for (int i = 0; i < count; i++) {
+                    taken[placed[i]] = false;
+                }
+                if (count == to - from) {
+                    seeds[bucket] = seed;
+                    for (int i = from; i < to; i++) {
+                        put(placed[i - from], members[i], taken);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void put(int slot, int source, boolean[] taken) {
+            taken[slot] = true;
+            slotKeys[slot] = sourceKeys[source];
+            slotValues[slot] = sourceValues[source];
+            slotHashes[slot] = sourceHashes[source];
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return slot(key) >= 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        int slot = slot(key);
+        return slot < 0 ? null : valueAt(slot);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        int slot = slot(key);
+        return slot < 0 ? defaultValue : valueAt(slot);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < size; i++) {
+            if (Objects.equals(values[i], value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        for (int i = 0; i < size; i++) {
+            action.accept(unmaskNull(keys[i]), valueAt(i));
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return entryHashSum;
+    }
+
+    /**
+     * Returns this map, which is frozen already.
+     *
+     * @return this map
+     */
+    @Override
+    public FrozenMapContracts<K, V> freeze() {
+        return this;
+    }
+
+    private static UnsupportedOperationException frozen() {
+        return new UnsupportedOperationException("Frozen map");
+    }
+
+    @Override
+    public V put(K key, V value) {
+        throw frozen();
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw frozen();
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        throw frozen();
+    }
+
+    @Override
+    public void apply(WriteBatch<? extends K, ? extends V> batch) {
+        throw frozen();
+    }
+
+    @Override
+    public void clear() {
+        throw frozen();
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        throw frozen();
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        throw frozen();
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        throw frozen();
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        throw frozen();
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        throw frozen();
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        throw frozen();
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        throw frozen();
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        throw frozen();
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        throw frozen();
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Views             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> view = entrySetView;
+        return view != null ? view : (entrySetView = new EntrySet());
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            int slot = slot(entry.getKey());
+            return slot >= 0 && Objects.equals(values[slot], entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw frozen();
+        }
+
+        @Override
+        public void clear() {
+            throw frozen();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            return new Entry(next++);
+        }
+    }
+
+    private final class Entry implements Map.Entry<K, V>, MapContracts.Entry<K, V> {
+        private final int slot;
+
+        Entry(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public K getKey() {
+            return unmaskNull(keys[slot]);
+        }
+
+        @Override
+        public V getValue() {
+            return valueAt(slot);
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw frozen();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return Objects.equals(getKey(), entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return hashes[slot] ^ Objects.hashCode(values[slot]);
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
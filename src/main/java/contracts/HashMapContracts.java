@@ -1,8 +1,11 @@
 package contracts;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
@@ -10,6 +13,18 @@ import java.util.function.Function;
 
 public class HashMapContracts<K, V> extends HashMap<K, V> implements MapContracts<K, V> {
 
+    private transient ContractSampler contractSampler; // null: use the global sampler
+    private transient WriteTracker<K, V> tracker = WriteTracker.plain();
+    private transient Map<K, V> oldState;
+    private transient KeyDelta<V> oldDelta = new KeyDelta<>(this);
+    private transient InvariantCache invariantCache = new InvariantCache();
+    private transient PredicateMemo predicateMemo = new PredicateMemo(64);
+    private transient AsyncVerifier asyncVerifier; // null: check the postconditions on the calling thread
+
+    private transient Set<K> keySetView;
+    private transient Collection<V> valuesView;
+    private transient Set<Map.Entry<K, V>> entrySetView;
+
     // ==========================================================================================
     // ==============================                              ==============================
     // ==============================        Helper Methods        ==============================
@@ -21,6 +36,142 @@ public class HashMapContracts<K, V> extends HashMap<K, V> implements MapContract
         return true;
     }
 
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    /**
+     * Sets the verifier checking the postconditions of this map off the calling thread.
+     *
+     * <p>While set, the postconditions are skipped on the calling thread, and the single-key
+     * mutating calls sampled by the {@link #contract_sampler() sampler} are published to the
+     * verifier instead (see {@link AsyncVerifier} for what it checks).
+     *
+     * @param verifier the verifier of this map, or {@code null} to check the postconditions synchronously
+     */
+    public void setAsyncVerifier(AsyncVerifier verifier) {
+        this.asyncVerifier = verifier;
+    }
+
+    @Override
+    public boolean skip_postcondition(String predicate) {
+        return asyncVerifier != null || MapContracts.super.skip_postcondition(predicate);
+    }
+
+    @Override
+    public boolean skip_bulk_postcondition(String predicate) {
+        return asyncVerifier != null || MapContracts.super.skip_bulk_postcondition(predicate);
+    }
+
+    @Override
+    public boolean skip_read_postcondition(String predicate) {
+        return asyncVerifier != null || MapContracts.super.skip_read_postcondition(predicate);
+    }
+
+    @Override
+    public long state_version() {
+        return tracker.version();
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public int entry_hash_sum() {
+        return tracker.tracksEntryHashes() ? tracker.entryHashSum() : MapContracts.super.entry_hash_sum();
+    }
+
+    /**
+     * Starts or stops maintaining the hash code of this map incrementally, on every change made
+     * to its mappings. While enabled, {@link #hashCode()} and the {@code hashcode_is_valid}
+     * invariant run in constant time, and the full recomputation is only done by deep audits
+     * (see {@link ContractAudit}).
+     *
+     * <p>The incremental hash code assumes that the hash codes of the mapped values, like those
+     * of the keys, do not change while they are in the map.
+     *
+     * @param enabled whether the hash code is maintained incrementally
+     */
+    public void setIncrementalHashCode(boolean enabled) {
+        tracker.trackEntryHashes(this, enabled);
+    }
+
+    @Override
+    public Map<K, V> old_state() {
+        return oldState;
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta;
+    }
+
+    /**
+     * Selects how the state before each bulk mutating call is captured for the postconditions.
+     *
+     * <p>By default, the mappings are copied before every mutating call, which costs
+     * {@code O(n)} time and memory. With persistent snapshots, this map maintains a persistent
+     * hash trie sharing its structure across versions: every change costs an extra
+     * {@code O(log n)} path copy, and capturing the old state costs nothing.
+     *
+     * @param enabled whether old states are persistent snapshots rather than copies
+     */
+    public void setPersistentSnapshots(boolean enabled) {
+        tracker.trackSnapshots(this, enabled);
+    }
+
+    private void captureOldState() {
+        if (!oldDelta.sample() || !ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS)) {
+            oldState = null; // the postconditions of the call are skipped
+            return;
+        }
+        PersistentHashMap<K, V> snapshot = tracker.snapshot();
+        if (snapshot != null) {
+            oldState = snapshot;
+            return;
+        }
+        HashMap<K, V> copy = new HashMap<>(Math.max((int) (super.size() / 0.75f) + 1, 16));
+        for (Map.Entry<K, V> entry : super.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue());
+        }
+        oldState = copy;
+    }
+
+    private void recordOldDelta(Object key) {
+        V value = super.get(key);
+        oldDelta.record(key, super.size(), value != null || super.containsKey(key), value);
+    }
+
+    private void verifyAsync(AsyncVerifier.Operation operation, Object key, Object value, Object newValue, Object result) {
+        AsyncVerifier verifier = asyncVerifier;
+        if (verifier == null || !ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS) || !oldDelta.sampled()) {
+            return;
+        }
+        V valueAfter = super.get(key);
+        boolean containedAfter = valueAfter != null || super.containsKey(key);
+        StackTraceElement[] callSite = verifier.capturesCallSites() ? AsyncVerifier.callSite(getClass()) : null;
+        verifier.publish(new AsyncVerifier.Call(operation, getClass(), key, value, newValue, result,
+                oldDelta, super.size(), containedAfter, valueAfter, callSite));
+    }
+
     // ==========================================================================================
     // ==========================================================================================
     // ==========================================================================================
@@ -47,22 +198,72 @@ public class HashMapContracts<K, V> extends HashMap<K, V> implements MapContract
 
     @Override
     public V put(K key, V value) {
-        return super.put(key, value);
+        int size = super.size();
+        V oldValue = super.put(key, value);
+        boolean hadOld = super.size() == size;
+        oldDelta.record(key, size, hadOld, oldValue);
+        tracker.written(key, hadOld, oldValue, true, value);
+        verifyAsync(AsyncVerifier.Operation.PUT, key, value, null, oldValue);
+        return oldValue;
     }
 
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
-        super.putAll(m);
+        captureOldState();
+        if (!tracker.active()) {
+            super.putAll(m);
+            tracker.modified();
+            return;
+        }
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            K key = entry.getKey();
+            V value = entry.getValue();
+            int size = super.size();
+            V oldValue = super.put(key, value);
+            tracker.written(key, super.size() == size, oldValue, true, value);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(WriteBatch<? extends K, ? extends V> batch) {
+        // one pass over the batch for the part of the old state the postconditions need, one to
+        // apply it: no copy of the map, and no contract checks per write
+        oldDelta.sample();
+        batch.expect(super.size(), super::containsKey);
+        for (Map.Entry<? extends K, Object> write : batch.writes()) {
+            K key = write.getKey();
+            int size = super.size();
+            if (WriteBatch.removes(write.getValue())) {
+                V oldValue = super.remove(key);
+                if (super.size() != size) {
+                    tracker.written(key, true, oldValue, false, null);
+                }
+            } else {
+                V value = (V) write.getValue();
+                V oldValue = super.put(key, value);
+                tracker.written(key, super.size() == size, oldValue, true, value);
+            }
+        }
     }
 
     @Override
     public V remove(Object key) {
-        return super.remove(key);
+        int size = super.size();
+        V oldValue = super.remove(key);
+        oldDelta.record(key, size, super.size() != size, oldValue);
+        if (super.size() != size) {
+            tracker.written(key, true, oldValue, false, null);
+        }
+        verifyAsync(AsyncVerifier.Operation.REMOVE, key, null, null, oldValue);
+        return oldValue;
     }
 
     @Override
     public void clear() {
+        oldDelta.sample();
         super.clear();
+        tracker.cleared();
     }
 
     @Override
@@ -70,19 +271,55 @@ public class HashMapContracts<K, V> extends HashMap<K, V> implements MapContract
         return super.containsValue(value);
     }
 
+    /**
+     * Returns the keys of this map, as a view reporting the removals made through it, so that
+     * they advance the {@link #state_version() version} of this map like the other writes.
+     */
     @Override
     public Set<K> keySet() {
-        return super.keySet();
+        Set<K> view = keySetView;
+        if (view == null) {
+            keySetView = view = TrackedViews.keySet(this, super.entrySet(), tracker, false);
+        }
+        return view;
     }
 
+    /**
+     * Returns the values of this map, as a view reporting its removals (see {@link #keySet()}).
+     */
     @Override
     public Collection<V> values() {
-        return super.values();
+        Collection<V> view = valuesView;
+        if (view == null) {
+            valuesView = view = TrackedViews.values(this, super.entrySet(), tracker, false);
+        }
+        return view;
     }
 
+    /**
+     * Returns the mappings of this map, as a view reporting its removals and the values replaced
+     * through its entries (see {@link #keySet()}).
+     */
     @Override
     public Set<Map.Entry<K, V>> entrySet() {
-        return super.entrySet();
+        Set<Map.Entry<K, V>> view = entrySetView;
+        if (view == null) {
+            entrySetView = view = TrackedViews.entrySet(this, super.entrySet(), tracker, false);
+        }
+        return view;
+    }
+
+    @Override
+    public int hashCode() {
+        if (tracker.tracksEntryHashes()) {
+            return tracker.entryHashSum();
+        }
+        // over the raw entries: the tracked view would wrap every one of them
+        int hash = 0;
+        for (Map.Entry<K, V> entry : super.entrySet()) {
+            hash += entry.hashCode();
+        }
+        return hash;
     }
 
     @Override
@@ -92,42 +329,118 @@ public class HashMapContracts<K, V> extends HashMap<K, V> implements MapContract
 
     @Override
     public V putIfAbsent(K key, V value) {
-        return super.putIfAbsent(key, value);
+        int size = super.size();
+        V oldValue = super.putIfAbsent(key, value);
+        oldDelta.record(key, size, super.size() == size, oldValue);
+        if (oldValue == null) {
+            tracker.written(key, super.size() == size, null, true, value);
+        }
+        verifyAsync(AsyncVerifier.Operation.PUT_IF_ABSENT, key, value, null, oldValue);
+        return oldValue;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public boolean remove(Object key, Object value) {
-        return super.remove(key, value);
+        recordOldDelta(key);
+        boolean removed = super.remove(key, value);
+        if (removed) {
+            tracker.written(key, true, (V) value, false, null);
+        }
+        verifyAsync(AsyncVerifier.Operation.REMOVE_ENTRY, key, value, null, removed);
+        return removed;
     }
 
     @Override
     public boolean replace(K key, V oldValue, V newValue) {
-        return super.replace(key, oldValue, newValue);
+        recordOldDelta(key);
+        boolean replaced = super.replace(key, oldValue, newValue);
+        if (replaced) {
+            tracker.written(key, true, oldValue, true, newValue);
+        }
+        verifyAsync(AsyncVerifier.Operation.REPLACE_ENTRY, key, oldValue, newValue, replaced);
+        return replaced;
     }
 
     @Override
     public V replace(K key, V value) {
-        return super.replace(key, value);
+        V oldValue = super.replace(key, value);
+        boolean hadOld = oldValue != null || super.containsKey(key);
+        oldDelta.record(key, super.size(), hadOld, oldValue);
+        if (hadOld) {
+            tracker.written(key, true, oldValue, true, value);
+        }
+        verifyAsync(AsyncVerifier.Operation.REPLACE, key, value, null, oldValue);
+        return oldValue;
     }
 
     @Override
     public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
-        return super.computeIfAbsent(key, mappingFunction);
+        oldDelta.sample();
+        if (!tracker.active()) {
+            V result = super.computeIfAbsent(key, mappingFunction);
+            tracker.modified();
+            return result;
+        }
+        Objects.requireNonNull(mappingFunction);
+        V oldValue = super.get(key);
+        if (oldValue != null) {
+            return oldValue;
+        }
+        boolean hadOld = super.containsKey(key);
+        V newValue = super.computeIfAbsent(key, mappingFunction);
+        if (newValue != null) {
+            tracker.written(key, hadOld, null, true, newValue);
+        }
+        return newValue;
     }
 
     @Override
     public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-        return super.computeIfPresent(key, remappingFunction);
+        oldDelta.sample();
+        if (!tracker.active()) {
+            V result = super.computeIfPresent(key, remappingFunction);
+            tracker.modified();
+            return result;
+        }
+        V oldValue = super.get(key);
+        V newValue = super.computeIfPresent(key, remappingFunction);
+        if (oldValue != null) {
+            tracker.written(key, true, oldValue, newValue != null, newValue);
+        }
+        return newValue;
     }
 
     @Override
     public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-        return super.compute(key, remappingFunction);
+        oldDelta.sample();
+        if (!tracker.active()) {
+            V result = super.compute(key, remappingFunction);
+            tracker.modified();
+            return result;
+        }
+        V oldValue = super.get(key);
+        boolean hadOld = oldValue != null || super.containsKey(key);
+        V newValue = super.compute(key, remappingFunction);
+        if (hadOld || newValue != null) {
+            tracker.written(key, hadOld, oldValue, newValue != null, newValue);
+        }
+        return newValue;
     }
 
     @Override
     public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
-        return super.merge(key, value, remappingFunction);
+        oldDelta.sample();
+        if (!tracker.active()) {
+            V result = super.merge(key, value, remappingFunction);
+            tracker.modified();
+            return result;
+        }
+        V oldValue = super.get(key);
+        boolean hadOld = oldValue != null || super.containsKey(key);
+        V newValue = super.merge(key, value, remappingFunction);
+        tracker.written(key, hadOld, oldValue, newValue != null, newValue);
+        return newValue;
     }
 
     @Override
@@ -137,11 +450,40 @@ public class HashMapContracts<K, V> extends HashMap<K, V> implements MapContract
 
     @Override
     public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
-        super.replaceAll(function);
+        captureOldState();
+        if (!tracker.active()) {
+            super.replaceAll(function);
+            tracker.modified();
+            return;
+        }
+        WriteTracker<K, V> tracker = this.tracker;
+        super.replaceAll((key, oldValue) -> {
+            V newValue = function.apply(key, oldValue);
+            tracker.written(key, true, oldValue, true, newValue);
+            return newValue;
+        });
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public Object clone() {
-        return super.clone();
+        HashMapContracts<K, V> copy = (HashMapContracts<K, V>) super.clone();
+        copy.tracker = tracker.copy();
+        copy.oldState = null;
+        copy.oldDelta = new KeyDelta<>(copy);
+        copy.invariantCache = new InvariantCache(); // the versions of the copy diverge from these
+        copy.predicateMemo = new PredicateMemo(64);
+        copy.keySetView = null;
+        copy.valuesView = null;
+        copy.entrySetView = null;
+        return copy;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        tracker = WriteTracker.plain();
+        oldDelta = new KeyDelta<>(this);
+        invariantCache = new InvariantCache();
+        predicateMemo = new PredicateMemo(64);
     }
 }
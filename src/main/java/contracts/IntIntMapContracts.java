@@ -0,0 +1,660 @@
+package contracts;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * A contract-checked map from {@code int} keys to {@code int} values, stored unboxed in parallel
+ * arrays with open addressing and linear probing.
+ *
+ * <p>A slot costs 9 bytes (the key, the value and its state) and the table is kept at most three
+ * quarters full, so an entry costs 12 to 24 bytes, against about 50 bytes for the node, the table
+ * slot and the boxed key and value of a {@code HashMap<Integer, Integer>}. Removed keys leave a
+ * tombstone behind, which the next resize clears.
+ *
+ * <p>The {@link Map} methods box their keys and values and carry the contracts of
+ * {@link MapContracts}. The unboxed overloads ({@link #get(int)}, {@link #put(int, int)},
+ * {@link #remove(int)}, ...) neither box nor check postconditions, but maintain the same state,
+ * so the invariants keep holding across both. Null keys and values are not supported. Since the
+ * values have no identity, the postconditions compare them by equality.
+ *
+ * <p>The hash code of the map is maintained incrementally, so {@link #hashCode()} and the
+ * {@code hashcode_is_valid} invariant run in constant time.
+ */
+public class IntIntMapContracts extends AbstractMap<Integer, Integer> implements MapContracts<Integer, Integer> {
+
+    private static final byte FREE = 0;
+    private static final byte FULL = 1;
+    private static final byte REMOVED = 2;
+
+    private static final int MIN_CAPACITY = 8;
+
+    private int[] keys;
+    private int[] values;
+    private byte[] states;
+    private int shift; // 32 - log2(capacity): the hash of a key is the top bits of its product
+    private int size;
+    private int filled; // the slots that are not free: the entries and the tombstones
+    private int modCount;
+
+    private int entryHashSum;
+    private long version;
+
+    private ContractSampler contractSampler; // null: use the global sampler
+    private Map<Integer, Integer> oldState;
+    private final KeyDelta<Integer> oldDelta = new KeyDelta<>(this);
+    private final InvariantCache invariantCache = new InvariantCache();
+    private final PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private Set<Map.Entry<Integer, Integer>> entrySetView;
+
+    /**
+     * Creates an empty map.
+     */
+    public IntIntMapContracts() {
+        this(0);
+    }
+
+    /**
+     * Creates an empty map holding {@code expectedSize} entries without resizing.
+     *
+     * @param expectedSize the number of entries to make room for
+     */
+    public IntIntMapContracts(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    private IntIntMapContracts(IntIntMapContracts map) {
+        keys = map.keys.clone();
+        values = map.values.clone();
+        states = map.states.clone();
+        shift = map.shift;
+        size = map.size;
+        filled = map.filled;
+        entryHashSum = map.entryHashSum;
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public boolean supports_null_items() {
+        return false;
+    }
+
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    @Override
+    public boolean values_have_identity() {
+        return false;
+    }
+
+    @Override
+    public long state_version() {
+        return version;
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public int entry_hash_sum() {
+        return entryHashSum;
+    }
+
+    @Override
+    public Map<Integer, Integer> old_state() {
+        return oldState;
+    }
+
+    @Override
+    public KeyDelta<Integer> old_delta() {
+        return oldDelta;
+    }
+
+    private void captureOldState() {
+        if (!oldDelta.sample() || !ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS)) {
+            oldState = null; // the postconditions of the call are skipped
+            return;
+        }
+        oldState = new IntIntMapContracts(this); // three array copies, with no boxing
+    }
+
+    private void recordOldDelta(int key) {
+        int slot = slot(key);
+        oldDelta.record(key, size, slot >= 0, slot >= 0 ? values[slot] : null);
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Implementations       ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = Math.max(MIN_CAPACITY, Long.highestOneBit(expectedSize * 4L / 3 + 1) * 2);
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Too many entries: " + expectedSize);
+        }
+        return (int) capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        states = new byte[capacity];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        filled = size;
+    }
+
+    private int index(int key) {
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * Returns the slot of {@code key}, or -1 if it is not mapped.
+     */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            byte state = states[i];
+            if (state == FREE) {
+                return -1; // there is always a free slot, so the probe ends
+            }
+            if (state == FULL && keys[i] == key) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Maps {@code key}, known not to be mapped, to {@code value}.
+     */
+    private void insert(int key, int value) {
+        if (filled + 1 > keys.length - (keys.length >>> 2)) {
+            // grow if the entries fill half of the table, and only clear the tombstones otherwise
+            rehash(size + 1 > keys.length >>> 1 ? keys.length << 1 : keys.length);
+        }
+        int mask = keys.length - 1;
+        int i = index(key);
+        while (states[i] == FULL) {
+            i = (i + 1) & mask;
+        }
+        if (states[i] == FREE) {
+            filled++;
+        }
+        keys[i] = key;
+        values[i] = value;
+        states[i] = FULL;
+        size++;
+        modCount++;
+        entryHashSum += key ^ value;
+        version++;
+    }
+
+    private void rehash(int capacity) {
+        if (capacity > 1 << 30) {
+            throw new IllegalStateException("Map too large");
+        }
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        byte[] oldStates = states;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldStates.length; j++) {
+            if (oldStates[j] == FULL) {
+                int i = index(oldKeys[j]);
+                while (states[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+                states[i] = FULL;
+            }
+        }
+    }
+
+    private void setValueAt(int slot, int value) {
+        entryHashSum += (keys[slot] ^ value) - (keys[slot] ^ values[slot]);
+        values[slot] = value;
+        version++;
+    }
+
+    private void removeAt(int slot) {
+        entryHashSum -= keys[slot] ^ values[slot];
+        // a slot followed by a free slot ends no probe sequence: it can be freed rather than buried
+        if (states[(slot + 1) & (keys.length - 1)] == FREE) {
+            states[slot] = FREE;
+            filled--;
+        } else {
+            states[slot] = REMOVED;
+        }
+        size--;
+        modCount++;
+        version++;
+    }
+
+    private static int unbox(Object o) {
+        return (Integer) Objects.requireNonNull(o);
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Unboxed           ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * Returns whether {@code key} is mapped, without boxing it.
+     *
+     * @param key the key
+     * @return whether this map contains a mapping for {@code key}
+     */
+    public boolean containsKey(int key) {
+        return slot(key) >= 0;
+    }
+
+    /**
+     * Returns the value of {@code key}, without boxing it.
+     *
+     * @param key the key
+     * @return the value of {@code key}, or 0 if it is not mapped
+     */
+    public int get(int key) {
+        return getOrDefault(key, 0);
+    }
+
+    /**
+     * Returns the value of {@code key}, or {@code defaultValue} if it is not mapped, without boxing.
+     *
+     * @param key          the key
+     * @param defaultValue the value returned if {@code key} is not mapped
+     * @return the value of {@code key}, or {@code defaultValue}
+     */
+    public int getOrDefault(int key, int defaultValue) {
+        int slot = slot(key);
+        return slot >= 0 ? values[slot] : defaultValue;
+    }
+
+    /**
+     * Maps {@code key} to {@code value}, without boxing either.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the previous value of {@code key}, or 0 if it was not mapped
+     */
+    public int put(int key, int value) {
+        int slot = slot(key);
+        if (slot < 0) {
+            insert(key, value);
+            return 0;
+        }
+        int oldValue = values[slot];
+        setValueAt(slot, value);
+        return oldValue;
+    }
+
+    /**
+     * Removes the mapping of {@code key}, without boxing it.
+     *
+     * @param key the key
+     * @return the previous value of {@code key}, or 0 if it was not mapped
+     */
+    public int remove(int key) {
+        int slot = slot(key);
+        if (slot < 0) {
+            return 0;
+        }
+        int oldValue = values[slot];
+        removeAt(slot);
+        return oldValue;
+    }
+
+    // ==========================================================================================
+    // ==========================================================================================
+    // ==========================================================================================
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Integer get(Object key) {
+        int slot = slot(unbox(key));
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return slot(unbox(key)) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        int v = unbox(value);
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == FULL && values[i] == v) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Integer put(Integer key, Integer value) {
+        int k = unbox(key);
+        int v = unbox(value);
+        int slot = slot(k);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            insert(k, v);
+            return null;
+        }
+        Integer oldValue = values[slot];
+        oldDelta.record(key, size, true, oldValue);
+        setValueAt(slot, v);
+        return oldValue;
+    }
+
+    @Override
+    public void putAll(Map<? extends Integer, ? extends Integer> m) {
+        captureOldState();
+        for (Map.Entry<? extends Integer, ? extends Integer> entry : m.entrySet()) {
+            put(unbox(entry.getKey()), unbox(entry.getValue()));
+        }
+    }
+
+    @Override
+    public void apply(WriteBatch<? extends Integer, ? extends Integer> batch) {
+        if (batch.hasNullEntries()) {
+            throw new NullPointerException();
+        }
+        batch.expect(size, key -> containsKey((int) (Integer) key));
+        for (Map.Entry<? extends Integer, Object> write : batch.writes()) {
+            if (WriteBatch.removes(write.getValue())) {
+                remove((int) write.getKey());
+            } else {
+                put((int) write.getKey(), (int) (Integer) write.getValue());
+            }
+        }
+    }
+
+    @Override
+    public Integer remove(Object key) {
+        int k = unbox(key);
+        int slot = slot(k);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        Integer oldValue = values[slot];
+        oldDelta.record(key, size, true, oldValue);
+        removeAt(slot);
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        oldDelta.sample();
+        Arrays.fill(states, FREE);
+        size = 0;
+        filled = 0;
+        modCount++;
+        entryHashSum = 0;
+        version++;
+    }
+
+    @Override
+    public Set<Map.Entry<Integer, Integer>> entrySet() {
+        Set<Map.Entry<Integer, Integer>> view = entrySetView;
+        if (view == null) {
+            entrySetView = view = new EntrySet();
+        }
+        return view;
+    }
+
+    @Override
+    public int hashCode() {
+        return entryHashSum;
+    }
+
+    @Override
+    public Integer getOrDefault(Object key, Integer defaultValue) {
+        int slot = slot(unbox(key));
+        return slot >= 0 ? (Integer) values[slot] : defaultValue;
+    }
+
+    @Override
+    public Integer putIfAbsent(Integer key, Integer value) {
+        int k = unbox(key);
+        int v = unbox(value);
+        int slot = slot(k);
+        if (slot >= 0) {
+            Integer oldValue = values[slot];
+            oldDelta.record(key, size, true, oldValue);
+            return oldValue;
+        }
+        oldDelta.record(key, size, false, null);
+        insert(k, v);
+        return null;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int k = unbox(key);
+        int v = unbox(value);
+        recordOldDelta(k);
+        int slot = slot(k);
+        if (slot < 0 || values[slot] != v) {
+            return false;
+        }
+        removeAt(slot);
+        return true;
+    }
+
+    @Override
+    public boolean replace(Integer key, Integer oldValue, Integer newValue) {
+        int k = unbox(key);
+        int o = unbox(oldValue);
+        int n = unbox(newValue);
+        recordOldDelta(k);
+        int slot = slot(k);
+        if (slot < 0 || values[slot] != o) {
+            return false;
+        }
+        setValueAt(slot, n);
+        return true;
+    }
+
+    @Override
+    public Integer replace(Integer key, Integer value) {
+        int k = unbox(key);
+        int v = unbox(value);
+        int slot = slot(k);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        Integer oldValue = values[slot];
+        oldDelta.record(key, size, true, oldValue);
+        setValueAt(slot, v);
+        return oldValue;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super Integer, ? super Integer, ? extends Integer> function) {
+        Objects.requireNonNull(function);
+        captureOldState();
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == FULL) {
+                setValueAt(i, unbox(function.apply(keys[i], values[i])));
+            }
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Views             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private final class EntrySet extends AbstractSet<Map.Entry<Integer, Integer>> {
+
+        @Override
+        public Iterator<Map.Entry<Integer, Integer>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (!(entry.getKey() instanceof Integer) || !(entry.getValue() instanceof Integer)) {
+                return false;
+            }
+            int slot = slot((Integer) entry.getKey());
+            return slot >= 0 && values[slot] == (Integer) entry.getValue();
+        }
+
+        @Override
+        public void clear() {
+            IntIntMapContracts.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<Integer, Integer>> {
+        // removing a mapping never moves another one, so the slots are stable while iterating
+        private int next = advance(0);
+        private int current = -1;
+        private int expectedModCount = modCount;
+
+        private int advance(int from) {
+            while (from < states.length && states[from] != FULL) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < states.length;
+        }
+
+        @Override
+        public Map.Entry<Integer, Integer> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= states.length) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = advance(next + 1);
+            return new Entry(current);
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(current);
+            expectedModCount = modCount;
+            current = -1;
+        }
+    }
+
+    private final class Entry implements Map.Entry<Integer, Integer> {
+        private final int slot;
+        private final int key;
+
+        Entry(int slot) {
+            this.slot = slot;
+            this.key = keys[slot];
+        }
+
+        @Override
+        public Integer getKey() {
+            return key;
+        }
+
+        @Override
+        public Integer getValue() {
+            return states[slot] == FULL && keys[slot] == key ? values[slot] : IntIntMapContracts.this.get((Object) key);
+        }
+
+        @Override
+        public Integer setValue(Integer value) {
+            return put(key, unbox(value));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return getKey().equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+}
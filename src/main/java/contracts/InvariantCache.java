@@ -0,0 +1,61 @@
+package contracts;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers, for each invariant of a contract-checked map, the last modification version of the
+ * map at which the invariant held, so that the invariant is not checked again until the map
+ * changes: after a read such as {@code get} or {@code size}, the invariants are skipped entirely.
+ *
+ * <p>Versions are read before the invariant is evaluated, so a change made while it is evaluated
+ * only makes the remembered version stale, never the remembered result. A negative version, of a
+ * map whose state is not versioned, is never remembered. The cache is safe for concurrent use and
+ * allocates nothing once every invariant has been seen.
+ */
+public final class InvariantCache {
+
+    private static final int SLOTS = 8; // more invariants than any map declares; the others are not cached
+
+    private final AtomicReferenceArray<String> predicates = new AtomicReferenceArray<>(SLOTS);
+    private final AtomicLongArray versions = new AtomicLongArray(SLOTS); // version + 1: 0 means never held
+
+    InvariantCache() {
+    }
+
+    /**
+     * Returns whether the invariant held at {@code version}.
+     */
+    boolean held(String predicate, long version) {
+        if (version < 0) {
+            return false;
+        }
+        int slot = slot(predicate);
+        return slot >= 0 && versions.get(slot) == version + 1;
+    }
+
+    /**
+     * Remembers that the invariant held at {@code version}, which must have been read before
+     * the invariant was evaluated.
+     */
+    void hold(String predicate, long version) {
+        int slot = version < 0 ? -1 : slot(predicate);
+        if (slot >= 0) {
+            versions.set(slot, version + 1);
+        }
+    }
+
+    private int slot(String predicate) {
+        for (int i = 0; i < SLOTS; i++) {
+            String cached = predicates.get(i);
+            if (cached == null && predicates.compareAndSet(i, null, predicate)) {
+                return i;
+            }
+            cached = predicates.get(i);
+            if (cached == predicate || cached.equals(predicate)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
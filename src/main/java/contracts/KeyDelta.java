@@ -0,0 +1,151 @@
+package contracts;
+
+/**
+ * The part of the old state of a map that a single-key mutating call can change: the size of the
+ * map and the mapping of the key, as they were before the call.
+ *
+ * <p>Capturing it costs constant time and, since implementations reuse one instance per map (or
+ * per thread, for concurrent maps), no allocation, whereas capturing the whole old state costs a
+ * copy of the map.
+ *
+ * <p>It also holds whether the postconditions of the call are checked, as decided once by the
+ * {@linkplain MapContracts#contract_sampler() sampler} of the map when the call recorded its delta
+ * (see {@link #sample()}), so that either all of them are checked or none is.
+ *
+ * @param <V> the type of mapped values
+ */
+public final class KeyDelta<V> {
+
+    private final MapContracts<?, ?> map; // null: every call is checked
+    private Object key;
+    private int size;
+    private boolean contained;
+    private V value;
+    private int evicted;
+    private long stamp;
+    private long keyStamp = -1;
+    private long mapStamp = -1;
+    private boolean sampled = true;
+
+    KeyDelta() {
+        this(null);
+    }
+
+    KeyDelta(MapContracts<?, ?> map) {
+        this.map = map;
+    }
+
+    void record(Object key, int size, boolean contained, V value) {
+        sample();
+        this.key = key;
+        this.size = size;
+        this.contained = contained;
+        this.value = contained ? value : null;
+        this.evicted = 0;
+    }
+
+    /**
+     * Decides whether the postconditions of the call that is starting are checked. The calls that
+     * record a delta have it decided by {@link #record}, the others call this instead.
+     *
+     * @return whether the postconditions of the call are checked
+     */
+    boolean sample() {
+        return sampled = map == null || map.sample_call();
+    }
+
+    /**
+     * Returns whether the postconditions of the last call are checked, as decided when it started.
+     */
+    boolean sampled() {
+        return sampled;
+    }
+
+    void evicted(int count) {
+        this.evicted += count;
+    }
+
+    void stamp(long stamp) {
+        this.stamp = stamp;
+    }
+
+    /**
+     * Returns the number of finished writes to the stripe of the key when the last read started,
+     * for maps that count them (see {@link WriteStamps}).
+     */
+    long stamp() {
+        return stamp;
+    }
+
+    void stampWrite(long keyStamp, long mapStamp) {
+        this.keyStamp = keyStamp;
+        this.mapStamp = mapStamp;
+    }
+
+    /**
+     * Returns the number of started writes to the stripe of the key when the call started, the
+     * call's own included, or -1 if other writes to the stripe were in flight (see {@link WriteStamps}).
+     */
+    long keyStamp() {
+        return keyStamp;
+    }
+
+    /**
+     * Returns the number of started writes to the whole map when the call started, the call's own
+     * included, or -1 if other writes were in flight (see {@link WriteStamps}).
+     */
+    long mapStamp() {
+        return mapStamp;
+    }
+
+    /**
+     * Returns the key the call was about.
+     *
+     * @return the key the call was about
+     */
+    public Object key() {
+        return key;
+    }
+
+    /**
+     * Returns the size of the map before the call.
+     *
+     * @return the size of the map before the call
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the map contained the key before the call.
+     *
+     * @return whether the map contained the key before the call
+     */
+    public boolean contained() {
+        return contained;
+    }
+
+    /**
+     * Returns the value mapped to the key before the call, or {@code null} if it was not mapped.
+     *
+     * @return the value mapped to the key before the call
+     */
+    public V value() {
+        return value;
+    }
+
+    /**
+     * Returns the number of entries the call evicted or expired, for maps that remove entries by
+     * themselves (see {@link EvictingMapContracts}).
+     *
+     * @return the number of entries the call evicted
+     */
+    public int evicted() {
+        return evicted;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyDelta{key=" + key + ", size=" + size + ", contained=" + contained + ", value=" + value + ", evicted=" + evicted + "}";
+    }
+}
@@ -0,0 +1,1103 @@
+package contracts;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A contract-checked concurrent map that takes no locks: a split-ordered list (Shalev and
+ * Shavit), where every change is a single compare-and-set.
+ *
+ * <p>All the entries form one sorted linked list, ordered by the bit-reversed hashes of their
+ * keys. A bucket is a pointer to a sentinel node in the list, in front of the keys whose hashes
+ * end with the bits of the bucket, so that doubling the buckets never moves an entry: a new
+ * bucket is initialized on first use by inserting its sentinel in the middle of its parent
+ * bucket. Values are replaced in place. A removal clears the value, then appends a marker node
+ * and unlinks the node, as in {@link java.util.concurrent.ConcurrentSkipListMap}; any thread that
+ * meets a removed node helps finish its removal.
+ *
+ * <p>There are thus no bin locks and no resize transfers: writers to different keys only contend
+ * on the compare-and-set of a shared predecessor, and the size is counted on striped counters.
+ * Like {@link ConcurrentHashMapContracts}, it supports neither null keys nor null values, its
+ * iterators are weakly consistent, its bulk calls are not atomic, and its postconditions tell
+ * concurrent writes from wrong results with the same striped {@link WriteStamps}, which the
+ * calls only update while its postconditions are checked. Unlike {@code ConcurrentHashMap}, it
+ * takes no lock to apply the functions of the compute methods and {@code merge}, so they may run
+ * more than once, like the defaults of {@link ConcurrentMap}.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class LockFreeHashMapContracts<K, V> extends AbstractMap<K, V> implements MapContracts<K, V>, ConcurrentMap<K, V> {
+
+    private static final Object SENTINEL = new Object(); // the value of the sentinel nodes of the buckets
+
+    private static final int MAX_BUCKETS = 1 << 30;
+    private static final int LOAD = 2; // the average number of keys per bucket before doubling
+    private static final int STRIPES = 32; // a power of two
+    private static final int PAD = 8; // longs per counter: one 64-byte cache line, against false sharing
+
+    private final Node head = new Node(0, null, SENTINEL, null); // the sentinel of bucket 0
+    private final AtomicReferenceArray<AtomicReferenceArray<Node>> segments = new AtomicReferenceArray<>(30);
+    private final AtomicInteger buckets = new AtomicInteger(2);
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * PAD);
+
+    private final LongAdder version = new LongAdder();
+
+    private volatile ContractSampler contractSampler; // null: use the global sampler
+    private final ThreadLocal<Map<K, V>> oldState = new ThreadLocal<>();
+    private final ThreadLocal<KeyDelta<V>> oldDelta = ThreadLocal.withInitial(() -> new KeyDelta<>(this));
+    private final WriteStamps stamps = new WriteStamps();
+    private final InvariantCache invariantCache = new InvariantCache();
+    private final PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private Set<Map.Entry<K, V>> entrySetView;
+
+    /**
+     * Creates an empty map.
+     */
+    public LockFreeHashMapContracts() {
+        setBucket(0, head);
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public boolean supports_null_items() {
+        return false;
+    }
+
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    @Override
+    public boolean key_written_concurrently() {
+        KeyDelta<V> delta = oldDelta.get();
+        return delta.keyStamp() < 0 || stamps.started(delta.key()) != delta.keyStamp();
+    }
+
+    @Override
+    public boolean map_written_concurrently() {
+        KeyDelta<V> delta = oldDelta.get();
+        return delta.mapStamp() < 0 || stamps.startedAll() != delta.mapStamp();
+    }
+
+    @Override
+    public long state_version() {
+        return version.sum();
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public Map<K, V> old_state() {
+        return oldState.get();
+    }
+
+    private void captureOldState() {
+        if (!oldDelta.get().sampled()) {
+            oldState.set(null); // the postconditions of the call are skipped
+            return;
+        }
+        if (oldDelta.get().mapStamp() < 0) {
+            // other writes are in flight, so the postconditions will not judge the old state:
+            // skip the copy rather than contend with them
+            oldState.set(Collections.emptyMap());
+            return;
+        }
+        oldState.set(new HashMap<>(this));
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta.get();
+    }
+
+    /**
+     * Returns whether the postconditions of this map are checked: only then do the writes read
+     * the size, which costs a read of every counter stripe.
+     */
+    private boolean checked() {
+        return ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS);
+    }
+
+    private void recordOldDelta(Object key, int size, V oldValue) {
+        // the size may include changes made meanwhile by other threads: see stampWrite
+        oldDelta.get().record(key, size, oldValue != null, oldValue);
+    }
+
+    private void stampWrite(Object key) {
+        // a striped sequence lock over the call: its postconditions only judge the state they
+        // observe if no other write was in flight when it started and none has started since
+        oldDelta.get().stampWrite(stamps.quiescent(key), stamps.quiescentAll(1));
+    }
+
+    /**
+     * Starts a write to {@code key} on the write stamps, if the postconditions are checked: the
+     * stamps are shared counters, which unchecked calls leave alone.
+     *
+     * @return whether the postconditions are checked, to pass to {@link #finishWrite}
+     */
+    private boolean startWrite(Object key) {
+        if (!checked()) {
+            return false;
+        }
+        stamps.start(key);
+        return true;
+    }
+
+    private void finishWrite(Object key, boolean checked) {
+        if (checked) {
+            stamps.finish(key);
+        }
+    }
+
+    private boolean startWriteAll() {
+        if (!checked()) {
+            return false;
+        }
+        stamps.startAll();
+        KeyDelta<V> delta = oldDelta.get();
+        delta.sample(); // a bulk call records no delta
+        delta.stampWrite(-1, stamps.quiescentAll(WriteStamps.STRIPES));
+        return true;
+    }
+
+    private void finishWriteAll(boolean checked) {
+        if (checked) {
+            stamps.finishAll();
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================          Invariants          ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Invariant
+    @Pure
+    public boolean none_null() {
+        // nulls could only come in through the writes, whose postconditions check each written
+        // entry: the full scan only runs as a deep audit
+        return checked_invariant("none_null", () -> !deep_audit_due("none_null")
+                || !ContractLogic.containsEqual(keySet(), null) && !ContractLogic.containsEqual(values(), null));
+    }
+
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================       Concurrent Hashmap     ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Pure
+    public boolean null_if_not_contains_key(V returns, Object key) {
+        // a fresh read agreeing with the result is a witness; otherwise the result is wrong only if
+        // no write to the key (or to a key of the same stripe) overlapped the call and this check
+        return key == null || checked_read("null_if_not_contains_key",
+                () -> find(key) == returns || stamps.started(key) != old_delta().stamp());
+    }
+
+    @Pure
+    public boolean entry_not_null(K key, V value) {
+        return checked("entry_not_null", () -> key != null && value != null);
+    }
+
+    @Pure
+    public boolean new_entry_not_null(K key, V newValue) {
+        return checked("new_entry_not_null", () -> key != null && newValue != null);
+    }
+
+    @Pure
+    public boolean all_entries_not_null(Map<? extends K, ? extends V> m) {
+        return checked_bulk("all_entries_not_null", () -> ContractLogic.noNullEntries(m));
+    }
+
+    @Pure
+    public boolean computed_entry_not_null(K key) {
+        return checked("computed_entry_not_null", () -> key != null); // a null result removes the key rather than mapping it to null
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================     Split-Ordered List       ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * A node of the list: an entry, the sentinel of a bucket, or a marker following a removed
+     * entry.
+     */
+    private static final class Node {
+        private static final VarHandle VALUE;
+        private static final VarHandle NEXT;
+
+        static {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                VALUE = lookup.findVarHandle(Node.class, "value", Object.class);
+                NEXT = lookup.findVarHandle(Node.class, "next", Node.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final int order; // the bit-reversed hash: odd for an entry, even for a sentinel
+        final Object key; // null for sentinels and markers
+        volatile Object value; // null once removed, the node itself for a marker
+        volatile Node next;
+
+        Node(int order, Object key, Object value, Node next) {
+            this.order = order;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        Node(Node next) { // a marker
+            this.order = 0;
+            this.key = null;
+            this.value = this;
+            this.next = next;
+        }
+
+        boolean casValue(Object expected, Object value) {
+            return VALUE.compareAndSet(this, expected, value);
+        }
+
+        boolean casNext(Node expected, Node next) {
+            return NEXT.compareAndSet(this, expected, next);
+        }
+
+        boolean isMarker() {
+            return value == this;
+        }
+
+        /**
+         * Helps the removal of this node, whose value was cleared, from between {@code b} and
+         * {@code f}: appends a marker, so that no node is inserted after it, then unlinks both.
+         */
+        void helpDelete(Node b, Node f) {
+            if (f == next && this == b.next) {
+                if (f == null || !f.isMarker()) {
+                    casNext(f, new Node(f));
+                } else {
+                    b.casNext(this, f.next);
+                }
+            }
+        }
+    }
+
+    private static int spread(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int entryOrder(int hash) {
+        return Integer.reverse(hash) | 1;
+    }
+
+    private static int segment(int bucket) {
+        return bucket < 2 ? 0 : 31 - Integer.numberOfLeadingZeros(bucket);
+    }
+
+    private static int offset(int bucket) {
+        return bucket < 2 ? bucket : bucket - Integer.highestOneBit(bucket);
+    }
+
+    private AtomicReferenceArray<Node> segmentOf(int bucket) {
+        int s = segment(bucket);
+        AtomicReferenceArray<Node> segment = segments.get(s);
+        if (segment == null) {
+            segments.compareAndSet(s, null, new AtomicReferenceArray<>(s == 0 ? 2 : 1 << s));
+            segment = segments.get(s);
+        }
+        return segment;
+    }
+
+    private void setBucket(int bucket, Node sentinel) {
+        segmentOf(bucket).compareAndSet(offset(bucket), null, sentinel);
+    }
+
+    /**
+     * Returns the sentinel of the bucket of {@code hash}, inserting it if it is the first use of
+     * the bucket.
+     */
+    private Node bucketOf(int hash) {
+        int bucket = hash & (buckets.get() - 1);
+        Node sentinel = segmentOf(bucket).get(offset(bucket));
+        return sentinel != null ? sentinel : initializeBucket(bucket);
+    }
+
+    private Node initializeBucket(int bucket) {
+        int parent = bucket & ~Integer.highestOneBit(bucket);
+        Node start = segmentOf(parent).get(offset(parent));
+        if (start == null) {
+            start = initializeBucket(parent);
+        }
+        int order = Integer.reverse(bucket);
+        outer:
+        for (;;) {
+            for (Node b = start, n = b.next; ; ) {
+                if (n != null) {
+                    Node f = n.next;
+                    if (n != b.next) {
+                        continue outer;
+                    }
+                    Object v = n.value;
+                    if (v == null) {
+                        n.helpDelete(b, f);
+                        continue outer;
+                    }
+                    if (v == n || b.value == null) {
+                        continue outer;
+                    }
+                    int c = Integer.compareUnsigned(n.order, order);
+                    if (c < 0) {
+                        b = n;
+                        n = f;
+                        continue;
+                    }
+                    if (c == 0) {
+                        setBucket(bucket, n); // inserted by another thread
+                        return n;
+                    }
+                }
+                Node sentinel = new Node(order, null, SENTINEL, n);
+                if (!b.casNext(n, sentinel)) {
+                    continue outer;
+                }
+                setBucket(bucket, sentinel);
+                return sentinel;
+            }
+        }
+    }
+
+    /**
+     * Returns the live node of {@code key} in the list from {@code start}, or null.
+     */
+    private static Node findNode(Node start, int order, Object key) {
+        outer:
+        for (;;) {
+            for (Node b = start, n = b.next; ; ) {
+                if (n == null) {
+                    return null;
+                }
+                Node f = n.next;
+                if (n != b.next) {
+                    continue outer;
+                }
+                Object v = n.value;
+                if (v == null) {
+                    n.helpDelete(b, f);
+                    continue outer;
+                }
+                if (v == n || b.value == null) {
+                    continue outer; // b was removed meanwhile
+                }
+                int c = Integer.compareUnsigned(n.order, order);
+                if (c > 0) {
+                    return null;
+                }
+                if (c == 0 && key.equals(n.key)) {
+                    return n;
+                }
+                b = n;
+                n = f;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V find(Object key) {
+        int hash = spread(key);
+        Node n = findNode(bucketOf(hash), entryOrder(hash), key);
+        return n == null ? null : (V) n.value; // null if removed since
+    }
+
+    /**
+     * Maps {@code key} to {@code value}, only if it is not mapped if {@code onlyIfAbsent}, only if
+     * it is if {@code onlyIfPresent}, and returns its previous value.
+     */
+    @SuppressWarnings("unchecked")
+    private V doPut(Object key, Object value, boolean onlyIfAbsent, boolean onlyIfPresent) {
+        Objects.requireNonNull(value);
+        int hash = spread(key);
+        int order = entryOrder(hash);
+        Node start = bucketOf(hash);
+        outer:
+        for (;;) {
+            for (Node b = start, n = b.next; ; ) {
+                if (n != null) {
+                    Node f = n.next;
+                    if (n != b.next) {
+                        continue outer;
+                    }
+                    Object v = n.value;
+                    if (v == null) {
+                        n.helpDelete(b, f);
+                        continue outer;
+                    }
+                    if (v == n || b.value == null) {
+                        continue outer;
+                    }
+                    int c = Integer.compareUnsigned(n.order, order);
+                    if (c < 0 || c == 0 && !key.equals(n.key)) {
+                        b = n;
+                        n = f;
+                        continue;
+                    }
+                    if (c == 0) {
+                        if (onlyIfAbsent || n.casValue(v, value)) {
+                            return (V) v;
+                        }
+                        continue outer;
+                    }
+                }
+                if (onlyIfPresent) {
+                    return null;
+                }
+                Node node = new Node(order, key, value, n);
+                if (!b.casNext(n, node)) {
+                    continue outer;
+                }
+                added(hash);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Removes the mapping of {@code key}, only if it maps to {@code expected} if it is not null,
+     * and returns its previous value, or null if nothing was removed.
+     */
+    @SuppressWarnings("unchecked")
+    private V doRemove(Object key, Object expected) {
+        int hash = spread(key);
+        int order = entryOrder(hash);
+        Node start = bucketOf(hash);
+        outer:
+        for (;;) {
+            for (Node b = start, n = b.next; ; ) {
+                if (n == null) {
+                    return null;
+                }
+                Node f = n.next;
+                if (n != b.next) {
+                    continue outer;
+                }
+                Object v = n.value;
+                if (v == null) {
+                    n.helpDelete(b, f);
+                    continue outer;
+                }
+                if (v == n || b.value == null) {
+                    continue outer;
+                }
+                int c = Integer.compareUnsigned(n.order, order);
+                if (c > 0) {
+                    return null;
+                }
+                if (c < 0 || !key.equals(n.key)) {
+                    b = n;
+                    n = f;
+                    continue;
+                }
+                if (expected != null && !expected.equals(v)) {
+                    return null;
+                }
+                if (!n.casValue(v, null)) {
+                    continue outer;
+                }
+                // the removal took effect: unlink the node, or leave it to the next traversal
+                if (!n.casNext(f, new Node(f)) || !b.casNext(n, f)) {
+                    findNode(start, order, key);
+                }
+                removed(hash);
+                return (V) v;
+            }
+        }
+    }
+
+    /**
+     * Replaces the value of {@code key} with {@code value} if it is {@code expected}.
+     */
+    private boolean doReplace(Object key, Object expected, Object value) {
+        Objects.requireNonNull(expected);
+        Objects.requireNonNull(value);
+        int hash = spread(key);
+        int order = entryOrder(hash);
+        Node start = bucketOf(hash);
+        for (;;) {
+            Node n = findNode(start, order, key);
+            if (n == null) {
+                return false;
+            }
+            Object v = n.value;
+            if (v != null) {
+                if (!expected.equals(v)) {
+                    return false;
+                }
+                if (n.casValue(v, value)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static int stripe(int hash) {
+        return ((hash * 0x9E3779B9) >>> (32 - 5)) * PAD;
+    }
+
+    private void added(int hash) {
+        long count = counts.incrementAndGet(stripe(hash));
+        version.increment();
+        int n = buckets.get();
+        // a stripe holding its share of more than LOAD keys per bucket: check the exact count
+        if (count * STRIPES > (long) n * LOAD && n < MAX_BUCKETS && count() > (long) n * LOAD) {
+            buckets.compareAndSet(n, n << 1);
+        }
+    }
+
+    private void removed(int hash) {
+        counts.decrementAndGet(stripe(hash));
+        version.increment();
+    }
+
+    private long count() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES * PAD; i += PAD) {
+            sum += counts.get(i);
+        }
+        return sum;
+    }
+
+    // ==========================================================================================
+    // ==========================================================================================
+    // ==========================================================================================
+
+    @Override
+    public int size() {
+        return (int) Math.max(0, Math.min(count(), Integer.MAX_VALUE));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count() <= 0;
+    }
+
+    @Override
+    @Ensures({"null_if_not_contains_key"})
+    public V get(@NotNull Object key) {
+        if (checked()) {
+            oldDelta.get().stamp(stamps.finished(key));
+        }
+        return find(key);
+    }
+
+    @Override
+    public boolean containsKey(@NotNull Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(@NotNull Object value) {
+        Objects.requireNonNull(value);
+        for (Node n = head.next; n != null; n = n.next) {
+            Object v = n.value;
+            if (n.key != null && v != null && value.equals(v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        for (Node n = head.next; n != null; n = n.next) {
+            Object v = n.value;
+            if (n.key != null && v != null && !n.isMarker()) {
+                action.accept((K) n.key, (V) v);
+            }
+        }
+    }
+
+    @Override
+    @Ensures({"entry_not_null"})
+    public V put(@NotNull K key, @NotNull V value) {
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+            }
+            int size = checked ? size() : 0;
+            V oldValue = doPut(key, value, false, false);
+            if (checked) {
+                recordOldDelta(key, size, oldValue);
+            }
+            if (oldValue != null) {
+                version.increment();
+            }
+            return oldValue;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"all_entries_not_null"})
+    public void putAll(Map<? extends K, ? extends V> m) {
+        boolean checked = startWriteAll();
+        try {
+            if (checked) {
+                captureOldState();
+            }
+            for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+                if (doPut(entry.getKey(), entry.getValue(), false, false) != null) {
+                    version.increment();
+                }
+            }
+        } finally {
+            finishWriteAll(checked);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(WriteBatch<? extends K, ? extends V> batch) {
+        if (batch.hasNullEntries()) {
+            throw new NullPointerException("null key or value in the batch"); // before any write
+        }
+        boolean checked = startWriteAll();
+        try {
+            // like putAll, not atomic with respect to concurrent readers and writers
+            batch.expect(size(), this::containsKey);
+            for (Map.Entry<? extends K, Object> write : batch.writes()) {
+                if (WriteBatch.removes(write.getValue())) {
+                    doRemove(write.getKey(), null);
+                } else if (doPut(write.getKey(), write.getValue(), false, false) != null) {
+                    version.increment();
+                }
+            }
+        } finally {
+            finishWriteAll(checked);
+        }
+    }
+
+    @Override
+    public V remove(@NotNull Object key) {
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+            }
+            int size = checked ? size() : 0;
+            V oldValue = doRemove(key, null);
+            if (checked) {
+                recordOldDelta(key, size, oldValue);
+            }
+            return oldValue;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    public void clear() {
+        boolean checked = startWriteAll();
+        try {
+            // like ConcurrentHashMap.clear(), not atomic: remove the keys one by one
+            for (Node n = head.next; n != null; n = n.next) {
+                if (n.key != null && n.value != null && !n.isMarker()) {
+                    doRemove(n.key, null);
+                }
+            }
+        } finally {
+            finishWriteAll(checked);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> view = entrySetView;
+        if (view == null) {
+            entrySetView = view = new EntrySet();
+        }
+        return view;
+    }
+
+    @Override
+    public V getOrDefault(@NotNull Object key, V defaultValue) {
+        V value = find(key);
+        return value != null ? value : defaultValue;
+    }
+
+    @Override
+    @Ensures({"entry_not_null"})
+    public V putIfAbsent(@NotNull K key, @NotNull V value) {
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+            }
+            int size = checked ? size() : 0;
+            V oldValue = doPut(key, value, true, false);
+            if (checked) {
+                recordOldDelta(key, size, oldValue);
+            }
+            return oldValue;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    public boolean remove(@NotNull Object key, Object value) {
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+                recordOldDelta(key, size(), find(key));
+            }
+            return value != null && doRemove(key, value) != null;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"new_entry_not_null"})
+    public boolean replace(@NotNull K key, @NotNull V oldValue, @NotNull V newValue) {
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+                recordOldDelta(key, size(), find(key));
+            }
+            boolean replaced = doReplace(key, oldValue, newValue);
+            if (replaced) {
+                version.increment();
+            }
+            return replaced;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"entry_not_null"})
+    public V replace(@NotNull K key, @NotNull V value) {
+        boolean checked = startWrite(key);
+        try {
+            if (checked) {
+                stampWrite(key);
+            }
+            int size = checked ? size() : 0;
+            V oldValue = doPut(key, value, false, true);
+            if (checked) {
+                recordOldDelta(key, size, oldValue);
+            }
+            if (oldValue != null) {
+                version.increment();
+            }
+            return oldValue;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        boolean checked = startWriteAll();
+        try {
+            if (checked) {
+                captureOldState();
+            }
+            for (Node n = head.next; n != null; n = n.next) {
+                if (n.key == null) {
+                    continue; // a sentinel or a marker
+                }
+                @SuppressWarnings("unchecked") K key = (K) n.key;
+                for (Object v; (v = n.value) != null; ) {
+                    @SuppressWarnings("unchecked") V newValue = Objects.requireNonNull(function.apply(key, (V) v));
+                    if (n.casValue(v, newValue)) {
+                        version.increment();
+                        break;
+                    }
+                }
+            }
+        } finally {
+            finishWriteAll(checked);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The function is not applied atomically: concurrent calls for the same absent key may all
+     * apply it, and the value of the first one to be inserted is kept and returned by all of them.
+     */
+    @Override
+    @Ensures({"computed_entry_not_null"})
+    public V computeIfAbsent(@NotNull K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        boolean checked = startWrite(key);
+        if (checked) {
+            oldDelta.get().sample(); // no delta is recorded
+        }
+        try {
+            V value = find(key);
+            if (value != null) {
+                return value;
+            }
+            V newValue = mappingFunction.apply(key);
+            if (newValue == null) {
+                return null;
+            }
+            V oldValue = doPut(key, newValue, true, false);
+            return oldValue != null ? oldValue : newValue;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"computed_entry_not_null"})
+    public V computeIfPresent(@NotNull K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        boolean checked = startWrite(key);
+        if (checked) {
+            oldDelta.get().sample(); // no delta is recorded
+        }
+        try {
+            for (V oldValue; (oldValue = find(key)) != null; ) {
+                V newValue = remappingFunction.apply(key, oldValue);
+                if (newValue == null ? doRemove(key, oldValue) != null : doReplace(key, oldValue, newValue)) {
+                    version.increment();
+                    return newValue;
+                }
+            }
+            return null;
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"computed_entry_not_null"})
+    public V compute(@NotNull K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        boolean checked = startWrite(key);
+        if (checked) {
+            oldDelta.get().sample(); // no delta is recorded
+        }
+        try {
+            // retried until no other write to the key came between the read and the write, as the
+            // defaults of ConcurrentMap do: the function may thus run more than once
+            for (;;) {
+                V oldValue = find(key);
+                V newValue = remappingFunction.apply(key, oldValue);
+                if (oldValue == null) {
+                    if (newValue == null || doPut(key, newValue, true, false) == null) {
+                        return newValue;
+                    }
+                } else if (newValue == null) {
+                    if (doRemove(key, oldValue) != null) {
+                        return null;
+                    }
+                } else if (doReplace(key, oldValue, newValue)) {
+                    version.increment();
+                    return newValue;
+                }
+            }
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    @Override
+    @Ensures({"entry_not_null"})
+    public V merge(@NotNull K key, @NotNull V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        boolean checked = startWrite(key);
+        if (checked) {
+            oldDelta.get().sample(); // no delta is recorded
+        }
+        try {
+            for (;;) {
+                V oldValue = find(key);
+                if (oldValue == null) {
+                    if (doPut(key, value, true, false) == null) {
+                        return value;
+                    }
+                    continue;
+                }
+                V newValue = remappingFunction.apply(oldValue, value);
+                if (newValue == null) {
+                    if (doRemove(key, oldValue) != null) {
+                        return null;
+                    }
+                } else if (doReplace(key, oldValue, newValue)) {
+                    version.increment();
+                    return newValue;
+                }
+            }
+        } finally {
+            finishWrite(key, checked);
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Views             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return LockFreeHashMapContracts.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (entry.getKey() == null || entry.getValue() == null) {
+                return false;
+            }
+            V value = find(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return entry.getKey() != null && LockFreeHashMapContracts.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            LockFreeHashMapContracts.this.clear();
+        }
+    }
+
+    /**
+     * A weakly consistent walk of the list: it never throws
+     * {@link java.util.ConcurrentModificationException}, and sees each key that is mapped
+     * throughout the walk exactly once.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private Node next = head;
+        private Entry nextEntry = advance();
+        private Entry current;
+
+        @SuppressWarnings("unchecked")
+        private Entry advance() {
+            for (Node n = next.next; n != null; n = n.next) {
+                Object v = n.value;
+                if (n.key != null && v != null && v != n) {
+                    next = n;
+                    return new Entry((K) n.key, (V) v);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextEntry != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (nextEntry == null) {
+                throw new NoSuchElementException();
+            }
+            current = nextEntry;
+            nextEntry = advance();
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            LockFreeHashMapContracts.this.remove(current.getKey());
+            current = null;
+        }
+    }
+
+    private final class Entry extends AbstractMap.SimpleEntry<K, V> implements MapContracts.Entry<K, V> {
+
+        Entry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            // like the entries of ConcurrentHashMap: writes through, and returns the value it held
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,645 @@
+package contracts;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * A contract-checked map from {@code long} keys to objects, with the keys stored unboxed in
+ * parallel arrays with open addressing and linear probing.
+ *
+ * <p>A slot costs 13 bytes with compressed references (the key, the value reference and its
+ * state) and the table is kept at most three quarters full, so an entry costs 17 to 35 bytes
+ * besides its value, against about 52 bytes for the node, the table slot and the boxed key of a
+ * {@code HashMap<Long, V>}. Removed keys leave a tombstone behind, which the next resize clears.
+ *
+ * <p>The {@link Map} methods box their keys and carry the contracts of {@link MapContracts}. The
+ * unboxed overloads ({@link #get(long)}, {@link #put(long, Object)}, {@link #remove(long)}, ...)
+ * neither box nor check postconditions, but maintain the same state, so the invariants keep
+ * holding across both. Null keys and values are not supported.
+ *
+ * @param <V> the type of mapped values
+ */
+public class LongObjectMapContracts<V> extends AbstractMap<Long, V> implements MapContracts<Long, V> {
+
+    private static final byte FREE = 0;
+    private static final byte FULL = 1;
+    private static final byte REMOVED = 2;
+
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private Object[] values;
+    private byte[] states;
+    private int shift; // 64 - log2(capacity): the hash of a key is the top bits of its product
+    private int size;
+    private int filled; // the slots that are not free: the entries and the tombstones
+    private int modCount;
+
+    private long version;
+
+    private ContractSampler contractSampler; // null: use the global sampler
+    private Map<Long, V> oldState;
+    private final KeyDelta<V> oldDelta = new KeyDelta<>(this);
+    private final InvariantCache invariantCache = new InvariantCache();
+    private final PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private Set<Map.Entry<Long, V>> entrySetView;
+
+    /**
+     * Creates an empty map.
+     */
+    public LongObjectMapContracts() {
+        this(0);
+    }
+
+    /**
+     * Creates an empty map holding {@code expectedSize} entries without resizing.
+     *
+     * @param expectedSize the number of entries to make room for
+     */
+    public LongObjectMapContracts(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    private LongObjectMapContracts(LongObjectMapContracts<V> map) {
+        keys = map.keys.clone();
+        values = map.values.clone();
+        states = map.states.clone();
+        shift = map.shift;
+        size = map.size;
+        filled = map.filled;
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public boolean supports_null_items() {
+        return false;
+    }
+
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    @Override
+    public long state_version() {
+        return version;
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public Map<Long, V> old_state() {
+        return oldState;
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta;
+    }
+
+    private void captureOldState() {
+        if (!oldDelta.sample() || !ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS)) {
+            oldState = null; // the postconditions of the call are skipped
+            return;
+        }
+        oldState = new LongObjectMapContracts<>(this); // three array copies, with no boxing
+    }
+
+    private void recordOldDelta(long key) {
+        int slot = slot(key);
+        oldDelta.record(key, size, slot >= 0, slot >= 0 ? valueAt(slot) : null);
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Implementations       ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = Math.max(MIN_CAPACITY, Long.highestOneBit(expectedSize * 4L / 3 + 1) * 2);
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Too many entries: " + expectedSize);
+        }
+        return (int) capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        states = new byte[capacity];
+        shift = Long.numberOfLeadingZeros(capacity) + 1;
+        filled = size;
+    }
+
+    private int index(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    /**
+     * Returns the slot of {@code key}, or -1 if it is not mapped.
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        for (int i = index(key); ; i = (i + 1) & mask) {
+            byte state = states[i];
+            if (state == FREE) {
+                return -1; // there is always a free slot, so the probe ends
+            }
+            if (state == FULL && keys[i] == key) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Maps {@code key}, known not to be mapped, to {@code value}.
+     */
+    private void insert(long key, V value) {
+        if (filled + 1 > keys.length - (keys.length >>> 2)) {
+            // grow if the entries fill half of the table, and only clear the tombstones otherwise
+            rehash(size + 1 > keys.length >>> 1 ? keys.length << 1 : keys.length);
+        }
+        int mask = keys.length - 1;
+        int i = index(key);
+        while (states[i] == FULL) {
+            i = (i + 1) & mask;
+        }
+        if (states[i] == FREE) {
+            filled++;
+        }
+        keys[i] = key;
+        values[i] = value;
+        states[i] = FULL;
+        size++;
+        modCount++;
+        version++;
+    }
+
+    private void rehash(int capacity) {
+        if (capacity > 1 << 30) {
+            throw new IllegalStateException("Map too large");
+        }
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        byte[] oldStates = states;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldStates.length; j++) {
+            if (oldStates[j] == FULL) {
+                int i = index(oldKeys[j]);
+                while (states[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+                states[i] = FULL;
+            }
+        }
+    }
+
+    private void setValueAt(int slot, V value) {
+        values[slot] = value;
+        version++;
+    }
+
+    private void removeAt(int slot) {
+        values[slot] = null;
+        // a slot followed by a free slot ends no probe sequence: it can be freed rather than buried
+        if (states[(slot + 1) & (keys.length - 1)] == FREE) {
+            states[slot] = FREE;
+            filled--;
+        } else {
+            states[slot] = REMOVED;
+        }
+        size--;
+        modCount++;
+        version++;
+    }
+
+    private static long unbox(Object key) {
+        return (Long) Objects.requireNonNull(key);
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Unboxed           ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * Returns whether {@code key} is mapped, without boxing it.
+     *
+     * @param key the key
+     * @return whether this map contains a mapping for {@code key}
+     */
+    public boolean containsKey(long key) {
+        return slot(key) >= 0;
+    }
+
+    /**
+     * Returns the value of {@code key}, without boxing it.
+     *
+     * @param key the key
+     * @return the value of {@code key}, or null if it is not mapped
+     */
+    public V get(long key) {
+        int slot = slot(key);
+        return slot >= 0 ? valueAt(slot) : null;
+    }
+
+    /**
+     * Returns the value of {@code key}, or {@code defaultValue} if it is not mapped, without boxing.
+     *
+     * @param key          the key
+     * @param defaultValue the value returned if {@code key} is not mapped
+     * @return the value of {@code key}, or {@code defaultValue}
+     */
+    public V getOrDefault(long key, V defaultValue) {
+        int slot = slot(key);
+        return slot >= 0 ? valueAt(slot) : defaultValue;
+    }
+
+    /**
+     * Maps {@code key} to {@code value}, without boxing the key.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the previous value of {@code key}, or null if it was not mapped
+     */
+    public V put(long key, V value) {
+        Objects.requireNonNull(value);
+        int slot = slot(key);
+        if (slot < 0) {
+            insert(key, value);
+            return null;
+        }
+        V oldValue = valueAt(slot);
+        setValueAt(slot, value);
+        return oldValue;
+    }
+
+    /**
+     * Removes the mapping of {@code key}, without boxing it.
+     *
+     * @param key the key
+     * @return the previous value of {@code key}, or null if it was not mapped
+     */
+    public V remove(long key) {
+        int slot = slot(key);
+        if (slot < 0) {
+            return null;
+        }
+        V oldValue = valueAt(slot);
+        removeAt(slot);
+        return oldValue;
+    }
+
+    // ==========================================================================================
+    // ==========================================================================================
+    // ==========================================================================================
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        return get(unbox(key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return slot(unbox(key)) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Objects.requireNonNull(value);
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == FULL && value.equals(values[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V put(Long key, V value) {
+        long k = unbox(key);
+        Objects.requireNonNull(value);
+        int slot = slot(k);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            insert(k, value);
+            return null;
+        }
+        V oldValue = valueAt(slot);
+        oldDelta.record(key, size, true, oldValue);
+        setValueAt(slot, value);
+        return oldValue;
+    }
+
+    @Override
+    public void putAll(Map<? extends Long, ? extends V> m) {
+        captureOldState();
+        for (Map.Entry<? extends Long, ? extends V> entry : m.entrySet()) {
+            put(unbox(entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(WriteBatch<? extends Long, ? extends V> batch) {
+        if (batch.hasNullEntries()) {
+            throw new NullPointerException();
+        }
+        batch.expect(size, key -> containsKey((long) (Long) key));
+        for (Map.Entry<? extends Long, Object> write : batch.writes()) {
+            if (WriteBatch.removes(write.getValue())) {
+                remove((long) write.getKey());
+            } else {
+                put((long) write.getKey(), (V) write.getValue());
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        long k = unbox(key);
+        int slot = slot(k);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        V oldValue = valueAt(slot);
+        oldDelta.record(key, size, true, oldValue);
+        removeAt(slot);
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        oldDelta.sample();
+        Arrays.fill(states, FREE);
+        Arrays.fill(values, null);
+        size = 0;
+        filled = 0;
+        modCount++;
+        version++;
+    }
+
+    @Override
+    public Set<Map.Entry<Long, V>> entrySet() {
+        Set<Map.Entry<Long, V>> view = entrySetView;
+        if (view == null) {
+            entrySetView = view = new EntrySet();
+        }
+        return view;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        return getOrDefault(unbox(key), defaultValue);
+    }
+
+    @Override
+    public V putIfAbsent(Long key, V value) {
+        long k = unbox(key);
+        Objects.requireNonNull(value);
+        int slot = slot(k);
+        if (slot >= 0) {
+            V oldValue = valueAt(slot);
+            oldDelta.record(key, size, true, oldValue);
+            return oldValue;
+        }
+        oldDelta.record(key, size, false, null);
+        insert(k, value);
+        return null;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        long k = unbox(key);
+        Objects.requireNonNull(value);
+        recordOldDelta(k);
+        int slot = slot(k);
+        if (slot < 0 || !value.equals(values[slot])) {
+            return false;
+        }
+        removeAt(slot);
+        return true;
+    }
+
+    @Override
+    public boolean replace(Long key, V oldValue, V newValue) {
+        long k = unbox(key);
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        recordOldDelta(k);
+        int slot = slot(k);
+        if (slot < 0 || !oldValue.equals(values[slot])) {
+            return false;
+        }
+        setValueAt(slot, newValue);
+        return true;
+    }
+
+    @Override
+    public V replace(Long key, V value) {
+        long k = unbox(key);
+        Objects.requireNonNull(value);
+        int slot = slot(k);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        V oldValue = valueAt(slot);
+        oldDelta.record(key, size, true, oldValue);
+        setValueAt(slot, value);
+        return oldValue;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super Long, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        captureOldState();
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == FULL) {
+                setValueAt(i, Objects.requireNonNull(function.apply(keys[i], valueAt(i))));
+            }
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Views             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private final class EntrySet extends AbstractSet<Map.Entry<Long, V>> {
+
+        @Override
+        public Iterator<Map.Entry<Long, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (!(entry.getKey() instanceof Long)) {
+                return false;
+            }
+            int slot = slot((Long) entry.getKey());
+            return slot >= 0 && values[slot].equals(entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            LongObjectMapContracts.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<Long, V>> {
+        // removing a mapping never moves another one, so the slots are stable while iterating
+        private int next = advance(0);
+        private int current = -1;
+        private int expectedModCount = modCount;
+
+        private int advance(int from) {
+            while (from < states.length && states[from] != FULL) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < states.length;
+        }
+
+        @Override
+        public Map.Entry<Long, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= states.length) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = advance(next + 1);
+            return new Entry(current);
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(current);
+            expectedModCount = modCount;
+            current = -1;
+        }
+    }
+
+    private final class Entry implements Map.Entry<Long, V> {
+        private final int slot;
+        private final long key;
+
+        Entry(int slot) {
+            this.slot = slot;
+            this.key = keys[slot];
+        }
+
+        @Override
+        public Long getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return states[slot] == FULL && keys[slot] == key ? valueAt(slot) : get(key);
+        }
+
+        @Override
+        public V setValue(V value) {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return getKey().equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(key) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+}
@@ -6,10 +6,11 @@ import java.io.Serializable;
 import java.util.*;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 
 import static ch.usi.si.codelounge.jsicko.Contract.old;
-import static ch.usi.si.codelounge.jsicko.ContractUtils.*;
+import static contracts.ContractLogic.*;
 
 
 public interface MapContracts<K, V> extends Map<K, V>, Contract {
@@ -23,6 +24,185 @@ public interface MapContracts<K, V> extends Map<K, V>, Contract {
     @Pure
     boolean supports_null_items(); // whether the implementation supports null items
 
+    @Pure
+    ContractSampler contract_sampler(); // the sampler deciding which calls have their contracts checked
+
+    @Pure
+    Map<K, V> old_state(); // the mappings before the current bulk mutating call, captured by the implementation
+
+    @Pure
+    KeyDelta<V> old_delta(); // the size and key mapping before the current single-key mutating call
+
+    default boolean sample_call() {
+        // drawn once per mutating call, by its delta: its postconditions, and the invariants of the
+        // state it leaves, are then all checked or all skipped. Classes checking no postcondition draw nothing
+        return !ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS) || contract_sampler().sample();
+    }
+
+    @Pure
+    default boolean skip_postcondition(String predicate) {
+        // a postcondition of a single-key mutating call, checked if the call was sampled
+        return !ContractLevels.enabled(getClass(), predicate, ContractLevel.POSTCONDITIONS) || !old_delta().sampled();
+    }
+
+    @Pure
+    default boolean skip_bulk_postcondition(String predicate) {
+        // a postcondition of a bulk mutating call, checked if the call was sampled: only then is
+        // its old state captured
+        return !ContractLevels.enabled(getClass(), predicate, ContractLevel.POSTCONDITIONS) || old_state() == null;
+    }
+
+    @Pure
+    default boolean skip_read_postcondition(String predicate) {
+        // a postcondition of a read, which records no delta to hold the decision: drawn here, as
+        // the reads have one sampled postcondition each, but for equals
+        return !ContractLevels.enabled(getClass(), predicate, ContractLevel.POSTCONDITIONS) || !contract_sampler().sample();
+    }
+
+    @Pure
+    default boolean skip_invariant(String predicate) {
+        // checked after the mutating calls that were sampled: the reads in between leave the
+        // state, and thus the invariants, as they were
+        return !ContractLevels.enabled(getClass(), predicate, ContractLevel.INVARIANTS)
+                || invariant_held(predicate) || !old_delta().sampled();
+    }
+
+    @Pure
+    default long state_version() {
+        return -1; // the modification version of the mappings, or -1 if the implementation does not maintain it
+    }
+
+    @Pure
+    default InvariantCache invariant_cache() {
+        return null; // the versions at which the invariants held, or null if the implementation keeps none
+    }
+
+    @Pure
+    default boolean invariant_held(String predicate) {
+        // whether the invariant held at the current version: nothing changed since it was checked
+        InvariantCache cache = invariant_cache();
+        return cache != null && cache.held(predicate, state_version());
+    }
+
+    @Pure
+    default boolean invariant_holds(String predicate, long version, boolean holds) {
+        // remembers the version, read before the invariant was evaluated, at which it held
+        InvariantCache cache = invariant_cache();
+        if (holds && cache != null) {
+            cache.hold(predicate, version);
+        }
+        return holds;
+    }
+
+    @Pure
+    default PredicateMemo predicate_memo() {
+        return null; // the postconditions that held per version, or null if the implementation keeps none
+    }
+
+    @Pure
+    default boolean memo_held(String predicate, Object a, Object b, Object c) {
+        // whether the postcondition held for the same arguments at the current version
+        PredicateMemo memo = predicate_memo();
+        return memo != null && memo.held(predicate, state_version(), a, b, c);
+    }
+
+    @Pure
+    default boolean memo_holds(String predicate, long version, Object a, Object b, Object c, boolean holds) {
+        // remembers the version, read before the postcondition was evaluated, at which it held
+        PredicateMemo memo = predicate_memo();
+        if (holds && memo != null) {
+            memo.hold(predicate, version, a, b, c);
+        }
+        return holds;
+    }
+
+    @Pure
+    default boolean checked(String predicate, BooleanSupplier body) {
+        // a postcondition of a single-key mutating call, named once: skipped, or profiled
+        return skip_postcondition(predicate) || ContractProfiler.profile(predicate, body);
+    }
+
+    @Pure
+    default boolean checked_bulk(String predicate, BooleanSupplier body) {
+        return skip_bulk_postcondition(predicate) || ContractProfiler.profile(predicate, body);
+    }
+
+    @Pure
+    default boolean checked_read(String predicate, BooleanSupplier body) {
+        return skip_read_postcondition(predicate) || ContractProfiler.profile(predicate, body);
+    }
+
+    @Pure
+    default boolean checked_read(String predicate, Object a, Object b, Object c, BooleanSupplier body) {
+        // a read postcondition remembered for the same arguments until the state changes
+        if (skip_read_postcondition(predicate) || memo_held(predicate, a, b, c)) {
+            return true;
+        }
+        return memo_holds(predicate, state_version(), a, b, c, ContractProfiler.profile(predicate, body));
+    }
+
+    @Pure
+    default boolean checked_every_call(String predicate, BooleanSupplier body) {
+        // shared by reads and writes, and cheaper than a draw: checked on every call
+        return !ContractLevels.enabled(getClass(), predicate, ContractLevel.POSTCONDITIONS)
+                || ContractProfiler.profile(predicate, body);
+    }
+
+    @Pure
+    default boolean checked_invariant(String predicate, BooleanSupplier body) {
+        return skip_invariant(predicate) || invariant_holds(predicate, state_version(), ContractProfiler.profile(predicate, body));
+    }
+
+    @Pure
+    default boolean deep_audit_due(String predicate) {
+        return ContractLevels.enabled(getClass(), predicate, ContractLevel.FULL) && ContractAudit.due();
+    }
+
+    @Pure
+    default boolean values_have_identity() {
+        // whether get returns the very object that was put: false for maps that store values
+        // unboxed, whose values are then compared by equality rather than identity
+        return true;
+    }
+
+    @Pure
+    default boolean same_value(Object a, Object b) {
+        return a == b || !values_have_identity() && Objects.equals(a, b);
+    }
+
+    @Pure
+    default boolean maps_same_values(Map<?, ?> map, Map<?, ?> entries) {
+        return values_have_identity() ? mapsSameValues(map, entries) : mapsEqualValues(map, entries);
+    }
+
+    @Pure
+    default boolean key_written_concurrently() {
+        // whether another call may have written the key of the current single-key mutating call
+        // since it started: a postcondition that fails on the key is then not a violation
+        return false;
+    }
+
+    @Pure
+    default boolean map_written_concurrently() {
+        // whether another call may have written the map since the current mutating call started:
+        // a postcondition that fails on the size or on other keys is then not a violation
+        return false;
+    }
+
+    @Pure
+    default int entry_hash_sum() {
+        return recomputed_entry_hash_sum(); // implementations may maintain it incrementally instead
+    }
+
+    @Pure
+    default int recomputed_entry_hash_sum() {
+        int sum = 0;
+        for (Map.Entry<K, V> entry : entrySet()) {
+            sum += entry.hashCode();
+        }
+        return sum;
+    }
+
 
     // ==========================================================================================
     // ==============================                              ==============================
@@ -33,14 +213,14 @@ public interface MapContracts<K, V> extends Map<K, V>, Contract {
     @Invariant
     @Pure
     default boolean size_non_negative() {
-        return size() >= 0;
+        return checked_invariant("size_non_negative", () -> size() >= 0);
     }
 
     @Invariant
     @Pure
     default boolean hashcode_is_valid() {
-        return hashCode() == entrySet().stream().map(Map.Entry::hashCode)
-                .reduce(0, Integer::sum);
+        return checked_invariant("hashcode_is_valid", () -> hashCode() == entry_hash_sum()
+                && (!deep_audit_due("hashcode_is_valid") || entry_hash_sum() == recomputed_entry_hash_sum()));
     }
 
 
@@ -52,160 +232,179 @@ public interface MapContracts<K, V> extends Map<K, V>, Contract {
 
     @Pure
     default boolean returns_iff_size_is_zero(boolean returns) {
-        return returns == (size() == 0);
+        return checked_read("returns_iff_size_is_zero", () -> returns == (size() == 0));
     }
 
     @Pure
     default boolean returns_iff_key_exists(boolean returns, Object key) {
-        return implies(returns, () -> exists(this.keySet(), mapKey -> Objects.equals(key, mapKey)));
+        return checked_read("returns_iff_key_exists", returns, key, null, () -> !returns || containsEqual(this.keySet(), key));
     }
 
     @Pure
     default boolean returns_iff_value_exists(boolean returns, Object value) {
-        return implies(returns, () -> exists(this.values(), mapValue -> Objects.equals(value, mapValue)));
+        return checked_read("returns_iff_value_exists", returns, value, null,
+                () -> !returns || containsEqual(this.values(), value));
     }
 
     @Pure
     default boolean returns_same_hashcode(boolean returns, Object o) {
-        return iff(returns, this.hashCode() == o.hashCode());
+        return checked_read("returns_same_hashcode", () -> iff(returns, this.hashCode() == o.hashCode()));
     }
 
     @Pure
     default boolean returns_iff_entry_deleted(boolean returns, Object key, Object value) {
-        return returns == (old(this).get(key) == value && !containsKey(key));
+        return checked("returns_iff_entry_deleted",
+                () -> returns == (same_value(old_delta().value(), value) && !containsKey(key)) || key_written_concurrently());
     }
 
     @Pure
     default boolean returns_pairwise_equals(boolean returns, Object o) {
-        if (o instanceof Map) {
-            Map<? , ?> genOther = (Map<?, ?>) o;
+        return checked_read("returns_pairwise_equals", () -> {
+            if (o instanceof Map) {
+                Map<? , ?> genOther = (Map<?, ?>) o;
 
-            if (this.keySet().getClass().isAssignableFrom(genOther.keySet().getClass())
-                    && this.values().getClass().isAssignableFrom(genOther.values().getClass())) {
-                Map<K, V> other = (Map<K, V>) o;
+                if (this.keySet().getClass().isAssignableFrom(genOther.keySet().getClass())
+                        && this.values().getClass().isAssignableFrom(genOther.values().getClass())) {
+                    Map<K, V> other = (Map<K, V>) o;
 
-                if (size() == other.size()) {
-                    return returns == keySet().stream().allMatch(key -> other.get(key) == this.get(key));
+                    if (size() == other.size()) {
+                        return returns == maps_same_values(other, this);
+                    }
                 }
             }
-        }
-
-        return !returns;
+            return !returns;
+        });
     }
 
     @Pure
     default boolean is_empty() {
-        return isEmpty();
+        return checked("is_empty", () -> isEmpty() || map_written_concurrently());
     }
 
     default boolean not_contains_key(Object key) {
-        return !containsKey(key);
+        return checked("not_contains_key", () -> !containsKey(key) || key_written_concurrently());
     }
 
     @Pure
     default boolean contains_entry(V returns, K key, V value) {
-        return implies(returns != null, () -> get(key) == value);
+        return checked("contains_entry", () -> returns == null || same_value(get(key), value) || key_written_concurrently());
     }
 
     @Pure
     default boolean contains_entry_iff_key_contained(K key, V value) {
-        return iff(old(this).containsKey(key), get(key) == value);
+        return checked("contains_entry_iff_key_contained",
+                () -> iff(old_delta().contained(), same_value(get(key), value)) || key_written_concurrently());
     }
 
     @Pure
     default boolean contains_all_entries(Map<? extends K, ? extends V> m) {
-        return m.entrySet().stream().allMatch(entry -> get(entry.getKey()) == entry.getValue());
+        return checked_bulk("contains_all_entries", () -> maps_same_values(this, m) || map_written_concurrently());
     }
 
     @Pure
     default boolean null_if_not_contains_key(V returns, Object key) {
-        return implies(!containsKey(key), () -> returns == null);
+        return checked_read("null_if_not_contains_key", returns, key, null, () -> implies(!containsKey(key), returns == null));
     }
 
     @Pure
     default boolean null_if_not_contained_key(V returns, K key) {
-        return implies(!old(this).containsKey(key), () -> returns == null);
+        return checked("null_if_not_contained_key", () -> implies(!old_delta().contained(), returns == null));
     }
 
     @Pure
     default boolean value_if_contains_key_else_default(V returns, Object key, V defaultValue) {
-        return implies(containsKey(key),
-                () -> returns == get(key),
-                () -> returns == defaultValue);
+        return checked_read("value_if_contains_key_else_default", returns, key, defaultValue, () -> containsKey(key)
+                ? same_value(returns, get(key))
+                : same_value(returns, defaultValue));
     }
 
     @Pure
     default boolean key_set_of_same_size(Set<K> returns) {
-        return returns.size() == this.size();
+        return checked_read("key_set_of_same_size", returns, null, null, () -> returns.size() == this.size());
     }
 
     @Pure
     default boolean value_collection_of_same_size(Collection<V> returns) {
-        return returns.size() == this.size();
+        return checked_read("value_collection_of_same_size", returns, null, null, () -> returns.size() == this.size());
     }
 
     @Pure
     default boolean entry_set_of_same_size(Set<Map.Entry<K, V>> returns) {
-        return returns.size() == this.size();
+        return checked_read("entry_set_of_same_size", returns, null, null, () -> returns.size() == this.size());
     }
 
     @Pure
     default boolean size_increases_iff_returns(V returns) {
-        return iff(returns == null, this.size() == old(this).size() + 1);
+        return checked("size_increases_iff_returns",
+                () -> iff(returns == null, this.size() == old_delta().size() + 1) || map_written_concurrently());
     }
 
     @Pure
     default boolean size_increases_iff_key_not_contained(K key, V value) {
-        return iff(!this.containsValue(value), this.size() == old(this).size());
+        return checked("size_increases_iff_key_not_contained",
+                () -> iff(!this.containsValue(value), this.size() == old_delta().size()) || map_written_concurrently());
     }
 
     @Pure
     default boolean size_increased_for_each_key_not_contained(Map<? extends K, ? extends V> m) {
-        return size() == old(this).size() + m.keySet().stream().filter(key -> !old(this).containsKey(key)).count();
+        return checked_bulk("size_increased_for_each_key_not_contained",
+                () -> size() == old_state().size() + countMissingKeys(old_state(), m.keySet()) || map_written_concurrently());
     }
 
     @Pure
     default boolean size_decreases_iff_key_contained(Object key) {
-        return implies(old(this).containsKey(key),
-                () -> this.size() == old(this).size() - 1,
-                () -> this.size() == old(this).size());
+        return checked("size_decreases_iff_key_contained",
+                () -> this.size() == old_delta().size() - (old_delta().contained() ? 1 : 0) || map_written_concurrently());
     }
 
     @Pure
     default boolean size_decreased_iff_contained_entry(Object key, Object value) {
-        return implies(old(this).get(key) == value,
-                () -> size() == old(this).size() - 1,
-                () -> size() == old(this).size());
+        return checked("size_decreased_iff_contained_entry",
+                () -> size() == old_delta().size() - (same_value(old_delta().value(), value) ? 1 : 0) || map_written_concurrently());
     }
 
     @Pure
     default boolean size_not_changed() {
-        return size() == old(this).size();
+        return checked("size_not_changed", () -> size() == old_delta().size() || map_written_concurrently());
+    }
+
+    @Pure
+    default boolean size_not_changed_by_all() {
+        return checked_bulk("size_not_changed_by_all", () -> size() == old_state().size() || map_written_concurrently());
+    }
+
+    @Pure
+    default boolean batch_applied(WriteBatch<? extends K, ? extends V> batch) {
+        return checked("batch_applied", () -> batch.appliedTo(this) || map_written_concurrently());
     }
 
     @Pure
     default boolean keys_not_changed() {
-        return old(this).keySet().stream().allMatch(this::containsKey);
+        return checked_bulk("keys_not_changed", () -> containsAllKeys(this, old_state().keySet()) || map_written_concurrently());
+    }
+
+    @Pure
+    default boolean key_presence_not_changed(K key) {
+        return checked("key_presence_not_changed",
+                () -> iff(old_delta().contained(), containsKey(key)) || key_written_concurrently());
     }
 
     @Pure
     default boolean value_changes_only_if_not_contained_key(K key, V value) {
-        return implies(old(this).containsKey(key),
-                () -> get(key) == old(this).get(key),
-                () -> get(key) == value);
+        return checked("value_changes_only_if_not_contained_key",
+                () -> same_value(get(key), old_delta().contained() ? old_delta().value() : value) || key_written_concurrently());
     }
 
     @Pure
     default boolean value_changes_only_if_contained_entry(K key, V oldValue, V newValue) {
-        return implies(old(this).get(key) == oldValue,
-                () -> get(key) == newValue,
-                () -> get(key) == old(this).get(key));
+        return checked("value_changes_only_if_contained_entry",
+                () -> same_value(get(key), same_value(old_delta().value(), oldValue) ? newValue : old_delta().value()) || key_written_concurrently());
     }
 
     @Pure
     default boolean value_unchanged_if_not_contained_entry(Object key, Object value) {
-        return implies(old(this).get(key) != value,
-                () -> get(key) == old(this).get(key));
+        return checked("value_unchanged_if_not_contained_entry",
+                () -> same_value(old_delta().value(), value) || same_value(get(key), old_delta().value()) || key_written_concurrently());
     }
 
 
@@ -217,16 +416,14 @@ public interface MapContracts<K, V> extends Map<K, V>, Contract {
 
     @Pure
     default boolean raises_if_null_unsupported_and_null_key(Throwable raises, Object key) {
-        return implies(!supports_null_items()
-                        && key == null,
-                () -> raises instanceof NullPointerException);
+        return checked_every_call("raises_if_null_unsupported_and_null_key",
+                () -> implies(!supports_null_items() && key == null, raises instanceof NullPointerException));
     }
 
     @Pure
     default boolean raises_if_null_unsupported_and_null_value(Throwable raises, Object value) {
-        return implies(!supports_null_items()
-                        && value == null,
-                () -> raises instanceof NullPointerException);
+        return checked_every_call("raises_if_null_unsupported_and_null_value",
+                () -> implies(!supports_null_items() && value == null, raises instanceof NullPointerException));
     }
 
 
@@ -440,6 +637,52 @@ public interface MapContracts<K, V> extends Map<K, V>, Contract {
     })
     void putAll(Map<? extends K, ? extends V> m);
 
+    /**
+     * Applies every write of the batch to this map, checking the contracts once for the whole
+     * batch (see {@link WriteBatch}).
+     *
+     * <p>The batch is applied atomically with respect to failures: if some key or value is not
+     * supported, nothing is written.
+     *
+     * <p>The default implementation is not batched: it has no access to the unchecked writes of
+     * the implementation, so it applies the writes one by one through {@code put} and
+     * {@code remove}, each checking its own contracts. Implementations override it to write
+     * through their internals, as they do for {@code putAll}.
+     *
+     * @param batch the writes to apply
+     * @throws NullPointerException if the batch contains a null key or value and this map
+     *                              does not support null items
+     */
+    @Ensures({
+            "batch_applied"
+    })
+    @SuppressWarnings("unchecked")
+    default void apply(WriteBatch<? extends K, ? extends V> batch) {
+        if (!supports_null_items() && batch.hasNullEntries()) {
+            throw new NullPointerException("null key or value in the batch");
+        }
+        batch.expect(size(), this::containsKey);
+        for (Map.Entry<? extends K, Object> write : batch.writes()) {
+            if (WriteBatch.removes(write.getValue())) {
+                remove(write.getKey());
+            } else {
+                put(write.getKey(), (V) write.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns an immutable copy of the mappings of this map, looked up through a minimal perfect
+     * hash of its keys (see {@link FrozenMapContracts}). Its contracts are checked once, when it
+     * is built.
+     *
+     * @return a frozen copy of this map
+     */
+    @Pure
+    default FrozenMapContracts<K, V> freeze() {
+        return FrozenMapContracts.copyOf(this);
+    }
+
     /**
      * Removes all of the mappings from this map (optional operation).
      * The map will be empty after this call returns.
@@ -526,6 +769,35 @@ public interface MapContracts<K, V> extends Map<K, V>, Contract {
      */
     interface Entry<K, V> extends Contract {
 
+        // ==========================================================================================
+        // ==============================                              ==============================
+        // ==============================        Helper Methods        ==============================
+        // ==============================                              ==============================
+        // ==========================================================================================
+
+        // entries do not know their map: they use the global sampler
+
+        @Pure
+        default boolean skip_postcondition(String predicate) {
+            return !ContractLevels.enabled(getClass(), predicate, ContractLevel.POSTCONDITIONS) || !ContractSampler.global().sample();
+        }
+
+        @Pure
+        default boolean skip_invariant(String predicate) {
+            return !ContractLevels.enabled(getClass(), predicate, ContractLevel.INVARIANTS) || !ContractSampler.global().sample();
+        }
+
+        @Pure
+        default boolean checked(String predicate, BooleanSupplier body) {
+            return skip_postcondition(predicate) || ContractProfiler.profile(predicate, body);
+        }
+
+        @Pure
+        default boolean checked_invariant(String predicate, BooleanSupplier body) {
+            return skip_invariant(predicate) || ContractProfiler.profile(predicate, body);
+        }
+
+
         // ==========================================================================================
         // ==============================                              ==============================
         // ==============================          Invariants          ==============================
@@ -535,8 +807,8 @@ public interface MapContracts<K, V> extends Map<K, V>, Contract {
         @Invariant
         @Pure
         default boolean hashcode_is_valid() {
-            return hashCode() == ((getKey() == null ? 0 : getKey().hashCode())
-                    ^ (getValue() == null ? 0 : getValue().hashCode()));
+            return checked_invariant("hashcode_is_valid", () -> hashCode() == ((getKey() == null ? 0 : getKey().hashCode())
+                    ^ (getValue() == null ? 0 : getValue().hashCode())));
         }
 
 
@@ -548,35 +820,36 @@ public interface MapContracts<K, V> extends Map<K, V>, Contract {
 
         @Pure
         default boolean has_value(V value) {
-            return getValue() == value;
+            return checked("has_value", () -> getValue() == value);
         }
 
         @Pure
         default boolean returns_old_value(V returns) {
-            return returns == old(this).getValue();
+            return checked("returns_old_value", () -> returns == old(this).getValue());
         }
 
         @Pure
         default boolean returns_same_hashcode(boolean returns, Object o) {
-            return iff(returns, this.hashCode() == o.hashCode());
+            return checked("returns_same_hashcode", () -> iff(returns, this.hashCode() == o.hashCode()));
         }
 
         @Pure
         default boolean returns_pairwise_equals(boolean returns, Object o) {
-            if (o instanceof Entry) {
-                Entry<?, ?> genOther = (Entry<?, ?>) o;
+            return checked("returns_pairwise_equals", () -> {
+                if (o instanceof Entry) {
+                    Entry<?, ?> genOther = (Entry<?, ?>) o;
 
-                if (this.getKey().getClass().isAssignableFrom(genOther.getKey().getClass())
-                        && this.getValue().getClass().isAssignableFrom(genOther.getValue().getClass())) {
-                    Entry<K, V> other = (Entry<K, V>) o;
+                    if (this.getKey().getClass().isAssignableFrom(genOther.getKey().getClass())
+                            && this.getValue().getClass().isAssignableFrom(genOther.getValue().getClass())) {
+                        Entry<K, V> other = (Entry<K, V>) o;
 
-                    return returns == (other.getKey() == null ? this.getKey() == null : other.getKey() == this.getKey()) &&
-                            (other.getValue() == null ? this.getValue() == null : other.getValue() == this.getValue());
-                }
-
-            }
+                        return returns == (other.getKey() == null ? this.getKey() == null : other.getKey() == this.getKey()) &&
+                                (other.getValue() == null ? this.getValue() == null : other.getValue() == this.getValue());
+                    }
 
-            return !returns;
+                }
+                return !returns;
+            });
         }
 
         // ==========================================================================================
@@ -909,7 +1182,7 @@ public interface MapContracts<K, V> extends Map<K, V>, Contract {
      * @since 1.8
      */
     @Ensures({
-            "size_not_changed",
+            "size_not_changed_by_all",
             "keys_not_changed",
     })
     default void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
@@ -1086,7 +1359,7 @@ public interface MapContracts<K, V> extends Map<K, V>, Contract {
      */
     @Ensures({
             "size_not_changed",
-            "keys_not_changed",
+            "key_presence_not_changed",
             "value_changes_only_if_contained_entry"
     })
     default boolean replace(K key, V oldValue, V newValue) {
@@ -1138,7 +1411,7 @@ public interface MapContracts<K, V> extends Map<K, V>, Contract {
      * @since 1.8
      */
     @Ensures({
-            "null_if_not_contains_key",
+            "null_if_not_contained_key",
             "size_not_changed",
             "contains_entry_iff_key_contained"
     })
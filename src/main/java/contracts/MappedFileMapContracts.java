@@ -0,0 +1,1183 @@
+package contracts;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * A contract-checked map persisted in a memory-mapped file: the hash table and the records of its
+ * keys and values, serialized through a {@link Codec} for each, live in the file, and reopening
+ * the file maps the existing table back in constant time. The operating system pages the file in
+ * lazily, as the entries are accessed.
+ *
+ * <p>The file holds a header, an open-addressing index of 16 bytes per slot (the address of a
+ * record and the hash of its key) and an append-only log of records. Every write appends a new
+ * record, published by writing its address to the index. Once the log holds more garbage than
+ * live records, or the index must grow, the map rewrites itself to a new file that atomically
+ * replaces the old one. Writes reach the file through the page cache: {@link #force()} and
+ * {@link #close()} flush them to the storage device.
+ *
+ * <p>The header records whether the map was closed. Opening a file that was not, after a crash,
+ * recovers the size, the hash code and the log from the index and the records, so a write that
+ * was cut short is either complete or absent. Opening a closed file trusts its header unless a
+ * deep audit is due (see {@link ContractAudit}): the size and the hash code in the header are
+ * then checked against the contents, and a mismatch raises a {@link ContractViolation}. The hash
+ * codes of the keys and values must therefore be the same in every process, as those of strings
+ * and boxed primitives are.
+ *
+ * <p>Keys are compared by their encoding (see {@link Codec}). Values have no identity, so the
+ * postconditions compare them by equality. Null keys and values are not supported. A map must not
+ * be used after it is closed, and a file must not be opened by two maps at once.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class MappedFileMapContracts<K, V> extends AbstractMap<K, V> implements MapContracts<K, V>, Closeable {
+
+    private static final long MAGIC = 0x4D6170436F6E7472L;
+    private static final int FORMAT = 1;
+    private static final int CLOSED = 1;
+    private static final int OPEN = 2;
+
+    // the header: the fields of the map when it was last closed or forced
+    private static final int MAGIC_AT = 0;
+    private static final int FORMAT_AT = 8;
+    private static final int STATE_AT = 12;
+    private static final int SIZE_AT = 16;
+    private static final int HASH_AT = 20;
+    private static final int CAPACITY_AT = 24;
+    private static final int FILLED_AT = 28;
+    private static final int LOG_END_AT = 32;
+    private static final int LIVE_AT = 40;
+    private static final int GARBAGE_AT = 48;
+    private static final int HEADER = 64;
+
+    private static final int SLOT = 16; // the address of a record and the hash of its key, never across segments
+    private static final int RECORD_HEADER = 8; // the lengths of the key and of the value
+    private static final int SEGMENT_BITS = 30; // the file is mapped in segments of 1 GB, and no record crosses them
+    private static final long SEGMENT = 1L << SEGMENT_BITS;
+    private static final long MIN_LENGTH = 1 << 16;
+    private static final long MIN_COMPACTION = 1 << 20;
+
+    private static final long FREE = 0;
+    private static final long REMOVED = -1;
+
+    private static final int MIN_CAPACITY = 8;
+
+    private final Path file;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+
+    private FileChannel channel;
+    private MappedByteBuffer[] segments; // null once closed
+    private long fileLength;
+    private boolean open; // whether the header is marked open: written since it was last closed
+
+    private int capacity;
+    private int shift; // 32 - log2(capacity)
+    private int size;
+    private int filled; // the slots that are not free: the entries and the tombstones
+    private int modCount;
+    private long logStart;
+    private long logEnd;
+    private long liveBytes;
+    private long garbageBytes;
+
+    private ByteBuffer keyBuffer = ByteBuffer.allocate(64); // the encoding of the key of the current call
+    private ByteBuffer valueBuffer = ByteBuffer.allocate(64); // the encoding of the value being written
+
+    private int entryHashSum;
+    private long version;
+
+    private ContractSampler contractSampler; // null: use the global sampler
+    private Map<K, V> oldState;
+    private final KeyDelta<V> oldDelta = new KeyDelta<>(this);
+    private final InvariantCache invariantCache = new InvariantCache();
+    private final PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private Set<Map.Entry<K, V>> entrySetView;
+
+    private MappedFileMapContracts(Path file, Codec<K> keyCodec, Codec<V> valueCodec) {
+        this.file = Objects.requireNonNull(file);
+        this.keyCodec = Objects.requireNonNull(keyCodec);
+        this.valueCodec = Objects.requireNonNull(valueCodec);
+    }
+
+    /**
+     * Opens the map persisted in {@code file}, creating an empty one if the file does not exist
+     * or is empty.
+     *
+     * @param file       the file of the map
+     * @param keyCodec   the codec of the keys, the one the file was written with
+     * @param valueCodec the codec of the values, the one the file was written with
+     * @param <K>        the type of keys
+     * @param <V>        the type of values
+     * @return the map
+     * @throws IOException if the file cannot be mapped, is not a map file, or cannot be recovered
+     */
+    public static <K, V> MappedFileMapContracts<K, V> open(Path file, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        return open(file, keyCodec, valueCodec, 0);
+    }
+
+    /**
+     * Opens the map persisted in {@code file}, creating an empty one indexing
+     * {@code expectedSize} entries without resizing if the file does not exist or is empty.
+     *
+     * @param file         the file of the map
+     * @param keyCodec     the codec of the keys, the one the file was written with
+     * @param valueCodec   the codec of the values, the one the file was written with
+     * @param expectedSize the number of entries to make room for, when creating the map
+     * @param <K>          the type of keys
+     * @param <V>          the type of values
+     * @return the map
+     * @throws IOException if the file cannot be mapped, is not a map file, or cannot be recovered
+     */
+    public static <K, V> MappedFileMapContracts<K, V> open(Path file, Codec<K> keyCodec, Codec<V> valueCodec,
+                                                          int expectedSize) throws IOException {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        MappedFileMapContracts<K, V> map = new MappedFileMapContracts<>(file, keyCodec, valueCodec);
+        try {
+            map.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            if (map.channel.size() == 0) {
+                map.initialize(capacityFor(expectedSize));
+            } else {
+                map.load();
+            }
+        } catch (IOException | RuntimeException e) {
+            map.release();
+            throw e;
+        }
+        return map;
+    }
+
+    /**
+     * Flushes the writes made to this map to the storage device.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void force() throws IOException {
+        writeHeader();
+        for (MappedByteBuffer segment : mapped()) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Flushes the writes made to this map to the storage device, marks the file as closed and
+     * unmaps it. Closing a closed map has no effect.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (segments == null) {
+            return;
+        }
+        try {
+            force();
+            segments[0].putInt(STATE_AT, CLOSED);
+            segments[0].force();
+            open = false;
+        } finally {
+            release();
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public boolean supports_null_items() {
+        return false;
+    }
+
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    @Override
+    public boolean values_have_identity() {
+        return false;
+    }
+
+    @Override
+    public long state_version() {
+        return version;
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public int entry_hash_sum() {
+        return entryHashSum;
+    }
+
+    @Override
+    public Map<K, V> old_state() {
+        return oldState;
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta;
+    }
+
+    private void captureOldState() {
+        if (!oldDelta.sample() || !ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS)) {
+            oldState = null; // the postconditions of the call are skipped
+            return;
+        }
+        // a copy of the index only: the snapshot shares the records, which are never written again
+        long[] addresses = new long[capacity];
+        int[] hashes = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            addresses[i] = addressAt(i);
+            hashes[i] = hashAt(i);
+        }
+        oldState = new Snapshot<>(mapped(), keyCodec, valueCodec, addresses, hashes, shift, size);
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================             File             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = Math.max(MIN_CAPACITY, Long.highestOneBit(expectedSize * 4L / 3 + 1) * 2);
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Too many entries: " + expectedSize);
+        }
+        return (int) capacity;
+    }
+
+    private void initialize(int capacity) throws IOException {
+        this.capacity = capacity;
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        logStart = HEADER + (long) capacity * SLOT;
+        logEnd = logStart;
+        segments = new MappedByteBuffer[0];
+        grow(logStart + 1);
+        segments[0].putLong(MAGIC_AT, MAGIC);
+        segments[0].putInt(FORMAT_AT, FORMAT);
+        segments[0].putInt(STATE_AT, CLOSED);
+        writeHeader();
+    }
+
+    private void load() throws IOException {
+        if (channel.size() < HEADER) {
+            throw new IOException("Not a map file: " + file);
+        }
+        segments = new MappedByteBuffer[0];
+        map(channel.size());
+        ByteBuffer header = segments[0];
+        if (header.getLong(MAGIC_AT) != MAGIC || header.getInt(FORMAT_AT) != FORMAT) {
+            throw new IOException("Not a map file: " + file);
+        }
+        capacity = header.getInt(CAPACITY_AT);
+        logStart = HEADER + (long) capacity * SLOT;
+        if (capacity < MIN_CAPACITY || Integer.bitCount(capacity) != 1 || logStart > fileLength) {
+            throw new IOException("Corrupt map file: " + file);
+        }
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        size = header.getInt(SIZE_AT);
+        entryHashSum = header.getInt(HASH_AT);
+        filled = header.getInt(FILLED_AT);
+        logEnd = header.getLong(LOG_END_AT);
+        liveBytes = header.getLong(LIVE_AT);
+        garbageBytes = header.getLong(GARBAGE_AT);
+        if (header.getInt(STATE_AT) != CLOSED) {
+            scan(true);
+            open = true; // until closed, the header still needs the recovered fields
+        } else if (ContractLevels.enabled(getClass(), ContractLevel.INVARIANTS) && ContractAudit.due()) {
+            scan(false);
+        }
+    }
+
+    /**
+     * Recounts the size, the hash code and the log from the index and the records. When
+     * recovering, adopts them and repairs the hashes of the slots; otherwise, checks them against
+     * the header.
+     */
+    private void scan(boolean recover) throws IOException {
+        int count = 0;
+        int tombstones = 0;
+        int hashSum = 0;
+        long live = 0;
+        long end = logStart;
+        for (int i = 0; i < capacity; i++) {
+            long address = addressAt(i);
+            if (address == REMOVED) {
+                tombstones++;
+            }
+            if (address <= 0) {
+                continue;
+            }
+            long at = address - 1;
+            int length;
+            K key;
+            V value;
+            try {
+                ByteBuffer segment = segment(at);
+                int offset = within(at);
+                int keyLength = segment.getInt(offset);
+                int valueLength = segment.getInt(offset + 4);
+                length = RECORD_HEADER + keyLength + valueLength;
+                if (at < logStart || keyLength < 0 || valueLength < 0 || offset + (long) length > segment.capacity()) {
+                    throw new IOException("Corrupt record at slot " + i + " of " + file);
+                }
+                int hash = Codecs.hash(segment, offset + RECORD_HEADER, keyLength);
+                if (hashAt(i) != hash) {
+                    if (!recover) {
+                        throw new IOException("Corrupt index at slot " + i + " of " + file);
+                    }
+                    setHash(i, hash); // the write of the slot was cut short
+                }
+                key = decodeKey(segments, at, keyCodec);
+                value = decodeValue(segments, at, valueCodec);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt record at slot " + i + " of " + file, e);
+            }
+            count++;
+            hashSum += key.hashCode() ^ value.hashCode();
+            live += length;
+            end = Math.max(end, at + length);
+        }
+        if (recover) {
+            size = count;
+            filled = count + tombstones;
+            entryHashSum = hashSum;
+            liveBytes = live;
+            logEnd = end;
+            garbageBytes = end - logStart - live;
+            writeHeader();
+            return;
+        }
+        String call = "open(" + file + ")";
+        if (count != size) {
+            throw new ContractViolation("size_matches_file", "open", call, new Exception().getStackTrace());
+        }
+        if (hashSum != entryHashSum) {
+            throw new ContractViolation("hashcode_is_valid", "open", call, new Exception().getStackTrace());
+        }
+    }
+
+    private void writeHeader() {
+        ByteBuffer header = mapped()[0];
+        header.putInt(SIZE_AT, size);
+        header.putInt(HASH_AT, entryHashSum);
+        header.putInt(CAPACITY_AT, capacity);
+        header.putInt(FILLED_AT, filled);
+        header.putLong(LOG_END_AT, logEnd);
+        header.putLong(LIVE_AT, liveBytes);
+        header.putLong(GARBAGE_AT, garbageBytes);
+    }
+
+    /**
+     * Marks the header open before the first write since the map was opened or rewritten, so
+     * that a crash before it is closed again triggers a recovery.
+     */
+    private void writing() {
+        if (!open) {
+            mapped()[0].putInt(STATE_AT, OPEN);
+            open = true;
+        }
+    }
+
+    private void release() throws IOException {
+        segments = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private MappedByteBuffer[] mapped() {
+        MappedByteBuffer[] mapped = segments;
+        if (mapped == null) {
+            throw new IllegalStateException("Map closed: " + file);
+        }
+        return mapped;
+    }
+
+    /**
+     * Grows the file, doubling it up to a segment and a segment at a time beyond, so that it is
+     * at least {@code length} bytes long.
+     */
+    private void grow(long length) throws IOException {
+        if (length <= fileLength) {
+            return;
+        }
+        long newLength = Math.max(fileLength, MIN_LENGTH);
+        while (newLength < length) {
+            newLength = newLength < SEGMENT ? newLength * 2 : newLength + SEGMENT;
+        }
+        map(newLength);
+    }
+
+    /**
+     * Maps the file up to {@code length}, extending it if needed, remapping the last segment if
+     * it was partial.
+     */
+    private void map(long length) throws IOException {
+        int count = (int) ((length + SEGMENT - 1) >>> SEGMENT_BITS);
+        MappedByteBuffer[] newSegments = Arrays.copyOf(segments, count);
+        for (int i = (int) (fileLength >>> SEGMENT_BITS); i < count; i++) {
+            long position = (long) i << SEGMENT_BITS;
+            newSegments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(SEGMENT, length - position));
+        }
+        segments = newSegments;
+        fileLength = length;
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Records           ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private static int within(long offset) {
+        return (int) (offset & (SEGMENT - 1));
+    }
+
+    private ByteBuffer segment(long offset) {
+        return mapped()[(int) (offset >>> SEGMENT_BITS)];
+    }
+
+    private static boolean keyMatches(ByteBuffer[] segments, long address, ByteBuffer key) {
+        ByteBuffer segment = segments[(int) (address >>> SEGMENT_BITS)];
+        int offset = within(address);
+        int length = key.limit();
+        if (segment.getInt(offset) != length) {
+            return false;
+        }
+        offset += RECORD_HEADER;
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            if (segment.getLong(offset + i) != key.getLong(i)) {
+                return false;
+            }
+        }
+        for (; i < length; i++) {
+            if (segment.get(offset + i) != key.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <K> K decodeKey(ByteBuffer[] segments, long address, Codec<K> codec) {
+        ByteBuffer segment = segments[(int) (address >>> SEGMENT_BITS)];
+        int offset = within(address) + RECORD_HEADER;
+        ByteBuffer view = segment.duplicate();
+        view.limit(offset + segment.getInt(offset - RECORD_HEADER)).position(offset);
+        return codec.decode(view);
+    }
+
+    private static <V> V decodeValue(ByteBuffer[] segments, long address, Codec<V> codec) {
+        ByteBuffer segment = segments[(int) (address >>> SEGMENT_BITS)];
+        int header = within(address);
+        int offset = header + RECORD_HEADER + segment.getInt(header);
+        ByteBuffer view = segment.duplicate();
+        view.limit(offset + segment.getInt(header + 4)).position(offset);
+        return codec.decode(view);
+    }
+
+    private K keyAt(long address) {
+        return decodeKey(mapped(), address, keyCodec);
+    }
+
+    private V valueAt(long address) {
+        return decodeValue(mapped(), address, valueCodec);
+    }
+
+    private int recordLength(long address) {
+        ByteBuffer segment = segment(address);
+        int offset = within(address);
+        return RECORD_HEADER + segment.getInt(offset) + segment.getInt(offset + 4);
+    }
+
+    /**
+     * Returns the offset at which to append a record of {@code length} bytes, growing the file if
+     * needed: the end of the log, or the next segment if the record would cross into it.
+     */
+    private long reserve(int length) {
+        long offset = logEnd;
+        long segmentEnd = (offset | (SEGMENT - 1)) + 1;
+        if (offset + length > segmentEnd) {
+            garbageBytes += segmentEnd - offset;
+            offset = segmentEnd;
+        }
+        try {
+            grow(offset + length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logEnd = offset + length;
+        liveBytes += length;
+        return offset;
+    }
+
+    /**
+     * Appends a record of the key and value buffers to the log, and returns its address.
+     */
+    private long append() {
+        int length = RECORD_HEADER + keyBuffer.remaining() + valueBuffer.remaining();
+        long address = reserve(length);
+        ByteBuffer segment = segment(address);
+        int offset = within(address);
+        segment.putInt(offset, keyBuffer.remaining());
+        segment.putInt(offset + 4, valueBuffer.remaining());
+        segment.position(offset + RECORD_HEADER);
+        segment.put(keyBuffer).put(valueBuffer);
+        keyBuffer.rewind();
+        valueBuffer.rewind();
+        return address;
+    }
+
+    /**
+     * Appends a copy of the record at {@code address} among {@code from}, and returns its address.
+     */
+    private long appendCopy(ByteBuffer[] from, long address) {
+        ByteBuffer source = from[(int) (address >>> SEGMENT_BITS)];
+        int offset = within(address);
+        int length = RECORD_HEADER + source.getInt(offset) + source.getInt(offset + 4);
+        ByteBuffer record = source.duplicate();
+        record.limit(offset + length).position(offset);
+        long copy = reserve(length);
+        ByteBuffer segment = segment(copy);
+        segment.position(within(copy));
+        segment.put(record);
+        return copy;
+    }
+
+    private void discard(long address) {
+        int length = recordLength(address);
+        liveBytes -= length;
+        garbageBytes += length;
+    }
+
+    private void compactIfWasteful() {
+        if (garbageBytes > liveBytes && garbageBytes >= MIN_COMPACTION) {
+            rewrite(capacity, true);
+        }
+    }
+
+    /**
+     * Rewrites the live records and the index to a new file, which then atomically replaces the
+     * file of this map. Keeping the slots leaves the tombstones in place, so that iterators stay
+     * valid; otherwise the entries are indexed anew in {@code newCapacity} slots.
+     */
+    private void rewrite(int newCapacity, boolean keepSlots) {
+        Path copyFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.deleteIfExists(copyFile);
+            MappedFileMapContracts<K, V> copy = new MappedFileMapContracts<>(copyFile, keyCodec, valueCodec);
+            try {
+                copy.channel = FileChannel.open(copyFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+                copy.initialize(newCapacity);
+                MappedByteBuffer[] from = mapped();
+                for (int i = 0; i < capacity; i++) {
+                    long address = addressAt(i);
+                    if (address > 0) {
+                        int slot = keepSlots ? i : copy.freeSlot(hashAt(i));
+                        copy.publish(slot, copy.appendCopy(from, address - 1) + 1, hashAt(i));
+                    } else if (address == REMOVED && keepSlots) {
+                        copy.setAddress(i, REMOVED);
+                    }
+                }
+                copy.size = size;
+                copy.filled = keepSlots ? filled : size;
+                copy.entryHashSum = entryHashSum;
+                copy.close();
+            } finally {
+                copy.release();
+            }
+            release();
+            Files.move(copyFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            fileLength = 0;
+            open = false;
+            load();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================             Index            ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private static int index(int hash, int shift) {
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    private static long slotOffset(int slot) {
+        return HEADER + (long) slot * SLOT;
+    }
+
+    private long addressAt(int slot) {
+        long at = slotOffset(slot);
+        return segment(at).getLong(within(at));
+    }
+
+    private int hashAt(int slot) {
+        long at = slotOffset(slot);
+        return segment(at).getInt(within(at) + Long.BYTES);
+    }
+
+    private void setAddress(int slot, long address) {
+        long at = slotOffset(slot);
+        segment(at).putLong(within(at), address);
+    }
+
+    private void setHash(int slot, int hash) {
+        long at = slotOffset(slot);
+        segment(at).putInt(within(at) + Long.BYTES, hash);
+    }
+
+    /**
+     * Fills {@code slot}: the hash first, so that the slot is only published, by its address,
+     * once complete.
+     */
+    private void publish(int slot, long address, int hash) {
+        setHash(slot, hash);
+        setAddress(slot, address);
+    }
+
+    /**
+     * Encodes {@code key} into the key buffer, and returns the hash of its encoding.
+     */
+    @SuppressWarnings("unchecked")
+    private int encodeKey(Object key) {
+        keyBuffer = Codecs.encode(keyCodec, (K) Objects.requireNonNull(key), keyBuffer);
+        return Codecs.hash(keyBuffer, 0, keyBuffer.limit());
+    }
+
+    private void encodeValue(V value) {
+        valueBuffer = Codecs.encode(valueCodec, Objects.requireNonNull(value), valueBuffer);
+    }
+
+    /**
+     * Returns the slot of the key in the key buffer, whose hash is {@code hash}, or -1 if it is
+     * not mapped.
+     */
+    private int slot(int hash) {
+        MappedByteBuffer[] mapped = mapped();
+        int mask = capacity - 1;
+        for (int i = index(hash, shift); ; i = (i + 1) & mask) {
+            long address = addressAt(i);
+            if (address == FREE) {
+                return -1; // there is always a free slot, so the probe ends
+            }
+            if (address != REMOVED && hashAt(i) == hash && keyMatches(mapped, address - 1, keyBuffer)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Returns the first free slot or tombstone of the probe sequence of {@code hash}.
+     */
+    private int freeSlot(int hash) {
+        int mask = capacity - 1;
+        int i = index(hash, shift);
+        while (addressAt(i) > 0) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Maps the key in the key buffer, known not to be mapped, to the value in the value buffer.
+     */
+    private void insert(int hash, K key, V value) {
+        if (filled + 1 > capacity - (capacity >>> 2)) {
+            // grow if the entries fill half of the index, and only clear the tombstones otherwise
+            int newCapacity = size + 1 > capacity >>> 1 ? capacity << 1 : capacity;
+            if (newCapacity > 1 << 30) {
+                throw new IllegalStateException("Map too large");
+            }
+            rewrite(newCapacity, false);
+        }
+        writing();
+        int slot = freeSlot(hash);
+        if (addressAt(slot) == FREE) {
+            filled++;
+        }
+        publish(slot, append() + 1, hash);
+        size++;
+        modCount++;
+        entryHashSum += key.hashCode() ^ value.hashCode();
+        version++;
+    }
+
+    /**
+     * Maps the key of {@code slot}, in the key buffer, to the value in the value buffer.
+     */
+    private void overwrite(int slot, K key, V oldValue, V newValue) {
+        writing();
+        long oldAddress = addressAt(slot) - 1;
+        setAddress(slot, append() + 1);
+        discard(oldAddress);
+        entryHashSum += (key.hashCode() ^ newValue.hashCode()) - (key.hashCode() ^ oldValue.hashCode());
+        version++;
+        compactIfWasteful();
+    }
+
+    private void removeAt(int slot, Object key, V oldValue) {
+        writing();
+        discard(addressAt(slot) - 1);
+        // a slot followed by a free slot ends no probe sequence: it can be freed rather than buried
+        if (addressAt((slot + 1) & (capacity - 1)) == FREE) {
+            setAddress(slot, FREE);
+            filled--;
+        } else {
+            setAddress(slot, REMOVED);
+        }
+        size--;
+        modCount++;
+        entryHashSum -= key.hashCode() ^ oldValue.hashCode();
+        version++;
+        compactIfWasteful();
+    }
+
+    // ==========================================================================================
+    // ==========================================================================================
+    // ==========================================================================================
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        int slot = slot(encodeKey(key));
+        return slot >= 0 ? valueAt(addressAt(slot) - 1) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return slot(encodeKey(key)) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Objects.requireNonNull(value);
+        for (int i = 0; i < capacity; i++) {
+            long address = addressAt(i);
+            if (address > 0 && value.equals(valueAt(address - 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int hash = encodeKey(key);
+        encodeValue(value);
+        int slot = slot(hash);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            insert(hash, key, value);
+            return null;
+        }
+        V oldValue = valueAt(addressAt(slot) - 1);
+        oldDelta.record(key, size, true, oldValue);
+        overwrite(slot, key, oldValue, value);
+        return oldValue;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        captureOldState();
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(WriteBatch<? extends K, ? extends V> batch) {
+        if (batch.hasNullEntries()) {
+            throw new NullPointerException();
+        }
+        batch.expect(size, this::containsKey);
+        for (Map.Entry<? extends K, Object> write : batch.writes()) {
+            if (WriteBatch.removes(write.getValue())) {
+                remove(write.getKey());
+            } else {
+                put(write.getKey(), (V) write.getValue());
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        int slot = slot(encodeKey(key));
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        V oldValue = valueAt(addressAt(slot) - 1);
+        oldDelta.record(key, size, true, oldValue);
+        removeAt(slot, key, oldValue);
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        oldDelta.sample();
+        writing();
+        for (int i = 0; i < capacity; i++) {
+            setAddress(i, FREE);
+        }
+        logEnd = logStart;
+        liveBytes = 0;
+        garbageBytes = 0;
+        size = 0;
+        filled = 0;
+        modCount++;
+        entryHashSum = 0;
+        version++;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> view = entrySetView;
+        if (view == null) {
+            entrySetView = view = new EntrySet();
+        }
+        return view;
+    }
+
+    @Override
+    public int hashCode() {
+        return entryHashSum;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        int slot = slot(encodeKey(key));
+        return slot >= 0 ? valueAt(addressAt(slot) - 1) : defaultValue;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        int hash = encodeKey(key);
+        encodeValue(value);
+        int slot = slot(hash);
+        if (slot >= 0) {
+            V oldValue = valueAt(addressAt(slot) - 1);
+            oldDelta.record(key, size, true, oldValue);
+            return oldValue;
+        }
+        oldDelta.record(key, size, false, null);
+        insert(hash, key, value);
+        return null;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        Objects.requireNonNull(value);
+        int slot = slot(encodeKey(key));
+        V oldValue = slot >= 0 ? valueAt(addressAt(slot) - 1) : null;
+        oldDelta.record(key, size, slot >= 0, oldValue);
+        if (slot < 0 || !value.equals(oldValue)) {
+            return false;
+        }
+        removeAt(slot, key, oldValue);
+        return true;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Objects.requireNonNull(oldValue);
+        int hash = encodeKey(key);
+        encodeValue(newValue);
+        int slot = slot(hash);
+        V value = slot >= 0 ? valueAt(addressAt(slot) - 1) : null;
+        oldDelta.record(key, size, slot >= 0, value);
+        if (slot < 0 || !oldValue.equals(value)) {
+            return false;
+        }
+        overwrite(slot, key, value, newValue);
+        return true;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        int hash = encodeKey(key);
+        encodeValue(value);
+        int slot = slot(hash);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        V oldValue = valueAt(addressAt(slot) - 1);
+        oldDelta.record(key, size, true, oldValue);
+        overwrite(slot, key, oldValue, value);
+        return oldValue;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        captureOldState();
+        for (int i = 0; i < capacity; i++) {
+            long address = addressAt(i);
+            if (address > 0) {
+                K key = keyAt(address - 1);
+                V oldValue = valueAt(address - 1);
+                V newValue = function.apply(key, oldValue);
+                encodeKey(key);
+                encodeValue(newValue);
+                overwrite(i, key, oldValue, newValue);
+            }
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Views             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (entry.getKey() == null || entry.getValue() == null) {
+                return false;
+            }
+            V value = get(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            MappedFileMapContracts.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        // removing a mapping or compacting the log never moves a slot
+        private int next = advance(0);
+        private int current = -1;
+        private Entry currentEntry;
+        private int expectedModCount = modCount;
+
+        private int advance(int from) {
+            while (from < capacity && addressAt(from) <= 0) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < capacity;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= capacity) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = advance(next + 1);
+            long address = addressAt(current) - 1;
+            currentEntry = new Entry(keyAt(address), valueAt(address));
+            return currentEntry;
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(current, currentEntry.getKey(), currentEntry.getValue());
+            expectedModCount = modCount;
+            current = -1;
+        }
+    }
+
+    private final class Entry extends AbstractMap.SimpleEntry<K, V> {
+
+        Entry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+
+    /**
+     * The mappings of a map at some point, for the postconditions of its bulk calls: a copy of
+     * its index, over the records it shared with the map then.
+     */
+    private static final class Snapshot<K, V> extends AbstractMap<K, V> {
+        private final ByteBuffer[] segments;
+        private final Codec<K> keyCodec;
+        private final Codec<V> valueCodec;
+        private final long[] addresses;
+        private final int[] hashes;
+        private final int shift;
+        private final int size;
+        private ByteBuffer keyBuffer = ByteBuffer.allocate(64);
+
+        Snapshot(ByteBuffer[] segments, Codec<K> keyCodec, Codec<V> valueCodec, long[] addresses, int[] hashes, int shift, int size) {
+            this.segments = segments;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+            this.addresses = addresses;
+            this.hashes = hashes;
+            this.shift = shift;
+            this.size = size;
+        }
+
+        @SuppressWarnings("unchecked")
+        private int slot(Object key) {
+            keyBuffer = Codecs.encode(keyCodec, (K) Objects.requireNonNull(key), keyBuffer);
+            int hash = Codecs.hash(keyBuffer, 0, keyBuffer.limit());
+            int mask = addresses.length - 1;
+            for (int i = index(hash, shift); ; i = (i + 1) & mask) {
+                if (addresses[i] == FREE) {
+                    return -1;
+                }
+                if (addresses[i] != REMOVED && hashes[i] == hash && keyMatches(segments, addresses[i] - 1, keyBuffer)) {
+                    return i;
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return slot(key) >= 0;
+        }
+
+        @Override
+        public V get(Object key) {
+            int slot = slot(key);
+            return slot >= 0 ? decodeValue(segments, addresses[slot] - 1, valueCodec) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    return new Iterator<Map.Entry<K, V>>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            while (from < addresses.length && addresses[from] <= 0) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < addresses.length;
+                        }
+
+                        @Override
+                        public Map.Entry<K, V> next() {
+                            if (next >= addresses.length) {
+                                throw new NoSuchElementException();
+                            }
+                            long address = addresses[next] - 1;
+                            next = advance(next + 1);
+                            return new SimpleImmutableEntry<>(decodeKey(segments, address, keyCodec),
+                                    decodeValue(segments, address, valueCodec));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package contracts;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+
+
+/**
+ * The contracts of a map sorted by its keys: on top of the {@link MapContracts}, the nearest-key
+ * lookups and the range views return what the order of the keys implies, and the keys iterate in
+ * ascending order.
+ *
+ * <p>The postconditions of {@link #floorKey}, {@link #ceilingKey} and of the views check the
+ * result against its neighbours, found through the other navigation methods of the map, which
+ * carry no contracts of their own; deep audits (see {@link ContractAudit}) also check it against
+ * a scan of all the keys.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public interface NavigableMapContracts<K, V> extends MapContracts<K, V>, NavigableMap<K, V> {
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Pure
+    @SuppressWarnings("unchecked")
+    default int compare_keys(Object a, Object b) {
+        Comparator<Object> comparator = (Comparator<Object>) comparator();
+        return comparator != null ? comparator.compare(a, b) : ((Comparable<Object>) a).compareTo(b);
+    }
+
+    @Pure
+    default boolean nearest_key_is(K returns, K key, boolean below) {
+        // the key nearest to key on its side, key included, is returns: it is mapped, and the next
+        // key past it, if any, is past key
+        if (returns == null) {
+            Map.Entry<K, V> end = below ? firstEntry() : lastEntry();
+            return end == null || (below ? compare_keys(end.getKey(), key) > 0 : compare_keys(end.getKey(), key) < 0);
+        }
+        int side = below ? 1 : -1;
+        if (compare_keys(returns, key) * side > 0 || !containsKey(returns)) {
+            return false;
+        }
+        K next = below ? higherKey(returns) : lowerKey(returns);
+        return next == null || compare_keys(next, key) * side > 0;
+    }
+
+    @Pure
+    default boolean nearest_key_scanned(K returns, K key, boolean below) {
+        K nearest = null;
+        for (K candidate : keySet()) {
+            int side = Integer.signum(compare_keys(candidate, key)) * (below ? 1 : -1);
+            if (side <= 0 && (nearest == null || compare_keys(candidate, nearest) * (below ? 1 : -1) > 0)) {
+                nearest = candidate;
+            }
+        }
+        return nearest == null ? returns == null : returns != null && compare_keys(returns, nearest) == 0;
+    }
+
+    @Pure
+    default boolean view_spans(NavigableMap<K, V> view, K fromKey, boolean fromInclusive, boolean fromStart,
+                               K toKey, boolean toInclusive, boolean toEnd) {
+        // the view holds the keys of the map in the range: its first and last keys are the nearest
+        // keys of the map inside the bounds, and it is empty iff the range holds no key
+        Map.Entry<K, V> first = fromStart ? firstEntry() : fromInclusive ? ceilingEntry(fromKey) : higherEntry(fromKey);
+        Map.Entry<K, V> last = toEnd ? lastEntry() : toInclusive ? floorEntry(toKey) : lowerEntry(toKey);
+        if (first == null || last == null || compare_keys(first.getKey(), last.getKey()) > 0) {
+            return view.isEmpty();
+        }
+        return !view.isEmpty()
+                && compare_keys(view.firstKey(), first.getKey()) == 0
+                && compare_keys(view.lastKey(), last.getKey()) == 0;
+    }
+
+    @Pure
+    default boolean view_scanned(NavigableMap<K, V> view, K fromKey, boolean fromInclusive, boolean fromStart,
+                                 K toKey, boolean toInclusive, boolean toEnd) {
+        int inRange = 0;
+        for (K key : keySet()) {
+            int from = fromStart ? 1 : compare_keys(key, fromKey);
+            int to = toEnd ? -1 : compare_keys(key, toKey);
+            if ((from > 0 || fromInclusive && from == 0) && (to < 0 || toInclusive && to == 0)) {
+                inRange++;
+            }
+        }
+        return view.size() == inRange && keys_ascend(view.keySet().iterator());
+    }
+
+    @Pure
+    default boolean keys_ascend(Iterator<K> keys) {
+        K previous = null;
+        boolean first = true;
+        while (keys.hasNext()) {
+            K key = keys.next();
+            if (!first && compare_keys(previous, key) >= 0) {
+                return false;
+            }
+            previous = key;
+            first = false;
+        }
+        return true;
+    }
+
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================          Invariants          ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Invariant
+    @Pure
+    default boolean keys_in_ascending_order() {
+        // a walk over all the keys: only run as a deep audit
+        return checked_invariant("keys_in_ascending_order", () -> !deep_audit_due("keys_in_ascending_order")
+                || keys_ascend(keySet().iterator()));
+    }
+
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================          Navigation          ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Pure
+    default boolean returns_greatest_key_at_most(K returns, K key) {
+        return key == null && !supports_null_items() || checked_read("returns_greatest_key_at_most", returns, key, null,
+                () -> nearest_key_is(returns, key, true)
+                        && (!deep_audit_due("returns_greatest_key_at_most") || nearest_key_scanned(returns, key, true)));
+    }
+
+    @Pure
+    default boolean returns_least_key_at_least(K returns, K key) {
+        return key == null && !supports_null_items() || checked_read("returns_least_key_at_least", returns, key, null,
+                () -> nearest_key_is(returns, key, false)
+                        && (!deep_audit_due("returns_least_key_at_least") || nearest_key_scanned(returns, key, false)));
+    }
+
+    @Pure
+    default boolean returns_keys_between(NavigableMap<K, V> returns, K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return checked_read("returns_keys_between",
+                () -> returns != null && view_spans(returns, fromKey, fromInclusive, false, toKey, toInclusive, false)
+                        && (!deep_audit_due("returns_keys_between") || view_scanned(returns, fromKey, fromInclusive, false, toKey, toInclusive, false)));
+    }
+
+    @Pure
+    default boolean returns_keys_before(NavigableMap<K, V> returns, K toKey, boolean inclusive) {
+        return checked_read("returns_keys_before",
+                () -> returns != null && view_spans(returns, null, false, true, toKey, inclusive, false)
+                        && (!deep_audit_due("returns_keys_before") || view_scanned(returns, null, false, true, toKey, inclusive, false)));
+    }
+
+    @Pure
+    default boolean returns_keys_after(NavigableMap<K, V> returns, K fromKey, boolean inclusive) {
+        return checked_read("returns_keys_after",
+                () -> returns != null && view_spans(returns, fromKey, inclusive, false, null, false, true)
+                        && (!deep_audit_due("returns_keys_after") || view_scanned(returns, fromKey, inclusive, false, null, false, true)));
+    }
+
+
+    // ==========================================================================================
+    // ==========================================================================================
+    // ==========================================================================================
+
+
+    /**
+     * Returns the greatest key less than or equal to the given key,
+     * or {@code null} if there is no such key.
+     *
+     * @param key the key
+     * @return the greatest key less than or equal to {@code key},
+     *         or {@code null} if there is no such key
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map does not permit null keys
+     */
+    @Pure
+    @Ensures({
+            "returns_greatest_key_at_most",
+            "raises_if_null_unsupported_and_null_key"
+    })
+    K floorKey(K key);
+
+    /**
+     * Returns the least key greater than or equal to the given key,
+     * or {@code null} if there is no such key.
+     *
+     * @param key the key
+     * @return the least key greater than or equal to {@code key},
+     *         or {@code null} if there is no such key
+     * @throws ClassCastException if the specified key cannot be compared
+     *         with the keys currently in the map
+     * @throws NullPointerException if the specified key is null
+     *         and this map does not permit null keys
+     */
+    @Pure
+    @Ensures({
+            "returns_least_key_at_least",
+            "raises_if_null_unsupported_and_null_key"
+    })
+    K ceilingKey(K key);
+
+    /**
+     * Returns a view of the portion of this map whose keys range from
+     * {@code fromKey} to {@code toKey}.  If {@code fromKey} and
+     * {@code toKey} are equal, the returned map is empty unless
+     * {@code fromInclusive} and {@code toInclusive} are both true.  The
+     * returned map is backed by this map, so changes in the returned map are
+     * reflected in this map, and vice-versa.  The returned map supports all
+     * optional map operations that this map supports.
+     *
+     * <p>The returned map will throw an {@code IllegalArgumentException}
+     * on an attempt to insert a key outside of its range, or to construct a
+     * submap either of whose endpoints lie outside its range.
+     *
+     * @param fromKey low endpoint of the keys in the returned map
+     * @param fromInclusive {@code true} if the low endpoint
+     *        is to be included in the returned view
+     * @param toKey high endpoint of the keys in the returned map
+     * @param toInclusive {@code true} if the high endpoint
+     *        is to be included in the returned view
+     * @return a view of the portion of this map whose keys range from
+     *         {@code fromKey} to {@code toKey}
+     * @throws ClassCastException if {@code fromKey} and {@code toKey}
+     *         cannot be compared to one another using this map's comparator
+     * @throws NullPointerException if {@code fromKey} or {@code toKey}
+     *         is null and this map does not permit null keys
+     * @throws IllegalArgumentException if {@code fromKey} is greater than
+     *         {@code toKey}; or if this map itself has a restricted
+     *         range, and {@code fromKey} or {@code toKey} lies
+     *         outside the bounds of the range
+     */
+    @Pure
+    @Ensures({
+            "returns_keys_between"
+    })
+    NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive);
+
+    /**
+     * Returns a view of the portion of this map whose keys are less than (or
+     * equal to, if {@code inclusive} is true) {@code toKey}.  The returned
+     * map is backed by this map, so changes in the returned map are reflected
+     * in this map, and vice-versa.  The returned map supports all optional
+     * map operations that this map supports.
+     *
+     * <p>The returned map will throw an {@code IllegalArgumentException}
+     * on an attempt to insert a key outside its range.
+     *
+     * @param toKey high endpoint of the keys in the returned map
+     * @param inclusive {@code true} if the high endpoint
+     *        is to be included in the returned view
+     * @return a view of the portion of this map whose keys are less than
+     *         (or equal to, if {@code inclusive} is true) {@code toKey}
+     * @throws ClassCastException if {@code toKey} is not compatible
+     *         with this map's comparator
+     * @throws NullPointerException if {@code toKey} is null
+     *         and this map does not permit null keys
+     * @throws IllegalArgumentException if this map itself has a
+     *         restricted range, and {@code toKey} lies outside the
+     *         bounds of the range
+     */
+    @Pure
+    @Ensures({
+            "returns_keys_before"
+    })
+    NavigableMap<K, V> headMap(K toKey, boolean inclusive);
+
+    /**
+     * Returns a view of the portion of this map whose keys are greater than (or
+     * equal to, if {@code inclusive} is true) {@code fromKey}.  The returned
+     * map is backed by this map, so changes in the returned map are reflected
+     * in this map, and vice-versa.  The returned map supports all optional
+     * map operations that this map supports.
+     *
+     * <p>The returned map will throw an {@code IllegalArgumentException}
+     * on an attempt to insert a key outside its range.
+     *
+     * @param fromKey low endpoint of the keys in the returned map
+     * @param inclusive {@code true} if the low endpoint
+     *        is to be included in the returned view
+     * @return a view of the portion of this map whose keys are greater than
+     *         (or equal to, if {@code inclusive} is true) {@code fromKey}
+     * @throws ClassCastException if {@code fromKey} is not compatible
+     *         with this map's comparator
+     * @throws NullPointerException if {@code fromKey} is null
+     *         and this map does not permit null keys
+     * @throws IllegalArgumentException if this map itself has a
+     *         restricted range, and {@code fromKey} lies outside the
+     *         bounds of the range
+     */
+    @Pure
+    @Ensures({
+            "returns_keys_after"
+    })
+    NavigableMap<K, V> tailMap(K fromKey, boolean inclusive);
+}
@@ -0,0 +1,746 @@
+package contracts;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * A contract-checked map that stores its keys and values serialized in direct memory, outside of
+ * the Java heap, through a {@link Codec} for the keys and one for the values.
+ *
+ * <p>The records live in an append-only log of direct {@link ByteBuffer} chunks. The heap only
+ * holds an open-addressing index of two primitive arrays, 12 bytes per slot (the address of a
+ * record and the hash of its key), so 16 to 32 bytes per entry. The garbage collector never sees
+ * the keys and values: marking the map costs two arrays whatever its size, where a
+ * {@code HashMap} of 50 million entries is 150 million objects to trace on every old-generation
+ * collection.
+ *
+ * <p>The price is the codecs. Every call encodes its key, every read decodes the value into a
+ * new object, and every write appends a new record, the log being compacted once it holds more
+ * garbage than live records. For small or short-lived maps, or with an expensive codec such as
+ * {@link Codec#serialized()}, {@link HashMapContracts} is faster; the off-heap map pays off for
+ * large, long-lived maps whose GC pauses matter more than the cost per call.
+ *
+ * <p>Keys are compared by their encoding (see {@link Codec}). Values have no identity, so the
+ * postconditions compare them by equality. Null keys and values are not supported. The hash code
+ * of the map is maintained incrementally. The direct memory of the map is released when the map,
+ * or the records it drops on {@link #clear()} or compaction, are garbage collected.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class OffHeapMapContracts<K, V> extends AbstractMap<K, V> implements MapContracts<K, V> {
+
+    private static final int OFFSET_BITS = 26; // the offset of a record within its chunk
+    private static final int MIN_CHUNK = 1 << 12;
+    private static final int MAX_CHUNK = 1 << OFFSET_BITS;
+    private static final int HEADER = 8; // the lengths of the key and of the value
+
+    private static final long FREE = 0;
+    private static final long REMOVED = -1;
+
+    private static final int MIN_CAPACITY = 8;
+
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+
+    private ByteBuffer[] chunks = new ByteBuffer[4]; // the position of the last chunk is the end of the log
+    private int chunkCount;
+    private long liveBytes;
+    private long garbageBytes;
+
+    private long[] addresses; // per slot: FREE, REMOVED, or 1 + the address of its record
+    private int[] hashes; // per slot: the hash of the encoding of its key
+    private int shift; // 32 - log2(capacity)
+    private int size;
+    private int filled; // the slots that are not free: the entries and the tombstones
+    private int modCount;
+
+    private ByteBuffer keyBuffer = ByteBuffer.allocate(64); // the encoding of the key of the current call
+    private ByteBuffer valueBuffer = ByteBuffer.allocate(64); // the encoding of the value being written
+
+    private int entryHashSum;
+    private long version;
+
+    private ContractSampler contractSampler; // null: use the global sampler
+    private Map<K, V> oldState;
+    private final KeyDelta<V> oldDelta = new KeyDelta<>(this);
+    private final InvariantCache invariantCache = new InvariantCache();
+    private final PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private Set<Map.Entry<K, V>> entrySetView;
+
+    /**
+     * Creates an empty map encoding its keys and values with Java serialization (see
+     * {@link Codec#serialized()}).
+     */
+    public OffHeapMapContracts() {
+        this(Codec.serialized(), Codec.serialized());
+    }
+
+    /**
+     * Creates an empty map.
+     *
+     * @param keyCodec   the codec of the keys
+     * @param valueCodec the codec of the values
+     */
+    public OffHeapMapContracts(Codec<K> keyCodec, Codec<V> valueCodec) {
+        this(keyCodec, valueCodec, 0);
+    }
+
+    /**
+     * Creates an empty map indexing {@code expectedSize} entries without resizing.
+     *
+     * @param keyCodec     the codec of the keys
+     * @param valueCodec   the codec of the values
+     * @param expectedSize the number of entries to make room for
+     */
+    public OffHeapMapContracts(Codec<K> keyCodec, Codec<V> valueCodec, int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        this.keyCodec = Objects.requireNonNull(keyCodec);
+        this.valueCodec = Objects.requireNonNull(valueCodec);
+        long capacity = Math.max(MIN_CAPACITY, Long.highestOneBit(expectedSize * 4L / 3 + 1) * 2);
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Too many entries: " + expectedSize);
+        }
+        allocate((int) capacity);
+    }
+
+    private OffHeapMapContracts(OffHeapMapContracts<K, V> map) {
+        // the records are never written again once appended, so a copy of the index can share them
+        keyCodec = map.keyCodec;
+        valueCodec = map.valueCodec;
+        chunks = Arrays.copyOf(map.chunks, map.chunkCount);
+        chunkCount = map.chunkCount;
+        addresses = map.addresses.clone();
+        hashes = map.hashes.clone();
+        shift = map.shift;
+        size = map.size;
+        filled = map.filled;
+        entryHashSum = map.entryHashSum;
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public boolean supports_null_items() {
+        return false;
+    }
+
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    @Override
+    public boolean values_have_identity() {
+        return false;
+    }
+
+    @Override
+    public long state_version() {
+        return version;
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public int entry_hash_sum() {
+        return entryHashSum;
+    }
+
+    @Override
+    public Map<K, V> old_state() {
+        return oldState;
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta;
+    }
+
+    private void captureOldState() {
+        if (!oldDelta.sample() || !ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS)) {
+            oldState = null; // the postconditions of the call are skipped
+            return;
+        }
+        // a copy of the index only: the snapshot shares the records, which stay in direct memory
+        oldState = Collections.unmodifiableMap(new OffHeapMapContracts<>(this));
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Records           ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * Encodes {@code key} into the key buffer, and returns the hash of its encoding.
+     */
+    @SuppressWarnings("unchecked")
+    private int encodeKey(Object key) {
+        keyBuffer = Codecs.encode(keyCodec, (K) Objects.requireNonNull(key), keyBuffer);
+        return Codecs.hash(keyBuffer, 0, keyBuffer.limit());
+    }
+
+    private void encodeValue(V value) {
+        valueBuffer = Codecs.encode(valueCodec, Objects.requireNonNull(value), valueBuffer);
+    }
+
+    private ByteBuffer chunk(long address) {
+        return chunks[(int) (address >>> OFFSET_BITS)];
+    }
+
+    private static int offset(long address) {
+        return (int) address & (MAX_CHUNK - 1);
+    }
+
+    private int recordLength(long address) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address);
+        return HEADER + chunk.getInt(offset) + chunk.getInt(offset + 4);
+    }
+
+    private boolean keyMatches(long address) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address);
+        int length = keyBuffer.limit();
+        if (chunk.getInt(offset) != length) {
+            return false;
+        }
+        offset += HEADER;
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            if (chunk.getLong(offset + i) != keyBuffer.getLong(i)) {
+                return false;
+            }
+        }
+        for (; i < length; i++) {
+            if (chunk.get(offset + i) != keyBuffer.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private K keyAt(long address) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address) + HEADER;
+        ByteBuffer view = chunk.duplicate();
+        view.limit(offset + chunk.getInt(offset - HEADER)).position(offset);
+        return keyCodec.decode(view);
+    }
+
+    private V valueAt(long address) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address) + HEADER + chunk.getInt(offset(address));
+        ByteBuffer view = chunk.duplicate();
+        view.limit(offset + chunk.getInt(offset(address) + 4)).position(offset);
+        return valueCodec.decode(view);
+    }
+
+    /**
+     * Appends a record of the key and value buffers to the log, and returns its address.
+     */
+    private long append() {
+        int length = HEADER + keyBuffer.remaining() + valueBuffer.remaining();
+        ByteBuffer chunk = reserve(length);
+        int offset = chunk.position();
+        chunk.putInt(keyBuffer.remaining()).putInt(valueBuffer.remaining()).put(keyBuffer).put(valueBuffer);
+        keyBuffer.rewind();
+        valueBuffer.rewind();
+        liveBytes += length;
+        return (long) (chunkCount - 1) << OFFSET_BITS | offset;
+    }
+
+    /**
+     * Returns the last chunk, after adding a new one if it has less than {@code length} bytes left.
+     */
+    private ByteBuffer reserve(int length) {
+        if (length > MAX_CHUNK) {
+            throw new IllegalArgumentException("Record larger than " + MAX_CHUNK + " bytes");
+        }
+        ByteBuffer last = chunkCount == 0 ? null : chunks[chunkCount - 1];
+        if (last != null && last.remaining() >= length) {
+            return last;
+        }
+        // chunks double up to the largest offset, so that small maps hold small chunks
+        int capacity = last == null ? MIN_CHUNK : Math.min(MAX_CHUNK, last.capacity() * 2);
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(4, chunkCount * 2));
+        }
+        ByteBuffer chunk = ByteBuffer.allocateDirect(Math.max(capacity, length));
+        chunks[chunkCount++] = chunk;
+        return chunk;
+    }
+
+    private void discard(long address) {
+        int length = recordLength(address);
+        liveBytes -= length;
+        garbageBytes += length;
+    }
+
+    /**
+     * Copies the live records to new chunks once the log holds more garbage than records. Slots
+     * keep their index, so iterators stay valid.
+     */
+    private void compactIfWasteful() {
+        if (garbageBytes <= liveBytes || garbageBytes < MIN_CHUNK) {
+            return;
+        }
+        ByteBuffer[] oldChunks = chunks;
+        chunks = new ByteBuffer[4];
+        chunkCount = 0;
+        liveBytes = 0;
+        garbageBytes = 0;
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] > 0) {
+                long address = addresses[i] - 1;
+                ByteBuffer oldChunk = oldChunks[(int) (address >>> OFFSET_BITS)];
+                int offset = offset(address);
+                int length = HEADER + oldChunk.getInt(offset) + oldChunk.getInt(offset + 4);
+                ByteBuffer record = oldChunk.duplicate();
+                record.limit(offset + length).position(offset);
+                ByteBuffer chunk = reserve(length);
+                int newOffset = chunk.position();
+                chunk.put(record);
+                liveBytes += length;
+                addresses[i] = ((long) (chunkCount - 1) << OFFSET_BITS | newOffset) + 1;
+            }
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================             Index            ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private void allocate(int capacity) {
+        addresses = new long[capacity];
+        hashes = new int[capacity];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        filled = size;
+    }
+
+    private int index(int hash) {
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * Returns the slot of the key in the key buffer, whose hash is {@code hash}, or -1 if it is
+     * not mapped.
+     */
+    private int slot(int hash) {
+        int mask = addresses.length - 1;
+        for (int i = index(hash); ; i = (i + 1) & mask) {
+            long address = addresses[i];
+            if (address == FREE) {
+                return -1; // there is always a free slot, so the probe ends
+            }
+            if (address != REMOVED && hashes[i] == hash && keyMatches(address - 1)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Maps the key in the key buffer, known not to be mapped, to the value in the value buffer.
+     */
+    private void insert(int hash, K key, V value) {
+        if (filled + 1 > addresses.length - (addresses.length >>> 2)) {
+            // grow if the entries fill half of the index, and only clear the tombstones otherwise
+            rehash(size + 1 > addresses.length >>> 1 ? addresses.length << 1 : addresses.length);
+        }
+        int mask = addresses.length - 1;
+        int i = index(hash);
+        while (addresses[i] > 0) {
+            i = (i + 1) & mask;
+        }
+        if (addresses[i] == FREE) {
+            filled++;
+        }
+        addresses[i] = append() + 1;
+        hashes[i] = hash;
+        size++;
+        modCount++;
+        entryHashSum += key.hashCode() ^ value.hashCode();
+        version++;
+    }
+
+    private void rehash(int capacity) {
+        if (capacity > 1 << 30) {
+            throw new IllegalStateException("Map too large");
+        }
+        long[] oldAddresses = addresses;
+        int[] oldHashes = hashes;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldAddresses.length; j++) {
+            if (oldAddresses[j] > 0) {
+                int i = index(oldHashes[j]);
+                while (addresses[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                addresses[i] = oldAddresses[j];
+                hashes[i] = oldHashes[j];
+            }
+        }
+    }
+
+    /**
+     * Maps the key of {@code slot}, in the key buffer, to the value in the value buffer.
+     */
+    private void overwrite(int slot, K key, V oldValue, V newValue) {
+        discard(addresses[slot] - 1);
+        addresses[slot] = append() + 1;
+        entryHashSum += (key.hashCode() ^ newValue.hashCode()) - (key.hashCode() ^ oldValue.hashCode());
+        version++;
+        compactIfWasteful();
+    }
+
+    private void removeAt(int slot, Object key, V oldValue) {
+        discard(addresses[slot] - 1);
+        // a slot followed by a free slot ends no probe sequence: it can be freed rather than buried
+        if (addresses[(slot + 1) & (addresses.length - 1)] == FREE) {
+            addresses[slot] = FREE;
+            filled--;
+        } else {
+            addresses[slot] = REMOVED;
+        }
+        size--;
+        modCount++;
+        entryHashSum -= key.hashCode() ^ oldValue.hashCode();
+        version++;
+        compactIfWasteful();
+    }
+
+    // ==========================================================================================
+    // ==========================================================================================
+    // ==========================================================================================
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        int slot = slot(encodeKey(key));
+        return slot >= 0 ? valueAt(addresses[slot] - 1) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return slot(encodeKey(key)) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Objects.requireNonNull(value);
+        for (long address : addresses) {
+            if (address > 0 && value.equals(valueAt(address - 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int hash = encodeKey(key);
+        encodeValue(value);
+        int slot = slot(hash);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            insert(hash, key, value);
+            return null;
+        }
+        V oldValue = valueAt(addresses[slot] - 1);
+        oldDelta.record(key, size, true, oldValue);
+        overwrite(slot, key, oldValue, value);
+        return oldValue;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        captureOldState();
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(WriteBatch<? extends K, ? extends V> batch) {
+        if (batch.hasNullEntries()) {
+            throw new NullPointerException();
+        }
+        batch.expect(size, this::containsKey);
+        for (Map.Entry<? extends K, Object> write : batch.writes()) {
+            if (WriteBatch.removes(write.getValue())) {
+                remove(write.getKey());
+            } else {
+                put(write.getKey(), (V) write.getValue());
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        int slot = slot(encodeKey(key));
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        V oldValue = valueAt(addresses[slot] - 1);
+        oldDelta.record(key, size, true, oldValue);
+        removeAt(slot, key, oldValue);
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        oldDelta.sample();
+        chunks = new ByteBuffer[4];
+        chunkCount = 0;
+        liveBytes = 0;
+        garbageBytes = 0;
+        Arrays.fill(addresses, FREE);
+        size = 0;
+        filled = 0;
+        modCount++;
+        entryHashSum = 0;
+        version++;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> view = entrySetView;
+        if (view == null) {
+            entrySetView = view = new EntrySet();
+        }
+        return view;
+    }
+
+    @Override
+    public int hashCode() {
+        return entryHashSum;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        int slot = slot(encodeKey(key));
+        return slot >= 0 ? valueAt(addresses[slot] - 1) : defaultValue;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        int hash = encodeKey(key);
+        encodeValue(value);
+        int slot = slot(hash);
+        if (slot >= 0) {
+            V oldValue = valueAt(addresses[slot] - 1);
+            oldDelta.record(key, size, true, oldValue);
+            return oldValue;
+        }
+        oldDelta.record(key, size, false, null);
+        insert(hash, key, value);
+        return null;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        Objects.requireNonNull(value);
+        int slot = slot(encodeKey(key));
+        V oldValue = slot >= 0 ? valueAt(addresses[slot] - 1) : null;
+        oldDelta.record(key, size, slot >= 0, oldValue);
+        if (slot < 0 || !value.equals(oldValue)) {
+            return false;
+        }
+        removeAt(slot, key, oldValue);
+        return true;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Objects.requireNonNull(oldValue);
+        int hash = encodeKey(key);
+        encodeValue(newValue);
+        int slot = slot(hash);
+        V value = slot >= 0 ? valueAt(addresses[slot] - 1) : null;
+        oldDelta.record(key, size, slot >= 0, value);
+        if (slot < 0 || !oldValue.equals(value)) {
+            return false;
+        }
+        overwrite(slot, key, value, newValue);
+        return true;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        int hash = encodeKey(key);
+        encodeValue(value);
+        int slot = slot(hash);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        V oldValue = valueAt(addresses[slot] - 1);
+        oldDelta.record(key, size, true, oldValue);
+        overwrite(slot, key, oldValue, value);
+        return oldValue;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        captureOldState();
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] > 0) {
+                K key = keyAt(addresses[i] - 1);
+                V oldValue = valueAt(addresses[i] - 1);
+                V newValue = function.apply(key, oldValue);
+                encodeKey(key);
+                encodeValue(newValue);
+                overwrite(i, key, oldValue, newValue);
+            }
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Views             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (entry.getKey() == null || entry.getValue() == null) {
+                return false;
+            }
+            V value = get(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            OffHeapMapContracts.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        // removing a mapping or compacting the log never moves a slot
+        private int next = advance(0);
+        private int current = -1;
+        private Entry currentEntry;
+        private int expectedModCount = modCount;
+
+        private int advance(int from) {
+            while (from < addresses.length && addresses[from] <= 0) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < addresses.length;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= addresses.length) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = advance(next + 1);
+            long address = addresses[current] - 1;
+            currentEntry = new Entry(keyAt(address), valueAt(address));
+            return currentEntry;
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(current, currentEntry.getKey(), currentEntry.getValue());
+            expectedModCount = modCount;
+            current = -1;
+        }
+    }
+
+    private final class Entry extends AbstractMap.SimpleEntry<K, V> {
+
+        Entry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package contracts;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable map backed by a hash array mapped trie (HAMT).
+ *
+ * <p>{@link #plus} and {@link #minus} return a new map that shares all of its structure with this
+ * one except for the path to the changed key, so they cost {@code O(log n)} time and allocation.
+ * Holding on to an older version of the map (a snapshot) is free. Null keys and values are
+ * supported.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(BitmapNode.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    static <K, V> PersistentHashMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+        PersistentHashMap<K, V> copy = empty();
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            copy = copy.plus(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
+
+    private static int hash(Object key) {
+        int h = Objects.hashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns a map with the same mappings as this one, except that {@code key} maps to {@code value}.
+     */
+    PersistentHashMap<K, V> plus(K key, V value) {
+        int hash = hash(key);
+        Leaf<K, V> existing = root.find(hash, key, 0);
+        if (existing != null && existing.getValue() == value) {
+            return this;
+        }
+        return new PersistentHashMap<>(root.plus(new Leaf<>(hash, key, value), 0), existing == null ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map with the same mappings as this one, except that {@code key} is not mapped.
+     */
+    PersistentHashMap<K, V> minus(Object key) {
+        int hash = hash(key);
+        if (root.find(hash, key, 0) == null) {
+            return this;
+        }
+        Node newRoot = root.minus(hash, key, 0);
+        return newRoot == null ? empty() : new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return root.find(hash(key), key, 0) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        Leaf<K, V> leaf = root.find(hash(key), key, 0);
+        return leaf == null ? null : leaf.getValue();
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        Leaf<K, V> leaf = root.find(hash(key), key, 0);
+        return leaf == null ? defaultValue : leaf.getValue();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new LeafIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry)) {
+                    return false;
+                }
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                Leaf<K, V> leaf = root.find(hash(entry.getKey()), entry.getKey(), 0);
+                return leaf != null && Objects.equals(leaf.getValue(), entry.getValue());
+            }
+        };
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Nodes             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private static final class Leaf<K, V> extends AbstractMap.SimpleImmutableEntry<K, V> {
+        final int hash;
+
+        Leaf(int hash, K key, V value) {
+            super(key, value);
+            this.hash = hash;
+        }
+
+        boolean matches(int hash, Object key) {
+            return this.hash == hash && Objects.equals(getKey(), key);
+        }
+    }
+
+    private abstract static class Node {
+
+        abstract <K, V> Leaf<K, V> find(int hash, Object key, int shift);
+
+        abstract <K, V> Node plus(Leaf<K, V> leaf, int shift);
+
+        /**
+         * Removes the mapping of a key known to be in this node; returns null if the node becomes empty.
+         */
+        abstract Node minus(int hash, Object key, int shift);
+
+        /**
+         * Returns the only leaf of this node, or null if it has several entries or sub-nodes.
+         */
+        abstract Leaf<?, ?> single();
+    }
+
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] slots; // a Leaf or a Node per set bit, in bit order
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        /**
+         * Returns a node holding two leaves (or collision nodes) with different hashes.
+         */
+        static Node pair(int shift, int hash1, Object slot1, int hash2, Object slot2) {
+            int bit1 = 1 << ((hash1 >>> shift) & MASK);
+            int bit2 = 1 << ((hash2 >>> shift) & MASK);
+            if (bit1 == bit2) {
+                return new BitmapNode(bit1, new Object[]{pair(shift + BITS, hash1, slot1, hash2, slot2)});
+            }
+            return bit1 < bit2
+                    ? new BitmapNode(bit1 | bit2, new Object[]{slot1, slot2})
+                    : new BitmapNode(bit1 | bit2, new Object[]{slot2, slot1});
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        <K, V> Leaf<K, V> find(int hash, Object key, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = slots[Integer.bitCount(bitmap & (bit - 1))];
+            if (slot instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) slot;
+                return leaf.matches(hash, key) ? leaf : null;
+            }
+            return ((Node) slot).find(hash, key, shift + BITS);
+        }
+
+        @Override
+        <K, V> Node plus(Leaf<K, V> leaf, int shift) {
+            int bit = 1 << ((leaf.hash >>> shift) & MASK);
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = leaf;
+                System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+                return new BitmapNode(bitmap | bit, newSlots);
+            }
+
+            Object slot = slots[index];
+            Object newSlot;
+            if (slot instanceof Leaf) {
+                Leaf<?, ?> existing = (Leaf<?, ?>) slot;
+                if (existing.matches(leaf.hash, leaf.getKey())) {
+                    newSlot = leaf;
+                } else if (existing.hash == leaf.hash) {
+                    newSlot = new CollisionNode(leaf.hash, new Leaf<?, ?>[]{existing, leaf});
+                } else {
+                    newSlot = pair(shift + BITS, existing.hash, existing, leaf.hash, leaf);
+                }
+            } else {
+                newSlot = ((Node) slot).plus(leaf, shift + BITS);
+            }
+            Object[] newSlots = slots.clone();
+            newSlots[index] = newSlot;
+            return new BitmapNode(bitmap, newSlots);
+        }
+
+        @Override
+        Node minus(int hash, Object key, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            Object slot = slots[index];
+            Object newSlot = null;
+            if (slot instanceof Node) {
+                Node newNode = ((Node) slot).minus(hash, key, shift + BITS);
+                // a sub-node left with a single leaf is replaced by the leaf itself
+                Leaf<?, ?> single = newNode == null ? null : newNode.single();
+                newSlot = single != null ? single : newNode;
+            }
+            if (newSlot != null) {
+                Object[] newSlots = slots.clone();
+                newSlots[index] = newSlot;
+                return new BitmapNode(bitmap, newSlots);
+            }
+            if (slots.length == 1) {
+                return null;
+            }
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+            return new BitmapNode(bitmap & ~bit, newSlots);
+        }
+
+        @Override
+        Leaf<?, ?> single() {
+            return slots.length == 1 && slots[0] instanceof Leaf ? (Leaf<?, ?>) slots[0] : null;
+        }
+    }
+
+    private static final class CollisionNode extends Node {
+        final int hash;
+        final Leaf<?, ?>[] leaves;
+
+        CollisionNode(int hash, Leaf<?, ?>[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        <K, V> Leaf<K, V> find(int hash, Object key, int shift) {
+            if (hash != this.hash) {
+                return null;
+            }
+            for (Leaf<?, ?> leaf : leaves) {
+                if (Objects.equals(leaf.getKey(), key)) {
+                    return (Leaf<K, V>) leaf;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        <K, V> Node plus(Leaf<K, V> leaf, int shift) {
+            if (leaf.hash != hash) {
+                return BitmapNode.pair(shift, hash, this, leaf.hash, leaf);
+            }
+            for (int i = 0; i < leaves.length; i++) {
+                if (Objects.equals(leaves[i].getKey(), leaf.getKey())) {
+                    Leaf<?, ?>[] newLeaves = leaves.clone();
+                    newLeaves[i] = leaf;
+                    return new CollisionNode(hash, newLeaves);
+                }
+            }
+            Leaf<?, ?>[] newLeaves = Arrays.copyOf(leaves, leaves.length + 1);
+            newLeaves[leaves.length] = leaf;
+            return new CollisionNode(hash, newLeaves);
+        }
+
+        @Override
+        Node minus(int hash, Object key, int shift) {
+            Leaf<?, ?>[] newLeaves = new Leaf<?, ?>[leaves.length - 1];
+            int j = 0;
+            for (Leaf<?, ?> leaf : leaves) {
+                if (!Objects.equals(leaf.getKey(), key)) {
+                    newLeaves[j++] = leaf;
+                }
+            }
+            return new CollisionNode(hash, newLeaves);
+        }
+
+        @Override
+        Leaf<?, ?> single() {
+            return leaves.length == 1 ? leaves[0] : null;
+        }
+    }
+
+    private static final class LeafIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        // depth-first traversal: at most 7 bitmap levels plus a collision level
+        private final Object[][] arrays = new Object[8][];
+        private final int[] positions = new int[8];
+        private int depth;
+        private Leaf<K, V> next;
+
+        LeafIterator(Node root) {
+            arrays[0] = slotsOf(root);
+            advance();
+        }
+
+        private static Object[] slotsOf(Node node) {
+            return node instanceof BitmapNode ? ((BitmapNode) node).slots : ((CollisionNode) node).leaves;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Object[] array = arrays[depth];
+                if (positions[depth] == array.length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = array[positions[depth]++];
+                if (slot instanceof Leaf) {
+                    next = (Leaf<K, V>) slot;
+                    return;
+                }
+                depth++;
+                arrays[depth] = slotsOf((Node) slot);
+                positions[depth] = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            Leaf<K, V> leaf = next;
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return leaf;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package contracts;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers which {@code @Pure} postconditions of a contract-checked map held, keyed by the
+ * predicate, the modification version of the map (see {@link MapContracts#state_version()}) and
+ * the identity of the arguments. A predicate that only reads the current state and its arguments
+ * is then evaluated at most once per state and arguments: repeated calls to {@code keySet()} or
+ * {@code containsKey(key)} between two writes skip their postconditions.
+ *
+ * <p>Only predicates that held are remembered: a predicate that does not hold fails the call
+ * anyway. Arguments are compared by identity, like the values in the predicates, so that a memo
+ * hit never depends on an {@code equals} that could change.
+ *
+ * <p>The memo holds a bounded number of entries in sets of {@value #WAYS}. A new entry replaces an
+ * entry of an older version first, since versions only grow and such an entry can never be hit
+ * again, and the least recently used entry of its set otherwise. Looking up allocates nothing;
+ * only remembering a new entry does. The memo is safe for concurrent use: a lost update only
+ * costs a later re-evaluation.
+ */
+public final class PredicateMemo {
+
+    private static final int WAYS = 4;
+
+    private final AtomicReferenceArray<Held> entries;
+    private final int setMask;
+    private long clock; // racy on purpose: recency only needs to be approximate
+
+    /**
+     * Creates a memo of at least {@code capacity} entries, rounded up to a power of two.
+     */
+    PredicateMemo(int capacity) {
+        int sets = Integer.highestOneBit(Math.max(capacity / WAYS, 1) * 2 - 1);
+        this.entries = new AtomicReferenceArray<>(sets * WAYS);
+        this.setMask = sets - 1;
+    }
+
+    /**
+     * Returns whether the predicate held at {@code version} for the same arguments.
+     */
+    boolean held(String predicate, long version, Object a, Object b, Object c) {
+        if (version < 0) {
+            return false; // the state is not versioned
+        }
+        int base = set(predicate, version, a, b, c);
+        for (int i = base; i < base + WAYS; i++) {
+            Held held = entries.get(i);
+            if (held != null && held.matches(predicate, version, a, b, c)) {
+                held.used = ++clock;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remembers that the predicate held at {@code version}, which must have been read before the
+     * predicate was evaluated.
+     */
+    void hold(String predicate, long version, Object a, Object b, Object c) {
+        if (version < 0) {
+            return;
+        }
+        int base = set(predicate, version, a, b, c);
+        int victim = base;
+        long oldest = Long.MAX_VALUE;
+        for (int i = base; i < base + WAYS; i++) {
+            Held held = entries.get(i);
+            if (held == null || held.version < version) {
+                victim = i;
+                break;
+            }
+            if (held.used < oldest) {
+                oldest = held.used;
+                victim = i;
+            }
+        }
+        Held held = new Held(predicate, version, a, b, c);
+        held.used = ++clock;
+        entries.set(victim, held);
+    }
+
+    private int set(String predicate, long version, Object a, Object b, Object c) {
+        int h = predicate.hashCode();
+        h = h * 31 + Long.hashCode(version);
+        h = h * 31 + System.identityHashCode(a);
+        h = h * 31 + System.identityHashCode(b);
+        h = h * 31 + System.identityHashCode(c);
+        h ^= h >>> 16;
+        return (h & setMask) * WAYS;
+    }
+
+    private static final class Held {
+        final String predicate;
+        final long version;
+        final Object a;
+        final Object b;
+        final Object c;
+        long used;
+
+        Held(String predicate, long version, Object a, Object b, Object c) {
+            this.predicate = predicate;
+            this.version = version;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+        boolean matches(String predicate, long version, Object a, Object b, Object c) {
+            return this.version == version && this.a == a && this.b == b && this.c == c
+                    && (this.predicate == predicate || this.predicate.equals(predicate));
+        }
+    }
+}
@@ -0,0 +1,616 @@
+package contracts;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * A contract-checked map stored flat in parallel arrays of keys, values and hash codes, with open
+ * addressing and Robin Hood hashing: on insertion, a key probing past a slot whose key is closer
+ * to its home slot takes that slot and pushes the other key further on. Probe lengths thus stay
+ * short and even, and a lookup stops as soon as it reaches a key closer to its home than the
+ * looked-up one would be.
+ *
+ * <p>A removal shifts the following keys of the cluster back by one slot, so the table holds no
+ * tombstones. The table is at most seven eighths full, and doubles when an insertion moves a key
+ * more than 32 slots from its home while the table is at least half full. A lookup walks
+ * adjacent slots of three arrays rather than a chain of nodes. A slot costs 12 bytes with
+ * compressed references, so an entry costs 14 to 28 bytes, against about 40 for the node and
+ * the table slot of a {@code HashMap}.
+ *
+ * <p>Null keys and values are supported. The iterators of the views return entries implementing
+ * {@link MapContracts.Entry}, which write through to the map.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class RobinHoodMapContracts<K, V> extends AbstractMap<K, V> implements MapContracts<K, V> {
+
+    private static final Object NULL_KEY = new Object(); // the null key, since a null slot is free
+
+    private static final int PROBE_LIMIT = 32;
+    private static final int MIN_CAPACITY = 8;
+
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes;
+    private int shift; // 32 - log2(capacity): the home slot of a hash is the top bits of its product
+    private int size;
+    private int modCount;
+
+    private long version;
+
+    private ContractSampler contractSampler; // null: use the global sampler
+    private Map<K, V> oldState;
+    private final KeyDelta<V> oldDelta = new KeyDelta<>(this);
+    private final InvariantCache invariantCache = new InvariantCache();
+    private final PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private Set<Map.Entry<K, V>> entrySetView;
+
+    /**
+     * Creates an empty map.
+     */
+    public RobinHoodMapContracts() {
+        this(0);
+    }
+
+    /**
+     * Creates an empty map holding {@code expectedSize} entries without resizing.
+     *
+     * @param expectedSize the number of entries to make room for
+     */
+    public RobinHoodMapContracts(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    private RobinHoodMapContracts(RobinHoodMapContracts<K, V> map) {
+        keys = map.keys.clone();
+        values = map.values.clone();
+        hashes = map.hashes.clone();
+        shift = map.shift;
+        size = map.size;
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public boolean supports_null_items() {
+        return true;
+    }
+
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    @Override
+    public long state_version() {
+        return version;
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public Map<K, V> old_state() {
+        return oldState;
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta;
+    }
+
+    private void captureOldState() {
+        if (!oldDelta.sample() || !ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS)) {
+            oldState = null; // the postconditions of the call are skipped
+            return;
+        }
+        oldState = new RobinHoodMapContracts<>(this); // three array copies, sharing the keys and values
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Implementations       ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = Math.max(MIN_CAPACITY, Long.highestOneBit(expectedSize * 8L / 7 + 1) * 2);
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Too many entries: " + expectedSize);
+        }
+        return (int) capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    private static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K unmaskNull(Object key) {
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    private static int hash(Object key) {
+        return key == null ? 0 : key.hashCode();
+    }
+
+    private int home(int hash) {
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * Returns how far the key of the full {@code slot} is from its home slot.
+     */
+    private int distance(int slot) {
+        return (slot - home(hashes[slot])) & (keys.length - 1);
+    }
+
+    /**
+     * Returns the slot of {@code key}, or -1 if it is not mapped.
+     */
+    private int slot(Object key) {
+        Object k = maskNull(key);
+        int hash = hash(key);
+        int mask = keys.length - 1;
+        for (int i = home(hash), d = 0; ; i = (i + 1) & mask, d++) {
+            Object slotKey = keys[i];
+            if (slotKey == null || distance(i) < d) {
+                return -1; // the key would have taken this slot
+            }
+            if (hashes[i] == hash && (slotKey == k || k.equals(slotKey))) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Maps {@code key}, known not to be mapped, to {@code value}.
+     */
+    private void insert(K key, V value) {
+        if (size + 1 > keys.length - (keys.length >>> 3)) {
+            resize(keys.length << 1);
+        }
+        int probe = place(maskNull(key), value, hash(key));
+        size++;
+        modCount++;
+        version++;
+        if (probe > PROBE_LIMIT && size >= keys.length >>> 1) {
+            resize(keys.length << 1);
+        }
+    }
+
+    /**
+     * Stores a key known not to be in the table, displacing the keys closer to their home slot
+     * than it is to its own, and returns the longest distance a key was moved to.
+     */
+    private int place(Object key, Object value, int hash) {
+        int mask = keys.length - 1;
+        int longest = 0;
+        for (int i = home(hash), d = 0; ; i = (i + 1) & mask, d++) {
+            if (keys[i] == null) {
+                keys[i] = key;
+                values[i] = value;
+                hashes[i] = hash;
+                return Math.max(longest, d);
+            }
+            int slotDistance = distance(i);
+            if (slotDistance < d) {
+                Object displacedKey = keys[i];
+                Object displacedValue = values[i];
+                int displacedHash = hashes[i];
+                keys[i] = key;
+                values[i] = value;
+                hashes[i] = hash;
+                key = displacedKey;
+                value = displacedValue;
+                hash = displacedHash;
+                longest = Math.max(longest, d);
+                d = slotDistance;
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        if (capacity > 1 << 30) {
+            throw new IllegalStateException("Map too large");
+        }
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                place(oldKeys[j], oldValues[j], oldHashes[j]);
+            }
+        }
+    }
+
+    /**
+     * Removes the entry of {@code slot}, shifting the rest of its cluster back by one slot.
+     */
+    private void removeAt(int slot) {
+        int mask = keys.length - 1;
+        int i = slot;
+        for (int j = (i + 1) & mask; keys[j] != null && distance(j) > 0; i = j, j = (j + 1) & mask) {
+            keys[i] = keys[j];
+            values[i] = values[j];
+            hashes[i] = hashes[j];
+        }
+        keys[i] = null;
+        values[i] = null;
+        size--;
+        modCount++;
+        version++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    private void setValueAt(int slot, V value) {
+        values[slot] = value;
+        version++;
+    }
+
+    // ==========================================================================================
+    // ==========================================================================================
+    // ==========================================================================================
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        int slot = slot(key);
+        return slot >= 0 ? valueAt(slot) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return slot(key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null && Objects.equals(value, values[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int slot = slot(key);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            insert(key, value);
+            return null;
+        }
+        V oldValue = valueAt(slot);
+        oldDelta.record(key, size, true, oldValue);
+        setValueAt(slot, value);
+        return oldValue;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        captureOldState();
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(WriteBatch<? extends K, ? extends V> batch) {
+        batch.expect(size, this::containsKey);
+        for (Map.Entry<? extends K, Object> write : batch.writes()) {
+            if (WriteBatch.removes(write.getValue())) {
+                remove(write.getKey());
+            } else {
+                put(write.getKey(), (V) write.getValue());
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        int slot = slot(key);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        V oldValue = valueAt(slot);
+        oldDelta.record(key, size, true, oldValue);
+        removeAt(slot);
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        oldDelta.sample();
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        size = 0;
+        modCount++;
+        version++;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> view = entrySetView;
+        if (view == null) {
+            entrySetView = view = new EntrySet();
+        }
+        return view;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        int slot = slot(key);
+        return slot >= 0 ? valueAt(slot) : defaultValue;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        int slot = slot(key);
+        if (slot >= 0) {
+            V oldValue = valueAt(slot);
+            oldDelta.record(key, size, true, oldValue);
+            return oldValue;
+        }
+        oldDelta.record(key, size, false, null);
+        insert(key, value);
+        return null;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int slot = slot(key);
+        V oldValue = slot >= 0 ? valueAt(slot) : null;
+        oldDelta.record(key, size, slot >= 0, oldValue);
+        if (slot < 0 || !Objects.equals(value, oldValue)) {
+            return false;
+        }
+        removeAt(slot);
+        return true;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        int slot = slot(key);
+        V value = slot >= 0 ? valueAt(slot) : null;
+        oldDelta.record(key, size, slot >= 0, value);
+        if (slot < 0 || !Objects.equals(oldValue, value)) {
+            return false;
+        }
+        setValueAt(slot, newValue);
+        return true;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        int slot = slot(key);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        V oldValue = valueAt(slot);
+        oldDelta.record(key, size, true, oldValue);
+        setValueAt(slot, value);
+        return oldValue;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        captureOldState();
+        int expectedModCount = modCount;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                V value = function.apply(unmaskNull(keys[i]), valueAt(i));
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                setValueAt(i, value);
+            }
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Views             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            int slot = slot(entry.getKey());
+            return slot >= 0 && Objects.equals(values[slot], entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            RobinHoodMapContracts.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            RobinHoodMapContracts.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        // the walk starts after a free slot, which no cluster crosses: a removal shifts the rest of
+        // its cluster back, onto the slot of the removed entry, but never across the start
+        private final int start;
+        private int next; // the offset of the next entry from the start, in 1..capacity
+        private int current = -1;
+        private int expectedModCount = modCount;
+
+        EntryIterator() {
+            int free = 0;
+            while (keys[free] != null) {
+                free++; // the table is never full
+            }
+            start = free;
+            next = advance(1);
+        }
+
+        private int advance(int from) {
+            int mask = keys.length - 1;
+            while (from <= keys.length && keys[(start + from) & mask] == null) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next <= keys.length;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next > keys.length) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = advance(next + 1);
+            return new Entry((start + current) & (keys.length - 1));
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt((start + current) & (keys.length - 1));
+            next = advance(current); // the next entry of the cluster, if any, moved to this slot
+            expectedModCount = modCount;
+            current = -1;
+        }
+    }
+
+    private final class Entry implements Map.Entry<K, V>, MapContracts.Entry<K, V> {
+        private final int slot;
+        private final Object key; // masked, as stored in the slot
+
+        Entry(int slot) {
+            this.slot = slot;
+            this.key = keys[slot];
+        }
+
+        @Override
+        public K getKey() {
+            return unmaskNull(key);
+        }
+
+        @Override
+        public V getValue() {
+            // the slot moves when a removal shifts its cluster back, or when the table is resized
+            return slot < keys.length && keys[slot] == key ? valueAt(slot) : RobinHoodMapContracts.this.get(getKey());
+        }
+
+        @Override
+        public V setValue(V value) {
+            return put(getKey(), value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return Objects.equals(getKey(), entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
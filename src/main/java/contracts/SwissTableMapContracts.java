@@ -0,0 +1,669 @@
+package contracts;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * A contract-checked map laid out as a Swiss table: open addressing over groups of 8 slots, each
+ * with a control byte that tells whether the slot is empty, deleted, or full with a key whose
+ * hash has a given 7-bit tag. The control bytes of a group are packed into one {@code long}, so
+ * a probe compares the tag of a key with the 8 slots of a group at once, with a few arithmetic
+ * and bitwise operations on that word (SWAR: SIMD within a register). Only the slots whose tag
+ * matches, 1 in 128 of the other keys on average, have their key compared.
+ *
+ * <p>A lookup of an absent key thus reads one control word per probed group, and in most cases
+ * stops at the first, which has an empty slot, without touching the keys or taking a
+ * data-dependent branch per slot. Groups are probed in triangular order, and the table is at
+ * most seven eighths full. Removed keys leave a tombstone behind unless their group has an empty
+ * slot, which stops every probe; the next resize clears them.
+ *
+ * <p>Null keys and values are supported. The iterators of the views return entries implementing
+ * {@link MapContracts.Entry}, which write through to the map.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public class SwissTableMapContracts<K, V> extends AbstractMap<K, V> implements MapContracts<K, V> {
+
+    private static final Object NULL_KEY = new Object(); // the null key, so that a key always has a hash
+
+    // the control bytes: a full slot holds the 7-bit tag of its key, with the high bit clear
+    private static final long EMPTY = 0x80;
+    private static final long DELETED = 0xFE;
+
+    private static final long LSBS = 0x0101010101010101L;
+    private static final long MSBS = 0x8080808080808080L;
+    private static final long ALL_EMPTY = EMPTY * LSBS;
+
+    private static final int GROUP = 8;
+    private static final int MIN_CAPACITY = GROUP;
+
+    private Object[] keys;
+    private Object[] values;
+    private long[] control; // the control bytes of group g, slot j in byte j of control[g]
+    private int shift; // 64 - log2(groups): the first group of a hash is its top bits
+    private int size;
+    private int filled; // the slots that are not empty: the entries and the tombstones
+    private int modCount;
+
+    private long version;
+
+    private ContractSampler contractSampler; // null: use the global sampler
+    private Map<K, V> oldState;
+    private final KeyDelta<V> oldDelta = new KeyDelta<>(this);
+    private final InvariantCache invariantCache = new InvariantCache();
+    private final PredicateMemo predicateMemo = new PredicateMemo(64);
+
+    private Set<Map.Entry<K, V>> entrySetView;
+
+    /**
+     * Creates an empty map.
+     */
+    public SwissTableMapContracts() {
+        this(0);
+    }
+
+    /**
+     * Creates an empty map holding {@code expectedSize} entries without resizing.
+     *
+     * @param expectedSize the number of entries to make room for
+     */
+    public SwissTableMapContracts(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+    private SwissTableMapContracts(SwissTableMapContracts<K, V> map) {
+        keys = map.keys.clone();
+        values = map.values.clone();
+        control = map.control.clone();
+        shift = map.shift;
+        size = map.size;
+        filled = map.filled;
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Helper Methods        ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    @Override
+    public boolean supports_null_items() {
+        return true;
+    }
+
+    @Override
+    public ContractSampler contract_sampler() {
+        ContractSampler sampler = contractSampler;
+        return sampler != null ? sampler : ContractSampler.global();
+    }
+
+    /**
+     * Sets the sampler deciding which calls have their contracts checked on this map.
+     *
+     * @param sampler the sampler of this map, or {@code null} to use the global sampler
+     */
+    public void setContractSampler(ContractSampler sampler) {
+        this.contractSampler = sampler;
+    }
+
+    @Override
+    public long state_version() {
+        return version;
+    }
+
+    @Override
+    public InvariantCache invariant_cache() {
+        return invariantCache;
+    }
+
+    @Override
+    public PredicateMemo predicate_memo() {
+        return predicateMemo;
+    }
+
+    @Override
+    public Map<K, V> old_state() {
+        return oldState;
+    }
+
+    @Override
+    public KeyDelta<V> old_delta() {
+        return oldDelta;
+    }
+
+    private void captureOldState() {
+        if (!oldDelta.sample() || !ContractLevels.enabled(getClass(), ContractLevel.POSTCONDITIONS)) {
+            oldState = null; // the postconditions of the call are skipped
+            return;
+        }
+        oldState = new SwissTableMapContracts<>(this); // three array copies, sharing the keys and values
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================             SWAR             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * Returns a mask with the high bit of every byte of {@code word} equal to {@code tag} set,
+     * and possibly of a few others above such a byte, which the caller rules out by comparing
+     * keys.
+     */
+    private static long matchTag(long word, int tag) {
+        long x = word ^ (tag * LSBS);
+        return (x - LSBS) & ~x & MSBS;
+    }
+
+    /**
+     * Returns a mask with the high bit of every empty byte of {@code word} set: the bytes with
+     * their high bit set and their second lowest bit clear.
+     */
+    private static long matchEmpty(long word) {
+        return word & (~word << 6) & MSBS;
+    }
+
+    /**
+     * Returns a mask with the high bit of every empty or deleted byte of {@code word} set: the
+     * bytes with their high bit set and their lowest bit clear.
+     */
+    private static long matchFree(long word) {
+        return word & ~(word << 7) & MSBS;
+    }
+
+    /**
+     * Returns the slot, within its group, of the lowest byte set in {@code mask}.
+     */
+    private static int lowestByte(long mask) {
+        return Long.numberOfTrailingZeros(mask) >>> 3;
+    }
+
+    private static long withByte(long word, int j, long value) {
+        return word & ~(0xFFL << (j << 3)) | value << (j << 3);
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Implementations       ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = Math.max(MIN_CAPACITY, Long.highestOneBit(expectedSize * 8L / 7 + 1) * 2);
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Too many entries: " + expectedSize);
+        }
+        return (int) capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        control = new long[capacity / GROUP];
+        Arrays.fill(control, ALL_EMPTY);
+        shift = Long.numberOfLeadingZeros(control.length) + 1;
+        filled = size;
+    }
+
+    private static Object maskNull(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K unmaskNull(Object key) {
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    /**
+     * Spreads the hash code of {@code key} over 64 bits: the top bits pick the first group to
+     * probe, and the bits below them, which the groups never use, the tag.
+     */
+    private static long hash(Object key) {
+        return (key == null ? 0 : key.hashCode()) * 0x9E3779B97F4A7C15L;
+    }
+
+    private static int tag(long hash) {
+        return (int) (hash >>> 30) & 0x7F;
+    }
+
+    private int firstGroup(long hash) {
+        return shift == 64 ? 0 : (int) (hash >>> shift);
+    }
+
+    private boolean isFull(int slot) {
+        return (control[slot / GROUP] >>> ((slot % GROUP) << 3) & EMPTY) == 0;
+    }
+
+    private void setControl(int slot, long value) {
+        int g = slot / GROUP;
+        control[g] = withByte(control[g], slot % GROUP, value);
+    }
+
+    /**
+     * Returns the slot of {@code key}, or -1 if it is not mapped.
+     */
+    private int slot(Object key) {
+        Object k = maskNull(key);
+        long hash = hash(key);
+        int tag = tag(hash);
+        int mask = control.length - 1;
+        for (int g = firstGroup(hash), step = 1; ; g = (g + step++) & mask) {
+            long word = control[g];
+            for (long m = matchTag(word, tag); m != 0; m &= m - 1) {
+                int slot = g * GROUP + lowestByte(m);
+                Object slotKey = keys[slot];
+                if (slotKey == k || slotKey != null && k.equals(slotKey)) {
+                    return slot;
+                }
+            }
+            if (matchEmpty(word) != 0) {
+                return -1; // the key would have been stored in this group
+            }
+        }
+    }
+
+    /**
+     * Returns the first empty or deleted slot of the probe sequence of {@code hash}.
+     */
+    private int freeSlot(long hash) {
+        int mask = control.length - 1;
+        for (int g = firstGroup(hash), step = 1; ; g = (g + step++) & mask) {
+            long m = matchFree(control[g]);
+            if (m != 0) {
+                return g * GROUP + lowestByte(m);
+            }
+        }
+    }
+
+    /**
+     * Maps {@code key}, known not to be mapped, to {@code value}.
+     */
+    private void insert(K key, V value) {
+        if (filled + 1 > keys.length - (keys.length >>> 3)) {
+            // grow if the entries fill more than half of the table, and only clear the tombstones otherwise
+            resize(size + 1 > keys.length >>> 1 ? keys.length << 1 : keys.length);
+        }
+        long hash = hash(key);
+        int slot = freeSlot(hash);
+        if (!isDeleted(slot)) {
+            filled++;
+        }
+        keys[slot] = maskNull(key);
+        values[slot] = value;
+        setControl(slot, tag(hash));
+        size++;
+        modCount++;
+        version++;
+    }
+
+    private boolean isDeleted(int slot) {
+        return (control[slot / GROUP] >>> ((slot % GROUP) << 3) & 0xFF) == DELETED;
+    }
+
+    private void resize(int capacity) {
+        if (capacity > 1 << 30) {
+            throw new IllegalStateException("Map too large");
+        }
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        long[] oldControl = control;
+        allocate(capacity);
+        for (int g = 0; g < oldControl.length; g++) {
+            for (long m = ~oldControl[g] & MSBS; m != 0; m &= m - 1) {
+                int j = g * GROUP + lowestByte(m);
+                Object key = oldKeys[j];
+                long hash = hash(unmaskNull(key));
+                int slot = freeSlot(hash);
+                keys[slot] = key;
+                values[slot] = oldValues[j];
+                setControl(slot, tag(hash));
+            }
+        }
+    }
+
+    private void removeAt(int slot) {
+        // a probe only leaves a group that has no empty slot: if this one has, no probe passes it
+        if (matchEmpty(control[slot / GROUP]) != 0) {
+            setControl(slot, EMPTY);
+            filled--;
+        } else {
+            setControl(slot, DELETED);
+        }
+        keys[slot] = null;
+        values[slot] = null;
+        size--;
+        modCount++;
+        version++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    private void setValueAt(int slot, V value) {
+        values[slot] = value;
+        version++;
+    }
+
+    // ==========================================================================================
+    // ==========================================================================================
+    // ==========================================================================================
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        int slot = slot(key);
+        return slot >= 0 ? valueAt(slot) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return slot(key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null && Objects.equals(value, values[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int slot = slot(key);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            insert(key, value);
+            return null;
+        }
+        V oldValue = valueAt(slot);
+        oldDelta.record(key, size, true, oldValue);
+        setValueAt(slot, value);
+        return oldValue;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        captureOldState();
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(WriteBatch<? extends K, ? extends V> batch) {
+        batch.expect(size, this::containsKey);
+        for (Map.Entry<? extends K, Object> write : batch.writes()) {
+            if (WriteBatch.removes(write.getValue())) {
+                remove(write.getKey());
+            } else {
+                put(write.getKey(), (V) write.getValue());
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        int slot = slot(key);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        V oldValue = valueAt(slot);
+        oldDelta.record(key, size, true, oldValue);
+        removeAt(slot);
+        return oldValue;
+    }
+
+    @Override
+    public void clear() {
+        oldDelta.sample();
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        Arrays.fill(control, ALL_EMPTY);
+        size = 0;
+        filled = 0;
+        modCount++;
+        version++;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> view = entrySetView;
+        if (view == null) {
+            entrySetView = view = new EntrySet();
+        }
+        return view;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        int slot = slot(key);
+        return slot >= 0 ? valueAt(slot) : defaultValue;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        int slot = slot(key);
+        if (slot >= 0) {
+            V oldValue = valueAt(slot);
+            oldDelta.record(key, size, true, oldValue);
+            return oldValue;
+        }
+        oldDelta.record(key, size, false, null);
+        insert(key, value);
+        return null;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int slot = slot(key);
+        V oldValue = slot >= 0 ? valueAt(slot) : null;
+        oldDelta.record(key, size, slot >= 0, oldValue);
+        if (slot < 0 || !Objects.equals(value, oldValue)) {
+            return false;
+        }
+        removeAt(slot);
+        return true;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        int slot = slot(key);
+        V value = slot >= 0 ? valueAt(slot) : null;
+        oldDelta.record(key, size, slot >= 0, value);
+        if (slot < 0 || !Objects.equals(oldValue, value)) {
+            return false;
+        }
+        setValueAt(slot, newValue);
+        return true;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        int slot = slot(key);
+        if (slot < 0) {
+            oldDelta.record(key, size, false, null);
+            return null;
+        }
+        V oldValue = valueAt(slot);
+        oldDelta.record(key, size, true, oldValue);
+        setValueAt(slot, value);
+        return oldValue;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        captureOldState();
+        int expectedModCount = modCount;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                V value = function.apply(unmaskNull(keys[i]), valueAt(i));
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                setValueAt(i, value);
+            }
+        }
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================            Views             ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            int slot = slot(entry.getKey());
+            return slot >= 0 && Objects.equals(values[slot], entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) {
+                return false;
+            }
+            SwissTableMapContracts.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            SwissTableMapContracts.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        // removing a mapping never moves another one, so the slots are stable while iterating
+        private int next = advance(0);
+        private int current = -1;
+        private int expectedModCount = modCount;
+
+        private int advance(int from) {
+            while (from < keys.length && !isFull(from)) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < keys.length;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= keys.length) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = advance(next + 1);
+            return new Entry(current);
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(current);
+            expectedModCount = modCount;
+            current = -1;
+        }
+    }
+
+    private final class Entry implements Map.Entry<K, V>, MapContracts.Entry<K, V> {
+        private final int slot;
+        private final Object key; // masked, as stored in the slot
+
+        Entry(int slot) {
+            this.slot = slot;
+            this.key = keys[slot];
+        }
+
+        @Override
+        public K getKey() {
+            return unmaskNull(key);
+        }
+
+        @Override
+        public V getValue() {
+            // the slot moves when the table is resized
+            return slot < keys.length && keys[slot] == key ? valueAt(slot) : SwissTableMapContracts.this.get(getKey());
+        }
+
+        @Override
+        public V setValue(V value) {
+            return put(getKey(), value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return Objects.equals(getKey(), entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package contracts;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Key, value and entry views of a contract-checked map that report every change made through
+ * them to the {@link WriteTracker} of the map.
+ *
+ * <p>Removals through the views go through the map itself, except for removals through an
+ * iterator: for maps that are not concurrent, the iterator of the raw view removes the entry and
+ * the change is reported here; for concurrent maps, the key is removed through the map, whose
+ * iterators never throw {@link java.util.ConcurrentModificationException}. Likewise, the entries
+ * of a concurrent map already write through {@code Map.put}, so they are not wrapped.
+ */
+final class TrackedViews {
+
+    private TrackedViews() {
+    }
+
+    static <K, V> Set<K> keySet(Map<K, V> map, Set<Map.Entry<K, V>> entries,
+                                WriteTracker<K, V> tracker, boolean concurrent) {
+        return new KeySet<>(map, entries, tracker, concurrent);
+    }
+
+    static <K, V> Collection<V> values(Map<K, V> map, Set<Map.Entry<K, V>> entries,
+                                       WriteTracker<K, V> tracker, boolean concurrent) {
+        return new Values<>(map, entries, tracker, concurrent);
+    }
+
+    static <K, V> Set<Map.Entry<K, V>> entrySet(Map<K, V> map, Set<Map.Entry<K, V>> entries,
+                                                WriteTracker<K, V> tracker, boolean concurrent) {
+        return new EntrySet<>(map, entries, tracker, concurrent);
+    }
+
+    private abstract static class TrackedIterator<K, V, T> implements Iterator<T> {
+        final Map<K, V> map;
+        final Iterator<Map.Entry<K, V>> iterator;
+        final WriteTracker<K, V> tracker;
+        final boolean concurrent;
+        Map.Entry<K, V> current;
+
+        TrackedIterator(Map<K, V> map, Set<Map.Entry<K, V>> entries, WriteTracker<K, V> tracker, boolean concurrent) {
+            this.map = map;
+            this.iterator = entries.iterator();
+            this.tracker = tracker;
+            this.concurrent = concurrent;
+        }
+
+        abstract T element(Map.Entry<K, V> entry);
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public T next() {
+            current = iterator.next();
+            return element(current);
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            K key = current.getKey();
+            if (concurrent) {
+                map.remove(key);
+            } else {
+                V value = current.getValue();
+                iterator.remove();
+                tracker.written(key, true, value, false, null);
+            }
+            current = null;
+        }
+    }
+
+    private static final class TrackedEntry<K, V> implements Map.Entry<K, V> {
+        private final Map.Entry<K, V> entry;
+        private final WriteTracker<K, V> tracker;
+
+        TrackedEntry(Map.Entry<K, V> entry, WriteTracker<K, V> tracker) {
+            this.entry = entry;
+            this.tracker = tracker;
+        }
+
+        @Override
+        public K getKey() {
+            return entry.getKey();
+        }
+
+        @Override
+        public V getValue() {
+            return entry.getValue();
+        }
+
+        @Override
+        public V setValue(V value) {
+            V oldValue = entry.setValue(value);
+            tracker.written(entry.getKey(), true, oldValue, true, value);
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return entry.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return entry.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return entry.toString();
+        }
+    }
+
+    private static final class KeySet<K, V> extends AbstractSet<K> {
+        private final Map<K, V> map;
+        private final Set<Map.Entry<K, V>> entries;
+        private final WriteTracker<K, V> tracker;
+        private final boolean concurrent;
+
+        KeySet(Map<K, V> map, Set<Map.Entry<K, V>> entries, WriteTracker<K, V> tracker, boolean concurrent) {
+            this.map = map;
+            this.entries = entries;
+            this.tracker = tracker;
+            this.concurrent = concurrent;
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new TrackedIterator<K, V, K>(map, entries, tracker, concurrent) {
+                @Override
+                K element(Map.Entry<K, V> entry) {
+                    return entry.getKey();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return map.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!map.containsKey(o)) {
+                return false;
+            }
+            map.remove(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+    }
+
+    private static final class Values<K, V> extends AbstractCollection<V> {
+        private final Map<K, V> map;
+        private final Set<Map.Entry<K, V>> entries;
+        private final WriteTracker<K, V> tracker;
+        private final boolean concurrent;
+
+        Values(Map<K, V> map, Set<Map.Entry<K, V>> entries, WriteTracker<K, V> tracker, boolean concurrent) {
+            this.map = map;
+            this.entries = entries;
+            this.tracker = tracker;
+            this.concurrent = concurrent;
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new TrackedIterator<K, V, V>(map, entries, tracker, concurrent) {
+                @Override
+                V element(Map.Entry<K, V> entry) {
+                    return entry.getValue();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return map.containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+    }
+
+    private static final class EntrySet<K, V> extends AbstractSet<Map.Entry<K, V>> {
+        private final Map<K, V> map;
+        private final Set<Map.Entry<K, V>> entries;
+        private final WriteTracker<K, V> tracker;
+        private final boolean concurrent;
+
+        EntrySet(Map<K, V> map, Set<Map.Entry<K, V>> entries, WriteTracker<K, V> tracker, boolean concurrent) {
+            this.map = map;
+            this.entries = entries;
+            this.tracker = tracker;
+            this.concurrent = concurrent;
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new TrackedIterator<K, V, Map.Entry<K, V>>(map, entries, tracker, concurrent) {
+                @Override
+                Map.Entry<K, V> element(Map.Entry<K, V> entry) {
+                    return concurrent ? entry : new TrackedEntry<>(entry, tracker);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return entries.contains(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return map.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+    }
+}
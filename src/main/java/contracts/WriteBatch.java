@@ -0,0 +1,142 @@
+package contracts;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A set of writes to apply to a contract-checked map at once, through
+ * {@link MapContracts#apply(WriteBatch)}.
+ *
+ * <p>Applying a batch checks the contracts once for the whole batch rather than once per write:
+ * the state before the call is captured in a single pass over the batch, without copying the
+ * map, and the postconditions validate every write in a single pass as well. A bulk load of
+ * {@code n} entries therefore costs {@code O(n)} contract checking, instead of a snapshot and an
+ * invariant check per entry when loading through {@code put} in a loop.
+ *
+ * <p>The last write to a key wins. A batch is not safe for concurrent use, and records the
+ * expected outcome of the map it is applied to: apply it to one map at a time.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public final class WriteBatch<K, V> {
+
+    private static final Object REMOVED = new Object(); // the write of a key to remove
+
+    private final Map<K, Object> writes = new HashMap<>();
+    private int expectedSize = -1;
+
+    /**
+     * Adds the mapping of {@code key} to {@code value}.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return this batch
+     */
+    public WriteBatch<K, V> put(K key, V value) {
+        writes.put(key, value);
+        return this;
+    }
+
+    /**
+     * Adds every mapping of {@code m}.
+     *
+     * @param m the mappings to add
+     * @return this batch
+     */
+    public WriteBatch<K, V> putAll(Map<? extends K, ? extends V> m) {
+        writes.putAll(m);
+        return this;
+    }
+
+    /**
+     * Adds the removal of the mapping of {@code key}.
+     *
+     * @param key the key
+     * @return this batch
+     */
+    public WriteBatch<K, V> remove(K key) {
+        writes.put(key, REMOVED);
+        return this;
+    }
+
+    /**
+     * Returns the number of keys written by this batch.
+     *
+     * @return the number of distinct keys written
+     */
+    public int size() {
+        return writes.size();
+    }
+
+    // ==========================================================================================
+    // ==============================                              ==============================
+    // ==============================        Implementations       ==============================
+    // ==============================                              ==============================
+    // ==========================================================================================
+
+    /**
+     * Returns the writes, by key: the value to map the key to, or a value for which
+     * {@link #removes} holds.
+     */
+    Set<Map.Entry<K, Object>> writes() {
+        return writes.entrySet();
+    }
+
+    /**
+     * Returns whether a write removes its key.
+     */
+    static boolean removes(Object write) {
+        return write == REMOVED;
+    }
+
+    /**
+     * Returns whether some key or written value is null.
+     */
+    boolean hasNullEntries() {
+        for (Map.Entry<K, Object> write : writes.entrySet()) {
+            if (write.getKey() == null || write.getValue() == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the size the map must have once this batch is applied, from its size and key
+     * membership before: the part of the old state the postconditions need.
+     */
+    void expect(int size, Predicate<Object> contains) {
+        for (Map.Entry<K, Object> write : writes.entrySet()) {
+            boolean contained = contains.test(write.getKey());
+            if (removes(write.getValue())) {
+                size -= contained ? 1 : 0;
+            } else {
+                size += contained ? 0 : 1;
+            }
+        }
+        expectedSize = size;
+    }
+
+    /**
+     * Returns whether {@code map} has the recorded size and reflects every write.
+     */
+    boolean appliedTo(MapContracts<?, ?> map) {
+        if (map.size() != expectedSize) {
+            return false;
+        }
+        for (Map.Entry<K, Object> write : writes.entrySet()) {
+            Object key = write.getKey();
+            Object value = write.getValue();
+            boolean applied = removes(value)
+                    ? !map.containsKey(key)
+                    : map.same_value(map.get(key), value) && (value != null || map.containsKey(key));
+            if (!applied) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
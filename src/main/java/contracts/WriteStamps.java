@@ -0,0 +1,95 @@
+package contracts;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the writes started and finished on each stripe of the keys of a concurrent map, so that
+ * a postcondition comparing the result of a read with a fresh read can tell a concurrent write
+ * from a wrong result, in constant time.
+ *
+ * <p>Writers call {@link #start} before and {@link #finish} after changing the mapping of a key
+ * (or {@link #startAll} and {@link #finishAll} around changes to any number of keys). A reader
+ * that saw {@code finished(key) == f} before its read and {@code started(key) == f} after its
+ * check knows that no write to the stripe of the key overlapped them.
+ *
+ * <p>A writer can also use them as a striped sequence lock over its own call: if no other write
+ * was in flight when it started ({@link #quiescent} or {@link #quiescentAll}), and no other write
+ * has started since, the state it observes after the call is the one the call left, for the key
+ * or for the whole map.
+ */
+final class WriteStamps {
+
+    static final int STRIPES = 32; // a power of two
+    private static final int PAD = 8; // longs per counter: one 64-byte cache line, against false sharing
+
+    private final AtomicLongArray started = new AtomicLongArray(STRIPES * PAD);
+    private final AtomicLongArray finished = new AtomicLongArray(STRIPES * PAD);
+
+    private static int index(Object key) {
+        int h = Objects.hashCode(key);
+        return ((h ^ (h >>> 16)) & (STRIPES - 1)) * PAD;
+    }
+
+    long started(Object key) {
+        return started.get(index(key));
+    }
+
+    long finished(Object key) {
+        return finished.get(index(key));
+    }
+
+    /**
+     * Returns the number of writes started on all stripes.
+     */
+    long startedAll() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES * PAD; i += PAD) {
+            sum += started.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns {@code started(key)} if no write to the stripe of the key is in flight but the
+     * caller's own, which must have started, and -1 otherwise.
+     */
+    long quiescent(Object key) {
+        int i = index(key);
+        long s = started.get(i);
+        return finished.get(i) == s - 1 ? s : -1;
+    }
+
+    /**
+     * Returns {@link #startedAll()} if no write is in flight but the caller's own, which must have
+     * started on {@code own} stripes ({@link #STRIPES} after {@link #startAll}), and -1 otherwise.
+     */
+    long quiescentAll(int own) {
+        long s = startedAll();
+        long f = 0;
+        for (int i = 0; i < STRIPES * PAD; i += PAD) {
+            f += finished.get(i);
+        }
+        return f == s - own ? s : -1;
+    }
+
+    void start(Object key) {
+        started.getAndIncrement(index(key));
+    }
+
+    void finish(Object key) {
+        finished.getAndIncrement(index(key));
+    }
+
+    void startAll() {
+        for (int i = 0; i < STRIPES * PAD; i += PAD) {
+            started.getAndIncrement(i);
+        }
+    }
+
+    void finishAll() {
+        for (int i = 0; i < STRIPES * PAD; i += PAD) {
+            finished.getAndIncrement(i);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package contracts;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * State of a contract-checked map that is maintained incrementally, on every change made to its
+ * mappings, so that contracts can read it in constant time instead of recomputing it from the
+ * whole map.
+ *
+ * <p>Implementations report every change through {@link #written}, from their own mutators as
+ * well as from the views returned by {@link TrackedViews}.
+ *
+ * @param <K> the type of keys of the tracked map
+ * @param <V> the type of values of the tracked map
+ */
+abstract class WriteTracker<K, V> {
+
+    /**
+     * Returns a tracker for a map that is not accessed concurrently.
+     */
+    static <K, V> WriteTracker<K, V> plain() {
+        return new Plain<>();
+    }
+
+    /**
+     * Returns a tracker that can be updated by several threads at once.
+     */
+    static <K, V> WriteTracker<K, V> concurrent() {
+        return new Concurrent<>();
+    }
+
+    /**
+     * Records a change to the mapping of {@code key}.
+     *
+     * @param key      the key whose mapping changed
+     * @param hadOld   whether the key was mapped before the change
+     * @param oldValue the value mapped before the change, if any
+     * @param hasNew   whether the key is mapped after the change
+     * @param newValue the value mapped after the change, if any
+     */
+    abstract void written(Object key, boolean hadOld, V oldValue, boolean hasNew, V newValue);
+
+    /**
+     * Records the removal of every mapping.
+     */
+    abstract void cleared();
+
+    /**
+     * Records a change to the mappings that is not reported through {@link #written} or
+     * {@link #cleared}, such as a bulk operation while no state is being maintained.
+     */
+    abstract void modified();
+
+    /**
+     * Returns the modification version of the map: a number that grows with every change
+     * reported to this tracker, after the change is made. Two equal reads of the version
+     * therefore mean that no change was reported in between.
+     */
+    abstract long version();
+
+    /**
+     * Returns whether any state is being maintained, that is, whether the map must report its
+     * changes one by one even where a bulk operation would be cheaper.
+     */
+    boolean active() {
+        return tracksEntryHashes() || snapshot() != null;
+    }
+
+    /**
+     * Returns whether the sum of the entry hash codes is being maintained.
+     */
+    abstract boolean tracksEntryHashes();
+
+    /**
+     * Starts or stops maintaining the sum of the entry hash codes, computing it from scratch from
+     * {@code map} when starting.
+     */
+    abstract void trackEntryHashes(Map<K, V> map, boolean enabled);
+
+    /**
+     * Returns the maintained sum of the entry hash codes, which is the hash code of the map.
+     */
+    abstract int entryHashSum();
+
+    /**
+     * Returns a persistent copy of the current mappings, or null if none is being maintained.
+     * The copy shares its structure with the previous ones, so taking it costs nothing.
+     */
+    abstract PersistentHashMap<K, V> snapshot();
+
+    /**
+     * Starts or stops maintaining a persistent copy of the mappings, initialized from {@code map}
+     * when starting.
+     */
+    abstract void trackSnapshots(Map<K, V> map, boolean enabled);
+
+    /**
+     * Returns an independent tracker with the same state, for a copy of the tracked map.
+     */
+    abstract WriteTracker<K, V> copy();
+
+    static int entryHash(Object key, Object value) {
+        return Objects.hashCode(key) ^ Objects.hashCode(value);
+    }
+
+    static int entryHashSum(Map<?, ?> map) {
+        int sum = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            sum += entry.hashCode();
+        }
+        return sum;
+    }
+
+    private static final class Plain<K, V> extends WriteTracker<K, V> {
+        private boolean entryHashes;
+        private int entryHashSum;
+        private PersistentHashMap<K, V> snapshot;
+        private long version;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void written(Object key, boolean hadOld, V oldValue, boolean hasNew, V newValue) {
+            if (entryHashes) {
+                entryHashSum += (hasNew ? entryHash(key, newValue) : 0) - (hadOld ? entryHash(key, oldValue) : 0);
+            }
+            if (snapshot != null) {
+                snapshot = hasNew ? snapshot.plus((K) key, newValue) : snapshot.minus(key);
+            }
+            version++;
+        }
+
+        @Override
+        void cleared() {
+            entryHashSum = 0;
+            if (snapshot != null) {
+                snapshot = PersistentHashMap.empty();
+            }
+            version++;
+        }
+
+        @Override
+        void modified() {
+            version++;
+        }
+
+        @Override
+        long version() {
+            return version;
+        }
+
+        @Override
+        boolean tracksEntryHashes() {
+            return entryHashes;
+        }
+
+        @Override
+        void trackEntryHashes(Map<K, V> map, boolean enabled) {
+            entryHashSum = enabled ? entryHashSum(map) : 0;
+            entryHashes = enabled;
+        }
+
+        @Override
+        int entryHashSum() {
+            return entryHashSum;
+        }
+
+        @Override
+        PersistentHashMap<K, V> snapshot() {
+            return snapshot;
+        }
+
+        @Override
+        void trackSnapshots(Map<K, V> map, boolean enabled) {
+            snapshot = enabled ? PersistentHashMap.copyOf(map) : null;
+        }
+
+        @Override
+        WriteTracker<K, V> copy() {
+            Plain<K, V> copy = new Plain<>();
+            copy.entryHashes = entryHashes;
+            copy.entryHashSum = entryHashSum;
+            copy.snapshot = snapshot; // immutable: can be shared
+            copy.version = version;
+            return copy;
+        }
+    }
+
+    private static final class Concurrent<K, V> extends WriteTracker<K, V> {
+        private volatile boolean entryHashes;
+        // int arithmetic wraps around, so the low 32 bits of the long sum are the int sum
+        private final LongAdder entryHashSum = new LongAdder();
+        // striped, so that writers do not contend on it; only ever incremented, so that two equal
+        // sums mean that no increment completed in between
+        private final LongAdder version = new LongAdder();
+
+        @Override
+        void written(Object key, boolean hadOld, V oldValue, boolean hasNew, V newValue) {
+            if (entryHashes) {
+                entryHashSum.add((hasNew ? entryHash(key, newValue) : 0) - (hadOld ? entryHash(key, oldValue) : 0));
+            }
+            version.increment();
+        }
+
+        @Override
+        void cleared() {
+            entryHashSum.reset();
+            version.increment();
+        }
+
+        @Override
+        void modified() {
+            version.increment();
+        }
+
+        @Override
+        long version() {
+            return version.sum();
+        }
+
+        @Override
+        boolean tracksEntryHashes() {
+            return entryHashes;
+        }
+
+        @Override
+        void trackEntryHashes(Map<K, V> map, boolean enabled) {
+            entryHashSum.reset();
+            if (enabled) {
+                entryHashSum.add(entryHashSum(map));
+            }
+            entryHashes = enabled;
+        }
+
+        @Override
+        int entryHashSum() {
+            return (int) entryHashSum.sum();
+        }
+
+        @Override
+        PersistentHashMap<K, V> snapshot() {
+            return null;
+        }
+
+        @Override
+        void trackSnapshots(Map<K, V> map, boolean enabled) {
+            // concurrent writers could publish their changes to a shared persistent copy out of order
+            throw new UnsupportedOperationException("persistent snapshots of a concurrent map");
+        }
+
+        @Override
+        WriteTracker<K, V> copy() {
+            Concurrent<K, V> copy = new Concurrent<>();
+            copy.entryHashes = entryHashes;
+            copy.entryHashSum.add(entryHashSum.sum());
+            copy.version.add(version.sum());
+            return copy;
+        }
+    }
+}
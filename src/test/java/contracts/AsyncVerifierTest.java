@@ -0,0 +1,131 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class AsyncVerifierTest {
+
+    @Test
+    void verifiesSingleKeyMutators() throws InterruptedException {
+        List<ContractViolation> violations = new CopyOnWriteArrayList<>();
+        try (AsyncVerifier verifier = new AsyncVerifier(1024, 1, violations::add, true)) {
+            HashMapContracts<String, Integer> map = new HashMapContracts<>();
+            map.setAsyncVerifier(verifier);
+            assertTrue(map.skip_postcondition("contains_entry"));
+
+            map.put("a", 1);
+            map.put("a", 2);
+            map.putIfAbsent("b", 3);
+            map.putIfAbsent("b", 4);
+            map.replace("a", 5);
+            map.replace("missing", 6);
+            map.replace("a", 5, 7);
+            map.replace("a", 5, 8);
+            map.remove("b", 4);
+            map.remove("b", 3);
+            map.remove("a");
+            map.remove("missing");
+
+            assertTrue(verifier.awaitIdle(10, TimeUnit.SECONDS));
+            assertEquals(12, verifier.published());
+            assertEquals(12, verifier.verified() + verifier.dropped());
+            assertEquals(0, verifier.violations());
+            assertTrue(violations.isEmpty());
+
+            map.setAsyncVerifier(null);
+            assertFalse(map.skip_postcondition("contains_entry"));
+        }
+    }
+
+    @Test
+    void verifiesConcurrentMapCalls() throws InterruptedException {
+        List<ContractViolation> violations = new CopyOnWriteArrayList<>();
+        try (AsyncVerifier verifier = new AsyncVerifier(1 << 16, 1, violations::add, false)) {
+            ConcurrentHashMapContracts<Integer, Integer> map = new ConcurrentHashMapContracts<>();
+            map.setAsyncVerifier(verifier);
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        Integer key = i & 127;
+                        Integer value = i; // boxed once: the postconditions compare values by identity
+                        Integer newValue = i + 1;
+                        map.put(key, value);
+                        map.replace(key, value, newValue);
+                        map.remove(key, newValue);
+                    }
+                });
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            map.put(1, 1); // alone: always published
+
+            assertTrue(verifier.awaitIdle(10, TimeUnit.SECONDS));
+            assertTrue(verifier.published() > 0);
+            assertEquals(0, verifier.violations());
+            assertTrue(violations.isEmpty());
+        }
+    }
+
+    @Test
+    void reportsViolationWithCallSite() throws InterruptedException {
+        List<ContractViolation> violations = new CopyOnWriteArrayList<>();
+        try (AsyncVerifier verifier = new AsyncVerifier(16, 1, violations::add, true)) {
+            KeyDelta<Object> before = new KeyDelta<>();
+            before.record("a", 0, false, null);
+            StackTraceElement[] callSite = AsyncVerifier.callSite(HashMapContracts.class);
+            // a put that returned a previous value although the key was absent, and left the key unmapped
+            verifier.publish(new AsyncVerifier.Call(AsyncVerifier.Operation.PUT, HashMapContracts.class,
+                    "a", 1, null, 0, before, 0, false, null, callSite));
+
+            assertTrue(verifier.awaitIdle(10, TimeUnit.SECONDS));
+            assertEquals(1, verifier.violations());
+            ContractViolation violation = violations.get(0);
+            assertEquals("contains_entry", violation.predicate());
+            assertEquals("put", violation.method());
+            assertEquals(AsyncVerifierTest.class.getName(), violation.getStackTrace()[0].getClassName());
+        }
+    }
+
+    @Test
+    void dropsWhenQueueIsFull() throws InterruptedException {
+        AsyncVerifier verifier = new AsyncVerifier(1, 1, violation -> { }, false);
+        verifier.close(); // stopped before the call, so that its record is dropped
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        map.setAsyncVerifier(verifier);
+        map.put("a", 1);
+
+        assertTrue(verifier.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, verifier.dropped());
+    }
+
+    @Test
+    void keepsVerifyingAfterAPostconditionThrows() throws InterruptedException {
+        List<Throwable> uncaught = new CopyOnWriteArrayList<>();
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> uncaught.add(e));
+        try (AsyncVerifier verifier = new AsyncVerifier(16, 1, violation -> { }, false)) {
+            // a record the predicates cannot read: remove(key, value) returning no boolean
+            verifier.publish(new AsyncVerifier.Call(AsyncVerifier.Operation.REMOVE_ENTRY, HashMapContracts.class,
+                    "a", 1, null, "not a boolean", new KeyDelta<>(), 0, false, null, null));
+            HashMapContracts<String, Integer> map = new HashMapContracts<>();
+            map.setAsyncVerifier(verifier);
+            map.put("a", 1);
+
+            assertTrue(verifier.awaitIdle(10, TimeUnit.SECONDS));
+            assertEquals(2, verifier.verified());
+            assertEquals(1, uncaught.size());
+            assertEquals(0, verifier.violations());
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class BPlusTreeMapContractsTest extends MapContractsTest {
+
+    @Override
+    <K, V> MapContracts<K, V> newMap() {
+        return new BPlusTreeMapContracts<>();
+    }
+
+    private static void assertSameNavigation(NavigableMap<Integer, Integer> expected, NavigableMap<Integer, Integer> actual, int key) {
+        assertEquals(expected.lowerKey(key), actual.lowerKey(key));
+        assertEquals(expected.floorKey(key), actual.floorKey(key));
+        assertEquals(expected.ceilingKey(key), actual.ceilingKey(key));
+        assertEquals(expected.higherKey(key), actual.higherKey(key));
+        assertEquals(expected.floorEntry(key), actual.floorEntry(key));
+        assertEquals(expected.firstEntry(), actual.firstEntry());
+        assertEquals(expected.lastEntry(), actual.lastEntry());
+    }
+
+    @Test
+    void behavesLikeATreeMap() {
+        BPlusTreeMapContracts<Integer, Integer> map = new BPlusTreeMapContracts<>();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            // enough keys for three levels, with phases of growth and of shrinking
+            int key = random.nextInt(i < 150_000 ? 20_000 : 5_000);
+            if (random.nextInt(i < 100_000 ? 3 : 2) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+            assertSameNavigation(expected, map, random.nextInt(20_002) - 1);
+            assertEquals(expected.size(), map.size());
+        }
+        assertEquals(expected, map);
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(map.keySet()));
+        assertEquals(new ArrayList<>(expected.descendingKeySet()), new ArrayList<>(map.descendingKeySet()));
+        assertTrue(map.keys_in_ascending_order());
+
+        List<Integer> keys = new ArrayList<>(expected.keySet());
+        Collections.shuffle(keys, random);
+        for (Integer key : keys) {
+            assertEquals(expected.remove(key), map.remove(key));
+        }
+        assertTrue(map.isEmpty());
+        assertNull(map.firstEntry());
+        assertNull(map.floorKey(0));
+    }
+
+    @Test
+    void viewsMatchTheRangesOfATreeMap() {
+        BPlusTreeMapContracts<Integer, Integer> map = new BPlusTreeMapContracts<>();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        for (int key = 0; key < 10_000; key += 3) {
+            map.put(key, -key);
+            expected.put(key, -key);
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            int from = random.nextInt(10_100) - 50;
+            int to = from + random.nextInt(2_000);
+            boolean fromInclusive = random.nextBoolean();
+            boolean toInclusive = random.nextBoolean();
+            NavigableMap<Integer, Integer> view = map.subMap(from, fromInclusive, to, toInclusive);
+            NavigableMap<Integer, Integer> expectedView = expected.subMap(from, fromInclusive, to, toInclusive);
+            assertEquals(expectedView, view);
+            assertEquals(expectedView.size(), view.size());
+            assertEquals(new ArrayList<>(expectedView.descendingMap().keySet()), new ArrayList<>(view.descendingMap().keySet()));
+            assertSameNavigation(expectedView, view, from + random.nextInt(2_000));
+            assertSameNavigation(expectedView.descendingMap(), view.descendingMap(), from + random.nextInt(2_000));
+            assertEquals(expected.headMap(to, toInclusive), map.headMap(to, toInclusive));
+            assertEquals(expected.tailMap(from, fromInclusive), map.tailMap(from, fromInclusive));
+            int middle = from + (to - from) / 2;
+            if (middle != from) {
+                assertEquals(expectedView.descendingMap().headMap(middle, true), view.descendingMap().headMap(middle, true));
+            }
+        }
+
+        // views write through, within their range only
+        NavigableMap<Integer, Integer> view = map.subMap(30, true, 60, false);
+        assertThrows(IllegalArgumentException.class, () -> view.put(60, 0));
+        assertThrows(IllegalArgumentException.class, () -> view.subMap(0, 40));
+        assertThrows(IllegalArgumentException.class, () -> map.subMap(60, 30));
+        view.put(31, 31);
+        assertEquals((Integer) 31, map.get(31));
+        for (Iterator<Integer> keys = view.keySet().iterator(); keys.hasNext(); ) {
+            if (keys.next() % 2 == 0) {
+                keys.remove();
+            }
+        }
+        assertEquals(List.of(31, 33, 39, 45, 51, 57), new ArrayList<>(view.keySet()));
+        view.clear();
+        assertTrue(view.isEmpty());
+        assertNull(map.subMap(30, true, 60, false).firstEntry());
+        assertEquals((Integer) 27, map.lowerKey(31));
+        assertEquals((Integer) 60, map.higherKey(27));
+        assertEquals((Integer) 0, map.pollFirstEntry().getKey());
+        assertEquals((Integer) 3, map.firstKey());
+    }
+
+    @Test
+    void bulkLoadsSortedMaps() {
+        TreeMap<Integer, String> source = new TreeMap<>(Comparator.reverseOrder());
+        for (int key = 0; key < 100_000; key++) {
+            source.put(key, Integer.toString(key));
+        }
+        BPlusTreeMapContracts<Integer, String> map = new BPlusTreeMapContracts<>(Comparator.reverseOrder());
+        map.putAll(source);
+        assertEquals(source, map);
+        assertEquals((Integer) 99_999, map.firstKey());
+        assertEquals((Integer) 0, map.lastKey());
+        assertEquals((Integer) 5, map.floorKey(5));
+        assertEquals(source.headMap(50, true), map.headMap(50, true));
+
+        // the bulk-loaded tree splits and merges like any other
+        Random random = new Random(3);
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(200_000);
+            if (random.nextBoolean()) {
+                assertEquals(source.remove(key), map.remove(key));
+            } else {
+                assertEquals(source.put(key, "" + i), map.put(key, "" + i));
+            }
+        }
+        assertEquals(source, map);
+        assertEquals(new ArrayList<>(source.keySet()), new ArrayList<>(map.keySet()));
+
+        BPlusTreeMapContracts<Integer, String> partial = new BPlusTreeMapContracts<>(Comparator.reverseOrder());
+        TreeMap<Integer, String> withNull = new TreeMap<>(Comparator.reverseOrder());
+        withNull.put(1, "1");
+        withNull.put(0, null);
+        assertThrows(NullPointerException.class, () -> partial.putAll(withNull));
+        assertTrue(partial.isEmpty());
+    }
+
+    @Test
+    void checksTheOrderingPostconditions() {
+        BPlusTreeMapContracts<Integer, Integer> map = new BPlusTreeMapContracts<>();
+        for (int key = 0; key < 1_000; key += 10) {
+            map.put(key, key);
+        }
+        assertTrue(map.returns_greatest_key_at_most(50, 55));
+        assertFalse(map.returns_greatest_key_at_most(40, 55));
+        assertFalse(map.returns_greatest_key_at_most(null, 55));
+        assertTrue(map.returns_greatest_key_at_most(null, -1));
+        assertTrue(map.returns_least_key_at_least(60, 55));
+        assertFalse(map.returns_least_key_at_least(55, 55));
+        assertTrue(map.returns_least_key_at_least(null, 991));
+
+        assertTrue(map.returns_keys_between(map.subMap(15, true, 45, true), 15, true, 45, true));
+        assertFalse(map.returns_keys_between(map.subMap(15, true, 55, true), 15, true, 45, true));
+        assertTrue(map.returns_keys_before(map.headMap(0, false), 0, false));
+        assertFalse(map.returns_keys_after(map.tailMap(0, false), 0, true));
+        assertTrue(map.returns_keys_after(new TreeMap<>(map.tailMap(985, true)), 985, true));
+        assertFalse(map.returns_keys_between(null, 15, true, 45, true));
+
+        assertThrows(NullPointerException.class, () -> map.floorKey(null));
+        assertThrows(NullPointerException.class, () -> map.put(1, null));
+        assertThrows(NullPointerException.class, () -> new BPlusTreeMapContracts<String, Integer>().put(null, 1));
+    }
+}
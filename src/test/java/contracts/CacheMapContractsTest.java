@@ -0,0 +1,177 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class CacheMapContractsTest extends MapContractsTest {
+
+    private static final int THREADS = 8;
+
+    @Override
+    <K, V> MapContracts<K, V> newMap() {
+        return new CacheMapContracts<>(1_000_000);
+    }
+
+    private static void runThreads(int count, Runnable task) throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[count];
+        for (int t = 0; t < count; t++) {
+            threads[t] = new Thread(task);
+            threads[t].setUncaughtExceptionHandler((thread, e) -> failure.compareAndSet(null, e));
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    @Test
+    void keepsFrequentKeysAgainstAScan() {
+        CacheMapContracts<Integer, Integer> cache = new CacheMapContracts<>(100);
+        for (int i = 0; i < 100_000; i++) {
+            // a scan of keys read once each, through which ten keys are read over and over
+            Integer key = 1_000 + i;
+            cache.put(key, i);
+            cache.get(i % 10);
+            if (i < 10) {
+                cache.put(i, i);
+            }
+            assertTrue(cache.size() <= 100);
+            assertTrue(cache.weight_within_bound());
+            assertTrue(cache.size_increases_iff_returns(null));
+        }
+        for (int hot = 0; hot < 10; hot++) {
+            assertEquals((Integer) hot, cache.get(hot));
+        }
+        assertEquals(100, cache.size());
+        assertEquals(100, cache.weight());
+        assertTrue(cache.evictionCount() >= 100_000 + 10 - 100);
+    }
+
+    @Test
+    void relaxesPostconditionsByEvictions() {
+        CacheMapContracts<String, String> cache = new CacheMapContracts<>(10, (key, value) -> value.length());
+        cache.put("a", "12345");
+        cache.put("b", "1234");
+        assertEquals(9, cache.weight());
+
+        // heavier than the whole cache: evicted by its own put
+        assertNull(cache.put("big", "12345678901"));
+        assertEquals(1, cache.old_delta().evicted());
+        assertTrue(cache.evicted_by_call("big"));
+        assertTrue(cache.size_increases_iff_returns(null));
+        assertTrue(cache.contains_entry_iff_key_contained("big", "12345678901"));
+        assertEquals(2, cache.size());
+
+        // a heavier replacement evicts another entry
+        assertEquals("1234", cache.replace("b", "123456"));
+        assertEquals(1, cache.old_delta().evicted());
+        assertTrue(cache.size_not_changed());
+        assertTrue(cache.key_presence_not_changed("b"));
+        assertEquals(1, cache.size());
+        assertTrue(cache.weight() <= 10);
+        assertTrue(cache.weight_within_bound());
+
+        // without evictions, the postconditions are as strict as for any map
+        cache.put("c", "1");
+        assertEquals(0, cache.old_delta().evicted());
+        assertFalse(cache.size_increases_iff_returns("1"));
+        assertThrows(IllegalArgumentException.class, () -> new CacheMapContracts<String, String>(10, (key, value) -> -1).put("a", "b"));
+    }
+
+    @Test
+    void boundsWeightUnderConcurrentReadersAndWriters() throws InterruptedException {
+        CacheMapContracts<Integer, Integer> cache = new CacheMapContracts<>(500);
+        AtomicBoolean failed = new AtomicBoolean();
+        runThreads(THREADS, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 100_000; i++) {
+                Integer key = (int) Math.sqrt(random.nextInt(4_000_000)); // skewed towards the high keys
+                Integer value = cache.get(key);
+                if (value != null && !value.equals(key)) {
+                    failed.set(true);
+                }
+                if (value == null) {
+                    cache.put(key, key);
+                } else if (i % 64 == 0) {
+                    cache.remove(key);
+                }
+                if (cache.weight() > 500) {
+                    failed.set(true);
+                }
+            }
+        });
+        assertFalse(failed.get());
+        assertTrue(cache.size() <= 500);
+        assertTrue(cache.weight_within_bound());
+        cache.forEach((key, value) -> assertEquals(key, value));
+    }
+
+    @Test
+    void computesUnderTheBound() {
+        CacheMapContracts<Integer, Integer> cache = new CacheMapContracts<>(3);
+        Random random = new Random(42);
+        for (int i = 0; i < 1_000; i++) {
+            Integer key = random.nextInt(10);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertNotNull(cache.computeIfAbsent(key, k -> k));
+                    break;
+                case 1:
+                    cache.merge(key, 1, Integer::sum);
+                    break;
+                default:
+                    cache.computeIfPresent(key, (k, value) -> null);
+                    assertFalse(cache.containsKey(key));
+            }
+            assertTrue(cache.size() <= 3);
+        }
+        assertThrows(NullPointerException.class, () -> cache.put(null, 1));
+        assertThrows(NullPointerException.class, () -> cache.put(1, null));
+    }
+
+    @Test
+    void computesOutsideTheEvictionLock() throws InterruptedException {
+        CacheMapContracts<Integer, Integer> cache = new CacheMapContracts<>(100);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        Thread loader = new Thread(() -> cache.computeIfAbsent(1, key -> {
+            loading.countDown();
+            try {
+                written.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return key;
+        }));
+        loader.start();
+        loading.await();
+        // a slow loader does not hold up the writers
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> cache.put(2, 2));
+        written.countDown();
+        loader.join();
+        assertEquals((Integer) 1, cache.get(1));
+
+        // a function writing its own key runs again on the value it wrote
+        assertEquals((Integer) 11, cache.compute(3, (key, value) -> {
+            if (value == null) {
+                cache.put(key, 10);
+                return 0;
+            }
+            return value + 1;
+        }));
+        cache.replaceAll((key, value) -> value * 2);
+        assertEquals((Integer) 22, cache.get(3));
+        assertTrue(cache.weight_within_bound());
+    }
+}
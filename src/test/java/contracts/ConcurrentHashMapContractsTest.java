@@ -2,6 +2,13 @@ package contracts;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 
@@ -13,4 +20,205 @@ class ConcurrentHashMapContractsTest {
         map.put("something", 123);
         assertThrows(NullPointerException.class, () -> map.get(null));
     }
-}
\ No newline at end of file
+
+    @Test
+    void incrementalHashCode() {
+        ConcurrentHashMapContracts<String, Integer> map = new ConcurrentHashMapContracts<>();
+        map.put("zero", 0);
+        map.setIncrementalHashCode(true);
+
+        map.put("one", 1);
+        map.put("two", 2);
+        map.put("three", 3);
+        map.putAll(Map.of("four", 4, "five", 5));
+        map.putIfAbsent("six", 6);
+        map.replace("one", 11);
+        map.replace("two", 2, 22);
+        map.remove("three");
+        map.remove("four", 4);
+        map.compute("five", (key, value) -> value * 10);
+        map.computeIfAbsent("seven", key -> 7);
+        map.computeIfPresent("six", (key, value) -> null);
+        map.merge("seven", 1, Integer::sum);
+        map.replaceAll((key, value) -> value + 1);
+        map.entrySet().iterator().next().setValue(100);
+        Iterator<Integer> values = map.values().iterator();
+        values.next();
+        values.remove();
+
+        Map<String, Integer> expected = new HashMap<>(map);
+        assertEquals(expected.hashCode(), map.hashCode());
+        assertEquals(map.recomputed_entry_hash_sum(), map.entry_hash_sum());
+
+        ContractAudit.enable();
+        try {
+            assertTrue(map.hashcode_is_valid());
+        } finally {
+            ContractAudit.disable();
+        }
+
+        map.clear();
+        assertEquals(0, map.hashCode());
+    }
+
+    @Test
+    void incrementalHashCodeStopsOnceAKeySetViewIsOut() {
+        ConcurrentHashMapContracts<String, Integer> map = new ConcurrentHashMapContracts<>();
+        map.setIncrementalHashCode(true);
+        map.put("one", 1);
+        map.put("two", 2);
+
+        Iterator<String> keys = map.keySet().iterator();
+        keys.next();
+        keys.remove();
+        assertEquals(new HashMap<>(map).hashCode(), map.hashCode());
+        assertEquals(map.recomputed_entry_hash_sum(), map.entry_hash_sum());
+
+        map.put("three", 3);
+        assertEquals(new HashMap<>(map).hashCode(), map.hashCode());
+    }
+
+    @Test
+    void keyDeltaIsPerThread() throws InterruptedException {
+        ConcurrentHashMapContracts<String, Integer> map = new ConcurrentHashMapContracts<>();
+        map.put("one", 1);
+        assertEquals((Integer) 1, map.replace("one", 10));
+        assertTrue(map.old_delta().contained());
+        assertEquals((Integer) 1, map.old_delta().value());
+
+        Thread other = new Thread(() -> map.remove("two"));
+        other.start();
+        other.join();
+
+        assertEquals("one", map.old_delta().key());
+        assertTrue(map.size_not_changed());
+        assertTrue(map.contains_entry_iff_key_contained("one", 10));
+    }
+
+    @Test
+    void getPostconditionUnderConcurrentWriters() throws InterruptedException {
+        ConcurrentHashMapContracts<Integer, Integer> map = new ConcurrentHashMapContracts<>();
+        for (int i = 0; i < 64; i++) {
+            map.put(i, i);
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; !stop.get(); i++) {
+                int key = i & 63;
+                if ((i & 1) == 0) {
+                    map.put(key, i);
+                } else {
+                    map.remove(key);
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 200_000; i++) {
+                int key = i & 63;
+                assertTrue(map.null_if_not_contains_key(map.get(key), key));
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+
+        map.put(1, 1);
+        map.get(1);
+        assertFalse(map.null_if_not_contains_key(2, 1));
+        assertTrue(map.null_if_not_contains_key(null, 100));
+    }
+
+    @Test
+    void writePostconditionsUnderConcurrentWriters() throws InterruptedException {
+        ConcurrentHashMapContracts<Integer, Integer> map = new ConcurrentHashMapContracts<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 50_000; i++) {
+                    Integer key = random.nextInt(256);
+                    Integer value = i; // boxed once: the postconditions compare values by identity
+                    boolean holds;
+                    switch (i % 4) {
+                        case 0:
+                            Integer old = map.put(key, value);
+                            holds = map.contains_entry(old, key, value) && map.size_increases_iff_returns(old);
+                            break;
+                        case 1:
+                            map.remove(key);
+                            holds = map.not_contains_key(key) && map.size_decreases_iff_key_contained(key);
+                            break;
+                        case 2:
+                            map.replace(key, value);
+                            holds = map.size_not_changed() && map.contains_entry_iff_key_contained(key, value);
+                            break;
+                        default:
+                            Map<Integer, Integer> entries = Map.of(key, value, key + 256, value);
+                            map.putAll(entries);
+                            holds = map.contains_all_entries(entries) && map.size_increased_for_each_key_not_contained(entries);
+                    }
+                    if (!holds) {
+                        failed.set(true);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertFalse(failed.get());
+
+        // without concurrent writers, the postconditions still judge the state
+        map.put(1000, 1);
+        assertFalse(map.size_not_changed());
+        map.replace(1000, 2);
+        assertTrue(map.contains_entry_iff_key_contained(1000, 2));
+        assertFalse(map.contains_entry_iff_key_contained(1000, 3));
+    }
+
+    @Test
+    void nullsCheckedAtWrites() {
+        ConcurrentHashMapContracts<String, Integer> map = new ConcurrentHashMapContracts<>();
+        map.put("one", 1);
+
+        assertTrue(map.entry_not_null("one", 1));
+        assertFalse(map.entry_not_null("one", null));
+        assertFalse(map.new_entry_not_null(null, 1));
+        map.putAll(Map.of("two", 2)); // the postconditions of a bulk call are judged after one
+        assertFalse(map.all_entries_not_null(Collections.singletonMap("two", null)));
+        assertTrue(map.all_entries_not_null(Map.of("two", 2)));
+        assertTrue(map.computed_entry_not_null("one"));
+
+        assertTrue(map.none_null());
+        ContractAudit.enable();
+        try {
+            assertTrue(map.none_null());
+        } finally {
+            ContractAudit.disable();
+        }
+    }
+
+    @Test
+    void stopsVersioningOnceAKeySetViewIsOut() {
+        ConcurrentHashMapContracts<String, Integer> map = new ConcurrentHashMapContracts<>();
+        map.put("one", 1);
+        map.put("two", 2);
+        long version = map.state_version();
+        assertTrue(version >= 0);
+        assertTrue(map.none_null());
+        assertEquals(version, map.state_version());
+
+        // a removal through the iterator of the key set goes around the methods of the map
+        Iterator<String> keys = map.keySet().iterator();
+        keys.next();
+        keys.remove();
+        assertEquals(-1, map.state_version());
+        assertFalse(map.invariant_held("none_null"));
+        assertFalse(map.memo_held("contains_entry", "one", 1, null));
+        assertTrue(map.none_null());
+        assertEquals(1, map.size());
+    }
+}
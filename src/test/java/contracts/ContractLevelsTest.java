@@ -0,0 +1,89 @@
+package contracts;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ContractLevelsTest {
+
+    @AfterEach
+    void resetLevels() {
+        ContractLevels.reset();
+    }
+
+    @Test
+    void levelsAreCumulative() {
+        assertTrue(ContractLevel.FULL.includes(ContractLevel.INVARIANTS));
+        assertTrue(ContractLevel.INVARIANTS.includes(ContractLevel.POSTCONDITIONS));
+        assertFalse(ContractLevel.POSTCONDITIONS.includes(ContractLevel.INVARIANTS));
+        assertFalse(ContractLevel.OFF.includes(ContractLevel.POSTCONDITIONS));
+    }
+
+    @Test
+    void globalLevel() {
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        map.put("one", 1);
+        assertEquals(ContractLevel.FULL, ContractLevels.global());
+        assertFalse(map.not_contains_key("one"));
+
+        ContractLevels.setGlobal(ContractLevel.OFF);
+        assertTrue(map.not_contains_key("one"));
+        assertTrue(map.skip_invariant("hashcode_is_valid"));
+
+        ContractLevels.setGlobal(ContractLevel.POSTCONDITIONS);
+        assertFalse(map.not_contains_key("one"));
+        assertTrue(map.skip_invariant("hashcode_is_valid"));
+        assertFalse(map.deep_audit_due("hashcode_is_valid"));
+
+        assertThrows(NullPointerException.class, () -> ContractLevels.setGlobal(null));
+    }
+
+    @Test
+    void classAndMethodLevels() {
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        ConcurrentHashMapContracts<String, Integer> concurrent = new ConcurrentHashMapContracts<>();
+        map.put("one", 1);
+        concurrent.put("one", 1);
+
+        ContractLevels.setClassLevel(ConcurrentHashMapContracts.class, ContractLevel.OFF);
+        assertFalse(map.not_contains_key("one"));
+        assertTrue(concurrent.not_contains_key("one"));
+
+        ContractLevels.setMethodLevel("not_contains_key", ContractLevel.FULL);
+        assertFalse(concurrent.not_contains_key("one"));
+        assertTrue(concurrent.skip_postcondition("is_empty"));
+
+        ContractLevels.setGlobal(ContractLevel.OFF);
+        ContractLevels.setMethodLevel("not_contains_key", null);
+        ContractLevels.setClassLevel(HashMapContracts.class, ContractLevel.INVARIANTS);
+        assertFalse(map.not_contains_key("one"));
+        assertTrue(concurrent.not_contains_key("one"));
+    }
+
+    @Test
+    void noOldStateCapturedWhileUnchecked() {
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        ConcurrentHashMapContracts<String, Integer> concurrent = new ConcurrentHashMapContracts<>();
+        map.putAll(Map.of("one", 1));
+        concurrent.putAll(Map.of("one", 1));
+        assertNotNull(map.old_state());
+        assertNotNull(concurrent.old_state());
+
+        ContractLevels.setGlobal(ContractLevel.OFF);
+        ContractLevels.setMethodLevel("size_not_changed_by_all", ContractLevel.FULL);
+        map.putAll(Map.of("two", 2));
+        concurrent.replaceAll((key, value) -> value + 1);
+        assertNull(map.old_state());
+        assertNull(concurrent.old_state());
+        assertTrue(map.size_not_changed_by_all()); // no old state to judge the call by
+
+        map.setContractSampler(ContractSampler.never());
+        ContractLevels.setGlobal(ContractLevel.FULL);
+        map.putAll(Map.of("three", 3));
+        assertNull(map.old_state());
+    }
+}
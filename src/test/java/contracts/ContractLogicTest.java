@@ -0,0 +1,44 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ContractLogicTest {
+
+    @Test
+    void connectives() {
+        assertTrue(ContractLogic.implies(false, false));
+        assertTrue(ContractLogic.implies(false, true));
+        assertFalse(ContractLogic.implies(true, false));
+        assertTrue(ContractLogic.implies(true, true));
+
+        assertTrue(ContractLogic.iff(false, false));
+        assertFalse(ContractLogic.iff(true, false));
+        assertTrue(ContractLogic.iff(true, true));
+    }
+
+    @Test
+    void loops() {
+        Map<String, Integer> map = new HashMap<>();
+        map.put("one", 1);
+        map.put(null, 2);
+
+        assertTrue(ContractLogic.containsEqual(Arrays.asList("one", null), null));
+        assertFalse(ContractLogic.containsEqual(List.of("one"), "two"));
+
+        assertTrue(ContractLogic.containsAllKeys(map, Arrays.asList("one", null)));
+        assertFalse(ContractLogic.containsAllKeys(map, List.of("one", "two")));
+        assertEquals(2, ContractLogic.countMissingKeys(map, List.of("one", "two", "three")));
+
+        assertTrue(ContractLogic.mapsSameValues(map, Map.of("one", 1)));
+        assertFalse(ContractLogic.mapsSameValues(map, Map.of("one", 1, "two", 2)));
+        assertFalse(ContractLogic.mapsSameValues(map, Map.of("one", new String("1"))));
+    }
+}
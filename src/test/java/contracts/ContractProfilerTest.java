@@ -0,0 +1,78 @@
+package contracts;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ContractProfilerTest {
+
+    @AfterEach
+    void disableProfiler() {
+        ContractProfiler.disable();
+        ContractProfiler.reset();
+        ContractLevels.reset();
+    }
+
+    @Test
+    void disabledByDefault() {
+        assertFalse(ContractProfiler.enabled());
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        assertTrue(map.is_empty());
+        assertEquals(0, ContractProfiler.calls("is_empty"));
+    }
+
+    @Test
+    void recordsEvaluatedPredicates() {
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put("key" + i, i);
+        }
+        map.putAll(Map.of("other", 0));
+
+        ContractProfiler.enable();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(map.keys_not_changed());
+            assertTrue(map.size_non_negative());
+        }
+        assertFalse(map.returns_pairwise_equals(true, "not a map"));
+
+        ContractLevels.setMethodLevel("is_empty", ContractLevel.OFF);
+        assertTrue(map.is_empty()); // skipped: not recorded
+
+        assertEquals(10, ContractProfiler.calls("keys_not_changed"));
+        assertEquals(1, ContractProfiler.calls("size_non_negative")); // an invariant: checked once per version
+        assertEquals(1, ContractProfiler.calls("returns_pairwise_equals"));
+        assertEquals(0, ContractProfiler.calls("is_empty"));
+
+        String report = ContractProfiler.report();
+        assertTrue(report.startsWith("predicate"));
+        assertTrue(report.indexOf("keys_not_changed") < report.indexOf("size_non_negative"));
+    }
+
+    @Test
+    void popsTheFramesOfPredicatesThatThrow() {
+        RobinHoodMapContracts<String, Integer> map = new RobinHoodMapContracts<>();
+        map.put(null, 1);
+        MapContracts.Entry<?, ?> entry = (MapContracts.Entry<?, ?>) map.entrySet().iterator().next();
+        RobinHoodMapContracts<String, Integer> other = new RobinHoodMapContracts<>();
+        other.put("key", 1);
+        Map.Entry<String, Integer> otherEntry = other.entrySet().iterator().next();
+
+        ContractProfiler.enable();
+        int depth = ContractProfiler.depth();
+        for (int i = 0; i < 100; i++) {
+            // the class of the null key
+            assertThrows(NullPointerException.class, () -> entry.returns_pairwise_equals(true, otherEntry));
+        }
+        assertEquals(depth, ContractProfiler.depth());
+        assertEquals(100, ContractProfiler.calls("returns_pairwise_equals"));
+
+        ContractProfiler.start(); // as if its predicate threw
+        ContractProfiler.unwind();
+        assertEquals(0, ContractProfiler.depth());
+    }
+}
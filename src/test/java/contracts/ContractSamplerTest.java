@@ -0,0 +1,97 @@
+package contracts;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ContractSamplerTest {
+
+    @AfterEach
+    void restoreGlobal() {
+        ContractSampler.setGlobal(ContractSampler.always());
+    }
+
+    @Test
+    void alwaysAndNever() {
+        assertTrue(ContractSampler.always().sample());
+        assertFalse(ContractSampler.never().sample());
+        assertSame(ContractSampler.always(), ContractSampler.oneIn(1));
+    }
+
+    @Test
+    void oneInSamplesRoughlyOneInN() {
+        ContractSampler sampler = ContractSampler.oneIn(10);
+        int sampled = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (sampler.sample()) {
+                sampled++;
+            }
+        }
+        assertTrue(sampled > 8_000 && sampled < 12_000, "sampled " + sampled);
+    }
+
+    @Test
+    void perSecondIsRateLimited() {
+        ContractSampler sampler = ContractSampler.perSecond(1);
+        int sampled = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (sampler.sample()) {
+                sampled++;
+            }
+        }
+        assertTrue(sampled <= 1, "sampled " + sampled);
+    }
+
+    @Test
+    void invalidArgumentsThrow() {
+        assertThrows(IllegalArgumentException.class, () -> ContractSampler.oneIn(0));
+        assertThrows(IllegalArgumentException.class, () -> ContractSampler.perSecond(0));
+        assertThrows(NullPointerException.class, () -> ContractSampler.setGlobal(null));
+    }
+
+    @Test
+    void mapSamplerOverridesGlobal() {
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        assertFalse(map.null_if_not_contains_key(1, "missing"));
+
+        map.setContractSampler(ContractSampler.never());
+        assertTrue(map.null_if_not_contains_key(1, "missing"));
+
+        map.setContractSampler(null);
+        ContractSampler.setGlobal(ContractSampler.never());
+        assertTrue(map.null_if_not_contains_key(1, "missing"));
+    }
+
+    @Test
+    void postconditionsOfACallShareOneDecision() {
+        int[] draws = {0};
+        ContractSampler alternating = new ContractSampler() {
+            @Override
+            public boolean sample() {
+                return draws[0]++ % 2 == 0;
+            }
+        };
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        map.setContractSampler(alternating);
+
+        map.put("one", 1); // sampled: every postcondition of the call is checked
+        assertFalse(map.size_not_changed());
+        assertFalse(map.not_contains_key("one"));
+        map.put("two", 2); // skipped: none is
+        assertTrue(map.size_not_changed());
+        assertTrue(map.not_contains_key("two"));
+        assertEquals(2, draws[0]);
+
+        map.putAll(Map.of("three", 3, "four", 4)); // one decision for the whole call
+        assertFalse(map.contains_all_entries(Map.of("three", 4)));
+        assertFalse(map.size_not_changed_by_all());
+        map.putAll(Map.of("five", 5));
+        assertTrue(map.contains_all_entries(Map.of("five", 6)));
+        assertTrue(map.size_not_changed_by_all());
+        assertEquals(4, draws[0]);
+    }
+}
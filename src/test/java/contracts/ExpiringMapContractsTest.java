@@ -0,0 +1,174 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ExpiringMapContractsTest extends MapContractsTest {
+
+    @Override
+    <K, V> MapContracts<K, V> newMap() {
+        return new ExpiringMapContracts<>(1, TimeUnit.HOURS);
+    }
+
+    /**
+     * A clock moved by hand, in nanoseconds.
+     */
+    private static final class FakeClock {
+        long nanos = 123_456_789L;
+
+        void advance(long duration, TimeUnit unit) {
+            nanos += unit.toNanos(duration);
+        }
+    }
+
+    @Test
+    void neverReturnsExpiredValues() {
+        FakeClock clock = new FakeClock();
+        ExpiringMapContracts<String, Integer> map = new ExpiringMapContracts<>(10, TimeUnit.SECONDS, () -> clock.nanos);
+        map.put("a", 1);
+        map.put("b", 2, 5, TimeUnit.SECONDS);
+        clock.advance(5, TimeUnit.SECONDS);
+        assertNull(map.get("b"));
+        assertTrue(map.returns_unexpired_value(null));
+        assertEquals((Integer) 1, map.get("a"));
+        assertTrue(map.returns_unexpired_value(1));
+
+        // expired exactly at its time to live, and a write restarts it
+        clock.advance(4, TimeUnit.SECONDS);
+        map.put("a", 3);
+        clock.advance(9, TimeUnit.SECONDS);
+        assertTrue(map.containsKey("a"));
+        clock.advance(1, TimeUnit.SECONDS);
+        assertFalse(map.containsKey("a"));
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertTrue(map.expirations_scheduled());
+
+        // not stored at all without a positive time to live
+        assertNull(map.put("c", 4, 0, TimeUnit.SECONDS));
+        assertEquals(1, map.old_delta().evicted());
+        assertFalse(map.containsKey("c"));
+        map.put(null, null);
+        assertTrue(map.containsKey(null));
+    }
+
+    @Test
+    void expiresAcrossLevelsLikeAReferenceModel() {
+        FakeClock clock = new FakeClock();
+        ExpiringMapContracts<Integer, Integer> map = new ExpiringMapContracts<>(1, TimeUnit.MINUTES, () -> clock.nanos);
+        Map<Integer, Long> expiries = new HashMap<>();
+        Random random = new Random(42);
+        long now = 0;
+        for (int i = 0; i < 20_000; i++) {
+            // times to live from microseconds to days, so that entries cascade down every level
+            long ttl = (long) Math.pow(10, 3 + random.nextDouble() * 11);
+            int key = random.nextInt(2_000);
+            map.put(key, i, ttl, TimeUnit.NANOSECONDS);
+            expiries.put(key, now + ttl);
+            long step = (long) Math.pow(10, random.nextDouble() * 10);
+            clock.advance(step, TimeUnit.NANOSECONDS);
+            now += step;
+            long time = now;
+            expiries.values().removeIf(expiry -> expiry - time <= 0);
+            if (i % 100 == 0) {
+                assertEquals(expiries.keySet(), new HashSet<>(map.keySet()));
+                assertTrue(map.hashcode_is_valid());
+            }
+            int probe = random.nextInt(2_000);
+            assertEquals(expiries.containsKey(probe), map.containsKey(probe));
+        }
+        clock.advance(2, TimeUnit.DAYS);
+        map.cleanUp();
+        assertEquals(0, map.entry_hash_sum());
+        assertEquals(0, map.recomputed_entry_hash_sum());
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void holdsSteadyStateUnderChurn() {
+        FakeClock clock = new FakeClock();
+        ExpiringMapContracts<Integer, Integer> map = new ExpiringMapContracts<>(1_000, TimeUnit.MILLISECONDS, () -> clock.nanos);
+        for (int i = 0; i < 100_000; i++) {
+            // one put per millisecond, each living a second: the last 999 puts are live
+            map.put(i, i);
+            clock.advance(1, TimeUnit.MILLISECONDS);
+            if (i >= 1_000) {
+                assertFalse(map.containsKey(i - 999));
+                assertTrue(map.containsKey(i - 998));
+            }
+        }
+        assertEquals(999, map.size());
+        assertTrue(map.expirations_scheduled());
+    }
+
+    @Test
+    void relaxesPostconditionsByExpirations() {
+        FakeClock clock = new FakeClock();
+        ExpiringMapContracts<String, String> map = new ExpiringMapContracts<>(1, TimeUnit.SECONDS, () -> clock.nanos);
+        map.put("a", "1");
+        map.put("b", "2");
+        clock.advance(1, TimeUnit.SECONDS);
+
+        // entries due before the call are expired before it starts, so they do not relax it
+        assertNull(map.put("c", "3"));
+        assertEquals(0, map.old_delta().evicted());
+        assertTrue(map.size_increases_iff_returns(null));
+        assertTrue(map.contains_entry(null, "c", "3"));
+        assertEquals(1, map.size());
+
+        // an entry written without a time to live expires within its own call
+        assertNull(map.put("d", "4", 0, TimeUnit.SECONDS));
+        assertEquals(1, map.old_delta().evicted());
+        assertTrue(map.evicted_by_call("d"));
+        assertTrue(map.size_increases_iff_returns(null));
+        assertTrue(map.contains_entry_iff_key_contained("d", "4"));
+        assertEquals(1, map.size());
+
+        // a key due before the call is not contained, and replacing it changes nothing
+        map.put("d", "4", 1, TimeUnit.MILLISECONDS);
+        clock.advance(1, TimeUnit.MILLISECONDS);
+        assertNull(map.replace("d", "5"));
+        assertTrue(map.size_not_changed());
+        assertFalse(map.containsKey("d"));
+
+        // without expirations, the postconditions are as strict as for any map
+        map.put("e", "6");
+        assertEquals(0, map.old_delta().evicted());
+        assertFalse(map.size_increases_iff_returns("6"));
+    }
+
+    @Test
+    void worksOffDueEntriesAFewPerCall() {
+        FakeClock clock = new FakeClock();
+        ExpiringMapContracts<Integer, Integer> map = new ExpiringMapContracts<>(1, TimeUnit.HOURS, () -> clock.nanos);
+        for (int i = 0; i < 10_000; i++) {
+            map.put(i, i);
+        }
+        clock.advance(2, TimeUnit.HOURS);
+
+        // counted until worked off, but never returned
+        int size = map.size();
+        assertTrue(size > 9_000 && size < 10_000);
+        assertFalse(map.containsValue(9_999));
+        assertFalse(map.entrySet().iterator().hasNext());
+        assertTrue(map.hashcode_is_valid());
+        assertNull(map.get(9_999));
+
+        // an entry due but still held is overwritten in place by the bulk calls
+        map.putAll(Map.of(9_998, -1));
+        assertTrue(map.size_increased_for_each_key_not_contained(Map.of(9_998, -1)));
+        assertEquals((Integer) (-1), map.get(9_998));
+
+        map.cleanUp();
+        assertEquals(1, map.size());
+        assertTrue(map.expirations_scheduled());
+    }
+}
@@ -0,0 +1,104 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class FrozenMapContractsTest {
+
+    /**
+     * A key with few distinct hash codes, which no seed of the perfect hash can tell apart.
+     */
+    private static final class Colliding {
+        private final int id;
+
+        Colliding(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Colliding && ((Colliding) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 5;
+        }
+    }
+
+    @Test
+    void findsEveryKeyOfTheSource() {
+        Random random = new Random(42);
+        for (int size : new int[]{0, 1, 2, 3, 7, 100, 100_000}) {
+            HashMapContracts<Integer, Integer> source = new HashMapContracts<>();
+            while (source.size() < size) {
+                source.put(random.nextInt(), random.nextInt());
+            }
+            FrozenMapContracts<Integer, Integer> frozen = source.freeze();
+            assertEquals(source.size(), frozen.size());
+            assertEquals(source, frozen);
+            assertEquals(frozen, source);
+            assertEquals(source.hashCode(), frozen.hashCode());
+            for (Map.Entry<Integer, Integer> entry : source.entrySet()) {
+                assertSame(entry.getValue(), frozen.get(entry.getKey()));
+            }
+            for (int i = 0; i < 1_000; i++) {
+                Integer key = random.nextInt();
+                assertEquals(source.containsKey(key), frozen.containsKey(key));
+                assertEquals(source.get(key), frozen.get(key));
+            }
+            assertTrue(frozen.hashcode_is_valid());
+            assertTrue(frozen.size_non_negative());
+        }
+    }
+
+    @Test
+    void findsKeysWithEqualHashCodes() {
+        Map<Colliding, Integer> source = new HashMap<>();
+        for (int i = 0; i < 1_000; i++) {
+            source.put(new Colliding(i), i);
+        }
+        source.put(null, -1);
+        FrozenMapContracts<Colliding, Integer> frozen = FrozenMapContracts.copyOf(source);
+        assertEquals(source, frozen);
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals((Integer) i, frozen.get(new Colliding(i)));
+        }
+        assertNull(frozen.get(new Colliding(1_000)));
+        assertEquals((Integer) (-1), frozen.get(null));
+        assertTrue(frozen.containsKey(null));
+        assertTrue(frozen.containsValue(-1));
+    }
+
+    @Test
+    void rejectsWrites() {
+        HashMapContracts<String, Integer> source = new HashMapContracts<>();
+        source.put("one", 1);
+        FrozenMapContracts<String, Integer> frozen = source.freeze();
+        assertSame(frozen, frozen.freeze());
+        assertSame(frozen, FrozenMapContracts.copyOf(frozen));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.put("two", 2));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.remove("one"));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.merge("one", 1, Integer::sum));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.computeIfAbsent("two", key -> 2));
+        assertThrows(UnsupportedOperationException.class, frozen::clear);
+        assertThrows(UnsupportedOperationException.class, () -> frozen.keySet().remove("one"));
+        Iterator<Map.Entry<String, Integer>> entries = frozen.entrySet().iterator();
+        Map.Entry<String, Integer> entry = entries.next();
+        assertThrows(UnsupportedOperationException.class, () -> entry.setValue(2));
+        assertThrows(UnsupportedOperationException.class, entries::remove);
+        assertTrue(((MapContracts.Entry<?, ?>) entry).hashcode_is_valid());
+
+        // the source stays writable, and the frozen copy does not see its writes
+        source.put("two", 2);
+        assertEquals(1, frozen.size());
+        assertFalse(frozen.containsKey("two"));
+    }
+}
@@ -2,6 +2,10 @@ package contracts;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 
@@ -13,4 +17,141 @@ class HashMapContractsTest {
         map.put("what", null);
         assertNull(map.get("what"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void incrementalHashCode() {
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        map.put("zero", 0);
+        map.setIncrementalHashCode(true);
+
+        map.put("one", 1);
+        map.put("two", 2);
+        map.put("three", 3);
+        map.putAll(Map.of("four", 4, "five", 5));
+        map.putIfAbsent("six", 6);
+        map.replace("one", 11);
+        map.replace("two", 2, 22);
+        map.remove("three");
+        map.remove("four", 4);
+        map.compute("five", (key, value) -> value * 10);
+        map.computeIfAbsent("seven", key -> 7);
+        map.computeIfPresent("six", (key, value) -> null);
+        map.merge("seven", 1, Integer::sum);
+        map.replaceAll((key, value) -> value + 1);
+        map.entrySet().iterator().next().setValue(100);
+        Iterator<Integer> values = map.values().iterator();
+        values.next();
+        values.remove();
+
+        Map<String, Integer> expected = new HashMap<>(map);
+        assertEquals(expected.hashCode(), map.hashCode());
+        assertEquals(map.recomputed_entry_hash_sum(), map.entry_hash_sum());
+
+        ContractAudit.enable();
+        try {
+            assertTrue(map.hashcode_is_valid());
+        } finally {
+            ContractAudit.disable();
+        }
+
+        map.clear();
+        assertEquals(0, map.hashCode());
+    }
+
+    @Test
+    void persistentSnapshotsCaptureOldState() {
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        map.put("one", 1);
+        map.setPersistentSnapshots(true);
+
+        map.putAll(Map.of("two", 2));
+        assertEquals(Map.of("one", 1), map.old_state());
+        assertTrue(map.size_increased_for_each_key_not_contained(Map.of("two", 2)));
+
+        map.remove("one");
+        map.replaceAll((key, value) -> value * 10);
+        assertEquals(Map.of("two", 2), map.old_state());
+        assertTrue(map.keys_not_changed());
+        assertEquals(Map.of("two", 20), map);
+    }
+
+    @Test
+    void keyDeltaCapturesOldMapping() {
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        map.put("one", 1);
+
+        assertNull(map.put("two", 2));
+        assertEquals("two", map.old_delta().key());
+        assertEquals(1, map.old_delta().size());
+        assertFalse(map.old_delta().contained());
+        assertTrue(map.size_increases_iff_returns(null));
+        assertTrue(map.null_if_not_contained_key(null, "two"));
+
+        assertEquals((Integer) 1, map.put("one", 10));
+        assertTrue(map.old_delta().contained());
+        assertEquals((Integer) 1, map.old_delta().value());
+        assertTrue(map.contains_entry_iff_key_contained("one", 10));
+
+        assertFalse(map.replace("one", 1, 100));
+        assertEquals((Integer) 10, map.old_delta().value());
+        assertTrue(map.size_not_changed());
+        assertTrue(map.key_presence_not_changed("one"));
+        assertTrue(map.value_changes_only_if_contained_entry("one", 1, 100));
+
+        assertTrue(map.remove("one", 10));
+        assertEquals(2, map.old_delta().size());
+        assertTrue(map.size_decreased_iff_contained_entry("one", 10));
+        assertTrue(map.returns_iff_entry_deleted(true, "one", 10));
+
+        assertNull(map.remove("three"));
+        assertFalse(map.old_delta().contained());
+        assertTrue(map.size_decreases_iff_key_contained("three"));
+
+        assertEquals((Integer) 2, map.putIfAbsent("two", 0));
+        assertTrue(map.old_delta().contained());
+        assertEquals((Integer) 2, map.old_delta().value());
+        assertTrue(map.value_changes_only_if_not_contained_key("two", 0));
+
+        map.put("null", null);
+        assertFalse(map.old_delta().contained());
+        assertNull(map.put("null", 0));
+        assertTrue(map.old_delta().contained());
+    }
+
+    @Test
+    void invariantsCheckedOncePerVersion() {
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        map.put("one", 1);
+        ContractProfiler.enable();
+        try {
+            for (int i = 0; i < 5; i++) {
+                map.get("one");
+                assertTrue(map.hashcode_is_valid());
+            }
+            assertEquals(1, ContractProfiler.calls("hashcode_is_valid"));
+
+            map.put("two", 2);
+            assertTrue(map.hashcode_is_valid());
+            map.computeIfAbsent("three", key -> 3); // not tracked one by one: still a new version
+            assertTrue(map.hashcode_is_valid());
+            Iterator<String> keys = map.keySet().iterator(); // the view reports the removal
+            keys.next();
+            keys.remove();
+            assertTrue(map.hashcode_is_valid());
+            map.entrySet().iterator().next().setValue(10); // the size does not change
+            assertTrue(map.hashcode_is_valid());
+            assertEquals(5, ContractProfiler.calls("hashcode_is_valid"));
+
+            @SuppressWarnings("unchecked") // clone() returns a copy of the same map
+            HashMapContracts<String, Integer> copy = (HashMapContracts<String, Integer>) map.clone();
+            copy.put("four", 4);
+            map.put("five", 5); // the same version as the copy, in another state
+            assertTrue(copy.hashcode_is_valid());
+            assertTrue(map.hashcode_is_valid());
+            assertEquals(7, ContractProfiler.calls("hashcode_is_valid"));
+        } finally {
+            ContractProfiler.disable();
+            ContractProfiler.reset();
+        }
+    }
+}
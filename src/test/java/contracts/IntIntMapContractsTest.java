@@ -0,0 +1,82 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class IntIntMapContractsTest {
+
+    @Test
+    void behavesLikeHashMap() {
+        MapContractsTest.assertBehavesLikeHashMap(new IntIntMapContracts(), random -> random.nextInt(2_000) - 1_000);
+    }
+
+    @Test
+    void unboxedOverloads() {
+        IntIntMapContracts map = new IntIntMapContracts(4);
+        assertEquals(0, map.put(0, 10));
+        assertEquals(10, map.put(0, 20));
+        assertEquals(0, map.put(-7, 70));
+        assertTrue(map.containsKey(0));
+        assertEquals(20, map.get(0));
+        assertEquals(0, map.get(1));
+        assertEquals(5, map.getOrDefault(1, 5));
+        assertEquals(70, map.remove(-7));
+        assertEquals(0, map.remove(-7));
+        assertEquals(Map.of(0, 20), map);
+    }
+
+    @Test
+    void postconditionsCompareValuesByEquality() {
+        IntIntMapContracts map = new IntIntMapContracts();
+        Integer key = 1000;
+        Integer value = 2000;
+        assertNull(map.put(key, value));
+        assertTrue(map.contains_entry(null, key, value));
+        assertEquals(value, map.put(key, (Integer) 3000));
+        assertTrue(map.contains_entry(value, key, 3000));
+        assertFalse(map.contains_entry(value, key, 4000));
+        assertTrue(map.contains_all_entries(Map.of(key, 3000)));
+        assertTrue(map.remove(key, (Integer) 3000));
+        assertTrue(map.returns_iff_entry_deleted(true, key, 3000));
+        assertTrue(map.size_decreased_iff_contained_entry(key, 3000));
+    }
+
+    @Test
+    void nullsRejected() {
+        IntIntMapContracts map = new IntIntMapContracts();
+        assertThrows(NullPointerException.class, () -> map.put(null, 1));
+        assertThrows(NullPointerException.class, () -> map.put((Integer) 1, null));
+        assertThrows(NullPointerException.class, () -> map.get(null));
+        assertThrows(NullPointerException.class, () -> map.containsKey(null));
+    }
+
+    @Test
+    void iteratorRemovesAndTombstonesAreReclaimed() {
+        IntIntMapContracts map = new IntIntMapContracts();
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 1_000; i++) {
+                map.put(round * 1_000 + i, i);
+            }
+            Iterator<Map.Entry<Integer, Integer>> entries = map.entrySet().iterator();
+            while (entries.hasNext()) {
+                if (entries.next().getValue() % 2 == 0) {
+                    entries.remove();
+                }
+            }
+            map.keySet().removeIf(key -> key % 2 != 0);
+            assertTrue(map.isEmpty());
+        }
+        map.putAll(Map.of(1, 1, 2, 2));
+        assertEquals(Map.of(), map.old_state());
+        assertTrue(map.size_increased_for_each_key_not_contained(Map.of(1, 1, 2, 2)));
+        map.replaceAll((key, value) -> value * 1_000);
+        assertTrue(map.keys_not_changed());
+        assertEquals(Map.of(1, 1_000, 2, 2_000), map);
+        assertEquals(Map.of(1, 1_000, 2, 2_000).hashCode(), map.hashCode());
+    }
+}
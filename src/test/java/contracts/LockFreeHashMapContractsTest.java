@@ -0,0 +1,203 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class LockFreeHashMapContractsTest extends MapContractsTest {
+
+    private static final int THREADS = 8;
+
+    @Override
+    <K, V> MapContracts<K, V> newMap() {
+        return new LockFreeHashMapContracts<>();
+    }
+
+    private static void runThreads(int count, Runnable... tasks) throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[count];
+        for (int t = 0; t < count; t++) {
+            threads[t] = new Thread(tasks[t % tasks.length]);
+            threads[t].setUncaughtExceptionHandler((thread, e) -> failure.compareAndSet(null, e));
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    @Test
+    void behavesLikeHashMapPerThread() throws InterruptedException {
+        LockFreeHashMapContracts<Integer, Integer> map = new LockFreeHashMapContracts<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Runnable[] tasks = new Runnable[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            Map<Integer, Integer> own = new HashMap<>();
+            tasks[t] = () -> {
+                // each thread owns the keys congruent to it, which share their buckets with the others'
+                Random random = new Random(thread);
+                for (int i = 0; i < 100_000; i++) {
+                    Integer key = random.nextInt(4_000) * THREADS + thread;
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            assertEquals(own.put(key, i), map.put(key, i));
+                            break;
+                        case 1:
+                            assertEquals(own.remove(key), map.remove(key));
+                            break;
+                        case 2:
+                            assertEquals(own.putIfAbsent(key, i), map.putIfAbsent(key, i));
+                            break;
+                        default:
+                            assertEquals(own.get(key), map.get(key));
+                    }
+                }
+                synchronized (expected) {
+                    expected.putAll(own);
+                }
+            };
+        }
+        runThreads(THREADS, tasks);
+        assertEquals(expected, map);
+        assertEquals(expected.size(), map.size());
+        assertTrue(map.hashcode_is_valid());
+    }
+
+    @Test
+    void countsContendedUpdates() throws InterruptedException {
+        LockFreeHashMapContracts<Integer, Integer> map = new LockFreeHashMapContracts<>();
+        runThreads(THREADS, () -> {
+            for (int i = 0; i < 20_000; i++) {
+                map.merge(i & 15, 1, Integer::sum);
+                map.compute(-1, (key, value) -> value == null ? 1 : value + 1);
+            }
+        });
+        for (int key = 0; key < 16; key++) {
+            assertEquals((Integer) (THREADS * 20_000 / 16), map.get(key));
+        }
+        assertEquals((Integer) (THREADS * 20_000), map.get(-1));
+        assertEquals(17, map.size());
+    }
+
+    @Test
+    void writePostconditionsUnderConcurrentWriters() throws InterruptedException {
+        LockFreeHashMapContracts<Integer, Integer> map = new LockFreeHashMapContracts<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        runThreads(4, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 50_000; i++) {
+                Integer key = random.nextInt(256);
+                Integer value = i; // boxed once: the postconditions compare values by identity
+                boolean holds;
+                switch (i % 4) {
+                    case 0:
+                        Integer old = map.put(key, value);
+                        holds = map.contains_entry(old, key, value) && map.size_increases_iff_returns(old);
+                        break;
+                    case 1:
+                        map.remove(key);
+                        holds = map.not_contains_key(key) && map.size_decreases_iff_key_contained(key);
+                        break;
+                    case 2:
+                        map.replace(key, value);
+                        holds = map.size_not_changed() && map.contains_entry_iff_key_contained(key, value);
+                        break;
+                    default:
+                        holds = map.null_if_not_contains_key(map.get(key), key);
+                }
+                if (!holds) {
+                    failed.set(true);
+                }
+            }
+        });
+        assertFalse(failed.get());
+
+        // without concurrent writers, the postconditions still judge the state
+        map.put(1000, 1);
+        assertFalse(map.size_not_changed());
+        map.replace(1000, 2);
+        assertTrue(map.contains_entry_iff_key_contained(1000, 2));
+        assertFalse(map.contains_entry_iff_key_contained(1000, 3));
+        map.get(1000);
+        assertFalse(map.null_if_not_contains_key(3, 1000));
+    }
+
+    @Test
+    void iteratorIsWeaklyConsistent() throws InterruptedException {
+        LockFreeHashMapContracts<Integer, Integer> map = new LockFreeHashMapContracts<>();
+        for (int i = 0; i < 10_000; i++) {
+            map.put(i, i);
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 10_000; !stop.get(); i++) {
+                map.put(i, i);
+                map.remove(i);
+            }
+        });
+        writer.start();
+        try {
+            int stable = 0;
+            Iterator<Map.Entry<Integer, Integer>> entries = map.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Integer, Integer> entry = entries.next();
+                assertEquals(entry.getKey(), entry.getValue());
+                if (entry.getKey() < 10_000) {
+                    stable++;
+                    if (entry.getKey() % 2 == 0) {
+                        entries.remove();
+                    } else {
+                        Integer value = -entry.getKey();
+                        entry.setValue(value);
+                        @SuppressWarnings("unchecked") // the entries of the map are its own contract-checked entries
+                        MapContracts.Entry<Integer, Integer> contracted = (MapContracts.Entry<Integer, Integer>) entry;
+                        assertTrue(contracted.has_value(value));
+                    }
+                }
+            }
+            assertEquals(10_000, stable);
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        assertEquals(5_000, map.size());
+        assertEquals((Integer) (-1), map.get(1));
+        assertFalse(map.containsKey(2));
+    }
+
+    @Test
+    void nullsThrow() {
+        LockFreeHashMapContracts<String, Integer> map = new LockFreeHashMapContracts<>();
+        assertThrows(NullPointerException.class, () -> map.get(null));
+        assertThrows(NullPointerException.class, () -> map.put("one", null));
+        assertFalse(map.entry_not_null("one", null));
+        assertTrue(map.none_null());
+    }
+
+    @Test
+    void isAConcurrentMap() {
+        ConcurrentMap<Integer, Integer> map = new LockFreeHashMapContracts<>();
+        for (int i = 0; i < 1_000; i++) {
+            map.put(i, i);
+        }
+        for (int i = 0; i < 1_000; i += 2) {
+            map.remove(i);
+        }
+        Map<Integer, Integer> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(map, visited);
+        assertEquals(500, visited.size());
+    }
+}
@@ -0,0 +1,35 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class LongObjectMapContractsTest {
+
+    @Test
+    void behavesLikeHashMap() {
+        // keys that differ in their high bits only
+        MapContractsTest.assertBehavesLikeHashMap(new LongObjectMapContracts<>(), random -> (random.nextInt(2_000) - 1_000) * 0x1_0000_0000L);
+    }
+
+    @Test
+    void singleKeyPostconditions() {
+        LongObjectMapContracts<String> map = new LongObjectMapContracts<>();
+        String one = "one";
+        assertNull(map.put(1L, one));
+        assertTrue(map.contains_entry(null, 1L, one));
+        assertNull(map.putIfAbsent(2L, "two"));
+        assertTrue(map.null_if_not_contained_key(null, 2L));
+        assertEquals(one, map.replace(1L, "uno"));
+        assertTrue(map.contains_entry_iff_key_contained(1L, "uno"));
+        assertTrue(map.remove(2L, "two"));
+        assertTrue(map.size_decreased_iff_contained_entry(2L, "two"));
+        assertEquals(Map.of(1L, "uno"), map);
+
+        assertThrows(NullPointerException.class, () -> map.put(3L, null));
+        assertThrows(NullPointerException.class, () -> map.get(null));
+    }
+}
@@ -10,9 +10,82 @@ import static org.junit.jupiter.api.Assertions.*;
 
 class MapContractsTest {
 
+    <K, V> MapContracts<K, V> newMap() {
+        return new HashMapContracts<>();
+    }
+
+    /**
+     * Returns a key for {@link #behavesLikeHashMap()}, from a range narrow enough for the keys to
+     * be written, removed and written again. Implementations override it with keys that stress
+     * their layout.
+     */
+    Object randomKey(Random random) {
+        return random.nextInt(2_000);
+    }
+
+    /**
+     * Runs random writes, removals and lookups against both {@code map} and a {@link HashMap},
+     * and checks that they agree on every call and on the mappings at the end.
+     */
+    static <K> void assertBehavesLikeHashMap(MapContracts<K, Integer> map, Function<Random, K> keys) {
+        Map<K, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            K key = keys.apply(random);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.put(key, i), map.put(key, i));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+                    assertEquals(expected.containsKey(key), map.containsKey(key));
+            }
+        }
+        assertEquals(expected, map);
+        assertEquals(expected.hashCode(), map.hashCode());
+        assertEquals(map.recomputed_entry_hash_sum(), map.entry_hash_sum());
+        assertTrue(map.hashcode_is_valid());
+    }
+
+    @Test
+    void behavesLikeHashMap() {
+        assertBehavesLikeHashMap(newMap(), this::randomKey);
+    }
+
+    @Test
+    void iteratorRemovesAndSetsValues() {
+        MapContracts<Integer, Integer> map = newMap();
+        for (int i = 0; i < 1_000; i++) {
+            map.put(i, i);
+        }
+        Iterator<Map.Entry<Integer, Integer>> entries = map.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, Integer> entry = entries.next();
+            if (entry.getKey() % 2 == 0) {
+                entries.remove();
+            } else {
+                entry.setValue(-entry.getValue());
+                if (entry instanceof MapContracts.Entry) {
+                    assertTrue(((MapContracts.Entry<?, ?>) entry).hashcode_is_valid());
+                }
+            }
+        }
+        assertEquals(500, map.size());
+        assertEquals((Integer) (-1), map.get(1));
+        assertFalse(map.containsKey(2));
+        assertTrue(map.hashcode_is_valid());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+        assertEquals(0, map.hashCode());
+    }
+
     @Test
     void size() {
-        MapContracts<String, Integer> map = new HashMapContracts<>();
+        MapContracts<String, Integer> map = newMap();
         assertEquals(map.size(), 0);
         map.put("one", 1);
         map.put("two", 2);
@@ -23,7 +96,7 @@ class MapContractsTest {
 
     @Test
     void isEmpty() {
-        MapContracts<String, Integer> map = new HashMapContracts<>();
+        MapContracts<String, Integer> map = newMap();
         assertTrue(map.isEmpty());
         map.put("something", 123);
         assertFalse(map.isEmpty());
@@ -31,7 +104,7 @@ class MapContractsTest {
 
     @Test
     void containsKey() {
-        MapContracts<String, Integer> map= new HashMapContracts<>();
+        MapContracts<String, Integer> map= newMap();
         assertFalse(map.containsKey("something"));
         map.put("something", 123);
         map.put("one", 1);
@@ -43,7 +116,7 @@ class MapContractsTest {
 
     @Test
     void containsValue() {
-        MapContracts<String, Integer> map = new HashMapContracts<>();
+        MapContracts<String, Integer> map = newMap();
         assertFalse(map.containsValue(123));
         map.put("something", 123);
         map.put("one", 1);
@@ -55,7 +128,7 @@ class MapContractsTest {
 
     @Test
     void get() {
-        MapContracts<String, Boolean> map = new HashMapContracts<>();
+        MapContracts<String, Boolean> map = newMap();
         assertNull(map.get("true"));
         map.put("true", true);
         map.put("false", false);
@@ -67,7 +140,7 @@ class MapContractsTest {
 
     @Test
     void put() {
-        MapContracts<Integer, String> map = new HashMapContracts<>();
+        MapContracts<Integer, String> map = newMap();
         assertTrue(map.isEmpty());
         map.put(1, "Jan");
         assertFalse(map.isEmpty());
@@ -76,7 +149,7 @@ class MapContractsTest {
 
     @Test
     void remove() {
-        MapContracts<Integer, String> map = new HashMapContracts<>();
+        MapContracts<Integer, String> map = newMap();
         assertTrue(map.isEmpty());
         map.put(1, "Jan");
         map.put(2, "Feb");
@@ -91,8 +164,8 @@ class MapContractsTest {
 
     @Test
     void putAll() {
-        MapContracts<String, String> map1 = new HashMapContracts<>();
-        MapContracts<String, String> map2 = new HashMapContracts<>();
+        MapContracts<String, String> map1 = newMap();
+        MapContracts<String, String> map2 = newMap();
         map1.put("ciao", "hello");
         map1.put("tazza", "mug");
         map1.put("cane", "dog");
@@ -105,7 +178,7 @@ class MapContractsTest {
 
     @Test
     void clear() {
-        MapContracts<Integer, Integer> map = new HashMapContracts<>();
+        MapContracts<Integer, Integer> map = newMap();
         map.put(1, 1);
         map.put(2, 2);
         map.put(3, 3);
@@ -116,7 +189,7 @@ class MapContractsTest {
 
     @Test
     void keySet() {
-        MapContracts<String, Integer> map = new HashMapContracts<>();
+        MapContracts<String, Integer> map = newMap();
         map.put("one", 1);
         map.put("two", 2);
         map.put("three", 3);
@@ -127,7 +200,7 @@ class MapContractsTest {
 
     @Test
     void values() {
-        MapContracts<String, Integer> map = new HashMapContracts<>();
+        MapContracts<String, Integer> map = newMap();
         map.put("one", 1);
         map.put("two", 2);
         map.put("three", 3);
@@ -140,7 +213,7 @@ class MapContractsTest {
 
     @Test
     void entrySet() {
-        MapContracts<String, Integer> map = new HashMapContracts<>();
+        MapContracts<String, Integer> map = newMap();
         map.put("one", 1);
         map.put("two", 2);
         map.put("three", 3);
@@ -150,12 +223,12 @@ class MapContractsTest {
 
     @Test
     void testEquals() {
-        MapContracts<String, Integer> map1 = new HashMapContracts<>();
+        MapContracts<String, Integer> map1 = newMap();
         map1.put("one", 1);
         map1.put("two", 2);
         map1.put("three", 3);
         map1.put("three", 4);
-        MapContracts<String, Integer> map2 = new HashMapContracts<>();
+        MapContracts<String, Integer> map2 = newMap();
         map2.put("one", 1);
         map2.put("two", 2);
         map2.put("three", 3);
@@ -166,12 +239,12 @@ class MapContractsTest {
 
     @Test
     void testHashCode() {
-        MapContracts<Integer, Integer> map1 = new HashMapContracts<>();
+        MapContracts<Integer, Integer> map1 = newMap();
         assertEquals(map1.hashCode(), 0);
         map1.put(1, 2);
         map1.put(2, 3);
         map1.put(3, 4);
-        MapContracts<Integer, Integer> map2 = new HashMapContracts<>();
+        MapContracts<Integer, Integer> map2 = newMap();
         map2.put(1, 2);
         map2.put(2, 3);
         map2.put(3, 4);
@@ -180,7 +253,7 @@ class MapContractsTest {
 
     @Test
     void getOrDefault() {
-        MapContracts<Integer, String> map = new HashMapContracts<>();
+        MapContracts<Integer, String> map = newMap();
         Function<Integer, String> getMonth= (monthNum) -> map.getOrDefault(monthNum, "wrong month");
         assertEquals(getMonth.apply(1), "wrong month");
         map.put(1, "Jan");
@@ -189,7 +262,7 @@ class MapContractsTest {
 
     @Test
     void replaceAll() {
-        MapContracts<Integer, String> map = new HashMapContracts<>();
+        MapContracts<Integer, String> map = newMap();
         BiFunction<Integer, String, String> sumKeyValue = (val, str) -> str.repeat(val);
         map.put(1, "one");
         map.put(2, "two");
@@ -202,7 +275,7 @@ class MapContractsTest {
 
     @Test
     void putIfAbsent() {
-        MapContracts<String, Integer> map = new HashMapContracts<>();
+        MapContracts<String, Integer> map = newMap();
         map.putIfAbsent("one", 1);
         assertNull(map.putIfAbsent("two", 2));
         map.putIfAbsent("three", 3);
@@ -212,7 +285,7 @@ class MapContractsTest {
 
     @Test
     void removeIfContainsEntry() {
-        MapContracts<String, Integer> map = new HashMapContracts<>();
+        MapContracts<String, Integer> map = newMap();
         map.put("one", 1);
         map.put("two", 2);
         map.put("three", 3);
@@ -224,7 +297,7 @@ class MapContractsTest {
 
     @Test
     void replace() {
-        MapContracts<String, Integer> map = new HashMapContracts<>();
+        MapContracts<String, Integer> map = newMap();
         map.put("one", 1);
         map.put("two", 2);
         map.put("three", 3);
@@ -237,7 +310,7 @@ class MapContractsTest {
 
     @Test
     void replaceIfContainsEntry() {
-        MapContracts<String, Integer> map = new HashMapContracts<>();
+        MapContracts<String, Integer> map = newMap();
         map.put("one", 1);
         map.put("two", 2);
         map.put("three", 3);
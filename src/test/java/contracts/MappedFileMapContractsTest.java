@@ -0,0 +1,146 @@
+package contracts;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class MappedFileMapContractsTest extends MapContractsTest {
+
+    private final List<MappedFileMapContracts<?, ?>> opened = new ArrayList<>(); // by newMap()
+
+    @Override
+    <K, V> MapContracts<K, V> newMap() {
+        try {
+            MappedFileMapContracts<K, V> map = MappedFileMapContracts.open(newFile(), Codec.serialized(), Codec.serialized());
+            opened.add(map);
+            return map;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @AfterEach
+    void closeMaps() throws IOException {
+        for (MappedFileMapContracts<?, ?> map : opened) {
+            map.close();
+        }
+        opened.clear();
+    }
+
+    private static Path newFile() throws IOException {
+        Path file = Files.createTempFile("map", ".bin");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    @Test
+    void reopensWhatWasClosed() throws IOException {
+        Path file = newFile();
+        try (MappedFileMapContracts<Integer, String> map = MappedFileMapContracts.open(file, Codec.integers(), Codec.strings())) {
+            for (int i = 0; i < 10_000; i++) {
+                map.put(i, "value-" + i);
+            }
+            map.remove(0);
+        }
+        try (MappedFileMapContracts<Integer, String> map = MappedFileMapContracts.open(file, Codec.integers(), Codec.strings())) {
+            assertEquals(9_999, map.size());
+            assertNull(map.get(0));
+            assertEquals("value-42", map.get(42));
+            assertEquals(map.recomputed_entry_hash_sum(), map.entry_hash_sum());
+        }
+    }
+
+    @Test
+    void recoversWhatWasNotClosed() throws IOException {
+        Path file = newFile();
+        MappedFileMapContracts<Long, Long> crashed = MappedFileMapContracts.open(file, Codec.longs(), Codec.longs(), 1_000);
+        for (long i = 0; i < 1_000; i++) {
+            crashed.put(i, i);
+        }
+        crashed.remove(7L);
+        crashed.put(8L, 80L);
+        // the header still holds the fields of the empty map: only the index and the log are current
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer size = ByteBuffer.allocate(4);
+            channel.read(size, 16);
+            assertEquals(0, size.getInt(0));
+        }
+        try (MappedFileMapContracts<Long, Long> map = MappedFileMapContracts.open(file, Codec.longs(), Codec.longs())) {
+            assertEquals(999, map.size());
+            assertEquals((Long) 80L, map.get(8L));
+            assertFalse(map.containsKey(7L));
+            assertEquals(map.recomputed_entry_hash_sum(), map.entry_hash_sum());
+            assertTrue(map.hashcode_is_valid());
+            map.put(1_000L, 1_000L);
+        }
+    }
+
+    @Test
+    void iteratorSurvivesCompactions() throws IOException {
+        try (MappedFileMapContracts<Integer, String> map = MappedFileMapContracts.open(newFile(), Codec.integers(), Codec.strings())) {
+            String padding = "x".repeat(1_000);
+            for (int i = 0; i < 2_000; i++) {
+                map.put(i, padding);
+            }
+            Iterator<Map.Entry<Integer, String>> entries = map.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Integer, String> entry = entries.next();
+                if (entry.getKey() % 2 == 0) {
+                    entries.remove();
+                } else {
+                    entry.setValue("y");
+                }
+            }
+            assertEquals(1_000, map.size());
+            assertEquals("y", map.get(1));
+            assertFalse(map.containsKey(2));
+        }
+    }
+
+    @Test
+    void auditChecksTheHeaderOnOpen() throws IOException {
+        Path file = newFile();
+        try (MappedFileMapContracts<Integer, Integer> map = MappedFileMapContracts.open(file, Codec.integers(), Codec.integers())) {
+            map.put(1, 1);
+            map.put(2, 2);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 3), 16); // a size the contents disagree with
+        }
+        MappedFileMapContracts.open(file, Codec.integers(), Codec.integers()).close(); // the header is trusted
+        ContractAudit.enable();
+        try {
+            ContractViolation violation = assertThrows(ContractViolation.class,
+                    () -> MappedFileMapContracts.open(file, Codec.integers(), Codec.integers()));
+            assertEquals("size_matches_file", violation.predicate());
+        } finally {
+            ContractAudit.disable();
+        }
+    }
+
+    @Test
+    void rejectsClosedMapsAndForeignFiles() throws IOException {
+        MappedFileMapContracts<Integer, Integer> map = MappedFileMapContracts.open(newFile(), Codec.integers(), Codec.integers());
+        map.close();
+        map.close();
+        assertThrows(IllegalStateException.class, () -> map.get(1));
+
+        Path file = newFile();
+        Files.write(file, new byte[100]);
+        assertThrows(IOException.class, () -> MappedFileMapContracts.open(file, Codec.integers(), Codec.integers()));
+    }
+}
@@ -0,0 +1,49 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class OffHeapMapContractsTest extends MapContractsTest {
+
+    @Override
+    <K, V> MapContracts<K, V> newMap() {
+        return new OffHeapMapContracts<>();
+    }
+
+    @Test
+    void postconditionsCompareDecodedValues() {
+        OffHeapMapContracts<String, String> map = new OffHeapMapContracts<>(Codec.strings(), Codec.strings());
+        String value = "one";
+        assertNull(map.put("key", value));
+        assertNotSame(value, map.get("key"));
+        assertTrue(map.contains_entry(null, "key", value));
+        assertEquals(value, map.replace("key", "two"));
+        assertTrue(map.contains_entry_iff_key_contained("key", "two"));
+        assertTrue(map.remove("key", "two"));
+        assertTrue(map.returns_iff_entry_deleted(true, "key", "two"));
+        assertThrows(NullPointerException.class, () -> map.put("key", null));
+        assertThrows(NullPointerException.class, () -> map.get(null));
+    }
+
+    @Test
+    void oldStateSharesRecords() {
+        OffHeapMapContracts<Long, Long> map = new OffHeapMapContracts<>(Codec.longs(), Codec.longs());
+        map.put(1L, 1L);
+        map.putAll(Map.of(2L, 2L));
+        assertEquals(Map.of(1L, 1L), map.old_state());
+        assertTrue(map.size_increased_for_each_key_not_contained(Map.of(2L, 2L)));
+
+        for (long i = 0; i < 10_000; i++) {
+            map.put(1L, i); // garbage enough for several compactions
+        }
+        map.replaceAll((key, value) -> value + key);
+        assertEquals(Map.of(1L, 10_000L, 2L, 4L), map);
+        assertEquals(Map.of(1L, 9_999L, 2L, 2L), map.old_state());
+        assertTrue(map.keys_not_changed());
+        assertTrue(map.size_not_changed_by_all());
+    }
+}
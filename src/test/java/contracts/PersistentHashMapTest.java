@@ -0,0 +1,92 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class PersistentHashMapTest {
+
+    /**
+     * A key with a poor hash code, to exercise collision nodes.
+     */
+    private static final class Colliding {
+        final int id;
+
+        Colliding(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Colliding && ((Colliding) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 7;
+        }
+    }
+
+    @Test
+    void plusAndMinusMatchHashMap() {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map);
+        assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+    @Test
+    void oldVersionsAreUnchanged() {
+        PersistentHashMap<String, Integer> empty = PersistentHashMap.empty();
+        PersistentHashMap<String, Integer> one = empty.plus("one", 1);
+        PersistentHashMap<String, Integer> two = one.plus("two", 2);
+        PersistentHashMap<String, Integer> replaced = two.plus("one", 11);
+        PersistentHashMap<String, Integer> removed = replaced.minus("two");
+
+        assertTrue(empty.isEmpty());
+        assertEquals(Map.of("one", 1), one);
+        assertEquals(Map.of("one", 1, "two", 2), two);
+        assertEquals(Map.of("one", 11, "two", 2), replaced);
+        assertEquals(Map.of("one", 11), removed);
+        assertSame(removed, removed.minus("missing"));
+    }
+
+    @Test
+    void collisionsAndNulls() {
+        PersistentHashMap<Object, Object> map = PersistentHashMap.empty();
+        for (int i = 0; i < 100; i++) {
+            map = map.plus(new Colliding(i), i);
+        }
+        map = map.plus(null, null);
+        assertEquals(101, map.size());
+        assertTrue(map.containsKey(null));
+        assertNull(map.get(null));
+        assertEquals((Object) 42, map.get(new Colliding(42)));
+
+        for (int i = 0; i < 100; i += 2) {
+            map = map.minus(new Colliding(i));
+        }
+        map = map.minus(null);
+        assertEquals(50, map.size());
+        assertFalse(map.containsKey(new Colliding(42)));
+        assertEquals((Object) 43, map.get(new Colliding(43)));
+        assertEquals(50, map.entrySet().stream().count());
+    }
+}
@@ -0,0 +1,66 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class PredicateMemoTest {
+
+    @Test
+    void keyedByVersionAndArgumentIdentity() {
+        PredicateMemo memo = new PredicateMemo(16);
+        String key = "key";
+        memo.hold("returns_iff_key_exists", 3, true, key, null);
+
+        assertTrue(memo.held("returns_iff_key_exists", 3, true, key, null));
+        assertFalse(memo.held("returns_iff_key_exists", 4, true, key, null));
+        assertFalse(memo.held("returns_iff_key_exists", 3, false, key, null));
+        assertFalse(memo.held("returns_iff_key_exists", 3, true, new String(key), null));
+        assertFalse(memo.held("null_if_not_contains_key", 3, true, key, null));
+    }
+
+    @Test
+    void evictsOlderVersionsThenLeastRecentlyUsed() {
+        PredicateMemo memo = new PredicateMemo(4); // a single set
+        Object[] args = {new Object(), new Object(), new Object(), new Object(), new Object()};
+        memo.hold("p", 1, args[0], null, null);
+        for (int i = 1; i < 4; i++) {
+            memo.hold("p", 2, args[i], null, null);
+        }
+        memo.hold("p", 2, args[4], null, null); // replaces the entry of version 1
+        assertFalse(memo.held("p", 1, args[0], null, null));
+        for (int i = 1; i < 5; i++) {
+            assertTrue(memo.held("p", 2, args[i], null, null));
+        }
+
+        assertTrue(memo.held("p", 2, args[1], null, null)); // args[2] is now the least recently used
+        memo.hold("p", 2, args[0], null, null);
+        assertFalse(memo.held("p", 2, args[2], null, null));
+        assertTrue(memo.held("p", 2, args[1], null, null));
+        assertTrue(memo.held("p", 2, args[0], null, null));
+    }
+
+    @Test
+    void postconditionsEvaluatedOncePerState() {
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        String key = "one";
+        map.put(key, 1);
+        ContractProfiler.enable();
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(map.key_set_of_same_size(map.keySet()));
+                assertTrue(map.returns_iff_key_exists(map.containsKey(key), key));
+            }
+            assertEquals(1, ContractProfiler.calls("key_set_of_same_size"));
+            assertEquals(1, ContractProfiler.calls("returns_iff_key_exists"));
+
+            map.put("two", 2);
+            assertTrue(map.key_set_of_same_size(map.keySet()));
+            assertEquals(2, ContractProfiler.calls("key_set_of_same_size"));
+        } finally {
+            ContractProfiler.disable();
+            ContractProfiler.reset();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class RobinHoodMapContractsTest extends MapContractsTest {
+
+    @Override
+    <K, V> MapContracts<K, V> newMap() {
+        return new RobinHoodMapContracts<>();
+    }
+
+    /**
+     * A key with few distinct hash codes, for long clusters of colliding keys.
+     */
+    private static final class Colliding {
+        private final int id;
+
+        Colliding(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Colliding && ((Colliding) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 7;
+        }
+    }
+
+    @Override
+    Object randomKey(Random random) {
+        return new Colliding(random.nextInt(500));
+    }
+
+    @Test
+    void iteratorRemovesAcrossShiftedClusters() {
+        RobinHoodMapContracts<Integer, Integer> map = new RobinHoodMapContracts<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5_000; i++) {
+            int key = random.nextInt();
+            map.put(key, i);
+            expected.put(key, i);
+        }
+        int visited = 0;
+        Iterator<Map.Entry<Integer, Integer>> entries = map.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, Integer> entry = entries.next();
+            assertEquals(expected.get(entry.getKey()), entry.getValue());
+            visited++;
+            if (entry.getValue() % 3 != 0) {
+                entries.remove(); // shifts the rest of the cluster onto this slot
+                expected.remove(entry.getKey());
+            }
+        }
+        assertEquals(5_000, visited);
+        assertEquals(expected, map);
+    }
+
+    @Test
+    void entriesCarryTheEntryContracts() {
+        RobinHoodMapContracts<String, Integer> map = new RobinHoodMapContracts<>();
+        map.put(null, 0);
+        map.put("one", 1);
+        map.put("two", null);
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            @SuppressWarnings("unchecked") // the entries of the map are its own contract-checked entries
+            MapContracts.Entry<String, Integer> contracted = (MapContracts.Entry<String, Integer>) entry;
+            assertTrue(contracted.hashcode_is_valid());
+            Integer value = 42;
+            entry.setValue(value);
+            assertTrue(contracted.has_value(value));
+            Map.Entry<String, Integer> copy = new AbstractMap.SimpleEntry<>(entry.getKey(), value);
+            assertEquals(copy, entry);
+            assertTrue(contracted.returns_same_hashcode(entry.equals(copy), copy));
+        }
+        assertEquals(3, map.size());
+        assertEquals((Integer) 42, map.get(null));
+        assertEquals((Integer) 42, map.get("two"));
+        assertTrue(map.entrySet().remove(new AbstractMap.SimpleEntry<>("one", 42)));
+        assertFalse(map.containsKey("one"));
+    }
+}
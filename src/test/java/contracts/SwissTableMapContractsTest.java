@@ -0,0 +1,39 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class SwissTableMapContractsTest extends MapContractsTest {
+
+    @Override
+    <K, V> MapContracts<K, V> newMap() {
+        return new SwissTableMapContracts<>();
+    }
+
+    @Override
+    Object randomKey(Random random) {
+        // keys in multiples of 1024 share their low bits, and a narrow range keeps groups full
+        return random.nextInt(2_000) << 10;
+    }
+
+    @Test
+    void findsEveryKeyOfAFullGroup() {
+        SwissTableMapContracts<String, Integer> map = new SwissTableMapContracts<>();
+        for (int i = 0; i < 7; i++) {
+            map.put("key-" + i, i); // seven of the eight slots of the single group
+        }
+        for (int i = 0; i < 7; i++) {
+            assertEquals((Integer) i, map.get("key-" + i));
+        }
+        assertNull(map.get("key-7"));
+        map.put(null, -1);
+        assertEquals(8, map.size());
+        assertEquals((Integer) (-1), map.get(null));
+        assertEquals((Integer) 6, map.remove("key-6"));
+        assertFalse(map.containsKey("key-6"));
+    }
+}
@@ -0,0 +1,55 @@
+package contracts;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class WriteBatchTest {
+
+    @Test
+    void appliesLastWritePerKey() {
+        HashMapContracts<String, Integer> map = new HashMapContracts<>();
+        map.put("one", 1);
+        map.put("two", 2);
+        map.setIncrementalHashCode(true);
+
+        WriteBatch<String, Integer> batch = new WriteBatch<String, Integer>()
+                .put("three", 3)
+                .remove("one")
+                .putAll(Map.of("four", 4, "five", 5))
+                .remove("five")
+                .put("two", null)
+                .remove("missing");
+        assertEquals(6, batch.size());
+        map.apply(batch);
+
+        assertEquals((Integer) 3, map.get("three"));
+        assertEquals((Integer) 4, map.get("four"));
+        assertFalse(map.containsKey("one"));
+        assertFalse(map.containsKey("five"));
+        assertTrue(map.containsKey("two"));
+        assertNull(map.get("two"));
+        assertEquals(3, map.size());
+        assertTrue(map.batch_applied(batch));
+        assertTrue(map.hashcode_is_valid());
+        assertEquals(map.recomputed_entry_hash_sum(), map.entry_hash_sum());
+
+        map.put("six", 6);
+        assertFalse(map.batch_applied(batch));
+    }
+
+    @Test
+    void concurrentMapRejectsNullsBeforeWriting() {
+        ConcurrentHashMapContracts<String, Integer> map = new ConcurrentHashMapContracts<>();
+        WriteBatch<String, Integer> batch = new WriteBatch<String, Integer>().put("one", 1).put("two", null);
+        assertThrows(NullPointerException.class, () -> map.apply(batch));
+        assertTrue(map.isEmpty());
+
+        map.put("zero", 0);
+        map.apply(new WriteBatch<String, Integer>().put("one", 1).remove("zero"));
+        assertEquals(Map.of("one", 1), map);
+    }
+}